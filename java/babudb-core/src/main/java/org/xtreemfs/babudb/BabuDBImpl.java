@@ -19,11 +19,18 @@ import static org.xtreemfs.babudb.log.LogEntry.PAYLOAD_TYPE_TRANSACTION;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.xtreemfs.babudb.api.BabuDB;
 import org.xtreemfs.babudb.api.StaticInitialization;
@@ -71,8 +78,17 @@ import org.xtreemfs.foundation.logging.Logging.Category;
  */
 public class BabuDBImpl implements BabuDBInternal {
     
+    private static final String           RUNTIME_STATE_COALESCEDINSERTS = "worker.coalescedInserts";
+    
+    private static final String           RUNTIME_STATE_PROCESSEDINSERTS = "worker.processedInserts";
+    
     private LSMDBWorker[]                 worker;
     
+    /**
+     * executes lookups if they bypass the workers, null otherwise
+     */
+    private volatile Executor             readExecutor;
+    
     /**
      * the disk logger is used to write InsertRecordGroups persistently to disk
      */
@@ -148,7 +164,8 @@ public class BabuDBImpl implements BabuDBInternal {
     BabuDBImpl(BabuDBConfig configuration) throws BabuDBException {
         
         this.configuration = configuration;
-        this.responseManager = new ResponseManagerImpl(configuration.getMaxQueueLength());
+        this.responseManager = new ResponseManagerImpl(configuration.getMaxQueueLength(),
+            configuration.getResponseThreads());
         this.txnMan = new TransactionManagerImpl(configuration.getSyncMode().equals(SyncMode.ASYNC));
         this.databaseManager = new DatabaseManagerImpl(this);
         this.dbConfigFile = new DBConfig(this);
@@ -201,9 +218,9 @@ public class BabuDBImpl implements BabuDBInternal {
             
             // set up and start the disk logger
             try {
-                logger = new DiskLogger(configuration.getDbLogDir(), nextLSN, configuration.getSyncMode(),
+                logger = new DiskLogger(configuration.getDbLogDirs(), nextLSN, configuration.getSyncMode(),
                     configuration.getPseudoSyncWait(), configuration.getMaxQueueLength()
-                        * Math.max(1, configuration.getNumThreads()));
+                        * Math.max(1, configuration.getNumThreads()), configuration.getLogTailCacheSize());
                 logger.setLifeCycleListener(this);
                 logger.start();
                 logger.waitForStartup();
@@ -225,6 +242,7 @@ public class BabuDBImpl implements BabuDBInternal {
                 
                 worker = null;
             }
+            startReadExecutor();
             
             if (dbConfigFile.isConversionRequired())
                 AutoConverter.completeConversion(this);
@@ -279,6 +297,7 @@ public class BabuDBImpl implements BabuDBInternal {
             if (worker != null)
                 for (LSMDBWorker w : worker)
                     w.shutdown();
+            stopReadExecutor();
             
             try {
                 dbCheckptr.suspendCheckpointing();
@@ -346,9 +365,9 @@ public class BabuDBImpl implements BabuDBInternal {
                     "log replay done, " + "using LSN: " + nextLSN);
             
             try {
-                logger = new DiskLogger(configuration.getDbLogDir(), nextLSN, configuration.getSyncMode(),
+                logger = new DiskLogger(configuration.getDbLogDirs(), nextLSN, configuration.getSyncMode(),
                     configuration.getPseudoSyncWait(), configuration.getMaxQueueLength()
-                        * configuration.getNumThreads());
+                        * configuration.getNumThreads(), configuration.getLogTailCacheSize());
                 logger.setLifeCycleListener(this);
                 logger.start();
                 logger.waitForStartup();
@@ -372,6 +391,7 @@ public class BabuDBImpl implements BabuDBInternal {
                 
                 worker = null;
             }
+            startReadExecutor();
             
             // restart the checkpointer
             this.dbCheckptr.init(logger, configuration.getCheckInterval(), configuration.getMaxLogfileSize());
@@ -404,6 +424,7 @@ public class BabuDBImpl implements BabuDBInternal {
                 w.shutdown(graceful);
             }
         }
+        stopReadExecutor();
         
         // stop the plugin threads
         BabuDBException exc = null;
@@ -475,6 +496,7 @@ public class BabuDBImpl implements BabuDBInternal {
             if (worker != null)
                 for (LSMDBWorker w : worker)
                     w.stop();
+            stopReadExecutor();
             this.dbCheckptr.shutdown();
             this.databaseManager.shutdown();
             this.snapshotManager.shutdown();
@@ -555,6 +577,15 @@ public class BabuDBImpl implements BabuDBInternal {
         if (property.startsWith("diskLogger"))
             return logger.getRuntimeState(property);
 
+        if (property.startsWith("responseManager"))
+            return responseManager.getRuntimeState(property);
+        
+        if (RUNTIME_STATE_COALESCEDINSERTS.equals(property))
+            return getCoalescedInserts();
+        
+        if (RUNTIME_STATE_PROCESSEDINSERTS.equals(property))
+            return getProcessedInserts();
+        
         return null;
     }
     
@@ -570,10 +601,42 @@ public class BabuDBImpl implements BabuDBInternal {
         info.putAll(dbCheckptr.getRuntimeState());
         info.putAll(databaseManager.getRuntimeState());
         info.putAll(logger.getRuntimeState());
+        info.putAll(responseManager.getRuntimeState());
+        info.put(RUNTIME_STATE_COALESCEDINSERTS, getCoalescedInserts());
+        info.put(RUNTIME_STATE_PROCESSEDINSERTS, getProcessedInserts());
         
         return info;
     }
     
+    /**
+     * @return the number of inserts that the workers have coalesced with
+     *         preceding inserts into a single log entry
+     */
+    private long getCoalescedInserts() {
+        
+        LSMDBWorker[] workers = worker;
+        long count = 0;
+        if (workers != null)
+            for (LSMDBWorker w : workers)
+                count += w.getCoalescedInserts();
+        
+        return count;
+    }
+    
+    /**
+     * @return the number of inserts that each worker has processed, indexed by
+     *         the worker ID
+     */
+    private long[] getProcessedInserts() {
+        
+        LSMDBWorker[] workers = worker;
+        long[] counts = new long[workers == null ? 0 : workers.length];
+        for (int i = 0; i < counts.length; i++)
+            counts[i] = workers[i].getProcessedInserts();
+        
+        return counts;
+    }
+    
     /*
      * (non-Javadoc)
      * 
@@ -616,6 +679,70 @@ public class BabuDBImpl implements BabuDBInternal {
         return worker.length;
     }
     
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.xtreemfs.babudb.api.dev.BabuDBInternal#getReadExecutor()
+     */
+    @Override
+    public Executor getReadExecutor() {
+        return readExecutor;
+    }
+    
+    /**
+     * Sets up the executor for lookups that bypass the workers, according to
+     * the configured number of read threads. If virtual threads are enabled
+     * and supported by the JVM, each lookup is executed on a new virtual
+     * thread.
+     */
+    private void startReadExecutor() {
+        
+        if (configuration.getVirtualThreads()) {
+            try {
+                readExecutor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+                        .invoke(null);
+                return;
+            } catch (Throwable exc) {
+                // not available before Java 21
+                Logging.logMessage(Logging.LEVEL_WARN, Category.babudb, this,
+                    "virtual threads are not supported by this JVM, using %d read threads", configuration
+                            .getReadThreads());
+            }
+        }
+        
+        int numThreads = configuration.getReadThreads();
+        if (numThreads < 0) {
+            readExecutor = null;
+        } else if (numThreads == 0) {
+            readExecutor = new Executor() {
+                public void execute(Runnable command) {
+                    command.run();
+                }
+            };
+        } else {
+            final AtomicInteger threadCount = new AtomicInteger();
+            readExecutor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+                
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "LSMDBReader#" + threadCount.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+    }
+    
+    /**
+     * Shuts down the executor for lookups, if necessary. Pending lookups are
+     * still executed.
+     */
+    private void stopReadExecutor() {
+        
+        Executor executor = readExecutor;
+        if (executor instanceof ExecutorService)
+            ((ExecutorService) executor).shutdown();
+    }
+    
     /*
      * (non-Javadoc)
      * 
@@ -642,14 +769,24 @@ public class BabuDBImpl implements BabuDBInternal {
     private LSN replayLogs(LSN from) throws BabuDBException {
         
         try {
-            File f = new File(configuration.getDbLogDir());
-            File[] logFiles = f.listFiles(new FilenameFilter() {
-                public boolean accept(File dir, String name) {
-                    return name.endsWith(".dbl");
-                }
-            });
+            // collect the log files of all stripes
+            List<File> logFiles = new ArrayList<File>();
+            for (String logDir : configuration.getDbLogDirs()) {
+                File[] files = new File(logDir).listFiles(new FilenameFilter() {
+                    public boolean accept(File dir, String name) {
+                        return name.endsWith(".dbl");
+                    }
+                });
+                if (files != null)
+                    logFiles.addAll(Arrays.asList(files));
+            }
+            
+            long logSize = 0;
+            for (File logFile : logFiles)
+                logSize += logFile.length();
+            long start = System.currentTimeMillis();
             
-            DiskLogIterator it = new DiskLogIterator(logFiles, from);
+            DiskLogIterator it = new DiskLogIterator(logFiles.toArray(new File[logFiles.size()]), from);
             LSN nextLSN = null;
             
             // apply log entries to databases ...
@@ -683,7 +820,7 @@ public class BabuDBImpl implements BabuDBInternal {
                         
                         // execute the in-memory logic
                         try {
-                            processingLogic.process(operation);
+                            processingLogic.replay(operation, le.getLSN());
                         } catch (BabuDBException be) {
                             
                             // there might be false positives if a snapshot to
@@ -730,8 +867,14 @@ public class BabuDBImpl implements BabuDBInternal {
                 
             }
             
+            // entries behind a gap in a striped log have never been
+            // acknowledged and must not be replayed later on
+            it.discardUnreachableEntries();
             it.destroy();
             
+            // allows the checkpointer to estimate the replay time of the log
+            dbCheckptr.replayCompleted(logSize, System.currentTimeMillis() - start);
+            
             if (nextLSN != null) {
                 return nextLSN;
             } else {
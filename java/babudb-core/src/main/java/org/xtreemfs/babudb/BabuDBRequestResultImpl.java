@@ -10,7 +10,11 @@
  */
 package org.xtreemfs.babudb;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.xtreemfs.babudb.api.database.DatabaseRequestListener;
 import org.xtreemfs.babudb.api.database.DatabaseRequestResult;
@@ -32,6 +36,12 @@ public class BabuDBRequestResultImpl<T> implements DatabaseRequestResult<T> {
     private final ResponseManagerInternal       respMan;
     
     private DatabaseRequestListener<T>          listener; 
+    
+    /**
+     * the executor invoking the listener, or <code>null</code> if the listener
+     * is invoked by the response manager
+     */
+    private Executor                            listenerExecutor;
 
     private T                                   result;
     
@@ -39,6 +49,15 @@ public class BabuDBRequestResultImpl<T> implements DatabaseRequestResult<T> {
     
     private final AtomicBoolean                 finished = new AtomicBoolean(false);
     
+    /**
+     * guards the completion of the request; a j.u.c. lock is used instead of
+     * the monitor, so that virtual threads waiting for the result do not pin
+     * their carrier thread
+     */
+    private final ReentrantLock                 lock = new ReentrantLock();
+    
+    private final Condition                     done = lock.newCondition();
+    
     protected final Object                      context;
     
     private LSN                                 assignedLSN = null;
@@ -145,15 +164,20 @@ public class BabuDBRequestResultImpl<T> implements DatabaseRequestResult<T> {
         this.assignedLSN = lsn;
         
         // notify the synchronously waiting instances
-        synchronized (finished) {
+        lock.lock();
+        try {
             boolean check = finished.compareAndSet(false, true);
             assert (check) : "The request was already finished!";
             
-            finished.notifyAll();
+            done.signalAll();
+        } finally {
+            lock.unlock();
         }
         
         // notify the asynchronous-listener
-        if (listener != null) {
+        if (listener != null && listenerExecutor != null) {
+            notifyListener(listener, listenerExecutor);
+        } else if (listener != null) {
             try {
                 respMan.enqueueResponse(listener, error, result, context);
             } catch (InterruptedException e) {
@@ -162,6 +186,28 @@ public class BabuDBRequestResultImpl<T> implements DatabaseRequestResult<T> {
         }
     }
 
+    /**
+     * Hands over the notification of a listener to the given executor.
+     * 
+     * @param l
+     * @param executor
+     */
+    private void notifyListener(final DatabaseRequestListener<T> l, Executor executor) {
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    if (error == null) {
+                        l.finished(result, context);
+                    } else {
+                        l.failed(error, context);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Logging.logError(Logging.LEVEL_ERROR, this, e);
+        }
+    }
+    
 /*
  * DatabaseRequestResult interface
  */
@@ -170,28 +216,58 @@ public class BabuDBRequestResultImpl<T> implements DatabaseRequestResult<T> {
      * @see org.xtreemfs.babudb.api.database.DatabaseRequestResult#registerListener(org.xtreemfs.babudb.api.database.DatabaseRequestListener)
      */
     public void registerListener(DatabaseRequestListener<T> listener) {
-        synchronized (finished) {
+        lock.lock();
+        try {
             assert (this.listener == null) : "There is already a listener registered!";
-            if (finished.get()) {
-                if (error == null) {
-                    listener.finished(result,context);
-                } else {
-                    listener.failed(error,context);
-                }
-            } else {
+            if (!finished.get()) {
                 this.listener = listener;
+                return;
             }
+        } finally {
+            lock.unlock();
+        }
+        
+        // the request has already been finished; the listener is invoked 
+        // without holding the lock
+        if (error == null) {
+            listener.finished(result,context);
+        } else {
+            listener.failed(error,context);
         }
     }
     
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseRequestResult#registerListener(org.xtreemfs.babudb.api.database.DatabaseRequestListener, java.util.concurrent.Executor)
+     */
+    public void registerListener(DatabaseRequestListener<T> listener, Executor executor) {
+        lock.lock();
+        try {
+            assert (this.listener == null) : "There is already a listener registered!";
+            if (!finished.get()) {
+                this.listenerExecutor = executor;
+                this.listener = listener;
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        
+        notifyListener(listener, executor);
+    }
+    
     /* (non-Javadoc)
      * @see org.xtreemfs.babudb.api.database.DatabaseRequestResult#get()
      */
     public T get() throws BabuDBException {
         try {
-            synchronized (finished) {
-                if (!finished.get()) {
-                    finished.wait(); 
+            if (!finished.get()) {
+                lock.lock();
+                try {
+                    while (!finished.get()) {
+                        done.await(); 
+                    }
+                } finally {
+                    lock.unlock();
                 }
             }
         } catch (InterruptedException e) {
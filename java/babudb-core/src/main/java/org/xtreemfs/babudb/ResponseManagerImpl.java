@@ -7,35 +7,84 @@
  */
 package org.xtreemfs.babudb;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.xtreemfs.babudb.api.database.DatabaseRequestListener;
 import org.xtreemfs.babudb.api.dev.ResponseManagerInternal;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
+import org.xtreemfs.foundation.logging.Logging;
 
 /**
  * Thread to process response handles for BabuDB request futures. This is necessary to decouple internal BabuDB 
  * threads from user listeners. It does not prevent user listeners from deadlock by them selves.
  * 
+ * Responses are distributed across a configurable number of dispatcher threads, each of which has a queue of its
+ * own. Responses with the same context, or without a context to the same listener, are always assigned to the same
+ * dispatcher, so that they are delivered in the order in which they have been enqueued. If the number of
+ * dispatchers is 0, listeners are notified directly by the thread enqueueing the response.
+ * 
  * @author flangner
  * @since 05/29/2011
  */
 public class ResponseManagerImpl extends ResponseManagerInternal {
 
-    private final BlockingQueue<ResponseRecord<?>>      queue;
+    private static final String                         RUNTIME_STATE_QUEUELENGTH = "responseManager.queueLength";
+    
+    private static final String                         RUNTIME_STATE_DISPATCHED  = "responseManager.dispatchedResponses";
+    
+    private static final String                         RUNTIME_STATE_AVGLATENCY  = "responseManager.avgLatencyMicros";
+    
+    private static final String                         RUNTIME_STATE_NUMTHREADS  = "responseManager.numThreads";
+    
+    private final List<BlockingQueue<ResponseRecord<?>>> queues;
+    
+    /**
+     * Additional dispatchers; the first queue is processed by the response manager thread itself.
+     */
+    private final Dispatcher[]                          dispatchers;
+    
+    private final boolean                               inline;
+    
+    private final AtomicLong                            dispatched = new AtomicLong();
+    
+    private final AtomicLong                            latency    = new AtomicLong();
     
-    private boolean                                     quit = true;
+    private volatile boolean                            quit = true;
     
     /**
      * @param max_Q - max length of the queue.
      */
     public ResponseManagerImpl(int max_Q) {
+        this(max_Q, 1);
+    }
+    
+    /**
+     * @param max_Q - max length of the queue of each dispatcher.
+     * @param numThreads - number of dispatcher threads; if 0, listeners are notified inline.
+     */
+    public ResponseManagerImpl(int max_Q, int numThreads) {
         super();
-        if (max_Q > 0) {
-            queue = new LinkedBlockingQueue<ResponseRecord<?>>(max_Q);
-        } else {
-            queue = new LinkedBlockingQueue<ResponseRecord<?>>();
+        assert (numThreads >= 0);
+        
+        inline = numThreads == 0;
+        queues = new ArrayList<BlockingQueue<ResponseRecord<?>>>(Math.max(numThreads, 1));
+        for (int i = 0; i < Math.max(numThreads, 1); i++) {
+            if (max_Q > 0) {
+                queues.add(new LinkedBlockingQueue<ResponseRecord<?>>(max_Q));
+            } else {
+                queues.add(new LinkedBlockingQueue<ResponseRecord<?>>());
+            }
+        }
+        
+        dispatchers = new Dispatcher[queues.size() - 1];
+        for (int i = 0; i < dispatchers.length; i++) {
+            dispatchers[i] = new Dispatcher(i + 1);
         }
     }
 
@@ -51,7 +100,45 @@ public class ResponseManagerImpl extends ResponseManagerInternal {
         
         assert (result == null || error == null && result != error);
         
-        queue.put(new ResponseRecord<T>(listener, error, result, context));
+        ResponseRecord<T> respRec = new ResponseRecord<T>(listener, error, result, context);
+        if (inline) {
+            dispatch(respRec);
+        } else if (queues.size() == 1) {
+            queues.get(0).put(respRec);
+        } else {
+            int hash = context != null ? context.hashCode() : System.identityHashCode(listener);
+            queues.get((hash & Integer.MAX_VALUE) % queues.size()).put(respRec);
+        }
+    }
+    
+    /**
+     * @param property
+     * @return the value of the given runtime state property, or null if the property is unknown.
+     */
+    public Object getRuntimeState(String property) {
+        
+        if (RUNTIME_STATE_QUEUELENGTH.equals(property))
+            return getQueueLength();
+        if (RUNTIME_STATE_DISPATCHED.equals(property))
+            return dispatched.get();
+        if (RUNTIME_STATE_AVGLATENCY.equals(property))
+            return getAverageLatency();
+        if (RUNTIME_STATE_NUMTHREADS.equals(property))
+            return inline ? 0 : queues.size();
+        return null;
+    }
+    
+    /**
+     * @return all runtime state properties of the response manager.
+     */
+    public Map<String, Object> getRuntimeState() {
+        
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put(RUNTIME_STATE_QUEUELENGTH, getQueueLength());
+        map.put(RUNTIME_STATE_DISPATCHED, dispatched.get());
+        map.put(RUNTIME_STATE_AVGLATENCY, getAverageLatency());
+        map.put(RUNTIME_STATE_NUMTHREADS, inline ? 0 : queues.size());
+        return map;
     }
     
     /* (non-Javadoc)
@@ -60,6 +147,9 @@ public class ResponseManagerImpl extends ResponseManagerInternal {
     @Override
     public synchronized void start() {
         quit = false;
+        for (Dispatcher dispatcher : dispatchers) {
+            dispatcher.start();
+        }
         super.start();
     }
     
@@ -69,6 +159,9 @@ public class ResponseManagerImpl extends ResponseManagerInternal {
     @Override
     public synchronized void shutdown() throws Exception {
         quit = true;
+        for (Dispatcher dispatcher : dispatchers) {
+            dispatcher.interrupt();
+        }
         interrupt();
     }
     
@@ -76,29 +169,122 @@ public class ResponseManagerImpl extends ResponseManagerInternal {
      * @see java.lang.Thread#run()
      */
     @Override
-    @SuppressWarnings("unchecked")
     public void run() {
         
-        ResponseRecord respRec = null;
         notifyStarted();
         
+        try {
+            processQueue(queues.get(0));
+        } catch (InterruptedException e) {
+            if (!quit) {
+                notifyCrashed(e);
+            }
+        }
+        
+        for (Dispatcher dispatcher : dispatchers) {
+            try {
+                dispatcher.join();
+            } catch (InterruptedException e) {
+                Logging.logError(Logging.LEVEL_DEBUG, this, e);
+            }
+        }
+        
+        notifyStopped();
+    }
+    
+    /**
+     * Notifies the listeners of the responses from the given queue until the response manager is shut down.
+     * 
+     * @param queue
+     * @throws InterruptedException if the thread was interrupted before the response manager was shut down.
+     */
+    private void processQueue(BlockingQueue<ResponseRecord<?>> queue) throws InterruptedException {
+        
         while (!quit) {
             try {
-                respRec = queue.take();
-                
-                if (respRec.error == null) {
-                    respRec.listener.finished(respRec.result, respRec.context);
-                } else {
-                    respRec.listener.failed(respRec.error, respRec.context);
-                }
+                dispatch(queue.take());
             } catch (InterruptedException e) {
                 if (!quit) {
-                    notifyCrashed(e);
+                    throw e;
                 }
             }
         }
+    }
+    
+    /**
+     * Notifies the listener of a response.
+     * 
+     * @param respRec
+     */
+    private void dispatch(ResponseRecord<?> respRec) {
+        
+        latency.addAndGet(System.nanoTime() - respRec.enqueued);
+        dispatched.incrementAndGet();
+        
+        try {
+            notifyListener(respRec);
+        } catch (RuntimeException e) {
+            // a failing listener must not stop the delivery of subsequent responses
+            Logging.logError(Logging.LEVEL_ERROR, this, e);
+        }
+    }
+    
+    /**
+     * Passes the result or error of a response to its listener.
+     * 
+     * @param <T>
+     * @param respRec
+     */
+    private static <T> void notifyListener(ResponseRecord<T> respRec) {
         
-        notifyStopped();
+        if (respRec.error == null) {
+            respRec.listener.finished(respRec.result, respRec.context);
+        } else {
+            respRec.listener.failed(respRec.error, respRec.context);
+        }
+    }
+    
+    private int getQueueLength() {
+        
+        int length = 0;
+        for (BlockingQueue<ResponseRecord<?>> queue : queues) {
+            length += queue.size();
+        }
+        return length;
+    }
+    
+    /**
+     * @return the average time in microseconds between enqueueing a response and notifying the listener.
+     */
+    private long getAverageLatency() {
+        
+        long count = dispatched.get();
+        return count == 0 ? 0 : latency.get() / count / 1000;
+    }
+    
+    /**
+     * Additional thread notifying the listeners of the responses from one of the queues.
+     */
+    private final class Dispatcher extends Thread {
+        
+        private final int index;
+        
+        private Dispatcher(int index) {
+            super("RspMan-" + index);
+            this.index = index;
+        }
+        
+        /* (non-Javadoc)
+         * @see java.lang.Thread#run()
+         */
+        @Override
+        public void run() {
+            try {
+                processQueue(queues.get(index));
+            } catch (InterruptedException e) {
+                notifyCrashed(e);
+            }
+        }
     }
     
     /**
@@ -113,6 +299,7 @@ public class ResponseManagerImpl extends ResponseManagerInternal {
         private final BabuDBException                   error;
         private final Object                            context;
         private final T                                 result;
+        private final long                              enqueued;
         
         private ResponseRecord(DatabaseRequestListener<T> listener, BabuDBException error, T result,
                 Object context) {
@@ -121,6 +308,7 @@ public class ResponseManagerImpl extends ResponseManagerInternal {
             this.error = error;
             this.result = result;
             this.context = context;
+            this.enqueued = System.nanoTime();
         }
     }
 }
@@ -12,6 +12,8 @@ import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.xtreemfs.babudb.api.dev.transaction.InMemoryProcessing;
 import org.xtreemfs.babudb.api.dev.transaction.OperationInternal;
@@ -23,6 +25,7 @@ import org.xtreemfs.babudb.api.transaction.Operation;
 import org.xtreemfs.babudb.api.transaction.TransactionListener;
 import org.xtreemfs.babudb.log.DiskLogger;
 import org.xtreemfs.babudb.log.LogEntry;
+import org.xtreemfs.babudb.log.LogTailCache;
 import org.xtreemfs.babudb.log.SyncListener;
 import org.xtreemfs.babudb.lsmdb.LSN;
 import org.xtreemfs.foundation.buffer.BufferPool;
@@ -41,6 +44,14 @@ class TransactionManagerImpl extends TransactionManagerInternal {
     
     private final AtomicReference<DiskLogger> diskLogger = new AtomicReference<DiskLogger>(null);
     
+    /**
+     * guards the replacement of the disk logger; a j.u.c. lock is used, so
+     * that virtual threads waiting for the logger do not pin their carrier
+     */
+    private final ReentrantLock               loggerLock = new ReentrantLock();
+    
+    private final Condition                   loggerAvailable = loggerLock.newCondition();
+    
     /**
      * list of transaction listeners
      */
@@ -68,14 +79,17 @@ class TransactionManagerImpl extends TransactionManagerInternal {
      */
     public void setLogger(DiskLogger logger) {
         
-        synchronized (diskLogger) {
+        loggerLock.lock();
+        try {
             
             DiskLogger old = diskLogger.getAndSet(logger);
             if (logger == null) {
                 latestOnDisk = old.getLatestLSN();
             } else {
-                diskLogger.notify(); 
+                loggerAvailable.signalAll(); 
             }
+        } finally {
+            loggerLock.unlock();
         }
     }
       
@@ -92,6 +106,33 @@ class TransactionManagerImpl extends TransactionManagerInternal {
         Logging.logMessage(Logging.LEVEL_DEBUG, Category.babudb, this, "Trying to perform transaction %s ...",
                 txn.toString());
         
+        // the responsible workers are locked before the log entry is
+        // announced, as a checkpoint waiting for announced entries would
+        // otherwise block workers that are still processing earlier requests
+        try {
+            for (String databaseName : txn.databasesAffected()) {
+                txn.lockResponsibleWorker(databaseName);
+            }
+        } catch (BabuDBException be) {
+            txn.unlockWorkers();
+            BufferPool.free(payload);
+            throw be;
+        }
+        
+        // announce the log entry to a checkpoint that might be taken between
+        // the in-memory processing and the logging of the transaction
+        DiskLogger logger = diskLogger.get();
+        if (logger != null) {
+            try {
+                logger.beginAppend();
+            } catch (InterruptedException ie) {
+                txn.unlockWorkers();
+                BufferPool.free(payload);
+                throw new BabuDBException(ErrorCode.INTERRUPTED, "Operation could not be performed, "
+                    + "because it was interrupted.", ie);
+            }
+        }
+        
         try {
                     
             Object[] result = inMemory(txn, payload);
@@ -109,6 +150,9 @@ class TransactionManagerImpl extends TransactionManagerInternal {
             }
             
         } finally {
+            if (logger != null) {
+                logger.endAppend();
+            }
             txn.unlockWorkers();
         }
     }
@@ -189,13 +233,16 @@ class TransactionManagerImpl extends TransactionManagerInternal {
         // append the entry to the DiskLogger if available, wait otherwise
         try {
             
-            synchronized (diskLogger) {
+            loggerLock.lockInterruptibly();
+            try {
                 
                 while (diskLogger.get() == null) {
-                    diskLogger.wait();
+                    loggerAvailable.await();
                 }
                 
                 diskLogger.get().append(entry);
+            } finally {
+                loggerLock.unlock();
             }
         } catch (InterruptedException ie) {
             
@@ -255,10 +302,11 @@ class TransactionManagerImpl extends TransactionManagerInternal {
     
     /* (non-Javadoc)
      * @see org.xtreemfs.babudb.api.dev.transaction.TransactionManagerInternal#
-     *          replayTransaction(org.xtreemfs.babudb.api.dev.transaction.TransactionInternal)
+     *          replayTransaction(org.xtreemfs.babudb.api.dev.transaction.TransactionInternal,
+     *          org.xtreemfs.babudb.lsmdb.LSN)
      */
     @Override
-    public void replayTransaction(TransactionInternal txn) throws BabuDBException {
+    public void replayTransaction(TransactionInternal txn, LSN lsn) throws BabuDBException {
 
         for (OperationInternal operation : txn) {
             
@@ -274,7 +322,7 @@ class TransactionManagerImpl extends TransactionManagerInternal {
                 
                 // replay in-memory changes
                 try {
-                    processing.process(operation);   
+                    processing.replay(operation, lsn);
                 } catch (BabuDBException be) {
                     
                     // there might be false positives if a snapshot to delete has already been 
@@ -330,6 +378,15 @@ class TransactionManagerImpl extends TransactionManagerInternal {
         }
     }
     
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.dev.transaction.TransactionManagerInternal#getLogTailCache()
+     */
+    @Override
+    public LogTailCache getLogTailCache() {
+        DiskLogger logger = diskLogger.get();
+        return logger == null ? null : logger.getTailCache();
+    }
+    
     /* (non-Javadoc)
      * @see org.xtreemfs.babudb.api.dev.TransactionManagerInternal#addTransactionListener(
      *          org.xtreemfs.babudb.api.transaction.TransactionListener)
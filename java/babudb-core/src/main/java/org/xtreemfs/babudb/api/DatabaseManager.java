@@ -47,6 +47,12 @@ public interface DatabaseManager {
     
     /**
      * Creates a new database.
+     * <p>
+     * If a database with the same name has been deleted while a checkpoint was
+     * writing it, the method waits until the checkpoint has finished and the
+     * directory of the deleted database has been removed. The wait is bounded;
+     * if it times out, the method fails with a <code>DB_EXISTS</code> error.
+     * </p>
      * 
      * @param databaseName
      *            name, must be unique
@@ -61,6 +67,10 @@ public interface DatabaseManager {
     
     /**
      * Creates a new database.
+     * <p>
+     * Like {@link #createDatabase(String, int)}, the method waits for the
+     * directory of a deleted database with the same name to be removed.
+     * </p>
      * 
      * @param databaseName
      *            name, must be unique
@@ -90,6 +100,12 @@ public interface DatabaseManager {
      * Creates a copy of database sourceDB by taking a snapshot, materializing
      * it and loading it as destDB. This does not interrupt operations on
      * sourceDB.
+     * <p>
+     * If a database with the name of destDB has been deleted while a
+     * checkpoint was writing it, the method waits until the checkpoint has finished and the
+     * directory of the deleted database has been removed. The wait is bounded;
+     * if it times out, the method fails with a <code>DB_EXISTS</code> error.
+     * </p>
      * 
      * @param sourceDB
      *            the database to copy
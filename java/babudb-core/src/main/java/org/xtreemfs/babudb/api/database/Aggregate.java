@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2008 - 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.babudb.api.database;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+
+/**
+ * Aggregated information about the entries in a range of an index: the number
+ * of entries, the total size of their values, and the smallest and largest
+ * key.
+ *
+ * @author stender
+ *
+ */
+public class Aggregate {
+
+    private final long   count;
+
+    private final long   totalValueLength;
+
+    private final byte[] minKey;
+
+    private final byte[] maxKey;
+
+    public Aggregate(long count, long totalValueLength, byte[] minKey, byte[] maxKey) {
+        this.count = count;
+        this.totalValueLength = totalValueLength;
+        this.minKey = minKey;
+        this.maxKey = maxKey;
+    }
+
+    /**
+     * Aggregates the given entries, which have to be sorted in ascending key
+     * order.
+     *
+     * @param entries
+     *            the entries
+     * @return the aggregate
+     */
+    public static Aggregate compute(Iterator<Entry<byte[], byte[]>> entries) {
+
+        long count = 0;
+        long totalValueLength = 0;
+        byte[] minKey = null;
+        byte[] maxKey = null;
+
+        while (entries.hasNext()) {
+            Entry<byte[], byte[]> next = entries.next();
+            if (count == 0)
+                minKey = next.getKey();
+            maxKey = next.getKey();
+            count++;
+            totalValueLength += next.getValue().length;
+        }
+
+        return new Aggregate(count, totalValueLength, minKey, maxKey);
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the sum of the lengths of all values
+     */
+    public long getTotalValueLength() {
+        return totalValueLength;
+    }
+
+    /**
+     * @return the smallest key, or <code>null</code> if there are no entries
+     */
+    public byte[] getMinKey() {
+        return minKey;
+    }
+
+    /**
+     * @return the largest key, or <code>null</code> if there are no entries
+     */
+    public byte[] getMaxKey() {
+        return maxKey;
+    }
+
+    public String toString() {
+        return "count=" + count + ", totalValueLength=" + totalValueLength;
+    }
+
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2008 - 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.babudb.api.database;
+
+import java.util.Map.Entry;
+import java.util.concurrent.Executor;
+
+import org.xtreemfs.babudb.api.database.ResultFlow.Publisher;
+
+/**
+ * An asynchronous view on a database. Single-result requests return
+ * composable {@link RequestFuture}s, and prefix and range lookups return
+ * {@link Publisher}s that deliver the entries on demand.
+ * <p>
+ * Results are delivered by the executor passed to the constructor instead of
+ * the response manager thread. With {@link RequestFuture#INLINE}, they are
+ * delivered directly by the thread that completes the request, which avoids
+ * any hand-off but requires that listeners and subscribers do not block.
+ * </p>
+ *
+ * @author stender
+ */
+public class AsyncDatabase {
+
+    private final Database db;
+
+    private final Executor executor;
+
+    /**
+     * Creates a new asynchronous view on a database.
+     *
+     * @param db
+     *            the database
+     * @param executor
+     *            the executor delivering the results
+     */
+    public AsyncDatabase(Database db, Executor executor) {
+        this.db = db;
+        this.executor = executor;
+    }
+
+    /**
+     * @return the underlying database
+     */
+    public Database getDatabase() {
+        return db;
+    }
+
+    /**
+     * @see Database#singleInsert(int, byte[], byte[], Object)
+     */
+    public RequestFuture<Object> singleInsert(int indexId, byte[] key, byte[] value, Object context) {
+        return RequestFuture.of(db.singleInsert(indexId, key, value, context), executor);
+    }
+
+    /**
+     * @see Database#insert(DatabaseInsertGroup, Object)
+     */
+    public RequestFuture<Object> insert(DatabaseInsertGroup irg, Object context) {
+        return RequestFuture.of(db.insert(irg, context), executor);
+    }
+
+    /**
+     * @see DatabaseRO#lookup(int, byte[], Object)
+     */
+    public RequestFuture<byte[]> lookup(int indexId, byte[] key, Object context) {
+        return RequestFuture.of(db.lookup(indexId, key, context), executor);
+    }
+
+    /**
+     * @see DatabaseRO#multiLookup(int, byte[][], Object)
+     */
+    public RequestFuture<byte[][]> multiLookup(int indexId, byte[][] keys, Object context) {
+        return RequestFuture.of(db.multiLookup(indexId, keys, context), executor);
+    }
+
+    /**
+     * @see DatabaseRO#count(int, byte[], byte[], Object)
+     */
+    public RequestFuture<Long> count(int indexId, byte[] from, byte[] to, Object context) {
+        return RequestFuture.of(db.count(indexId, from, to, context), executor);
+    }
+
+    /**
+     * @see DatabaseRO#prefixCount(int, byte[], Object)
+     */
+    public RequestFuture<Long> prefixCount(int indexId, byte[] prefix, Object context) {
+        return RequestFuture.of(db.prefixCount(indexId, prefix, context), executor);
+    }
+
+    /**
+     * @see DatabaseRO#aggregate(int, byte[], byte[], Object)
+     */
+    public RequestFuture<Aggregate> aggregate(int indexId, byte[] from, byte[] to, Object context) {
+        return RequestFuture.of(db.aggregate(indexId, from, to, context), executor);
+    }
+
+    /**
+     * @see DatabaseRO#prefixAggregate(int, byte[], Object)
+     */
+    public RequestFuture<Aggregate> prefixAggregate(int indexId, byte[] prefix, Object context) {
+        return RequestFuture.of(db.prefixAggregate(indexId, prefix, context), executor);
+    }
+
+    /**
+     * @see DatabaseRO#scan(int, byte[], byte[], int, Object)
+     */
+    public RequestFuture<ScanPage> scan(int indexId, byte[] from, byte[] to, int pageSize, Object context) {
+        return RequestFuture.of(db.scan(indexId, from, to, pageSize, context), executor);
+    }
+
+    /**
+     * @see DatabaseRO#resumeScan(int, byte[], int, Object)
+     */
+    public RequestFuture<ScanPage> resumeScan(int indexId, byte[] continuationToken, int pageSize,
+        Object context) {
+        return RequestFuture.of(db.resumeScan(indexId, continuationToken, pageSize, context), executor);
+    }
+
+    /**
+     * @see DatabaseRO#userDefinedLookup(UserDefinedLookup, Object)
+     */
+    public RequestFuture<Object> userDefinedLookup(UserDefinedLookup udl, Object context) {
+        return RequestFuture.of(db.userDefinedLookup(udl, context), executor);
+    }
+
+    /**
+     * @see DatabaseRO#prefixLookup(int, byte[], Object)
+     */
+    public Publisher<Entry<byte[], byte[]>> prefixLookup(int indexId, byte[] key, Object context) {
+        return ResultFlow.publish(db.prefixLookup(indexId, key, context), executor);
+    }
+
+    /**
+     * @see DatabaseRO#reversePrefixLookup(int, byte[], Object)
+     */
+    public Publisher<Entry<byte[], byte[]>> reversePrefixLookup(int indexId, byte[] key, Object context) {
+        return ResultFlow.publish(db.reversePrefixLookup(indexId, key, context), executor);
+    }
+
+    /**
+     * @see DatabaseRO#rangeLookup(int, byte[], byte[], Object)
+     */
+    public Publisher<Entry<byte[], byte[]>> rangeLookup(int indexId, byte[] from, byte[] to, Object context) {
+        return ResultFlow.publish(db.rangeLookup(indexId, from, to, context), executor);
+    }
+
+    /**
+     * @see DatabaseRO#prefixLookup(int, byte[], boolean, int, Object)
+     */
+    public Publisher<Entry<byte[], byte[]>> prefixLookup(int indexId, byte[] key, boolean ascending,
+        int maxValueLength, Object context) {
+        return ResultFlow.publish(db.prefixLookup(indexId, key, ascending, maxValueLength, context), executor);
+    }
+    
+    /**
+     * @see DatabaseRO#rangeLookup(int, byte[], byte[], boolean, int, Object)
+     */
+    public Publisher<Entry<byte[], byte[]>> rangeLookup(int indexId, byte[] from, byte[] to, boolean ascending,
+        int maxValueLength, Object context) {
+        return ResultFlow.publish(db.rangeLookup(indexId, from, to, ascending, maxValueLength, context),
+            executor);
+    }
+    
+    /**
+     * @see DatabaseRO#reverseRangeLookup(int, byte[], byte[], Object)
+     */
+    public Publisher<Entry<byte[], byte[]>> reverseRangeLookup(int indexId, byte[] from, byte[] to,
+        Object context) {
+        return ResultFlow.publish(db.reverseRangeLookup(indexId, from, to, context), executor);
+    }
+}
@@ -33,4 +33,76 @@ public interface DatabaseInsertGroup {
      * @param key - of the key-value pair to delete. 
      */
     public void addDelete(int indexId, byte[] key);
+    
+    /**
+     * Add a new merge operation to this group. The operand is merged into the value of the 
+     * key by means of the {@link org.xtreemfs.babudb.api.index.MergeOperator} of the index, 
+     * without reading the value. Merging is only supported by indices whose comparator 
+     * implements {@link org.xtreemfs.babudb.api.index.MergeOperator}.
+     * 
+     * @param indexId - the index in which the key-value pair is located.
+     * @param key - the key.
+     * @param operand - the operand to merge into the value of the key.
+     */
+    public void addMerge(int indexId, byte[] key, byte[] operand);
+    
+    /**
+     * Add a new operation to this group that deletes all key-value pairs in a range. The 
+     * deletion is recorded as a single operation, regardless of the number of keys in the 
+     * range. 
+     * 
+     * @param indexId - the index in which the key-value pairs are located.
+     * @param from - the first key of the range (inclusively), or <code>null</code>.
+     * @param to - the last key of the range (exclusively), or <code>null</code>.
+     */
+    public void addDeleteRange(int indexId, byte[] from, byte[] to);
+    
+    /**
+     * Add a condition to this group. The group is only executed if the key currently has the 
+     * expected value, or no value if <code>expected</code> is <code>null</code>. All conditions 
+     * of a group are checked atomically, before any of its operations is executed and logged. 
+     * If a condition is not satisfied, the whole group fails with 
+     * {@link org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode#CONDITION_FAILED}.
+     * 
+     * @param indexId - the index in which the key-value pair is located.
+     * @param key - the key.
+     * @param expected - the expected value, or <code>null</code> if the key must not exist.
+     */
+    public void addCondition(int indexId, byte[] key, byte[] expected);
+    
+    /**
+     * Add a new insert operation to this group that is only executed if the key does not exist.
+     * 
+     * @param indexId - the index in which the key-value pair is inserted.
+     * @param key - the key.
+     * @param value - the value data.
+     * 
+     * @see #addCondition(int, byte[], byte[])
+     */
+    public void addInsertIfAbsent(int indexId, byte[] key, byte[] value);
+    
+    /**
+     * Add a new insert operation to this group that is only executed if the key currently has 
+     * the expected value.
+     * 
+     * @param indexId - the index in which the key-value pair is inserted.
+     * @param key - the key.
+     * @param value - the value data.
+     * @param expected - the expected current value.
+     * 
+     * @see #addCondition(int, byte[], byte[])
+     */
+    public void addInsertIfEquals(int indexId, byte[] key, byte[] value, byte[] expected);
+    
+    /**
+     * Add a new delete operation to this group that is only executed if the key currently has 
+     * the expected value.
+     * 
+     * @param indexId - in which the key-value pair is located.
+     * @param key - of the key-value pair to delete.
+     * @param expected - the expected current value.
+     * 
+     * @see #addCondition(int, byte[], byte[])
+     */
+    public void addDeleteIfEquals(int indexId, byte[] key, byte[] expected);
 }
\ No newline at end of file
@@ -34,6 +34,27 @@ public interface DatabaseRO {
     public DatabaseRequestResult<byte[]> lookup(int indexId, byte[] key, 
             Object context);
     
+    /**
+     * Performs a lookup for multiple keys at once. The result object contains
+     * an array of values in the order of the given keys, with a
+     * <code>null</code> element for each key that could not be found.
+     * <p>
+     * Compared to a sequence of single-key lookups, only one request is
+     * processed, and the keys are looked up in key order, so that on-disk
+     * blocks containing multiple keys are only read once.
+     * </p>
+     * 
+     * @param indexId
+     *            index id (0..NumIndices-1)
+     * @param keys
+     *            the keys to look up
+     * @param context
+     *            arbitrary context which is passed to the listener.
+     * @return a future as proxy for the request result.
+     */
+    public DatabaseRequestResult<byte[][]> multiLookup(int indexId, byte[][] keys, 
+            Object context);
+    
     /**
      * Executes a prefix lookup. The result object contains an iterator to the
      * database starting at the first matching key and returning key/value pairs
@@ -111,6 +132,170 @@ public interface DatabaseRO {
             reverseRangeLookup(int indexId, byte[] from, byte[] to, 
                     Object context);
     
+    /**
+     * Executes a prefix lookup that only returns the keys, or a leading part
+     * of each value, of the matching entries. Values, or parts of values,
+     * that are not returned are neither copied nor read from disk; this makes
+     * scans that do not need complete values, such as existence checks or
+     * listings of keys, considerably cheaper if values are large.
+     * 
+     * @param indexId
+     *            index id (0..NumIndices-1)
+     * @param key
+     *            the prefix of the keys to return
+     * @param ascending
+     *            if <code>true</code>, key/value pairs are returned in
+     *            ascending order; otherwise, they are returned in descending
+     *            order
+     * @param maxValueLength
+     *            the maximum number of leading value bytes to return per
+     *            entry; if 0, only keys are returned, and all values are
+     *            <code>null</code>; if negative, complete values are returned
+     * @param context
+     *            arbitrary context which is passed to the listener.
+     * @return a future as proxy for the request result.
+     */
+    public DatabaseRequestResult<ResultSet<byte[], byte[]>> prefixLookup(
+            int indexId, byte[] key, boolean ascending, int maxValueLength, Object context);
+    
+    /**
+     * Executes a range lookup that only returns the keys, or a leading part
+     * of each value, of the entries in the range. Values, or parts of values,
+     * that are not returned are neither copied nor read from disk.
+     * <p>
+     * Note that <code>from</code> needs to be smaller than or equal to
+     * <code>to</code> for ascending lookups, and greater than or equal to
+     * <code>to</code> for descending lookups, according to the comparator
+     * associated with the index.
+     * </p>
+     * 
+     * @param indexId
+     *            index id (0..NumIndices-1)
+     * @param from
+     *            the key to start the iterator at (inclusively)
+     * @param to
+     *            the key to end the iterator at (exclusively)
+     * @param ascending
+     *            if <code>true</code>, key/value pairs are returned in
+     *            ascending order; otherwise, they are returned in descending
+     *            order
+     * @param maxValueLength
+     *            the maximum number of leading value bytes to return per
+     *            entry; if 0, only keys are returned, and all values are
+     *            <code>null</code>; if negative, complete values are returned
+     * @param context
+     *            arbitrary context which is passed to the listener.
+     * @return a future as proxy for the request result.
+     */
+    public DatabaseRequestResult<ResultSet<byte[], byte[]>> rangeLookup(
+            int indexId, byte[] from, byte[] to, boolean ascending, int maxValueLength, 
+            Object context);
+    
+    /**
+     * Counts the key/value pairs in a range. Unlike a range lookup, no entries
+     * are copied, and on-disk blocks that are entirely covered by the range
+     * are counted without being read.
+     * 
+     * @param indexId
+     *            index id (0..NumIndices-1)
+     * @param from
+     *            the first key of the range (inclusively)
+     * @param to
+     *            the last key of the range (exclusively)
+     * @param context
+     *            arbitrary context which is passed to the listener.
+     * @return a future as proxy for the request result.
+     */
+    public DatabaseRequestResult<Long> count(int indexId, byte[] from, byte[] to, 
+            Object context);
+    
+    /**
+     * Counts the key/value pairs with a given prefix.
+     * 
+     * @param indexId
+     *            index id (0..NumIndices-1)
+     * @param prefix
+     *            the prefix of the keys to count
+     * @param context
+     *            arbitrary context which is passed to the listener.
+     * @return a future as proxy for the request result.
+     */
+    public DatabaseRequestResult<Long> prefixCount(int indexId, byte[] prefix, 
+            Object context);
+    
+    /**
+     * Computes the number of key/value pairs in a range, together with the
+     * total length of their values and the smallest and largest key. The
+     * aggregate is computed while iterating over the index, without copying
+     * the entries.
+     * 
+     * @param indexId
+     *            index id (0..NumIndices-1)
+     * @param from
+     *            the first key of the range (inclusively)
+     * @param to
+     *            the last key of the range (exclusively)
+     * @param context
+     *            arbitrary context which is passed to the listener.
+     * @return a future as proxy for the request result.
+     */
+    public DatabaseRequestResult<Aggregate> aggregate(int indexId, byte[] from, byte[] to, 
+            Object context);
+    
+    /**
+     * Computes the aggregate of all key/value pairs with a given prefix.
+     * 
+     * @param indexId
+     *            index id (0..NumIndices-1)
+     * @param prefix
+     *            the prefix of the keys to aggregate
+     * @param context
+     *            arbitrary context which is passed to the listener.
+     * @return a future as proxy for the request result.
+     */
+    public DatabaseRequestResult<Aggregate> prefixAggregate(int indexId, byte[] prefix, 
+            Object context);
+    
+    /**
+     * Retrieves the first page of a range scan, in ascending key order. If
+     * the range contains more entries than fit on the page, the page contains
+     * a continuation token, which can be passed to
+     * {@link #resumeScan(int, byte[], int, Object)} to retrieve the next page.
+     * 
+     * @param indexId
+     *            index id (0..NumIndices-1)
+     * @param from
+     *            the first key of the range (inclusively)
+     * @param to
+     *            the last key of the range (exclusively)
+     * @param pageSize
+     *            the maximum number of entries on the page
+     * @param context
+     *            arbitrary context which is passed to the listener.
+     * @return a future as proxy for the request result.
+     */
+    public DatabaseRequestResult<ScanPage> scan(int indexId, byte[] from, byte[] to, 
+            int pageSize, Object context);
+    
+    /**
+     * Retrieves the next page of a range scan. Changes made to the index
+     * since the previous page are reflected in the next page.
+     * 
+     * @param indexId
+     *            index id (0..NumIndices-1)
+     * @param continuationToken
+     *            the continuation token of the previous page
+     * @param pageSize
+     *            the maximum number of entries on the page
+     * @param context
+     *            arbitrary context which is passed to the listener.
+     * @return a future as proxy for the request result.
+     * @throws IllegalArgumentException
+     *             if the continuation token is invalid
+     */
+    public DatabaseRequestResult<ScanPage> resumeScan(int indexId, byte[] continuationToken, 
+            int pageSize, Object context);
+    
     /**
      * <p>
      * Performs a user-defined lookup. Return value will contain the result
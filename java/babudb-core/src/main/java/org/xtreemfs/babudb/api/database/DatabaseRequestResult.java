@@ -36,6 +36,8 @@ POSSIBILITY OF SUCH DAMAGE.
  */
 package org.xtreemfs.babudb.api.database;
 
+import java.util.concurrent.Executor;
+
 import org.xtreemfs.babudb.api.BabuDB;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
 
@@ -54,6 +56,19 @@ public interface DatabaseRequestResult<T> {
      */
     public void registerListener(DatabaseRequestListener<T> listener);
     
+    /**
+     * Sets a listener to wait asynchronously for the result of the request.
+     * Unlike with {@link #registerListener(DatabaseRequestListener)}, the
+     * listener is invoked by the given executor rather than by the response
+     * manager thread. An executor that runs commands directly causes the
+     * listener to be invoked by the thread that completes the request.
+     * 
+     * @param listener
+     * @param executor
+     *                  the executor invoking the listener.
+     */
+    public void registerListener(DatabaseRequestListener<T> listener, Executor executor);
+    
     /**
      * Waits synchronously for the request-result.
      * 
@@ -0,0 +1,407 @@
+/*
+ * Copyright (c) 2008 - 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.babudb.api.database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.xtreemfs.babudb.api.exception.BabuDBException;
+import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
+
+/**
+ * A composable proxy for the result of a BabuDB request. Any number of
+ * listeners may be registered, and follow-up operations may be chained by
+ * means of {@link #transform(Transformation)} and
+ * {@link #compose(Composition)}, without blocking a thread per request.
+ * <p>
+ * All listeners and follow-up operations are executed by the executor the
+ * future has been created with. If the executor runs commands directly (see
+ * {@link #INLINE}), they are executed by the thread that completes the
+ * request, e.g. a worker thread, and must therefore not block.
+ * </p>
+ *
+ * @author stender
+ * @param <T>
+ */
+public class RequestFuture<T> implements DatabaseRequestResult<T> {
+
+    /**
+     * An executor that runs commands in the context of the invoking thread.
+     */
+    public static final Executor INLINE = new Executor() {
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * A function that is applied to the result of a request.
+     */
+    public static interface Transformation<T, U> {
+
+        /**
+         * Applies the transformation.
+         *
+         * @param result
+         *            the result of the request
+         * @return the transformed result
+         * @throws BabuDBException
+         *             if the transformation fails
+         */
+        public U apply(T result) throws BabuDBException;
+    }
+
+    /**
+     * A function that issues a follow-up request based on the result of a
+     * request.
+     */
+    public static interface Composition<T, U> {
+
+        /**
+         * Issues the follow-up request.
+         *
+         * @param result
+         *            the result of the request
+         * @return the result of the follow-up request
+         * @throws BabuDBException
+         *             if the follow-up request cannot be issued
+         */
+        public DatabaseRequestResult<U> apply(T result) throws BabuDBException;
+    }
+
+    private final Executor                   executor;
+
+    private final ReentrantLock              lock      = new ReentrantLock();
+
+    private final Condition                  done      = lock.newCondition();
+
+    private final List<Listener<T>>          listeners = new ArrayList<Listener<T>>(1);
+
+    private volatile boolean                 finished;
+
+    private T                                result;
+
+    private BabuDBException                  error;
+
+    private Object                           context;
+
+    /**
+     * Creates a new, uncompleted future.
+     *
+     * @param executor
+     *            the executor running listeners and follow-up operations
+     */
+    public RequestFuture(Executor executor) {
+
+        assert (executor != null);
+        this.executor = executor;
+    }
+
+    /**
+     * Creates a future for the result of a BabuDB request. The future is
+     * completed directly by the thread that completes the request, rather than
+     * by the response manager.
+     *
+     * @param <T>
+     * @param request
+     *            the request result
+     * @param executor
+     *            the executor running listeners and follow-up operations
+     * @return the future
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> RequestFuture<T> of(DatabaseRequestResult<T> request, Executor executor) {
+
+        if (request instanceof RequestFuture<?> && ((RequestFuture<?>) request).executor == executor)
+            return (RequestFuture<T>) request;
+
+        RequestFuture<T> future = new RequestFuture<T>(executor);
+        request.registerListener(future.completer(), INLINE);
+        return future;
+    }
+
+    /**
+     * Completes the future with a result. Only the first completion has an
+     * effect.
+     *
+     * @param result
+     *            the result
+     * @param context
+     *            the context passed to the listeners
+     * @return <code>true</code>, if the future has been completed by this
+     *         invocation
+     */
+    public boolean complete(T result, Object context) {
+        return complete(result, null, context);
+    }
+
+    /**
+     * Completes the future with an error. Only the first completion has an
+     * effect.
+     *
+     * @param error
+     *            the error
+     * @param context
+     *            the context passed to the listeners
+     * @return <code>true</code>, if the future has been completed by this
+     *         invocation
+     */
+    public boolean fail(BabuDBException error, Object context) {
+        assert (error != null);
+        return complete(null, error, context);
+    }
+
+    /**
+     * @return <code>true</code>, if the request has been completed
+     */
+    public boolean isDone() {
+        return finished;
+    }
+
+    /**
+     * Creates a future for the result of applying the given function to the
+     * result of this request. Errors are passed on to the new future.
+     *
+     * @param <U>
+     * @param function
+     *            the function, executed by the executor of this future
+     * @return the future for the transformed result
+     */
+    public <U> RequestFuture<U> transform(final Transformation<? super T, U> function) {
+
+        final RequestFuture<U> future = new RequestFuture<U>(executor);
+        registerListener(new DatabaseRequestListener<T>() {
+
+            public void finished(T result, Object context) {
+                try {
+                    future.complete(function.apply(result), context);
+                } catch (BabuDBException exc) {
+                    future.fail(exc, context);
+                } catch (RuntimeException exc) {
+                    future.fail(new BabuDBException(ErrorCode.INTERNAL_ERROR, String.valueOf(exc), exc),
+                        context);
+                }
+            }
+
+            public void failed(BabuDBException error, Object context) {
+                future.fail(error, context);
+            }
+        });
+
+        return future;
+    }
+
+    /**
+     * Creates a future for the result of a follow-up request that is issued
+     * with the result of this request. Errors are passed on to the new future.
+     *
+     * @param <U>
+     * @param function
+     *            the function issuing the follow-up request, executed by the
+     *            executor of this future
+     * @return the future for the result of the follow-up request
+     */
+    public <U> RequestFuture<U> compose(final Composition<? super T, U> function) {
+
+        final RequestFuture<U> future = new RequestFuture<U>(executor);
+        registerListener(new DatabaseRequestListener<T>() {
+
+            public void finished(T result, Object context) {
+                try {
+                    function.apply(result).registerListener(future.completer(), INLINE);
+                } catch (BabuDBException exc) {
+                    future.fail(exc, context);
+                } catch (RuntimeException exc) {
+                    future.fail(new BabuDBException(ErrorCode.INTERNAL_ERROR, String.valueOf(exc), exc),
+                        context);
+                }
+            }
+
+            public void failed(BabuDBException error, Object context) {
+                future.fail(error, context);
+            }
+        });
+
+        return future;
+    }
+
+    /**
+     * Waits synchronously for the request result, at most for the given time.
+     *
+     * @param timeout
+     * @param unit
+     * @return the request result.
+     * @throws BabuDBException
+     *             if the request ends with an error.
+     * @throws TimeoutException
+     *             if the request has not been completed in time.
+     */
+    public T get(long timeout, TimeUnit unit) throws BabuDBException, TimeoutException {
+
+        if (!finished) {
+            long nanos = unit.toNanos(timeout);
+            lock.lock();
+            try {
+                while (!finished) {
+                    if (nanos <= 0)
+                        throw new TimeoutException();
+                    nanos = done.awaitNanos(nanos);
+                }
+            } catch (InterruptedException e) {
+                throw new BabuDBException(ErrorCode.INTERRUPTED,
+                    "Thread was interrupted while waiting for the response.");
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        if (error != null)
+            throw error;
+        return result;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.xtreemfs.babudb.api.database.DatabaseRequestResult#get()
+     */
+    @Override
+    public T get() throws BabuDBException {
+
+        if (!finished) {
+            lock.lock();
+            try {
+                while (!finished)
+                    done.await();
+            } catch (InterruptedException e) {
+                throw new BabuDBException(ErrorCode.INTERRUPTED,
+                    "Thread was interrupted while waiting for the response.");
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        if (error != null)
+            throw error;
+        return result;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * org.xtreemfs.babudb.api.database.DatabaseRequestResult#registerListener
+     * (org.xtreemfs.babudb.api.database.DatabaseRequestListener)
+     */
+    @Override
+    public void registerListener(DatabaseRequestListener<T> listener) {
+        registerListener(listener, executor);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * org.xtreemfs.babudb.api.database.DatabaseRequestResult#registerListener
+     * (org.xtreemfs.babudb.api.database.DatabaseRequestListener,
+     * java.util.concurrent.Executor)
+     */
+    @Override
+    public void registerListener(DatabaseRequestListener<T> listener, Executor executor) {
+
+        Listener<T> l = new Listener<T>(listener, executor);
+        lock.lock();
+        try {
+            if (!finished) {
+                listeners.add(l);
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        notifyListener(l);
+    }
+
+    private DatabaseRequestListener<T> completer() {
+        return new DatabaseRequestListener<T>() {
+
+            public void finished(T result, Object context) {
+                complete(result, context);
+            }
+
+            public void failed(BabuDBException error, Object context) {
+                fail(error, context);
+            }
+        };
+    }
+
+    private boolean complete(T result, BabuDBException error, Object context) {
+
+        List<Listener<T>> toNotify;
+        lock.lock();
+        try {
+            if (finished)
+                return false;
+
+            this.result = result;
+            this.error = error;
+            this.context = context;
+            finished = true;
+            done.signalAll();
+
+            toNotify = new ArrayList<Listener<T>>(listeners);
+            listeners.clear();
+        } finally {
+            lock.unlock();
+        }
+
+        for (Listener<T> l : toNotify)
+            notifyListener(l);
+
+        return true;
+    }
+
+    private void notifyListener(final Listener<T> l) {
+
+        Runnable notification = new Runnable() {
+            public void run() {
+                if (error == null)
+                    l.listener.finished(result, context);
+                else
+                    l.listener.failed(error, context);
+            }
+        };
+
+        try {
+            l.executor.execute(notification);
+        } catch (RejectedExecutionException exc) {
+            // the executor has been shut down; notify the listener directly,
+            // so that chained futures are completed anyway
+            notification.run();
+        }
+    }
+
+    private static final class Listener<T> {
+
+        final DatabaseRequestListener<T> listener;
+
+        final Executor                   executor;
+
+        Listener(DatabaseRequestListener<T> listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+    }
+}
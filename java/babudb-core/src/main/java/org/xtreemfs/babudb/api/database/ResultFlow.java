@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2008 - 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.babudb.api.database;
+
+import java.util.Map.Entry;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.xtreemfs.babudb.api.exception.BabuDBException;
+
+/**
+ * Exposes the results of prefix and range lookups as streams with
+ * demand-driven backpressure: entries are only taken from the underlying
+ * {@link ResultSet} as far as they have been requested by the subscriber.
+ * <p>
+ * The interfaces defined here have the same methods and semantics as those of
+ * <code>java.util.concurrent.Flow</code>, which is not available on all
+ * platforms supported by BabuDB; they can be adapted to each other
+ * one-to-one.
+ * </p>
+ *
+ * @author stender
+ */
+public final class ResultFlow {
+
+    /**
+     * A producer of items that are received by a subscriber.
+     */
+    public static interface Publisher<T> {
+
+        /**
+         * Adds the given subscriber. If the subscription fails, the
+         * subscriber's <code>onError</code> method is invoked.
+         *
+         * @param subscriber
+         */
+        public void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * A receiver of items.
+     */
+    public static interface Subscriber<T> {
+
+        public void onSubscribe(Subscription subscription);
+
+        public void onNext(T item);
+
+        public void onError(Throwable throwable);
+
+        public void onComplete();
+    }
+
+    /**
+     * The link between a publisher and a subscriber.
+     */
+    public static interface Subscription {
+
+        /**
+         * Adds the given number of items to the demand of the subscriber.
+         *
+         * @param n
+         *            the number of items, which has to be positive
+         */
+        public void request(long n);
+
+        /**
+         * Stops the delivery of items, and releases the resources held by the
+         * subscription.
+         */
+        public void cancel();
+    }
+
+    private ResultFlow() {
+    }
+
+    /**
+     * Creates a publisher for the result of a prefix or range lookup. The
+     * result set is consumed by a single subscriber, and freed as soon as it
+     * has been consumed or the subscription has been cancelled. All signals
+     * to the subscriber are issued by the given executor, one at a time.
+     *
+     * @param scan
+     *            the result of a prefix or range lookup
+     * @param executor
+     *            the executor delivering the entries
+     * @return the publisher
+     */
+    public static Publisher<Entry<byte[], byte[]>> publish(
+        final DatabaseRequestResult<ResultSet<byte[], byte[]>> scan, final Executor executor) {
+
+        return new Publisher<Entry<byte[], byte[]>>() {
+
+            private final AtomicBoolean subscribed = new AtomicBoolean(false);
+
+            public void subscribe(Subscriber<? super Entry<byte[], byte[]>> subscriber) {
+
+                if (!subscribed.compareAndSet(false, true)) {
+                    subscriber.onSubscribe(new Subscription() {
+                        public void request(long n) {
+                        }
+
+                        public void cancel() {
+                        }
+                    });
+                    subscriber.onError(new IllegalStateException(
+                        "the result set has already been subscribed to"));
+                    return;
+                }
+
+                final ResultSetSubscription subscription = new ResultSetSubscription(subscriber, executor);
+                scan.registerListener(new DatabaseRequestListener<ResultSet<byte[], byte[]>>() {
+
+                    public void finished(ResultSet<byte[], byte[]> result, Object context) {
+                        subscription.resultAvailable(result, null);
+                    }
+
+                    public void failed(BabuDBException error, Object context) {
+                        subscription.resultAvailable(null, error);
+                    }
+                }, RequestFuture.INLINE);
+            }
+        };
+    }
+
+    /**
+     * A subscription that delivers entries from a result set. All signals are
+     * issued by a single drain task at a time, which is scheduled whenever the
+     * state of the subscription changes.
+     */
+    private static final class ResultSetSubscription implements Subscription, Runnable {
+
+        private final Subscriber<? super Entry<byte[], byte[]>> subscriber;
+
+        private final Executor                                  executor;
+
+        private final AtomicLong                                demand    = new AtomicLong();
+
+        private final AtomicInteger                             wip       = new AtomicInteger();
+
+        private volatile boolean                                cancelled;
+
+        private volatile ResultSet<byte[], byte[]>              resultSet;
+
+        /**
+         * the error to signal; only the first error is retained
+         */
+        private final AtomicReference<Throwable>                error     = new AtomicReference<Throwable>();
+
+        private boolean                                         subscribed;
+
+        private boolean                                         terminated;
+        
+        private boolean                                         freed;
+
+        ResultSetSubscription(Subscriber<? super Entry<byte[], byte[]>> subscriber, Executor executor) {
+            this.subscriber = subscriber;
+            this.executor = executor;
+            schedule();
+        }
+
+        void resultAvailable(ResultSet<byte[], byte[]> resultSet, Throwable error) {
+            this.resultSet = resultSet;
+            if (error != null)
+                this.error.compareAndSet(null, error);
+            schedule();
+        }
+
+        public void request(long n) {
+
+            if (n <= 0) {
+                error.compareAndSet(null, new IllegalArgumentException("non-positive request: " + n));
+            } else {
+                // add to the demand; an overflow means unbounded demand
+                long current;
+                long next;
+                do {
+                    current = demand.get();
+                    next = current + n < 0 ? Long.MAX_VALUE : current + n;
+                } while (!demand.compareAndSet(current, next));
+            }
+
+            schedule();
+        }
+
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException exc) {
+                    cancelled = true;
+                    ResultSet<byte[], byte[]> rs = resultSet;
+                    if (rs != null)
+                        rs.free();
+                }
+            }
+        }
+
+        public void run() {
+
+            int missed = 1;
+            for (;;) {
+                drain();
+                missed = wip.addAndGet(-missed);
+                if (missed == 0)
+                    break;
+            }
+        }
+
+        private void drain() {
+
+            // free a result set that has arrived after the termination
+            if (terminated) {
+                terminate(resultSet);
+                return;
+            }
+
+            if (!subscribed) {
+                subscribed = true;
+                subscriber.onSubscribe(this);
+            }
+
+            ResultSet<byte[], byte[]> rs = resultSet;
+            Throwable err = error.get();
+
+            if (cancelled) {
+                terminate(rs);
+                return;
+            }
+
+            if (err != null) {
+                terminate(rs);
+                subscriber.onError(err);
+                return;
+            }
+
+            // the result set is not available yet
+            if (rs == null)
+                return;
+
+            try {
+                while (demand.get() > 0 && !cancelled && error.get() == null && rs.hasNext()) {
+                    Entry<byte[], byte[]> next = rs.next();
+                    if (demand.get() != Long.MAX_VALUE)
+                        demand.decrementAndGet();
+                    subscriber.onNext(next);
+                }
+
+                if (cancelled) {
+                    terminate(rs);
+                } else if ((err = error.get()) != null) {
+                    terminate(rs);
+                    subscriber.onError(err);
+                } else if (!rs.hasNext()) {
+                    terminate(rs);
+                    subscriber.onComplete();
+                }
+            } catch (RuntimeException exc) {
+                terminate(rs);
+                subscriber.onError(exc);
+            }
+        }
+
+        private void terminate(ResultSet<byte[], byte[]> rs) {
+            terminated = true;
+            if (rs != null && !freed) {
+                freed = true;
+                rs.free();
+            }
+        }
+    }
+}
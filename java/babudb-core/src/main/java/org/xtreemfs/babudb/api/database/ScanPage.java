@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2008 - 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.babudb.api.database;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+
+/**
+ * A page of a paginated range scan. Unless the scan is complete, the page
+ * contains a continuation token, which can be handed over to
+ * {@link DatabaseRO#resumeScan(int, byte[], int, Object)} to retrieve the next
+ * page.
+ * <p>
+ * Continuation tokens are opaque to applications. They are self-contained, so
+ * that no state needs to be kept for a scan between two pages: a scan is
+ * resumed by seeking to the last key of the previous page, which costs no more
+ * than a single lookup.
+ * </p>
+ *
+ * @author stender
+ *
+ */
+public class ScanPage {
+
+    private static final byte                 TOKEN_VERSION = 1;
+
+    private final List<Entry<byte[], byte[]>> entries;
+
+    private final byte[]                      continuationToken;
+
+    public ScanPage(List<Entry<byte[], byte[]>> entries, byte[] continuationToken) {
+        this.entries = Collections.unmodifiableList(entries);
+        this.continuationToken = continuationToken;
+    }
+
+    /**
+     * Reads the next page from the given entries, which have to be sorted in
+     * ascending key order.
+     *
+     * @param entries
+     *            the entries, starting at the first key of the page or at the
+     *            last key of the previous page
+     * @param lastKey
+     *            the last key of the previous page, or <code>null</code> if
+     *            this is the first page
+     * @param to
+     *            the end of the scanned range (exclusively), or
+     *            <code>null</code>
+     * @param pageSize
+     *            the maximum number of entries on the page
+     * @return the page
+     */
+    public static ScanPage read(Iterator<Entry<byte[], byte[]>> entries, byte[] lastKey, byte[] to,
+        int pageSize) {
+
+        List<Entry<byte[], byte[]>> page = new ArrayList<Entry<byte[], byte[]>>(Math.min(pageSize, 1024));
+
+        // the last key of the previous page is the first key in the range,
+        // unless it has been deleted in the meantime
+        boolean first = lastKey != null;
+        while (page.size() < pageSize && entries.hasNext()) {
+            Entry<byte[], byte[]> next = entries.next();
+            if (first && Arrays.equals(next.getKey(), lastKey)) {
+                first = false;
+                continue;
+            }
+            first = false;
+            page.add(new SimpleImmutableEntry<byte[], byte[]>(next.getKey(), next.getValue()));
+        }
+
+        byte[] token = page.isEmpty() || !entries.hasNext() ? null : createToken(page.get(page.size() - 1)
+                .getKey(), to);
+
+        return new ScanPage(page, token);
+    }
+
+    /**
+     * Creates a continuation token.
+     *
+     * @param lastKey
+     *            the last key returned
+     * @param to
+     *            the end of the scanned range (exclusively), or
+     *            <code>null</code>
+     * @return the token
+     */
+    public static byte[] createToken(byte[] lastKey, byte[] to) {
+
+        int toLength = to == null ? -1 : to.length;
+        ByteBuffer buf = ByteBuffer.allocate(1 + 4 + lastKey.length + 4 + Math.max(toLength, 0));
+        buf.put(TOKEN_VERSION);
+        buf.putInt(lastKey.length);
+        buf.put(lastKey);
+        buf.putInt(toLength);
+        if (to != null)
+            buf.put(to);
+
+        return buf.array();
+    }
+
+    /**
+     * Parses a continuation token.
+     *
+     * @param token
+     *            the token
+     * @return an array containing the last key returned and the end of the
+     *         scanned range, which may be <code>null</code>
+     * @throws IllegalArgumentException
+     *             if the token is invalid
+     */
+    public static byte[][] parseToken(byte[] token) {
+
+        ByteBuffer buf = ByteBuffer.wrap(token);
+        try {
+            if (buf.get() != TOKEN_VERSION)
+                throw new IllegalArgumentException("unsupported continuation token");
+
+            byte[] lastKey = readBytes(buf, buf.getInt());
+
+            int toLength = buf.getInt();
+            byte[] to = toLength >= 0 ? readBytes(buf, toLength) : null;
+
+            if (buf.hasRemaining())
+                throw new IllegalArgumentException("invalid continuation token");
+
+            return new byte[][] { lastKey, to };
+
+        } catch (BufferUnderflowException exc) {
+            throw new IllegalArgumentException("invalid continuation token", exc);
+        }
+    }
+
+    /**
+     * Reads a byte array from a token. The length is checked before the array
+     * is allocated, so that a forged length cannot exhaust the heap.
+     * 
+     * @param buf
+     *            the token
+     * @param length
+     *            the length of the array, as read from the token
+     * @return the byte array
+     */
+    private static byte[] readBytes(ByteBuffer buf, int length) {
+
+        if (length < 0 || length > buf.remaining())
+            throw new IllegalArgumentException("invalid continuation token");
+
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return the entries on the page
+     */
+    public List<Entry<byte[], byte[]>> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return the token to retrieve the next page, or <code>null</code> if
+     *         the scan is complete
+     */
+    public byte[] getContinuationToken() {
+        return continuationToken;
+    }
+
+    /**
+     * @return <code>true</code>, if there are further pages
+     */
+    public boolean hasMore() {
+        return continuationToken != null;
+    }
+
+}
@@ -7,6 +7,8 @@
  */
 package org.xtreemfs.babudb.api.dev;
 
+import java.util.concurrent.Executor;
+
 import org.xtreemfs.babudb.api.BabuDB;
 import org.xtreemfs.babudb.api.StaticInitialization;
 import org.xtreemfs.babudb.api.dev.transaction.TransactionManagerInternal;
@@ -102,6 +104,14 @@ public interface BabuDBInternal extends BabuDB, LifeCycleListener {
      */
     public int getWorkerCount();
     
+    /**
+     * Returns the executor for lookups that bypass the worker threads.
+     * 
+     * @return the executor for lookups, or null, if lookups are processed by
+     *         the worker thread responsible for the DB.
+     */
+    public Executor getReadExecutor();
+    
     /**
      * Method to register a plugins thread at the BabuDB. This is necessary
      * to ensure the plugin to be shut down when BabuDB is shut down.
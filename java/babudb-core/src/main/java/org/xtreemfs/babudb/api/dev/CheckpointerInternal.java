@@ -65,6 +65,18 @@ public abstract class CheckpointerInternal extends LifeCycleThread implements Ch
      */
     public abstract LSN checkpoint(boolean incViewId) throws BabuDBException;
     
+    /**
+     * Reports the throughput of the log replay at startup, which allows the
+     * checkpointer to estimate the time needed to replay the current log.
+     * 
+     * @param bytes
+     *            - the number of bytes that have been replayed
+     * @param millis
+     *            - the duration of the replay in milliseconds
+     */
+    public void replayCompleted(long bytes, long millis) {
+    }
+    
     /**
      * This method suspends the Checkpointer from taking checkpoints. Not
      * thread-safe!
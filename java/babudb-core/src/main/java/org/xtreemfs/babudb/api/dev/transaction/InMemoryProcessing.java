@@ -8,6 +8,7 @@
 package org.xtreemfs.babudb.api.dev.transaction;
 
 import org.xtreemfs.babudb.api.exception.BabuDBException;
+import org.xtreemfs.babudb.lsmdb.LSN;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 
 /**
@@ -58,4 +59,21 @@ public abstract class InMemoryProcessing {
      * @throws BabuDBException if the operation could not have been processed, due a user error.
      */
     public abstract Object process(OperationInternal operation) throws BabuDBException;
+    
+    /**
+     * Replays an operation that has already been processed and logged before, e.g. when the 
+     * log is replayed at database restart. Preconditions that have been checked when the 
+     * operation was processed originally are not checked again. By default, this method 
+     * processes the operation like {@link #process(OperationInternal)}.
+     * 
+     * @param operation
+     * @param lsn - the LSN of the log entry containing the operation, or null if unknown.
+     * 
+     * @return a possible return value for the in-memory processing of the operation, may be null.
+     * 
+     * @throws BabuDBException if the operation could not have been processed.
+     */
+    public Object replay(OperationInternal operation, LSN lsn) throws BabuDBException {
+        return process(operation);
+    }
 }
@@ -95,6 +95,30 @@ public abstract class TransactionInternal extends LinkedList<OperationInternal>
     @Override
     public abstract TransactionInternal deleteRecord(String databaseName, int indexId, byte[] key);
     
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.transaction.Transaction#insertRecordIfAbsent(java.lang.String, 
+     *          int, byte[], byte[])
+     */
+    @Override
+    public abstract TransactionInternal insertRecordIfAbsent(String databaseName, int indexId, 
+            byte[] key, byte[] value);
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.transaction.Transaction#insertRecordIfEquals(java.lang.String, 
+     *          int, byte[], byte[], byte[])
+     */
+    @Override
+    public abstract TransactionInternal insertRecordIfEquals(String databaseName, int indexId, 
+            byte[] key, byte[] value, byte[] expected);
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.transaction.Transaction#deleteRecordIfEquals(java.lang.String, 
+     *          int, byte[], byte[])
+     */
+    @Override
+    public abstract TransactionInternal deleteRecordIfEquals(String databaseName, int indexId, 
+            byte[] key, byte[] expected);
+    
     /* (non-Javadoc)
      * @see java.util.AbstractCollection#toString()
      */
@@ -165,9 +189,29 @@ public abstract class TransactionInternal extends LinkedList<OperationInternal>
             if (lockFuture != null) {
                 lockFuture.get();
             }
+            
+            // the workers serving further shards of the database
+            for (int shard = 1; (lockFuture = databaseLockFutureMap.get(
+                    getShardLockKey(databaseName, shard))) != null; shard++) {
+                lockFuture.get();
+            }
         }
     }
     
+    /**
+     * Returns the key of the lock future for the worker serving the given shard
+     * of a database, if databases are partitioned into multiple shards. The
+     * lock future of the first shard is mapped to the database name itself.
+     * 
+     * @param databaseName
+     * @param shard
+     * @return the key of the lock future in the map passed to
+     *         {@link #updateWorkerLocks(Map)}.
+     */
+    public static String getShardLockKey(String databaseName, int shard) {
+        return shard == 0 ? databaseName : databaseName + "#" + shard;
+    }
+    
     /**
      * Method to unlock the worker threads that have been locked during this transaction.
      */
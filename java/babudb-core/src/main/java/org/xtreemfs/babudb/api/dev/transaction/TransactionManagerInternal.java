@@ -18,6 +18,7 @@ import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
 import org.xtreemfs.babudb.api.transaction.TransactionListener;
 import org.xtreemfs.babudb.log.DiskLogger;
 import org.xtreemfs.babudb.log.LogEntry;
+import org.xtreemfs.babudb.log.LogTailCache;
 import org.xtreemfs.babudb.lsmdb.LSN;
 import org.xtreemfs.foundation.buffer.BufferPool;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
@@ -41,6 +42,12 @@ public abstract class TransactionManagerInternal {
      * @return the {@link LSN} of the latest {@link LogEntry} written by the {@link DiskLogger}.
      */
     public abstract LSN getLatestOnDiskLSN();
+    
+    /**
+     * @return the cache of the {@link LogEntry}s most recently written by the {@link DiskLogger}, or null, if there
+     *         is no such cache.
+     */
+    public abstract LogTailCache getLogTailCache();
         
     /**
      * Initially sets an LSN after starting the BabuDB.
@@ -139,9 +146,10 @@ public abstract class TransactionManagerInternal {
      * Method to replay transactions at database restart for example.
      * 
      * @param txn
+     * @param lsn - the LSN of the transaction's log entry, or null if unknown.
      * @throws BabuDBException
      */
-    public abstract void replayTransaction(TransactionInternal txn) throws BabuDBException;
+    public abstract void replayTransaction(TransactionInternal txn, LSN lsn) throws BabuDBException;
     
     /**
      * Method to replay serialized transaction log entries at database restart for example.
@@ -151,7 +159,7 @@ public abstract class TransactionManagerInternal {
      * @throws BabuDBException
      */
     public final void replayTransaction(LogEntry serializedTxn) throws IOException, BabuDBException {
-        replayTransaction(deserialize(serializedTxn.getPayload()));
+        replayTransaction(deserialize(serializedTxn.getPayload()), serializedTxn.getLSN());
     }
     
     /**
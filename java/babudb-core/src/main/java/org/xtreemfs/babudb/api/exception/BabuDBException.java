@@ -67,6 +67,11 @@ public class BabuDBException extends Exception {
          */
         BROKEN_PLUGIN,
         
+        /**
+         * A condition of a conditional insert group was not satisfied
+         */
+        CONDITION_FAILED,
+        
         /**
          * Everything else that went wrong
          */
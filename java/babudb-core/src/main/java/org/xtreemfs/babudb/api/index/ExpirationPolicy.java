@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2008 - 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.babudb.api.index;
+
+/**
+ * A policy that determines when the entries of an index expire. Expired
+ * entries are treated as deleted: they are hidden by all lookups, and they are
+ * dropped from the on-disk index when the index is written to disk next time,
+ * without any further log records.
+ * <p>
+ * An index has an expiration policy if its {@link ByteRangeComparator}
+ * implements this interface. The expiration time is typically encoded in the
+ * value by the application, e.g. as an absolute expiry timestamp per entry, or
+ * as the time of insertion, to which the policy adds a time-to-live that is
+ * fixed for the index.
+ * </p>
+ *
+ * @author stender
+ *
+ */
+public interface ExpirationPolicy {
+
+    /**
+     * Returns the time at which an entry expires.
+     *
+     * @param key
+     *            the key of the entry
+     * @param value
+     *            the value of the entry
+     * @return the expiration time in milliseconds since 1/1/1970, or 0 if the
+     *         entry does not expire
+     */
+    public long getExpirationTime(byte[] key, byte[] value);
+
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2008 - 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.babudb.api.index;
+
+/**
+ * An operator that merges operands into the values of an index. Merges allow
+ * for updating values without reading them first, e.g. to increment counters
+ * or to append data to a value.
+ * <p>
+ * An index supports merges if its {@link ByteRangeComparator} implements this
+ * interface. This ensures that the operator is available whenever the index is
+ * loaded, including the replay of the database log.
+ * </p>
+ * <p>
+ * Merge operators have to be associative, i.e. values and operands are of the
+ * same kind, and <code>merge(merge(v, a), b)</code> has to be equal to
+ * <code>merge(v, merge(a, b))</code>, where a missing value is represented by
+ * <code>null</code>. Operands may thus be combined before the value they apply
+ * to is known, and an operand merged into a missing value should yield the
+ * operand itself.
+ * </p>
+ *
+ * @author stender
+ *
+ */
+public interface MergeOperator {
+
+    /**
+     * Merges an operand into a value.
+     *
+     * @param value
+     *            the value, or <code>null</code> if the key has no value
+     * @param operand
+     *            the operand
+     * @return the resulting value, which must not be <code>null</code>
+     */
+    public byte[] merge(byte[] value, byte[] operand);
+
+}
@@ -143,6 +143,66 @@ public interface Transaction {
      */
     public Transaction deleteRecord(String databaseName, int indexId, byte[] key);
     
+    /**
+     * Inserts a key-value pair if the key does not exist. The condition is
+     * checked atomically when the operation is executed; if it is not
+     * satisfied, the transaction fails at this operation with
+     * {@link org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode#CONDITION_FAILED}.
+     * 
+     * @param databaseName
+     *            the name of the database
+     * @param indexId
+     *            the index in which the key-value pair is inserted
+     * @param key
+     *            the key
+     * @param value
+     *            the value
+     * 
+     * @return a reference to the transaction
+     */
+    public Transaction insertRecordIfAbsent(String databaseName, int indexId, byte[] key, byte[] value);
+    
+    /**
+     * Inserts a key-value pair if the key currently has the expected value.
+     * The condition is checked atomically when the operation is executed; if
+     * it is not satisfied, the transaction fails at this operation with
+     * {@link org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode#CONDITION_FAILED}.
+     * 
+     * @param databaseName
+     *            the name of the database
+     * @param indexId
+     *            the index in which the key-value pair is inserted
+     * @param key
+     *            the key
+     * @param value
+     *            the value
+     * @param expected
+     *            the expected current value
+     * 
+     * @return a reference to the transaction
+     */
+    public Transaction insertRecordIfEquals(String databaseName, int indexId, byte[] key, byte[] value,
+        byte[] expected);
+    
+    /**
+     * Deletes a key-value pair if the key currently has the expected value.
+     * The condition is checked atomically when the operation is executed; if
+     * it is not satisfied, the transaction fails at this operation with
+     * {@link org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode#CONDITION_FAILED}.
+     * 
+     * @param databaseName
+     *            the name of the database
+     * @param indexId
+     *            in which the key-value pair is located
+     * @param key
+     *            the key of the record to delete
+     * @param expected
+     *            the expected current value
+     * 
+     * @return a reference to the transaction
+     */
+    public Transaction deleteRecordIfEquals(String databaseName, int indexId, byte[] key, byte[] expected);
+    
     /**
      * Returns the list of operations contained in the transaction.
      * 
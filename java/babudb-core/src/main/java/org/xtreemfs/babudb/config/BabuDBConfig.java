@@ -62,6 +62,39 @@ public class BabuDBConfig extends Config {
      */
     protected int      numThreads;
     
+    /**
+     * The number of threads executing lookups. If -1, lookups are processed
+     * by the worker thread of the database, in the order of arrival with
+     * inserts; if 0, lookups are executed in the context of the invoking
+     * thread.
+     */
+    protected int      readThreads = -1;
+    
+    /**
+     * If true, lookups that bypass the worker threads are executed on virtual
+     * threads, one per lookup, provided that the JVM supports them.
+     */
+    protected boolean  virtualThreads;
+    
+    /**
+     * The number of shards the key space of each database is partitioned into.
+     * Inserts into different shards are processed by different worker threads.
+     * If lookups are processed by the worker threads, a lookup of a single key
+     * is processed in order with the inserts into the shard of the key. Prefix
+     * and range lookups, counts, aggregates, scans and user-defined lookups,
+     * as well as multi-lookups of keys in different shards, are processed by
+     * the worker of the first shard and are not ordered with inserts into
+     * other shards.
+     */
+    protected int      numShards = 1;
+    
+    /**
+     * The number of threads notifying listeners of asynchronous requests. If
+     * 0, listeners are notified in the context of the thread completing the
+     * request.
+     */
+    protected int      responseThreads = 1;
+    
     /**
      * MaxLogfileSize a checkpoint is generated ,if maxLogfileSize is exceeded.
      */
@@ -114,6 +147,69 @@ public class BabuDBConfig extends Config {
      */
     protected List<String> plugins = new ArrayList<String>();
     
+    /**
+     * Additional directories across which the database log is striped. The
+     * database log directory always holds the first stripe.
+     */
+    protected List<String> logStripeDirs = new ArrayList<String>();
+    
+    /**
+     * The maximum number of bytes of recently synced log entries that are kept
+     * in memory for log-tailing consumers, like the replication. 0 disables
+     * caching.
+     */
+    protected int      logTailCacheSize = 4 * 1024 * 1024;
+    
+    /**
+     * The number of index snapshots that are written concurrently when a
+     * checkpoint is created.
+     */
+    protected int      checkpointThreads = 1;
+    
+    /**
+     * The maximum rate in bytes/s at which checkpoints and snapshots are
+     * written to disk. 0 disables throttling.
+     */
+    protected int      checkpointIORate = 0;
+    
+    /**
+     * The average log sync latency in milliseconds above which the checkpoint
+     * I/O rate is reduced, in order to keep the log responsive. 0 disables
+     * adaptive throttling.
+     */
+    protected int      checkpointIOMaxSyncLatency = 0;
+    
+    /**
+     * The maximum expected time in seconds to replay the log after a restart,
+     * based on the replay throughput measured at startup. 0 disables the
+     * limit.
+     */
+    protected int      maxReplayTime = 0;
+    
+    /**
+     * The maximum estimated memory in bytes held by the in-memory overlays of
+     * all databases. 0 disables the limit.
+     */
+    protected int      maxOverlaySize = 0;
+    
+    /**
+     * The maximum time in seconds between two checkpoints, if the log is not
+     * empty. 0 disables the limit.
+     */
+    protected int      maxCheckpointInterval = 0;
+    
+    /**
+     * The log entry rate in entries/s above which the soft checkpoint limits
+     * (replay time, checkpoint interval) are relaxed. 0 disables relaxation.
+     */
+    protected int      checkpointBusyRate = 0;
+    
+    /**
+     * The class name of a custom checkpoint policy, or <code>null</code> if
+     * the default policy is used.
+     */
+    protected String   checkpointPolicy;
+    
     /**
      * Creates a new BabuDB configuration.
      * 
@@ -259,8 +355,23 @@ public class BabuDBConfig extends Config {
     }
     
     public BabuDBConfig copy() {
-        return new BabuDBConfig(baseDir, dbLogDir, numThreads, maxLogfileSize, checkInterval, syncMode,
-            pseudoSyncWait, maxQueueLength, compression, maxNumRecordsPerBlock, maxBlockFileSize);
+        BabuDBConfig copy = new BabuDBConfig(baseDir, dbLogDir, numThreads, maxLogfileSize, checkInterval,
+            syncMode, pseudoSyncWait, maxQueueLength, compression, maxNumRecordsPerBlock, maxBlockFileSize);
+        copy.logStripeDirs.addAll(logStripeDirs);
+        copy.readThreads = readThreads;
+        copy.virtualThreads = virtualThreads;
+        copy.numShards = numShards;
+        copy.responseThreads = responseThreads;
+        copy.logTailCacheSize = logTailCacheSize;
+        copy.checkpointThreads = checkpointThreads;
+        copy.checkpointIORate = checkpointIORate;
+        copy.checkpointIOMaxSyncLatency = checkpointIOMaxSyncLatency;
+        copy.maxReplayTime = maxReplayTime;
+        copy.maxOverlaySize = maxOverlaySize;
+        copy.maxCheckpointInterval = maxCheckpointInterval;
+        copy.checkpointBusyRate = checkpointBusyRate;
+        copy.checkpointPolicy = checkpointPolicy;
+        return copy;
     }
     
     /**
@@ -310,6 +421,14 @@ public class BabuDBConfig extends Config {
         
         this.maxQueueLength = this.readOptionalInt("babudb.worker.maxQueueLength", 0);
         
+        this.readThreads = this.readOptionalInt("babudb.worker.readThreads", readThreads);
+        
+        this.virtualThreads = this.readOptionalBoolean("babudb.worker.virtualThreads", virtualThreads);
+        
+        this.numShards = this.readOptionalInt("babudb.worker.numShards", numShards);
+        
+        this.responseThreads = this.readOptionalInt("babudb.responseThreads", responseThreads);
+        
         this.maxLogfileSize = this.readOptionalInt("babudb.maxLogfileSize", 1);
         
         this.checkInterval = this.readOptionalInt("babudb.checkInterval", 0);
@@ -327,6 +446,25 @@ public class BabuDBConfig extends Config {
         
         this.mmapLimit = this.readOptionalInt("babudb.mmapLimit", -1);
         
+        this.logTailCacheSize = this.readOptionalInt("babudb.logTailCacheSize", logTailCacheSize);
+        
+        this.checkpointThreads = this.readOptionalInt("babudb.checkpointThreads", checkpointThreads);
+        
+        this.checkpointIORate = this.readOptionalInt("babudb.checkpointIORate", checkpointIORate);
+        
+        this.checkpointIOMaxSyncLatency = this.readOptionalInt("babudb.checkpointIOMaxSyncLatency",
+            checkpointIOMaxSyncLatency);
+        
+        this.maxReplayTime = this.readOptionalInt("babudb.maxReplayTime", maxReplayTime);
+        
+        this.maxOverlaySize = this.readOptionalInt("babudb.maxOverlaySize", maxOverlaySize);
+        
+        this.maxCheckpointInterval = this.readOptionalInt("babudb.maxCheckpointInterval", maxCheckpointInterval);
+        
+        this.checkpointBusyRate = this.readOptionalInt("babudb.checkpointBusyRate", checkpointBusyRate);
+        
+        this.checkpointPolicy = this.readOptionalString("babudb.checkpointPolicy", checkpointPolicy);
+        
         int count = 0;
         String pluginConfigPath = null;
         while ((pluginConfigPath = readOptionalString("babudb.plugin." + count, null)) != null) {
@@ -334,9 +472,38 @@ public class BabuDBConfig extends Config {
             count++;
         }
         
+        count = 1;
+        String logStripeDir = null;
+        while ((logStripeDir = readOptionalString("babudb.logDir." + count, null)) != null) {
+            logStripeDirs.add(logStripeDir.endsWith("/") || logStripeDir.endsWith("\\") ? logStripeDir
+                : logStripeDir + File.separator);
+            count++;
+        }
+        
         checkArgs(this.baseDir, this.dbLogDir, numThreads, maxLogfileSize, 
                 checkInterval, syncMode, pseudoSyncWait, maxQueueLength, 
                 compression, maxNumRecordsPerBlock, maxBlockFileSize, mmapLimit);
+        
+        if (readThreads < -1)
+            throw new IllegalArgumentException("number of read threads must be >= -1!");
+        
+        if (numShards <= 0)
+            throw new IllegalArgumentException("number of shards must be > 0!");
+        
+        if (responseThreads < 0)
+            throw new IllegalArgumentException("number of response threads must be >= 0!");
+        
+        if (checkpointThreads <= 0)
+            throw new IllegalArgumentException("number of checkpoint threads must be > 0!");
+        
+        if (checkpointIORate < 0)
+            throw new IllegalArgumentException("checkpoint I/O rate must be >= 0!");
+        
+        if (checkpointIOMaxSyncLatency < 0)
+            throw new IllegalArgumentException("checkpoint I/O max. sync latency must be >= 0!");
+        
+        if (maxReplayTime < 0 || maxOverlaySize < 0 || maxCheckpointInterval < 0 || checkpointBusyRate < 0)
+            throw new IllegalArgumentException("checkpoint policy limits must be >= 0!");
     }
     
     public int getDebugLevel() {
@@ -359,6 +526,20 @@ public class BabuDBConfig extends Config {
         return dbLogDir;
     }
     
+    /**
+     * Returns the directories of all stripes of the database log, starting
+     * with the database log directory.
+     * 
+     * @return the database log directories
+     */
+    public String[] getDbLogDirs() {
+        String[] dirs = new String[logStripeDirs.size() + 1];
+        dirs[0] = dbLogDir;
+        for (int i = 0; i < logStripeDirs.size(); i++)
+            dirs[i + 1] = logStripeDirs.get(i);
+        return dirs;
+    }
+    
     public SyncMode getSyncMode() {
         return syncMode;
     }
@@ -371,6 +552,22 @@ public class BabuDBConfig extends Config {
         return numThreads;
     }
     
+    public int getReadThreads() {
+        return readThreads;
+    }
+    
+    public boolean getVirtualThreads() {
+        return virtualThreads;
+    }
+    
+    public int getNumShards() {
+        return numShards;
+    }
+    
+    public int getResponseThreads() {
+        return responseThreads;
+    }
+    
     public long getMaxLogfileSize() {
         return maxLogfileSize;
     }
@@ -403,6 +600,42 @@ public class BabuDBConfig extends Config {
         return this.mmapLimit;
     }
     
+    public int getLogTailCacheSize() {
+        return logTailCacheSize;
+    }
+    
+    public int getCheckpointThreads() {
+        return checkpointThreads;
+    }
+    
+    public int getCheckpointIORate() {
+        return checkpointIORate;
+    }
+    
+    public int getCheckpointIOMaxSyncLatency() {
+        return checkpointIOMaxSyncLatency;
+    }
+    
+    public int getMaxReplayTime() {
+        return maxReplayTime;
+    }
+    
+    public int getMaxOverlaySize() {
+        return maxOverlaySize;
+    }
+    
+    public int getMaxCheckpointInterval() {
+        return maxCheckpointInterval;
+    }
+    
+    public int getCheckpointBusyRate() {
+        return checkpointBusyRate;
+    }
+    
+    public String getCheckpointPolicy() {
+        return checkpointPolicy;
+    }
+    
     public List<String> getPlugins() {
         return plugins;
     }
@@ -412,19 +645,40 @@ public class BabuDBConfig extends Config {
         buf.append("############# CONFIGURATION #############\n");
         buf.append("#             database dir: " + baseDir + "\n");
         buf.append("#         database log dir: " + dbLogDir + "\n");
+        for (int i = 0; i < logStripeDirs.size(); i++) {
+            buf.append("#       database log dir " + (i + 1) + ": " + logStripeDirs.get(i) + "\n");
+        }
         buf.append("#                sync mode: " + syncMode + "\n");
         if (syncMode != SyncMode.ASYNC)
             buf.append("#     pseudo sync interval: " + pseudoSyncWait + "\n");
         buf.append("#        max. queue length: " + maxQueueLength + "\n");
         buf.append("#             num. threads: " + numThreads + "\n");
+        buf.append("#        num. read threads: " + readThreads + "\n");
+        buf.append("#   virtual lookup threads: " + virtualThreads + "\n");
+        if (numThreads > 0)
+            buf.append("#           num. DB shards: " + numShards + "\n");
+        buf.append("#    num. response threads: " + responseThreads + "\n");
         buf.append("#   checkpointing interval: " + checkInterval + "\n");
         buf.append("#       max. log file size: " + maxLogfileSize + "\n");
+        buf.append("#  num. checkpoint threads: " + checkpointThreads + "\n");
+        buf.append("#      checkpoint I/O rate: " + checkpointIORate + "\n");
+        if (checkpointIORate > 0)
+            buf.append("#    max. log sync latency: " + checkpointIOMaxSyncLatency + "\n");
+        if (checkpointPolicy != null)
+            buf.append("#        checkpoint policy: " + checkpointPolicy + "\n");
+        else {
+            buf.append("#         max. replay time: " + maxReplayTime + "\n");
+            buf.append("#        max. overlay size: " + maxOverlaySize + "\n");
+            buf.append("# max. checkpoint interval: " + maxCheckpointInterval + "\n");
+            buf.append("#     checkpoint busy rate: " + checkpointBusyRate + "\n");
+        }
         buf.append("#   num. records per block: " + maxNumRecordsPerBlock + "\n");
         buf.append("#     max. block file size: " + maxBlockFileSize + "\n");
         buf.append("#      compression enabled: " + compression + "\n");
         buf.append("#            mmap disabled: " + disableMMap + "\n");
         if (!disableMMap)
             buf.append("#               mmap limit: " + mmapLimit + "\n");
+        buf.append("#      log tail cache size: " + logTailCacheSize + "\n");
         for (int i = 0; i < plugins.size(); i++) {
             buf.append("#               plugin-" + i + ": " + plugins.get(i) + "\n");
         }
@@ -31,6 +31,8 @@ public class ConfigBuilder {
     
     private int numOfRegisteredPlugins = 0;
     
+    private int numOfLogStripes = 1;
+    
     /**
      * Sets the path in which all persistently stored data of BabuDB resides.
      * Both checkpoint and log files will be in the same directory.
@@ -64,6 +66,24 @@ public class ConfigBuilder {
         return this;
     }
     
+    /**
+     * Adds a directory across which the database log is striped, in addition
+     * to the database log directory. In order to write log entries to multiple
+     * devices in parallel, each directory should reside on a different device.
+     * 
+     * @param logDir
+     *            the additional directory for database log files
+     * @return a reference to this object
+     */
+    public ConfigBuilder addLogStripeDir(String logDir) {
+        assert (logDir != null && !logDir.equals(""));
+        
+        changes.put("babudb.logDir." + numOfLogStripes, logDir);
+        numOfLogStripes++;
+        
+        return this;
+    }
+    
     /**
      * Sets the paths in which all persistently stored data of BabuDB resides.
      * 
@@ -95,6 +115,70 @@ public class ConfigBuilder {
         return this;
     }
     
+    /**
+     * Lets lookups bypass the worker threads, so that they are no longer
+     * serialized with the inserts of the same database.
+     * 
+     * @param numThreads
+     *            the number of threads executing lookups; if set to 0, lookups
+     *            are executed in the context of the invoking thread
+     * @return a reference to this object
+     */
+    public ConfigBuilder setConcurrentReads(int numThreads) {
+        
+        changes.put("babudb.worker.readThreads", numThreads + "");
+        return this;
+    }
+    
+    /**
+     * Executes lookups that bypass the worker threads on virtual threads, one
+     * per lookup. This has no effect on JVMs without support for virtual
+     * threads, in which case the setting of
+     * {@link #setConcurrentReads(int)} applies.
+     * 
+     * @param virtualThreads
+     *            <code>true</code> to execute lookups on virtual threads
+     * @return a reference to this object
+     */
+    public ConfigBuilder setVirtualThreads(boolean virtualThreads) {
+        
+        changes.put("babudb.worker.virtualThreads", virtualThreads + "");
+        return this;
+    }
+    
+    /**
+     * Partitions the key space of each database into the given number of
+     * shards, so that inserts into the same database can be processed by
+     * multiple worker threads in parallel. Only lookups of keys in a single
+     * shard are ordered with the inserts into that shard.
+     * 
+     * @param numShards
+     *            the number of shards per database
+     * @return a reference to this object
+     */
+    public ConfigBuilder setShards(int numShards) {
+        
+        changes.put("babudb.worker.numShards", numShards + "");
+        return this;
+    }
+    
+    /**
+     * Sets the number of threads notifying the listeners of asynchronous
+     * requests. Responses with the same context, or without a context to the
+     * same listener, are always delivered by the same thread in the order of
+     * completion. If 0, listeners are notified by the thread completing the
+     * request, and must therefore not block.
+     * 
+     * @param numThreads
+     *            the number of response threads
+     * @return a reference to this object
+     */
+    public ConfigBuilder setResponseThreads(int numThreads) {
+        
+        changes.put("babudb.responseThreads", numThreads + "");
+        return this;
+    }
+    
     /**
      * Enables or disables compression of database contents.
      * 
@@ -109,6 +193,134 @@ public class ConfigBuilder {
         return this;
     }
     
+    /**
+     * Sets the maximum amount of memory used to keep recently written log
+     * entries for log-tailing consumers, like the replication.
+     * 
+     * @param bytes
+     *            the maximum number of bytes; 0 disables the cache
+     * @return a reference to this object
+     */
+    public ConfigBuilder setLogTailCacheSize(int bytes) {
+        
+        changes.put("babudb.logTailCacheSize", bytes + "");
+        return this;
+    }
+    
+    /**
+     * Sets the number of index snapshots that are written concurrently when a
+     * checkpoint is created.
+     * 
+     * @param numThreads
+     *            the number of threads writing index snapshots
+     * @return a reference to this object
+     */
+    public ConfigBuilder setCheckpointThreads(int numThreads) {
+        
+        changes.put("babudb.checkpointThreads", numThreads + "");
+        return this;
+    }
+    
+    /**
+     * Limits the rate at which checkpoints and snapshots are written to disk.
+     * 
+     * @param bytesPerSecond
+     *            the maximum rate in bytes/s, 0 if the rate is unlimited
+     * @return a reference to this object
+     */
+    public ConfigBuilder setCheckpointIORate(int bytesPerSecond) {
+        
+        changes.put("babudb.checkpointIORate", bytesPerSecond + "");
+        return this;
+    }
+    
+    /**
+     * Enables adaptive checkpoint throttling. The checkpoint I/O rate is
+     * reduced while the average log sync latency exceeds the given maximum.
+     * Requires a checkpoint I/O rate to be set.
+     * 
+     * @param millis
+     *            the maximum log sync latency in milliseconds, 0 disables
+     *            adaptive throttling
+     * @return a reference to this object
+     */
+    public ConfigBuilder setCheckpointIOMaxSyncLatency(int millis) {
+        
+        changes.put("babudb.checkpointIOMaxSyncLatency", millis + "");
+        return this;
+    }
+    
+    /**
+     * Sets the maximum expected time to replay the log after a restart. A
+     * checkpoint is created as soon as it is exceeded.
+     * 
+     * @param seconds
+     *            the maximum replay time in seconds, 0 disables the limit
+     * @return a reference to this object
+     */
+    public ConfigBuilder setMaxReplayTime(int seconds) {
+        
+        changes.put("babudb.maxReplayTime", seconds + "");
+        return this;
+    }
+    
+    /**
+     * Sets the maximum memory held by the in-memory overlays of all databases.
+     * A checkpoint is created as soon as it is exceeded.
+     * 
+     * @param bytes
+     *            the maximum overlay size in bytes, 0 disables the limit
+     * @return a reference to this object
+     */
+    public ConfigBuilder setMaxOverlaySize(int bytes) {
+        
+        changes.put("babudb.maxOverlaySize", bytes + "");
+        return this;
+    }
+    
+    /**
+     * Sets the maximum time between two checkpoints, if the log is not empty.
+     * 
+     * @param seconds
+     *            the maximum checkpoint interval in seconds, 0 disables the
+     *            limit
+     * @return a reference to this object
+     */
+    public ConfigBuilder setMaxCheckpointInterval(int seconds) {
+        
+        changes.put("babudb.maxCheckpointInterval", seconds + "");
+        return this;
+    }
+    
+    /**
+     * Sets the log entry rate above which the replay time and checkpoint
+     * interval limits are relaxed, in order to defer checkpoints to periods of
+     * low load.
+     * 
+     * @param entriesPerSecond
+     *            the rate in log entries/s, 0 disables relaxation
+     * @return a reference to this object
+     */
+    public ConfigBuilder setCheckpointBusyRate(int entriesPerSecond) {
+        
+        changes.put("babudb.checkpointBusyRate", entriesPerSecond + "");
+        return this;
+    }
+    
+    /**
+     * Replaces the default checkpoint policy with a custom one.
+     * 
+     * @param className
+     *            the name of a class implementing
+     *            {@link org.xtreemfs.babudb.lsmdb.CheckpointPolicy}
+     * @return a reference to this object
+     */
+    public ConfigBuilder setCheckpointPolicy(String className) {
+        
+        changes.put("babudb.checkpointPolicy", className);
+        return this;
+    }
+    
     /**
      * Specifies the synchronization mode for log appends.
      * 
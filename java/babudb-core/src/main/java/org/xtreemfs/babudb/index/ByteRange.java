@@ -64,6 +64,10 @@ public class ByteRange {
         this.prefix = prefix;
     }
     
+    public boolean hasPrefix() {
+        return prefix != null && prefix.length > 0;
+    }
+    
     public byte[] toBuffer() {
         byte[] tmp;
         
@@ -85,6 +89,31 @@ public class ByteRange {
         // return tmp;
     }
     
+    /**
+     * Copies at most the given number of leading bytes of the range.
+     * 
+     * @param maxLength
+     *            the maximum number of bytes; if negative, the entire range is
+     *            copied
+     * @return the copied bytes
+     */
+    public byte[] toBuffer(int maxLength) {
+        
+        int prefixLength = prefix == null ? 0 : prefix.length;
+        if (maxLength < 0 || maxLength >= prefixLength + size)
+            return toBuffer();
+        
+        byte[] tmp = new byte[maxLength];
+        prefixLength = Math.min(prefixLength, maxLength);
+        if (prefixLength > 0)
+            System.arraycopy(prefix, 0, tmp, 0, prefixLength);
+        
+        buf.position(startOffset);
+        buf.get(tmp, prefixLength, maxLength - prefixLength);
+        
+        return tmp;
+    }
+    
     public void setReusableBuf(ReusableBuffer rBuf) {
         this.rBuf = rBuf;
     }
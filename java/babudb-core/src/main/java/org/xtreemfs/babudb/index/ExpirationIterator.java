@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2008 - 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.babudb.index;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+
+import org.xtreemfs.babudb.api.database.ResultSet;
+import org.xtreemfs.babudb.api.index.ExpirationPolicy;
+
+/**
+ * A result set that omits all entries of another iterator that have expired
+ * according to an expiration policy.
+ *
+ * @author stender
+ */
+public class ExpirationIterator implements ResultSet<byte[], byte[]> {
+
+    private final Iterator<Entry<byte[], byte[]>> it;
+
+    private final ExpirationPolicy                policy;
+
+    private final long                            now;
+
+    /**
+     * the next element to return
+     */
+    private Entry<byte[], byte[]>                 nextElement;
+
+    /**
+     * Creates a new iterator.
+     *
+     * @param it
+     *            the underlying iterator
+     * @param policy
+     *            the expiration policy
+     * @param now
+     *            the current time in milliseconds since 1/1/1970
+     */
+    public ExpirationIterator(Iterator<Entry<byte[], byte[]>> it, ExpirationPolicy policy, long now) {
+
+        this.it = it;
+        this.policy = policy;
+        this.now = now;
+
+        nextElement = getNextElement();
+    }
+
+    /**
+     * Checks whether an entry has expired.
+     *
+     * @param key
+     *            the key
+     * @param value
+     *            the value
+     * @param policy
+     *            the expiration policy
+     * @param now
+     *            the current time in milliseconds since 1/1/1970
+     * @return <code>true</code>, if the entry has expired, <code>false</code>,
+     *         otherwise
+     */
+    public static boolean isExpired(byte[] key, byte[] value, ExpirationPolicy policy, long now) {
+        long expirationTime = policy.getExpirationTime(key, value);
+        return expirationTime > 0 && expirationTime <= now;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return nextElement != null;
+    }
+
+    @Override
+    public Entry<byte[], byte[]> next() {
+
+        if (nextElement == null)
+            throw new NoSuchElementException();
+
+        Entry<byte[], byte[]> element = nextElement;
+        nextElement = getNextElement();
+        return element;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void free() {
+        if (it instanceof ResultSet)
+            ((ResultSet<byte[], byte[]>) it).free();
+    }
+
+    private Entry<byte[], byte[]> getNextElement() {
+
+        while (it.hasNext()) {
+            Entry<byte[], byte[]> entry = it.next();
+            if (!isExpired(entry.getKey(), entry.getValue(), policy, now))
+                return entry;
+        }
+
+        return null;
+    }
+}
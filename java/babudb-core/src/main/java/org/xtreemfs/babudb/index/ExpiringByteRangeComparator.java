@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2008 - 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.babudb.index;
+
+import org.xtreemfs.babudb.api.index.ExpirationPolicy;
+
+/**
+ * A comparator for indices with entries that expire at individual points in
+ * time. The first eight bytes of each value contain the expiration time in
+ * milliseconds since 1/1/1970 in big-endian byte order; 0 denotes entries
+ * that do not expire. Values shorter than eight bytes do not expire.
+ * <p>
+ * Subclasses may override {@link #getExpirationTime(byte[], byte[])} to
+ * implement other policies, e.g. a time-to-live that is fixed for the index.
+ * </p>
+ *
+ * @author stender
+ *
+ */
+public class ExpiringByteRangeComparator extends DefaultByteRangeComparator implements ExpirationPolicy {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public long getExpirationTime(byte[] key, byte[] value) {
+        return value.length < 8 ? 0 : readLong(value);
+    }
+
+    /**
+     * Creates a value with an expiration time.
+     *
+     * @param expirationTime
+     *            the expiration time in milliseconds since 1/1/1970, or 0 if
+     *            the entry does not expire
+     * @param data
+     *            the data of the value
+     * @return the value
+     */
+    public static byte[] toValue(long expirationTime, byte[] data) {
+
+        byte[] value = new byte[data.length + 8];
+        for (int i = 7; i >= 0; i--) {
+            value[i] = (byte) expirationTime;
+            expirationTime >>>= 8;
+        }
+        System.arraycopy(data, 0, value, 8, data.length);
+
+        return value;
+    }
+
+    /**
+     * Returns the data of a value with an expiration time.
+     *
+     * @param value
+     *            the value
+     * @return the data
+     */
+    public static byte[] getData(byte[] value) {
+
+        byte[] data = new byte[value.length - 8];
+        System.arraycopy(value, 8, data, 0, data.length);
+
+        return data;
+    }
+
+    private static long readLong(byte[] value) {
+
+        long result = 0;
+        for (int i = 0; i < 8; i++)
+            result = (result << 8) | (value[i] & 0xFF);
+
+        return result;
+    }
+}
@@ -10,21 +10,34 @@ package org.xtreemfs.babudb.index;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.xtreemfs.babudb.api.database.Aggregate;
 import org.xtreemfs.babudb.api.database.ResultSet;
+import org.xtreemfs.babudb.api.database.ScanPage;
 import org.xtreemfs.babudb.api.index.ByteRangeComparator;
+import org.xtreemfs.babudb.api.index.ExpirationPolicy;
+import org.xtreemfs.babudb.api.index.MergeOperator;
 import org.xtreemfs.babudb.index.overlay.MultiOverlayBufferTree;
 import org.xtreemfs.babudb.index.reader.DiskIndex;
 import org.xtreemfs.babudb.index.reader.InternalBufferUtil;
 import org.xtreemfs.babudb.index.reader.InternalDiskIndexIterator;
 import org.xtreemfs.babudb.index.reader.InternalMergeIterator;
 import org.xtreemfs.babudb.index.writer.DiskIndexWriter;
+import org.xtreemfs.babudb.index.writer.IOThrottle;
 import org.xtreemfs.babudb.snapshots.SnapshotConfig;
+import org.xtreemfs.foundation.buffer.BufferPool;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.logging.Logging.Category;
 import org.xtreemfs.foundation.util.OutputUtils;
@@ -35,13 +48,57 @@ public class LSMTree {
     
     private static final byte[]       NULL_ELEMENT    = new byte[0];
     
+    /**
+     * the estimated memory overhead of an overlay entry in bytes
+     */
+    private static final int          ENTRY_OVERHEAD  = 64;
+    
     private MultiOverlayBufferTree    overlay;
     
+    /**
+     * merge operands of keys that have no value in the overlay; the operands
+     * are merged into the on-disk values when being read
+     */
+    private MultiOverlayBufferTree    operands;
+    
+    /**
+     * ranges deleted by means of range deletions, which map the first key of
+     * each range to the last key; empty keys represent unbounded ranges
+     */
+    private MultiOverlayBufferTree    rangeDeletions;
+    
     private DiskIndex                 index;
     
+    /**
+     * the path of the on-disk index, or <code>null</code> if there is none
+     */
+    private volatile String           indexFile;
+    
     private final ByteRangeComparator comp;
     
-    private final Object              lock;
+    /**
+     * the merge operator, or <code>null</code> if the index does not support
+     * merges
+     */
+    private final MergeOperator       mergeOp;
+    
+    /**
+     * the expiration policy, or <code>null</code> if entries do not expire
+     */
+    private final ExpirationPolicy    expiration;
+    
+    /**
+     * the earliest expiration time of all entries in the on-disk index, 0 if
+     * none of them expires, or -1 if it has not been determined yet
+     */
+    private volatile long             diskExpiration = -1;
+    
+    /**
+     * lock that is held exclusively while the overlays are modified as a
+     * whole, e.g. while creating a snapshot; inserts and deletions only hold
+     * it shared, as the overlays are concurrent maps
+     */
+    private final ReadWriteLock       lock;
     
     private boolean                   compressed;
     
@@ -53,13 +110,27 @@ public class LSMTree {
     
     private final int                 mmapLimitBytes;
     
+    /**
+     * the estimated number of bytes held by all in-memory overlays
+     */
+    private final AtomicLong          overlaySize;
+    
+    /**
+     * the estimated number of bytes held by the overlays below the current
+     * read-write overlay
+     */
+    private long                      snapshotOverlaySize;
+    
     /**
      * Creates a new LSM tree.
      * 
      * @param indexFile
      *            the on-disk index file - may be <code>null</code>
      * @param comp
-     *            a comparator for byte ranges
+     *            a comparator for byte ranges; if it implements
+     *            {@link MergeOperator}, the tree supports merges; if it
+     *            implements {@link ExpirationPolicy}, expired entries are
+     *            hidden and dropped when the tree is written to disk
      * @param compressed
      *            Compression of disk-index
      * @throws IOException
@@ -69,6 +140,8 @@ public class LSMTree {
         int maxBlockFileSize, boolean useMMap, int mmapLimit) throws IOException {
         
         this.comp = comp;
+        this.mergeOp = comp instanceof MergeOperator ? (MergeOperator) comp : null;
+        this.expiration = comp instanceof ExpirationPolicy ? (ExpirationPolicy) comp : null;
         this.compressed = compressed;
         this.maxEntriesPerBlock = maxEntriesPerBlock;
         this.maxBlockFileSize = maxBlockFileSize;
@@ -76,9 +149,13 @@ public class LSMTree {
         this.mmapLimitBytes = mmapLimit * 1024 * 1024;
         
         overlay = new MultiOverlayBufferTree(NULL_ELEMENT, comp);
+        operands = new MultiOverlayBufferTree(NULL_ELEMENT, comp);
+        rangeDeletions = new MultiOverlayBufferTree(NULL_ELEMENT, comp);
         totalOnDiskSize += indexFile == null ? 0 : getTotalDirSize(new File(indexFile));
         index = indexFile == null ? null : new DiskIndex(indexFile, comp, compressed, useMmap());
-        lock = new Object();
+        this.indexFile = indexFile;
+        overlaySize = new AtomicLong();
+        lock = new ReentrantReadWriteLock();
     }
     
     /**
@@ -96,9 +173,79 @@ public class LSMTree {
             return null;
         
         if (result != null)
-            return result;
+            return expire(key, result);
+        
+        if (RangeDeletionIterator.contains(key, deletedRanges(-1), comp))
+            return null;
+        
+        result = index == null ? null : index.lookup(key);
+        if (mergeOp != null)
+            result = applyOperands(expire(key, result), operands.lookupAll(key));
+        
+        return expire(key, result);
+    }
+    
+    /**
+     * Performs a lookup for multiple keys at once. The keys are sorted
+     * internally, so that the overlay and the on-disk index are traversed in
+     * key order and each on-disk block is loaded at most once.
+     * 
+     * @param keys
+     *            the keys to look up
+     * @return the values associated with the keys, in the order of the keys;
+     *         <code>null</code> for each key that is not contained in the tree
+     */
+    public byte[][] lookup(final byte[][] keys) {
+        
+        Integer[] order = new Integer[keys.length];
+        for (int i = 0; i < keys.length; i++)
+            order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer o1, Integer o2) {
+                return comp.compare(keys[o1], keys[o2]);
+            }
+        });
+        
+        byte[][] results = new byte[keys.length][];
+        
+        // look up all keys in the overlay first, and remember the positions of
+        // those that have to be looked up in the on-disk index
+        List<byte[][]> ranges = deletedRanges(-1);
+        int[] misses = new int[keys.length];
+        int numMisses = 0;
+        for (int pos : order) {
+            byte[] result = overlay.lookup(keys[pos]);
+            if (result == null) {
+                if (!RangeDeletionIterator.contains(keys[pos], ranges, comp))
+                    misses[numMisses++] = pos;
+            }
+            else if (result != NULL_ELEMENT)
+                results[pos] = expire(keys[pos], result);
+        }
         
-        return index == null ? null : index.lookup(key);
+        DiskIndex index = this.index;
+        if (numMisses == 0)
+            return results;
+        
+        if (index != null) {
+            byte[][] missingKeys = new byte[numMisses][];
+            for (int i = 0; i < numMisses; i++)
+                missingKeys[i] = keys[misses[i]];
+            
+            byte[][] indexResults = index.lookup(missingKeys);
+            for (int i = 0; i < numMisses; i++)
+                results[misses[i]] = indexResults[i];
+        }
+        
+        for (int i = 0; i < numMisses; i++) {
+            byte[] key = keys[misses[i]];
+            byte[] result = results[misses[i]];
+            if (mergeOp != null)
+                result = applyOperands(expire(key, result), operands.lookupAll(key));
+            results[misses[i]] = expire(key, result);
+        }
+        
+        return results;
     }
     
     /**
@@ -118,9 +265,16 @@ public class LSMTree {
             return null;
         
         if (result != null)
-            return result;
+            return expire(key, result);
+        
+        if (RangeDeletionIterator.contains(key, deletedRanges(snapId), comp))
+            return null;
         
-        return index == null ? null : index.lookup(key);
+        result = index == null ? null : index.lookup(key);
+        if (mergeOp != null)
+            result = applyOperands(expire(key, result), operands.lookupAll(key, snapId));
+        
+        return expire(key, result);
     }
     
     /**
@@ -201,18 +355,46 @@ public class LSMTree {
      * @return an iterator with key-value pairs
      */
     public ResultSet<byte[], byte[]> prefixLookup(byte[] prefix, boolean ascending) {
+        return prefixLookup(prefix, ascending, -1);
+    }
+    
+    /**
+     * Performs a prefix lookup that only returns the keys, or a leading part
+     * of each value. Values that are not returned are neither copied nor read
+     * from the on-disk index.
+     * 
+     * @param prefix
+     *            the prefix
+     * @param ascending
+     *            if <code>true</code>, entries will be returned in ascending
+     *            order; otherwise, they will be returned in descending order
+     * @param maxValueLength
+     *            the maximum number of leading value bytes returned per entry;
+     *            if 0, only keys are returned, with <code>null</code> values;
+     *            if negative, complete values are returned
+     * @return an iterator with key-value pairs
+     */
+    public ResultSet<byte[], byte[]> prefixLookup(byte[] prefix, boolean ascending, int maxValueLength) {
         
         if (prefix != null && prefix.length == 0)
             prefix = null;
         
+        byte[][] ovRng = comp.prefixToRange(prefix, ascending);
+        List<Iterator<Entry<byte[], byte[]>>> ops = operandLookup(ovRng[0], ovRng[1], -1, ascending);
+        
         List<Iterator<Entry<byte[], byte[]>>> list = new ArrayList<Iterator<Entry<byte[], byte[]>>>(2);
         list.add(overlay.prefixLookup(prefix, true, ascending));
-        if (index != null) {
-            byte[][] rng = comp.prefixToRange(prefix, ascending);
-            list.add(index.rangeLookup(rng[0], rng[1], ascending));
+        if (index != null || !ops.isEmpty()) {
+            // the disk index expects the bounds in ascending order; operands
+            // have to be merged into complete values
+            byte[][] rng = comp.prefixToRange(prefix, true);
+            list.add(applyRangeDeletions(applyOperands(index == null ? null : expire(index.rangeLookup(rng[0],
+                rng[1], ascending, ops.isEmpty() && expiration == null ? maxValueLength : -1)), ops, ascending),
+                deletedRanges(-1)));
         }
         
-        return new OverlayMergeIterator<byte[], byte[]>(list, comp, NULL_ELEMENT, ascending);
+        return ValueProjectionIterator.project(expire(new OverlayMergeIterator<byte[], byte[]>(list, comp,
+            NULL_ELEMENT, ascending)), maxValueLength);
     }
     
     /**
@@ -249,14 +431,19 @@ public class LSMTree {
         if (prefix != null && prefix.length == 0)
             prefix = null;
         
+        byte[][] ovRng = comp.prefixToRange(prefix, ascending);
+        List<Iterator<Entry<byte[], byte[]>>> ops = operandLookup(ovRng[0], ovRng[1], snapId, ascending);
+        
         List<Iterator<Entry<byte[], byte[]>>> list = new ArrayList<Iterator<Entry<byte[], byte[]>>>(2);
         list.add(overlay.prefixLookup(prefix, snapId, true, ascending));
-        if (index != null) {
-            byte[][] rng = comp.prefixToRange(prefix, ascending);
-            list.add(index.rangeLookup(rng[0], rng[1], ascending));
+        if (index != null || !ops.isEmpty()) {
+            // the disk index expects the bounds in ascending order
+            byte[][] rng = comp.prefixToRange(prefix, true);
+            list.add(applyRangeDeletions(applyOperands(index == null ? null : expire(index.rangeLookup(rng[0],
+                rng[1], ascending)), ops, ascending), deletedRanges(snapId)));
         }
         
-        return new OverlayMergeIterator<byte[], byte[]>(list, comp, NULL_ELEMENT, ascending);
+        return expire(new OverlayMergeIterator<byte[], byte[]>(list, comp, NULL_ELEMENT, ascending));
     }
     
     /**
@@ -291,6 +478,28 @@ public class LSMTree {
      * @return an iterator with key-value pairs
      */
     public ResultSet<byte[], byte[]> rangeLookup(byte[] from, byte[] to, boolean ascending) {
+        return rangeLookup(from, to, ascending, -1);
+    }
+    
+    /**
+     * Performs a range lookup that only returns the keys, or a leading part of
+     * each value. Values that are not returned are neither copied nor read
+     * from the on-disk index.
+     * 
+     * @param from
+     *            the first key (inclusively)
+     * @param to
+     *            the last key (exclusively)
+     * @param ascending
+     *            if <code>true</code>, entries will be returned in ascending
+     *            order; otherwise, they will be returned in descending order
+     * @param maxValueLength
+     *            the maximum number of leading value bytes returned per entry;
+     *            if 0, only keys are returned, with <code>null</code> values;
+     *            if negative, complete values are returned
+     * @return an iterator with key-value pairs
+     */
+    public ResultSet<byte[], byte[]> rangeLookup(byte[] from, byte[] to, boolean ascending, int maxValueLength) {
         
         if (from.length == 0)
             from = null;
@@ -298,12 +507,18 @@ public class LSMTree {
         if (to.length == 0)
             to = null;
         
+        List<Iterator<Entry<byte[], byte[]>>> ops = operandLookup(from, to, -1, ascending);
+        
         List<Iterator<Entry<byte[], byte[]>>> list = new ArrayList<Iterator<Entry<byte[], byte[]>>>(2);
         list.add(overlay.rangeLookup(from, to, true, ascending));
-        if (index != null)
-            list.add(index.rangeLookup(from, to, ascending));
+        if (index != null || !ops.isEmpty())
+            // operands have to be merged into complete values
+            list.add(applyRangeDeletions(applyOperands(index == null ? null : expire(index.rangeLookup(from, to,
+                ascending, ops.isEmpty() && expiration == null ? maxValueLength : -1)), ops, ascending),
+                deletedRanges(-1)));
         
-        return new OverlayMergeIterator<byte[], byte[]>(list, comp, NULL_ELEMENT, ascending);
+        return ValueProjectionIterator.project(expire(new OverlayMergeIterator<byte[], byte[]>(list, comp,
+            NULL_ELEMENT, ascending)), maxValueLength);
     }
     
     /**
@@ -349,12 +564,189 @@ public class LSMTree {
         if (to.length == 0)
             to = null;
         
+        List<Iterator<Entry<byte[], byte[]>>> ops = operandLookup(from, to, snapId, ascending);
+        
         List<Iterator<Entry<byte[], byte[]>>> list = new ArrayList<Iterator<Entry<byte[], byte[]>>>(2);
         list.add(overlay.rangeLookup(from, to, snapId, true, ascending));
-        if (index != null)
-            list.add(index.rangeLookup(from, to, ascending));
+        if (index != null || !ops.isEmpty())
+            list.add(applyRangeDeletions(applyOperands(index == null ? null : expire(index.rangeLookup(from, to,
+                ascending)), ops, ascending), deletedRanges(snapId)));
+        
+        return expire(new OverlayMergeIterator<byte[], byte[]>(list, comp, NULL_ELEMENT, ascending));
+    }
+    
+    /**
+     * Counts the entries in a range, without copying any keys or values. Keys
+     * that are only contained in the on-disk index are counted by means of the
+     * entry counts of the on-disk blocks, from which the number of on-disk
+     * keys shadowed by the overlay is subtracted.
+     * 
+     * @param from
+     *            the first key (inclusively)
+     * @param to
+     *            the last key (exclusively)
+     * @return the number of entries in the range
+     */
+    public long count(byte[] from, byte[] to) {
+        
+        if (from != null && from.length == 0)
+            from = null;
+        
+        if (to != null && to.length == 0)
+            to = null;
+        
+        if (from != null && to != null && comp.compare(from, to) >= 0)
+            return 0;
+        
+        // on-disk entries in deleted ranges and expired entries have to be
+        // skipped individually
+        if (!deletedRanges(-1).isEmpty() || expiration != null) {
+            ResultSet<byte[], byte[]> it = rangeLookup(from == null ? new byte[0] : from, to == null ? new byte[0]
+                : to, true, 0);
+            try {
+                long count = 0;
+                for (; it.hasNext(); it.next())
+                    count++;
+                return count;
+            } finally {
+                it.free();
+            }
+        }
+        
+        DiskIndex index = this.index;
+        
+        long count = 0;
+        List<byte[]> shadowedKeys = new ArrayList<byte[]>();
+        Iterator<Entry<byte[], byte[]>> it = overlay.rangeLookup(from, to, true, true);
+        while (it.hasNext()) {
+            Entry<byte[], byte[]> next = it.next();
+            if (next.getValue() != NULL_ELEMENT)
+                count++;
+            if (index != null)
+                shadowedKeys.add(next.getKey());
+        }
+        
+        if (index != null) {
+            count += index.count(from, to);
+            if (!shadowedKeys.isEmpty())
+                count -= index.countContained(shadowedKeys.toArray(new byte[shadowedKeys.size()][]));
+        }
+        
+        // keys with pending merge operands exist, unless they are already
+        // counted as part of the overlay or the on-disk index
+        if (mergeOp != null) {
+            List<byte[]> operandKeys = new ArrayList<byte[]>();
+            it = operands.rangeLookup(from, to, true, true);
+            while (it.hasNext()) {
+                byte[] key = it.next().getKey();
+                if (overlay.lookup(key) == null)
+                    operandKeys.add(key);
+            }
+            
+            count += operandKeys.size();
+            if (index != null && !operandKeys.isEmpty())
+                count -= index.countContained(operandKeys.toArray(new byte[operandKeys.size()][]));
+        }
+        
+        return count;
+    }
+    
+    /**
+     * Aggregates the entries in a range. Apart from the smallest and largest
+     * key, no keys or values are copied.
+     * 
+     * @param from
+     *            the first key (inclusively)
+     * @param to
+     *            the last key (exclusively)
+     * @return the aggregate
+     */
+    public Aggregate aggregate(byte[] from, byte[] to) {
+        
+        if (from != null && from.length == 0)
+            from = null;
+        
+        if (to != null && to.length == 0)
+            to = null;
+        
+        if (from != null && to != null && comp.compare(from, to) >= 0)
+            return new Aggregate(0, 0, null, null);
+        
+        // pending merge operands have to be merged into complete values, and
+        // on-disk entries in deleted ranges and expired entries have to be
+        // skipped individually
+        if (!operandLookup(from, to, -1, true).isEmpty() || !deletedRanges(-1).isEmpty() || expiration != null) {
+            ResultSet<byte[], byte[]> it = rangeLookup(from == null ? new byte[0] : from, to == null ? new byte[0]
+                : to, true);
+            try {
+                return Aggregate.compute(it);
+            } finally {
+                it.free();
+            }
+        }
+        
+        long count = 0;
+        long totalValueLength = 0;
+        byte[] minKey = null;
+        Object maxKey = null;
+        
+        InternalMergeIterator it = internalRangeLookup(from, to);
+        try {
+            while (it.hasNext()) {
+                
+                Entry<Object, Object> next = it.next();
+                if (count == 0)
+                    minKey = InternalBufferUtil.toBuffer(next.getKey());
+                count++;
+                totalValueLength += InternalBufferUtil.size(next.getValue());
+                maxKey = next.getKey();
+                
+                // the last entry of an on-disk block carries the block buffer;
+                // the key has to be copied before the buffer is freed
+                if (next.getValue() instanceof ByteRange
+                    && ((ByteRange) next.getValue()).getReusableBuf() != null) {
+                    maxKey = InternalBufferUtil.toBuffer(maxKey);
+                    BufferPool.free(((ByteRange) next.getValue()).getReusableBuf());
+                }
+            }
+        } finally {
+            it.free();
+        }
         
-        return new OverlayMergeIterator<byte[], byte[]>(list, comp, NULL_ELEMENT, ascending);
+        return new Aggregate(count, totalValueLength, minKey, maxKey == null ? null : InternalBufferUtil
+                .toBuffer(maxKey));
+    }
+    
+    /**
+     * Retrieves a page of a range scan in ascending key order. The scan starts
+     * at <code>from</code> or, if a page has been retrieved before, right after
+     * the last key of the previous page.
+     * 
+     * @param from
+     *            the first key (inclusively)
+     * @param to
+     *            the last key (exclusively)
+     * @param lastKey
+     *            the last key of the previous page, or <code>null</code>
+     * @param pageSize
+     *            the maximum number of entries on the page
+     * @return the page
+     */
+    public ScanPage scan(byte[] from, byte[] to, byte[] lastKey, int pageSize) {
+        
+        if (to != null && to.length == 0)
+            to = null;
+        
+        if (lastKey != null)
+            from = lastKey;
+        
+        ResultSet<byte[], byte[]> it = rangeLookup(from == null ? new byte[0] : from, to == null ? new byte[0]
+            : to, true);
+        try {
+            return ScanPage.read(it, lastKey, to, pageSize);
+        } finally {
+            it.free();
+        }
     }
     
     /**
@@ -366,8 +758,12 @@ public class LSMTree {
      *            the value
      */
     public void insert(byte[] key, byte[] value) {
-        synchronized (lock) {
+        lock.readLock().lock();
+        try {
             overlay.insert(key, value);
+            overlaySize.addAndGet(key.length + (value == null ? 0 : value.length) + ENTRY_OVERHEAD);
+        } finally {
+            lock.readLock().unlock();
         }
     }
     
@@ -379,18 +775,220 @@ public class LSMTree {
      *            the key
      */
     public void delete(byte[] key) {
-        synchronized (lock) {
+        lock.readLock().lock();
+        try {
             overlay.insert(key, null);
+            overlaySize.addAndGet(key.length + ENTRY_OVERHEAD);
+        } finally {
+            lock.readLock().unlock();
         }
     }
     
+    /**
+     * Merges an operand into the value of a key. If the value is held by the
+     * overlay, the operand is merged right away. Otherwise, the operand is
+     * kept until the value is read or the overlay is written to disk, so that
+     * the on-disk index does not have to be accessed.
+     * 
+     * @param key
+     *            the key
+     * @param operand
+     *            the operand
+     * @throws UnsupportedOperationException
+     *             if the tree does not support merges
+     */
+    public void merge(byte[] key, byte[] operand) {
+        
+        if (mergeOp == null)
+            throw new UnsupportedOperationException("index does not support merges");
+        
+        lock.writeLock().lock();
+        try {
+            
+            byte[] value = overlay.lookup(key);
+            if (value != null || RangeDeletionIterator.contains(key, deletedRanges(-1), comp)) {
+                value = mergeOp.merge(value == null || value == NULL_ELEMENT ? null : expire(key, value), operand);
+                overlay.insert(key, value);
+                overlaySize.addAndGet(key.length + value.length + ENTRY_OVERHEAD);
+            }
+            
+            // operands of different overlays are not combined, so that the
+            // operands of the older overlays are not merged again once they
+            // have been written to disk
+            else {
+                byte[] pending = operands.lookupCurrent(key);
+                operands.insert(key, pending == null ? operand : mergeOp.merge(pending, operand));
+                overlaySize.addAndGet(key.length + operand.length + ENTRY_OVERHEAD);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Deletes all key-value pairs in a range. Keys in the range that are held
+     * by the overlay are deleted individually, whereas all on-disk entries in
+     * the range are hidden by a single range deletion, which is applied when
+     * the tree is written to disk.
+     * 
+     * @param from
+     *            the first key (inclusively); if <code>null</code> or empty,
+     *            the range starts with the first key
+     * @param to
+     *            the last key (exclusively); if <code>null</code> or empty,
+     *            the range ends with the last key
+     */
+    public void deleteRange(byte[] from, byte[] to) {
+        
+        if (from != null && from.length == 0)
+            from = null;
+        
+        if (to != null && to.length == 0)
+            to = null;
+        
+        if (from != null && to != null && comp.compare(from, to) >= 0)
+            return;
+        
+        lock.writeLock().lock();
+        try {
+            
+            List<byte[]> keys = new ArrayList<byte[]>();
+            Iterator<Entry<byte[], byte[]>> it = overlay.rangeLookup(from, to, false, true);
+            while (it.hasNext())
+                keys.add(it.next().getKey());
+            
+            // keys with pending operands only are deleted like keys in the
+            // overlay, so that the operands are hidden
+            it = operands.rangeLookup(from, to, true, true);
+            while (it.hasNext()) {
+                byte[] key = it.next().getKey();
+                if (overlay.lookup(key) == null)
+                    keys.add(key);
+            }
+            
+            for (byte[] key : keys) {
+                overlay.insert(key, null);
+                overlaySize.addAndGet(key.length + ENTRY_OVERHEAD);
+            }
+            
+            // if the current overlay already contains a range with the same
+            // first key, the longer one of both ranges is retained
+            byte[] start = from == null ? new byte[0] : from;
+            byte[] end = rangeDeletions.lookupCurrent(start);
+            if (end == null || (end.length != 0 && (to == null || comp.compare(to, end) > 0)))
+                end = to == null ? new byte[0] : to;
+            
+            rangeDeletions.insert(start, end);
+            overlaySize.addAndGet(start.length + end.length + ENTRY_OVERHEAD);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Returns the merge operator of the tree.
+     * 
+     * @return the merge operator, or <code>null</code> if the tree does not
+     *         support merges
+     */
+    public MergeOperator getMergeOperator() {
+        return mergeOp;
+    }
+    
     /**
      * Creates a new in-memory snapshot.
      * 
      * @return the snapshot ID
      */
     public int createSnapshot() {
-        return overlay.newOverlay();
+        lock.writeLock().lock();
+        try {
+            snapshotOverlaySize = overlaySize.get();
+            operands.newOverlay();
+            rangeDeletions.newOverlay();
+            return overlay.newOverlay();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Checks whether the tree has been modified since it has been linked to
+     * its on-disk index, up to a given in-memory snapshot.
+     * 
+     * @param snapId
+     *            the snapshot ID
+     * @return <code>true</code>, if any keys have been inserted or deleted
+     *         before the snapshot was created, or if entries of the on-disk
+     *         index have expired, <code>false</code>, otherwise
+     */
+    public boolean isModified(int snapId) {
+        return !overlay.isEmpty(snapId) || !operands.isEmpty(snapId) || !rangeDeletions.isEmpty(snapId)
+            || containsExpiredEntries();
+    }
+    
+    /**
+     * Checks whether the on-disk index contains entries that have expired and
+     * have to be dropped by rewriting the index. The earliest expiration time
+     * of all on-disk entries is determined by a scan once per on-disk index.
+     * As the on-disk index is only replaced by checkpoints, this method must
+     * only be invoked by the checkpointer.
+     * 
+     * @return <code>true</code>, if expired entries are stored on disk,
+     *         <code>false</code>, otherwise
+     */
+    private boolean containsExpiredEntries() {
+        
+        DiskIndex index = this.index;
+        if (expiration == null || index == null)
+            return false;
+        
+        if (diskExpiration == -1) {
+            long earliest = 0;
+            ResultSet<byte[], byte[]> it = index.rangeLookup(null, null, true);
+            try {
+                while (it.hasNext()) {
+                    Entry<byte[], byte[]> next = it.next();
+                    long time = expiration.getExpirationTime(next.getKey(), next.getValue());
+                    if (time > 0 && (earliest == 0 || time < earliest))
+                        earliest = time;
+                }
+            } finally {
+                it.free();
+            }
+            diskExpiration = earliest;
+        }
+        
+        return diskExpiration > 0 && diskExpiration <= System.currentTimeMillis();
+    }
+    
+    /**
+     * Returns the path of the on-disk index the tree is linked to.
+     * 
+     * @return the path of the on-disk index, or <code>null</code>, if the tree
+     *         has no on-disk index
+     */
+    public String getIndexFile() {
+        return indexFile;
+    }
+    
+    /**
+     * Returns the path of the on-disk index if it contains all data of the
+     * given snapshot, i.e. if the snapshot's overlays are empty.
+     * 
+     * @param snapId
+     *            the snapshot ID
+     * @return the path of the on-disk index, or <code>null</code> if the
+     *         snapshot has been modified or the tree has no on-disk index
+     */
+    public String getUnmodifiedIndexFile(int snapId) {
+        lock.writeLock().lock();
+        try {
+            return overlay.isEmpty(snapId) && operands.isEmpty(snapId) && rangeDeletions.isEmpty(snapId) ? indexFile
+                : null;
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
     
     /**
@@ -404,11 +1002,29 @@ public class LSMTree {
      *             if an I/O error occurs while writing the snapshot
      */
     public void materializeSnapshot(String targetFile, int snapId) throws IOException {
+        materializeSnapshot(targetFile, snapId, (IOThrottle) null);
+    }
+    
+    /**
+     * Writes an in-memory snapshot to a file on disk, at the rate permitted by
+     * the given throttle.
+     * 
+     * @param targetFile
+     *            the file to which to write the snapshot
+     * @param snapId
+     *            the snapshot ID
+     * @param throttle
+     *            the throttle, or <code>null</code> if the snapshot is written
+     *            at full speed
+     * @throws IOException
+     *             if an I/O error occurs while writing the snapshot
+     */
+    public void materializeSnapshot(String targetFile, int snapId, IOThrottle throttle) throws IOException {
         
         DiskIndexWriter writer = new DiskIndexWriter(targetFile, maxEntriesPerBlock, compressed,
-            maxBlockFileSize);
+            maxBlockFileSize, throttle);
         
-        InternalMergeIterator it = internalPrefixLookup(null, snapId, true);
+        ResultSet<Object, Object> it = snapshotLookup(null, snapId);
         writer.writeIndex(it);
         it.free();
     }
@@ -429,9 +1045,32 @@ public class LSMTree {
      */
     public void materializeSnapshot(String targetFile, final int snapId, final int indexId,
         final SnapshotConfig snap) throws IOException {
+        materializeSnapshot(targetFile, snapId, indexId, snap, null);
+    }
+    
+    /**
+     * Writes a certain part of an in-memory snapshot to a file on disk, at the
+     * rate permitted by the given throttle.
+     * 
+     * @param targetFile
+     *            the file to which to write the snapshot
+     * @param snapId
+     *            the snapshot ID
+     * @param indexId
+     *            the id used by the database to identify this index
+     * @param snap
+     *            the snapshot configuration
+     * @param throttle
+     *            the throttle, or <code>null</code> if the snapshot is written
+     *            at full speed
+     * @throws IOException
+     *             if an I/O error occurs while writing the snapshot
+     */
+    public void materializeSnapshot(String targetFile, final int snapId, final int indexId,
+        final SnapshotConfig snap, IOThrottle throttle) throws IOException {
         
         DiskIndexWriter writer = new DiskIndexWriter(targetFile, maxEntriesPerBlock, compressed,
-            maxBlockFileSize);
+            maxBlockFileSize, throttle);
         writer.writeIndex(new ResultSet<Object, Object>() {
             
             private ResultSet<Object, Object>[] iterators;
@@ -448,7 +1087,7 @@ public class LSMTree {
                 if (prefixes != null) {
                     iterators = new ResultSet[prefixes.length];
                     for (int i = 0; i < prefixes.length; i++)
-                        iterators[i] = internalPrefixLookup(prefixes[i], snapId, true);
+                        iterators[i] = snapshotLookup(prefixes[i], snapId);
                 } else {
                     iterators = new ResultSet[] { prefixLookup(null, snapId, true) };
                 }
@@ -525,16 +1164,40 @@ public class LSMTree {
      */
     public void linkToSnapshot(String snapshotFile) throws IOException {
         final DiskIndex oldIndex = index;
-        synchronized (lock) {
+        lock.writeLock().lock();
+        try {
+            // an index that has been carried forward has been renamed, and
+            // still contains the same entries
+            if (indexFile == null || new File(indexFile).exists())
+                diskExpiration = -1;
             totalOnDiskSize -= index == null ? 0 : index.getSize();
             index = new DiskIndex(snapshotFile, comp, this.compressed, useMmap());
+            indexFile = snapshotFile;
             totalOnDiskSize += index.getSize();
             if (oldIndex != null)
                 oldIndex.destroy();
             overlay.cleanup();
+            operands.cleanup();
+            rangeDeletions.cleanup();
+            overlaySize.set(Math.max(0, overlaySize.get() - snapshotOverlaySize));
+            snapshotOverlaySize = 0;
+        } finally {
+            lock.writeLock().unlock();
         }
     }
     
+    /**
+     * Returns an estimate of the memory held by the in-memory overlays of the
+     * tree, i.e. by all insertions and deletions since the latest snapshot the
+     * tree has been linked to. Keys that have been overwritten are counted
+     * once per modification.
+     * 
+     * @return the estimated overlay size in bytes
+     */
+    public long getOverlaySize() {
+        return overlaySize.get();
+    }
+    
     /**
      * Checks if files containing index data are memory-mapped.
      * 
@@ -558,12 +1221,19 @@ public class LSMTree {
      */
     public void destroy() throws IOException {
         
-        synchronized (lock) {
+        lock.writeLock().lock();
+        try {
             if (index != null) {
                 totalOnDiskSize -= index.getSize();
                 index.destroy();
             }
             overlay.cleanup();
+            operands.cleanup();
+            rangeDeletions.cleanup();
+            overlaySize.set(0);
+            snapshotOverlaySize = 0;
+        } finally {
+            lock.writeLock().unlock();
         }
     }
     
@@ -599,13 +1269,213 @@ public class LSMTree {
             ascending);
         InternalDiskIndexIterator diskIndexIterator = null;
         if (index != null) {
-            byte[][] rng = comp.prefixToRange(prefix, ascending);
+            // the disk index expects the bounds in ascending order
+            byte[][] rng = comp.prefixToRange(prefix, true);
             diskIndexIterator = index.internalRangeLookup(rng[0], rng[1], ascending);
         }
         
         return new InternalMergeIterator(overlayIterator, diskIndexIterator, comp, NULL_ELEMENT, ascending);
     }
     
+    /**
+     * Performs a range lookup in ascending key order.
+     * 
+     * <b>WARNING:</b> This method should only be accessed internally, as it
+     * provides access to internal index buffers that have to remain immutable.
+     * 
+     * @param from
+     *            the first key (inclusively)
+     * @param to
+     *            the last key (exclusively)
+     * @return an iterator with references to internally used buffers
+     */
+    protected InternalMergeIterator internalRangeLookup(byte[] from, byte[] to) {
+        
+        Iterator<Entry<byte[], byte[]>> overlayIterator = overlay.rangeLookup(from, to, true, true);
+        DiskIndex index = this.index;
+        InternalDiskIndexIterator diskIndexIterator = index == null ? null : index.internalRangeLookup(
+            from, to, true);
+        
+        return new InternalMergeIterator(overlayIterator, diskIndexIterator, comp, NULL_ELEMENT, true);
+    }
+    
+    /**
+     * Returns the content of an in-memory snapshot that is written to disk.
+     * Pending merge operands are merged into the values, so that they are
+     * persisted along with them, and entries in deleted ranges as well as
+     * expired entries are omitted.
+     * 
+     * @param prefix
+     *            the prefix
+     * @param snapId
+     *            the snapshot ID
+     * @return an iterator with key-value pairs in ascending order
+     */
+    private ResultSet<Object, Object> snapshotLookup(byte[] prefix, int snapId) {
+        
+        byte[][] rng = comp.prefixToRange(prefix != null && prefix.length == 0 ? null : prefix, true);
+        if (operandLookup(rng[0], rng[1], snapId, true).isEmpty() && deletedRanges(snapId).isEmpty()
+            && expiration == null)
+            return internalPrefixLookup(prefix, snapId, true);
+        
+        final ResultSet<byte[], byte[]> it = prefixLookup(prefix, snapId, true);
+        return new ResultSet<Object, Object>() {
+            
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+            
+            @Override
+            public Entry<Object, Object> next() {
+                Entry<byte[], byte[]> entry = it.next();
+                return new SimpleImmutableEntry<Object, Object>(entry.getKey(), entry.getValue());
+            }
+            
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+            
+            @Override
+            public void free() {
+                it.free();
+            }
+        };
+    }
+    
+    /**
+     * Returns iterators with the pending merge operands in a range.
+     * 
+     * @param from
+     *            the first key (inclusively)
+     * @param to
+     *            the last key (exclusively)
+     * @param snapId
+     *            the snapshot ID, or -1 for the current overlay
+     * @param ascending
+     *            if <code>true</code>, entries will be returned in ascending
+     *            order; otherwise, they will be returned in descending order
+     * @return an iterator for each overlay with operands in the range,
+     *         starting with the latest overlay
+     */
+    private List<Iterator<Entry<byte[], byte[]>>> operandLookup(byte[] from, byte[] to, int snapId,
+        boolean ascending) {
+        
+        if (mergeOp == null)
+            return Collections.emptyList();
+        
+        List<Iterator<Entry<byte[], byte[]>>> its = snapId < 0 ? operands.rangeLookupOverlays(from, to,
+            ascending) : operands.rangeLookupOverlays(from, to, snapId, ascending);
+        
+        List<Iterator<Entry<byte[], byte[]>>> result = new ArrayList<Iterator<Entry<byte[], byte[]>>>(its
+                .size());
+        for (Iterator<Entry<byte[], byte[]>> it : its)
+            if (it.hasNext())
+                result.add(it);
+        
+        return result;
+    }
+    
+    /**
+     * Merges pending operands into the entries of an iterator.
+     * 
+     * @param it
+     *            the iterator, or <code>null</code>
+     * @param operandIts
+     *            the operands, as returned by
+     *            {@link #operandLookup(byte[], byte[], int, boolean)}
+     * @param ascending
+     *            the order of the iterators
+     * @return an iterator with the resulting key-value pairs
+     */
+    private Iterator<Entry<byte[], byte[]>> applyOperands(Iterator<Entry<byte[], byte[]>> it,
+        List<Iterator<Entry<byte[], byte[]>>> operandIts, boolean ascending) {
+        return operandIts.isEmpty() ? it : new MergeOperandIterator(operandIts, it, comp, mergeOp, ascending);
+    }
+    
+    /**
+     * Returns all deleted ranges.
+     * 
+     * @param snapId
+     *            the snapshot ID, or -1 for the current overlay
+     * @return the deleted ranges, each of which consists of the first key
+     *         (inclusively) and the last key (exclusively), where
+     *         <code>null</code> bounds are unbounded
+     */
+    private List<byte[][]> deletedRanges(int snapId) {
+        
+        if (snapId < 0 ? rangeDeletions.isEmpty() : rangeDeletions.isEmpty(snapId))
+            return Collections.emptyList();
+        
+        List<Iterator<Entry<byte[], byte[]>>> its = snapId < 0 ? rangeDeletions.rangeLookupOverlays(null, null,
+            true) : rangeDeletions.rangeLookupOverlays(null, null, snapId, true);
+        
+        List<byte[][]> ranges = new ArrayList<byte[][]>();
+        for (Iterator<Entry<byte[], byte[]>> it : its)
+            while (it.hasNext()) {
+                Entry<byte[], byte[]> next = it.next();
+                ranges.add(new byte[][] { next.getKey().length == 0 ? null : next.getKey(),
+                    next.getValue().length == 0 ? null : next.getValue() });
+            }
+        
+        return ranges;
+    }
+    
+    /**
+     * Hides all entries of an iterator that are contained in deleted ranges.
+     * 
+     * @param it
+     *            the iterator
+     * @param ranges
+     *            the deleted ranges, as returned by {@link #deletedRanges(int)}
+     * @return an iterator with the remaining key-value pairs
+     */
+    private Iterator<Entry<byte[], byte[]>> applyRangeDeletions(Iterator<Entry<byte[], byte[]>> it,
+        List<byte[][]> ranges) {
+        return ranges.isEmpty() ? it : new RangeDeletionIterator(it, ranges, comp);
+    }
+    
+    /**
+     * Hides a value if it has expired.
+     * 
+     * @param key
+     *            the key
+     * @param value
+     *            the value, or <code>null</code>
+     * @return the value, or <code>null</code> if it has expired
+     */
+    private byte[] expire(byte[] key, byte[] value) {
+        return value == null || expiration == null
+            || !ExpirationIterator.isExpired(key, value, expiration, System.currentTimeMillis()) ? value : null;
+    }
+    
+    /**
+     * Hides all expired entries of an iterator.
+     * 
+     * @param it
+     *            the iterator
+     * @return an iterator with the remaining key-value pairs
+     */
+    private ResultSet<byte[], byte[]> expire(ResultSet<byte[], byte[]> it) {
+        return expiration == null ? it : new ExpirationIterator(it, expiration, System.currentTimeMillis());
+    }
+    
+    /**
+     * Merges pending operands into a value.
+     * 
+     * @param value
+     *            the value, or <code>null</code>
+     * @param operands
+     *            the operands, starting with the one of the latest overlay
+     * @return the resulting value
+     */
+    private byte[] applyOperands(byte[] value, List<byte[]> operands) {
+        for (int i = operands.size() - 1; i >= 0; i--)
+            value = mergeOp.merge(value, operands.get(i));
+        return value;
+    }
+    
     private static long getTotalDirSize(File dir) {
         
         if (!dir.exists())
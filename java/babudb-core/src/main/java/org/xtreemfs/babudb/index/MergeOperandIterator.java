@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2008 - 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.babudb.index;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+
+import org.xtreemfs.babudb.api.database.ResultSet;
+import org.xtreemfs.babudb.api.index.ByteRangeComparator;
+import org.xtreemfs.babudb.api.index.MergeOperator;
+
+/**
+ * An iterator that merges the pending merge operands of a list of overlay
+ * trees into the entries of an underlying iterator. If a key occurs in
+ * multiple overlay trees, the operands are merged in the order in which the
+ * overlays have been created, i.e. the operand in the last tree of the list is
+ * merged first.
+ *
+ * @author stender
+ *
+ */
+public class MergeOperandIterator implements ResultSet<byte[], byte[]> {
+
+    /**
+     * the next element to return
+     */
+    private Entry<byte[], byte[]>                        nextElement;
+
+    /**
+     * a list of potentially next elements; the last one is the next element
+     * of the underlying iterator
+     */
+    private final List<Entry<byte[], byte[]>>            nextElements;
+
+    /**
+     * a list of all iterators to merge
+     */
+    private final List<Iterator<Entry<byte[], byte[]>>>  its;
+
+    private final ByteRangeComparator                    comp;
+
+    private final MergeOperator                          mergeOp;
+
+    private final boolean                                ascending;
+
+    /**
+     * Creates a new iterator.
+     *
+     * @param operandIts
+     *            iterators with the merge operands of the overlay trees,
+     *            starting with the latest overlay
+     * @param it
+     *            the underlying iterator, or <code>null</code> if there is
+     *            none
+     * @param comp
+     *            the comparator for the keys
+     * @param mergeOp
+     *            the merge operator
+     * @param ascending
+     *            if <code>true</code>, all iterators return their entries in
+     *            ascending order; otherwise, they return them in descending
+     *            order
+     */
+    public MergeOperandIterator(List<Iterator<Entry<byte[], byte[]>>> operandIts,
+        Iterator<Entry<byte[], byte[]>> it, ByteRangeComparator comp, MergeOperator mergeOp,
+        boolean ascending) {
+
+        this.comp = comp;
+        this.mergeOp = mergeOp;
+        this.ascending = ascending;
+
+        its = new ArrayList<Iterator<Entry<byte[], byte[]>>>(operandIts);
+        its.add(it);
+
+        nextElements = new ArrayList<Entry<byte[], byte[]>>(its.size());
+        for (Iterator<Entry<byte[], byte[]>> i : its)
+            nextElements.add(i != null && i.hasNext() ? i.next() : null);
+
+        nextElement = getNextElement();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return nextElement != null;
+    }
+
+    @Override
+    public Entry<byte[], byte[]> next() {
+
+        if (nextElement == null)
+            throw new NoSuchElementException();
+
+        Entry<byte[], byte[]> element = nextElement;
+        nextElement = getNextElement();
+        return element;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void free() {
+        Iterator<Entry<byte[], byte[]>> it = its.get(its.size() - 1);
+        if (it instanceof ResultSet<?, ?>)
+            ((ResultSet<?, ?>) it).free();
+    }
+
+    private Entry<byte[], byte[]> getNextElement() {
+
+        // find the next key
+        byte[] key = null;
+        for (Entry<byte[], byte[]> entry : nextElements) {
+            if (entry == null)
+                continue;
+            if (key == null || (ascending ? comp.compare(entry.getKey(), key) < 0 : comp.compare(entry.getKey(),
+                key) > 0))
+                key = entry.getKey();
+        }
+
+        if (key == null)
+            return null;
+
+        // merge all operands for the key into the value of the underlying
+        // iterator, starting with the operands of the oldest overlay
+        Entry<byte[], byte[]> entry = null;
+        byte[] value = null;
+        for (int i = nextElements.size() - 1; i >= 0; i--) {
+
+            Entry<byte[], byte[]> next = nextElements.get(i);
+            if (next == null || comp.compare(next.getKey(), key) != 0)
+                continue;
+
+            if (i == nextElements.size() - 1) {
+                entry = next;
+                value = entry.getValue();
+            } else {
+                value = mergeOp.merge(value, next.getValue());
+                entry = null;
+            }
+
+            Iterator<Entry<byte[], byte[]>> it = its.get(i);
+            nextElements.set(i, it.hasNext() ? it.next() : null);
+        }
+
+        return entry != null ? entry : new SimpleImmutableEntry<byte[], byte[]>(key, value);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2008 - 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.babudb.index;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+
+import org.xtreemfs.babudb.api.database.ResultSet;
+import org.xtreemfs.babudb.api.index.ByteRangeComparator;
+
+/**
+ * A result set that omits all entries of another iterator whose keys are
+ * contained in one of a list of deleted ranges. This is used to hide on-disk
+ * entries that have been deleted by means of range deletions, until the
+ * deletions are applied to the on-disk index.
+ *
+ * @author stender
+ */
+public class RangeDeletionIterator implements ResultSet<byte[], byte[]> {
+
+    private final Iterator<Entry<byte[], byte[]>> it;
+
+    private final List<byte[][]>                  ranges;
+
+    private final ByteRangeComparator             comp;
+
+    /**
+     * the next element to return
+     */
+    private Entry<byte[], byte[]>                 nextElement;
+
+    /**
+     * Creates a new iterator.
+     *
+     * @param it
+     *            the underlying iterator
+     * @param ranges
+     *            the deleted ranges, each of which consists of the first key
+     *            (inclusively) and the last key (exclusively), where
+     *            <code>null</code> bounds are unbounded
+     * @param comp
+     *            the comparator for the keys
+     */
+    public RangeDeletionIterator(Iterator<Entry<byte[], byte[]>> it, List<byte[][]> ranges,
+        ByteRangeComparator comp) {
+
+        this.it = it;
+        this.ranges = ranges;
+        this.comp = comp;
+
+        nextElement = getNextElement();
+    }
+
+    /**
+     * Checks whether a key is contained in one of the given ranges.
+     *
+     * @param key
+     *            the key
+     * @param ranges
+     *            the ranges
+     * @param comp
+     *            the comparator for the keys
+     * @return <code>true</code>, if the key is contained in a range,
+     *         <code>false</code>, otherwise
+     */
+    public static boolean contains(byte[] key, List<byte[][]> ranges, ByteRangeComparator comp) {
+
+        for (byte[][] range : ranges)
+            if ((range[0] == null || comp.compare(key, range[0]) >= 0)
+                && (range[1] == null || comp.compare(key, range[1]) < 0))
+                return true;
+
+        return false;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return nextElement != null;
+    }
+
+    @Override
+    public Entry<byte[], byte[]> next() {
+
+        if (nextElement == null)
+            throw new NoSuchElementException();
+
+        Entry<byte[], byte[]> element = nextElement;
+        nextElement = getNextElement();
+        return element;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void free() {
+        if (it instanceof ResultSet)
+            ((ResultSet<byte[], byte[]>) it).free();
+    }
+
+    private Entry<byte[], byte[]> getNextElement() {
+
+        while (it.hasNext()) {
+            Entry<byte[], byte[]> entry = it.next();
+            if (!contains(entry.getKey(), ranges, comp))
+                return entry;
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2008 - 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ * 
+ * Licensed under the BSD License, see LICENSE file for details.
+ * 
+ */
+
+package org.xtreemfs.babudb.index;
+
+import java.util.Map.Entry;
+
+import org.xtreemfs.babudb.api.database.ResultSet;
+
+/**
+ * A result set that truncates the values of the entries of another result
+ * set to a maximum length, or drops them entirely. This is used to apply a
+ * value projection to in-memory entries, which are not subject to the
+ * projection performed when reading on-disk entries.
+ * 
+ * @author stender
+ */
+public class ValueProjectionIterator implements ResultSet<byte[], byte[]> {
+    
+    private final ResultSet<byte[], byte[]> it;
+    
+    private final int                       maxValueLength;
+    
+    private ValueProjectionIterator(ResultSet<byte[], byte[]> it, int maxValueLength) {
+        this.it = it;
+        this.maxValueLength = maxValueLength;
+    }
+    
+    /**
+     * Applies a value projection to a result set.
+     * 
+     * @param it
+     *            the result set
+     * @param maxValueLength
+     *            the maximum number of leading value bytes returned per entry;
+     *            if 0, all values are <code>null</code>; if negative, the
+     *            result set is returned as is
+     * @return the projected result set
+     */
+    public static ResultSet<byte[], byte[]> project(ResultSet<byte[], byte[]> it, int maxValueLength) {
+        return maxValueLength < 0 ? it : new ValueProjectionIterator(it, maxValueLength);
+    }
+    
+    /**
+     * Applies a value projection to a single value.
+     * 
+     * @param value
+     *            the value
+     * @param maxValueLength
+     *            the maximum length; if 0, <code>null</code> is returned; if
+     *            negative, the value is returned as is
+     * @return the projected value
+     */
+    public static byte[] project(byte[] value, int maxValueLength) {
+        
+        if (maxValueLength == 0 || value == null)
+            return null;
+        
+        if (maxValueLength < 0 || value.length <= maxValueLength)
+            return value;
+        
+        byte[] tmp = new byte[maxValueLength];
+        System.arraycopy(value, 0, tmp, 0, maxValueLength);
+        return tmp;
+    }
+    
+    @Override
+    public boolean hasNext() {
+        return it.hasNext();
+    }
+    
+    @Override
+    public Entry<byte[], byte[]> next() {
+        
+        final Entry<byte[], byte[]> entry = it.next();
+        final byte[] value = project(entry.getValue(), maxValueLength);
+        
+        return new Entry<byte[], byte[]>() {
+            
+            @Override
+            public byte[] getKey() {
+                return entry.getKey();
+            }
+            
+            @Override
+            public byte[] getValue() {
+                return value;
+            }
+            
+            @Override
+            public byte[] setValue(byte[] value) {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+    
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public void free() {
+        it.free();
+    }
+    
+}
@@ -129,6 +129,38 @@ public class MultiOverlayTree<K, V> {
         overlayId = 0;
     }
     
+    /**
+     * Checks whether the current overlay and all overlays below it are empty.
+     * 
+     * @return <code>true</code>, if no key has been inserted or removed in any
+     *         overlay, <code>false</code>, otherwise
+     */
+    public boolean isEmpty() {
+        for (OverlayTreeList<K, V> list = treeList; list != null; list = list.next)
+            if (!list.tree.isEmpty())
+                return false;
+        return true;
+    }
+    
+    /**
+     * Checks whether the given overlay and all overlays below it are empty.
+     * 
+     * @param overlayId
+     *            the overlay ID
+     * @return <code>true</code>, if no key has been inserted or removed in the
+     *         overlay associated with the overlay ID, <code>false</code>,
+     *         otherwise or if the overlay does not exist (anymore)
+     */
+    public boolean isEmpty(int overlayId) {
+        OverlayTreeList<K, V> overlay = overlayMap.get(overlayId);
+        if (overlay == null)
+            return false;
+        for (OverlayTreeList<K, V> list = overlay; list != null; list = list.next)
+            if (!list.tree.isEmpty())
+                return false;
+        return true;
+    }
+    
     /**
      * Inserts a key-value pair in the LSM tree. If the value is
      * <code>null</code>, the key will be removed.
@@ -174,6 +206,46 @@ public class MultiOverlayTree<K, V> {
         return lookup(key, overlayMap.get(overlayId));
     }
     
+    /**
+     * Retrieves the value for the given key in the current overlay, without
+     * considering any of the overlays below it.
+     * 
+     * @param key
+     *            the key
+     * @return the value associated with the key in the current overlay
+     */
+    public V lookupCurrent(K key) {
+        return treeList.tree.get(key);
+    }
+    
+    /**
+     * Retrieves all values for the given key in the current overlay and the
+     * overlays below it.
+     * 
+     * @param key
+     *            the key
+     * @return the values associated with the key, starting with the value in
+     *         the current overlay
+     */
+    public List<V> lookupAll(K key) {
+        return lookupAll(key, treeList);
+    }
+    
+    /**
+     * Retrieves all values for the given key in the given overlay and the
+     * overlays below it.
+     * 
+     * @param key
+     *            the key
+     * @param overlayId
+     *            the overlay ID
+     * @return the values associated with the key, starting with the value in
+     *         the overlay associated with the overlay ID
+     */
+    public List<V> lookupAll(K key, int overlayId) {
+        return lookupAll(key, overlayMap.get(overlayId));
+    }
+    
     /**
      * Returns an iterator with all values assocaited with keys between
      * <code>from</code> (inclusively) and <code>to</code> (exclusively).
@@ -226,6 +298,64 @@ public class MultiOverlayTree<K, V> {
         return rangeLookup(from, to, overlayMap.get(overlayId), includeDeletedEntries, ascending);
     }
     
+    /**
+     * Returns a separate iterator for each overlay tree, each of which contains
+     * the key-value pairs associated with keys between <code>from</code>
+     * (inclusively) and <code>to</code> (exclusively) in the respective tree.
+     * 
+     * @param from
+     *            the first key (inclusively); if <code>null</code>, the first
+     *            key in the map will be used
+     * @param to
+     *            the last key (exclusively); if <code>null</code>, the last key
+     *            in the map will be used (inclusively)
+     * @param ascending
+     *            If <code>true</code>, entries will be returned in ascending
+     *            order; otherwise, they will be returned in descending order
+     * @return a list of iterators, starting with the current overlay
+     */
+    public List<Iterator<Entry<K, V>>> rangeLookupOverlays(K from, K to, boolean ascending) {
+        return rangeLookupOverlays(from, to, treeList, ascending);
+    }
+    
+    /**
+     * Returns a separate iterator for each overlay tree up to the given
+     * overlay, each of which contains the key-value pairs associated with keys
+     * between <code>from</code> (inclusively) and <code>to</code>
+     * (exclusively) in the respective tree.
+     * 
+     * @param from
+     *            the first key (inclusively); if <code>null</code>, the first
+     *            key in the map will be used
+     * @param to
+     *            the last key (exclusively); if <code>null</code>, the last key
+     *            in the map will be used (inclusively)
+     * @param overlayId
+     *            the ID of the overlay
+     * @param ascending
+     *            If <code>true</code>, entries will be returned in ascending
+     *            order; otherwise, they will be returned in descending order
+     * @return a list of iterators, starting with the overlay associated with
+     *         the overlay ID
+     */
+    public List<Iterator<Entry<K, V>>> rangeLookupOverlays(K from, K to, int overlayId, boolean ascending) {
+        return rangeLookupOverlays(from, to, overlayMap.get(overlayId), ascending);
+    }
+    
+    private List<V> lookupAll(K key, OverlayTreeList<K, V> list) {
+        
+        List<V> values = new ArrayList<V>(2);
+        for (; list != null; list = list.next) {
+            
+            V value = list.tree.get(key);
+            
+            if (value != null)
+                values.add(value);
+        }
+        
+        return values;
+    }
+    
     private V lookup(K key, OverlayTreeList<K, V> list) {
         
         for (; list != null; list = list.next) {
@@ -242,6 +372,13 @@ public class MultiOverlayTree<K, V> {
     private ResultSet<K, V> rangeLookup(K from, K to, OverlayTreeList<K, V> treeList,
         boolean includeDeletedEntries, boolean ascending) {
         
+        return new OverlayMergeIterator<K, V>(rangeLookupOverlays(from, to, treeList, ascending), comparator,
+            includeDeletedEntries ? null : nullValue, ascending);
+    }
+    
+    private List<Iterator<Entry<K, V>>> rangeLookupOverlays(K from, K to, OverlayTreeList<K, V> treeList,
+        boolean ascending) {
+        
         // initialize a final list w/ submap iterators of all overlays
         final List<Iterator<Entry<K, V>>> itList = new ArrayList<Iterator<Entry<K, V>>>();
         for (OverlayTreeList<K, V> list = treeList; list != null; list = list.next) {
@@ -272,7 +409,6 @@ public class MultiOverlayTree<K, V> {
             }
         }
         
-        return new OverlayMergeIterator<K, V>(itList, comparator, includeDeletedEntries ? null : nullValue,
-            ascending);
+        return itList;
     }
 }
@@ -7,7 +7,9 @@
  */
 package org.xtreemfs.babudb.index.reader;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 import org.xtreemfs.babudb.api.database.ResultSet;
 import org.xtreemfs.babudb.api.index.ByteRangeComparator;
@@ -55,13 +57,35 @@ public abstract class BlockReader {
     
     public abstract ByteRange lookup(byte[] key);
     
+    public ResultSet<ByteRange, ByteRange> rangeLookup(byte[] from, byte[] to, final boolean ascending) {
+        return rangeLookup(from, to, ascending, false);
+    }
+    
+    /**
+     * Performs a range lookup in the block.
+     * 
+     * @param from
+     *            smallest key (inclusively)
+     * @param to
+     *            largest key (exclusively)
+     * @param ascending
+     *            defines the iteration order
+     * @param keysOnly
+     *            if <code>true</code>, the values page is not accessed, and
+     *            all values returned are <code>null</code>
+     * @return an iterator over the entries in the range
+     */
     public abstract ResultSet<ByteRange, ByteRange> rangeLookup(byte[] from, byte[] to,
-        final boolean ascending);
+        final boolean ascending, final boolean keysOnly);
     
     public MiniPage getKeys() {
         return keys;
     }
     
+    /**
+     * @return the values page, or <code>null</code> if only the keys of the
+     *         block have been read
+     */
     public MiniPage getValues() {
         return values;
     }
@@ -75,4 +99,69 @@ public abstract class BlockReader {
             BufferPool.free(readBuffer);
     }
     
+    /**
+     * Reads the offset of the values page from the header of a streamed block.
+     * As the values page follows the keys page, this is also the number of
+     * bytes that have to be read to access the keys.
+     * 
+     * @param channel
+     *            the channel to the block file
+     * @param position
+     *            the position of the block
+     * @return the offset of the values page, relative to the block position
+     * @throws IOException
+     */
+    protected static int readValsOffset(FileChannel channel, int position) throws IOException {
+        return readInt(channel, position);
+    }
+    
+    /**
+     * Reads the number of entries from the header of a block, without loading
+     * the block.
+     * 
+     * @param channel
+     *            the channel to the block file
+     * @param position
+     *            the position of the block
+     * @param compressed
+     *            whether the block is compressed
+     * @return the number of entries in the block
+     * @throws IOException
+     */
+    protected static int readNumEntries(FileChannel channel, int position, boolean compressed)
+        throws IOException {
+        return readInt(channel, position + getNumEntriesOffset(compressed));
+    }
+    
+    /**
+     * Reads the number of entries from the header of a block in an mmap'ed
+     * block file.
+     * 
+     * @param map
+     *            the mmap'ed block file
+     * @param position
+     *            the position of the block
+     * @param compressed
+     *            whether the block is compressed
+     * @return the number of entries in the block
+     */
+    protected static int readNumEntries(ByteBuffer map, int position, boolean compressed) {
+        return map.getInt(position + getNumEntriesOffset(compressed));
+    }
+    
+    private static int getNumEntriesOffset(boolean compressed) {
+        // compressed blocks store the keys offset before the number of entries
+        return compressed ? 8 : 4;
+    }
+    
+    private static int readInt(FileChannel channel, int position) throws IOException {
+        
+        ByteBuffer header = ByteBuffer.allocate(Integer.SIZE / 8);
+        while (header.hasRemaining())
+            if (channel.read(header, position + header.position()) < 0)
+                throw new IOException("unexpected end of block file");
+        
+        return header.getInt(0);
+    }
+    
 }
\ No newline at end of file
@@ -83,10 +83,30 @@ public class CompressedBlockReader extends BlockReader {
      */
     public CompressedBlockReader(FileChannel channel, int position, int limit, ByteRangeComparator comp)
         throws IOException {
+        this(channel, position, limit, comp, false);
+    }
+    
+    /**
+     * Creates a reader for a compressed streamed block.
+     * 
+     * @param channel
+     *            the channel to the block file
+     * @param position
+     *            the position of the block
+     * @param limit
+     *            the limit of the block
+     * @param comp
+     *            the byte range comparator
+     * @param keysOnly
+     *            if <code>true</code>, only the header, the prefix and the keys
+     *            of the block are read, and no values page is available
+     */
+    public CompressedBlockReader(FileChannel channel, int position, int limit, ByteRangeComparator comp,
+        boolean keysOnly) throws IOException {
         
         super(false);
         
-        this.readBuffer = BufferPool.allocate(limit - position);
+        this.readBuffer = BufferPool.allocate(keysOnly ? readValsOffset(channel, position) : limit - position);
         channel.read(readBuffer.getBuffer(), position);
         
         this.position = position;
@@ -114,9 +134,9 @@ public class CompressedBlockReader extends BlockReader {
         keys = keyEntrySize == -1 ? new VarLenMiniPage(numEntries, readBuffer.getBuffer(), keysOffset,
             valsOffset, comp) : new FixedLenMiniPage(keyEntrySize, numEntries, readBuffer.getBuffer(),
             keysOffset, valsOffset, comp);
-        values = valEntrySize == -1 ? new VarLenMiniPage(numEntries, readBuffer.getBuffer(), valsOffset,
-            limit - position, comp) : new FixedLenMiniPage(valEntrySize, numEntries, readBuffer.getBuffer(),
-            valsOffset, limit - position, comp);
+        values = keysOnly ? null : valEntrySize == -1 ? new VarLenMiniPage(numEntries, readBuffer.getBuffer(),
+            valsOffset, limit - position, comp) : new FixedLenMiniPage(valEntrySize, numEntries, readBuffer
+                .getBuffer(), valsOffset, limit - position, comp);
         
     }
     
@@ -165,7 +185,8 @@ public class CompressedBlockReader extends BlockReader {
         return values.getEntry(index);
     }
     
-    public ResultSet<ByteRange, ByteRange> rangeLookup(byte[] from, byte[] to, final boolean ascending) {
+    public ResultSet<ByteRange, ByteRange> rangeLookup(byte[] from, byte[] to, final boolean ascending,
+        final boolean keysOnly) {
         
         final int startIndex;
         final int endIndex;
@@ -200,14 +221,14 @@ public class CompressedBlockReader extends BlockReader {
                     
                     final ByteRange key   = keys.getEntry(currentIndex);
                     
-                    final ByteRange value = values.getEntry(currentIndex);
+                    final ByteRange value = keysOnly || values == null ? null : values.getEntry(currentIndex);
                     
                     {
                         // attach the buffer to the last key-value pair, so that
                         // it can be freed automatically
                         boolean last = !(ascending ? currentIndex < endIndex : currentIndex > startIndex);
                         if (last)
-                            value.setReusableBuf(readBuffer);
+                            (value != null ? value : key).setReusableBuf(readBuffer);
                     }
                     
                     @Override
@@ -76,6 +76,26 @@ public class DefaultBlockReader extends BlockReader {
      */
     public DefaultBlockReader(FileChannel channel, int position, int limit, ByteRangeComparator comp)
         throws IOException {
+        this(channel, position, limit, comp, false);
+    }
+    
+    /**
+     * Creates a reader for a streamed block.
+     * 
+     * @param channel
+     *            the channel to the block file
+     * @param position
+     *            the position of the block
+     * @param limit
+     *            the limit of the block
+     * @param comp
+     *            the byte range comparator
+     * @param keysOnly
+     *            if <code>true</code>, only the header and the keys of the
+     *            block are read, and no values page is available
+     */
+    public DefaultBlockReader(FileChannel channel, int position, int limit, ByteRangeComparator comp,
+        boolean keysOnly) throws IOException {
         
         super(false);
         
@@ -83,7 +103,8 @@ public class DefaultBlockReader extends BlockReader {
         this.limit = limit;
         this.comp = comp;
         
-        this.readBuffer = BufferPool.allocate(limit - position);
+        keysOnly = keysOnly && limit > 0;
+        this.readBuffer = BufferPool.allocate(keysOnly ? readValsOffset(channel, position) : limit - position);
         channel.read(readBuffer.getBuffer(), position);
         
         // with limit <= 0 there are no entries in the buffer
@@ -96,9 +117,9 @@ public class DefaultBlockReader extends BlockReader {
             keys = keyEntrySize == -1 ? new VarLenMiniPage(numEntries, readBuffer.getBuffer(), keysOffset,
                 valsOffset, comp) : new FixedLenMiniPage(keyEntrySize, numEntries, readBuffer.getBuffer(),
                 keysOffset, valsOffset, comp);
-            values = valEntrySize == -1 ? new VarLenMiniPage(numEntries, readBuffer.getBuffer(), valsOffset,
-                limit - position, comp) : new FixedLenMiniPage(valEntrySize, numEntries, readBuffer
-                    .getBuffer(), valsOffset, limit - position, comp);
+            values = keysOnly ? null : valEntrySize == -1 ? new VarLenMiniPage(numEntries, readBuffer
+                    .getBuffer(), valsOffset, limit - position, comp) : new FixedLenMiniPage(valEntrySize,
+                numEntries, readBuffer.getBuffer(), valsOffset, limit - position, comp);
         } else {
             numEntries = 0;
             keys = new FixedLenMiniPage(0, 0, null, 0, 0, comp);
@@ -125,10 +146,11 @@ public class DefaultBlockReader extends BlockReader {
      * (non-Javadoc)
      * 
      * @see org.xtreemfs.babudb.index.reader.BlockReader#rangeLookup(byte[],
-     * byte[], boolean)
+     * byte[], boolean, boolean)
      */
     @Override
-    public ResultSet<ByteRange, ByteRange> rangeLookup(byte[] from, byte[] to, final boolean ascending) {
+    public ResultSet<ByteRange, ByteRange> rangeLookup(byte[] from, byte[] to, final boolean ascending,
+        final boolean keysOnly) {
         
         final int startIndex;
         final int endIndex;
@@ -160,14 +182,14 @@ public class DefaultBlockReader extends BlockReader {
                     
                     final ByteRange key   = keys.getEntry(currentIndex);
                     
-                    final ByteRange value = values.getEntry(currentIndex);
+                    final ByteRange value = keysOnly || values == null ? null : values.getEntry(currentIndex);
                     
                     {
                         // attach the buffer to the last key-value pair, so that
                         // it can be freed automatically
                         boolean last = !(ascending ? currentIndex < endIndex : currentIndex > startIndex);
                         if (last)
-                            value.setReusableBuf(readBuffer);
+                            (value != null ? value : key).setReusableBuf(readBuffer);
                     }
                     
                     @Override
@@ -116,6 +116,192 @@ public class DiskIndex {
         if (indexPosition == -1)
             return null;
         
+        // create a view buffer on the target block
+        BlockReader targetBlock = loadBlock(indexPosition);
+        
+        // search for the key in the target block and return the result
+        ByteRange val = targetBlock.lookup(key);
+        byte[] result = val == null ? null : val.toBuffer();
+        targetBlock.free();
+        
+        return result;
+    }
+    
+    /**
+     * Looks up multiple keys at once. The keys have to be sorted in ascending
+     * order according to the comparator of the index, so that each block is
+     * loaded at most once for all keys that fall into it.
+     * 
+     * @param keys
+     *            the keys to look up, in ascending order
+     * @return the values associated with the keys, in the order of the keys;
+     *         <code>null</code> for each key that is not contained in the
+     *         index
+     */
+    public byte[][] lookup(byte[][] keys) {
+        
+        byte[][] results = new byte[keys.length][];
+        
+        BlockReader targetBlock = null;
+        int currentPosition = -1;
+        try {
+            for (int i = 0; i < keys.length; i++) {
+                
+                int indexPosition = getBlockIndexPosition(keys[i], blockIndex);
+                if (indexPosition == -1)
+                    continue;
+                
+                // load the next block only if the key is not contained in the
+                // current one
+                if (indexPosition != currentPosition) {
+                    if (targetBlock != null)
+                        targetBlock.free();
+                    targetBlock = loadBlock(indexPosition);
+                    currentPosition = indexPosition;
+                }
+                
+                ByteRange val = targetBlock.lookup(keys[i]);
+                results[i] = val == null ? null : val.toBuffer();
+            }
+        } finally {
+            if (targetBlock != null)
+                targetBlock.free();
+        }
+        
+        return results;
+    }
+    
+    /**
+     * Counts the keys in the given range. Blocks that are entirely covered by
+     * the range are counted by means of the number of entries in their
+     * headers, so that only the keys of the boundary blocks have to be read.
+     * 
+     * @param from
+     *            smallest key (inclusively), or <code>null</code>
+     * @param to
+     *            largest key (exclusively), or <code>null</code>
+     * @return the number of keys in the range
+     */
+    public long count(byte[] from, byte[] to) {
+        
+        int numBlocks = blockIndex.getNumEntries();
+        if (numBlocks == 0)
+            return 0;
+        
+        int firstBlock = from == null ? 0 : Math.max(getBlockIndexPosition(from, blockIndex), 0);
+        int lastBlock = to == null ? numBlocks - 1 : getBlockIndexPosition(to, blockIndex);
+        
+        long count = 0;
+        for (int i = firstBlock; i <= lastBlock; i++) {
+            
+            // blocks in the middle of the range are entirely covered
+            if ((i != firstBlock || from == null) && (i != lastBlock || to == null)) {
+                count += getNumEntries(i);
+                continue;
+            }
+            
+            BlockReader block = loadBlock(i, true);
+            ResultSet<ByteRange, ByteRange> it = block.rangeLookup(from, to, true, true);
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+            it.free();
+            block.free();
+        }
+        
+        return count;
+    }
+    
+    /**
+     * Counts how many of the given keys are contained in the index. The keys
+     * have to be sorted in ascending order according to the comparator of the
+     * index. Unlike {@link #lookup(byte[][])}, no values are copied.
+     * 
+     * @param keys
+     *            the keys, in ascending order
+     * @return the number of keys contained in the index
+     */
+    public int countContained(byte[][] keys) {
+        
+        int count = 0;
+        
+        BlockReader targetBlock = null;
+        int currentPosition = -1;
+        try {
+            for (int i = 0; i < keys.length; i++) {
+                
+                int indexPosition = getBlockIndexPosition(keys[i], blockIndex);
+                if (indexPosition == -1)
+                    continue;
+                
+                if (indexPosition != currentPosition) {
+                    if (targetBlock != null)
+                        targetBlock.free();
+                    targetBlock = loadBlock(indexPosition);
+                    currentPosition = indexPosition;
+                }
+                
+                if (targetBlock.lookup(keys[i]) != null)
+                    count++;
+            }
+        } finally {
+            if (targetBlock != null)
+                targetBlock.free();
+        }
+        
+        return count;
+    }
+    
+    /**
+     * Returns the number of entries in the block at the given position of the
+     * block index, by reading the block header only.
+     * 
+     * @param indexPosition
+     *            the position in the block index
+     * @return the number of entries
+     */
+    private int getNumEntries(int indexPosition) {
+        
+        int blockOffset = getBlockOffset(indexPosition, blockIndex);
+        int fileId = getBlockFileId(indexPosition, blockIndex);
+        
+        if (mmaped)
+            return BlockReader.readNumEntries(dbFiles[fileId], blockOffset, compressed);
+        
+        try {
+            return BlockReader.readNumEntries(dbFileChannels[fileId], blockOffset, compressed);
+        } catch (IOException e) {
+            Logging.logError(Logging.LEVEL_ERROR, this, e);
+            return 0;
+        }
+    }
+    
+    /**
+     * Creates a view buffer on the block at the given position of the block
+     * index.
+     * 
+     * @param indexPosition
+     *            the position in the block index
+     * @return the block
+     */
+    private BlockReader loadBlock(int indexPosition) {
+        return loadBlock(indexPosition, false);
+    }
+    
+    /**
+     * Creates a view buffer on the block at the given position of the block
+     * index.
+     * 
+     * @param indexPosition
+     *            the position in the block index
+     * @param keysOnly
+     *            if <code>true</code>, the values of a streamed block are not
+     *            read
+     * @return the block
+     */
+    private BlockReader loadBlock(int indexPosition, boolean keysOnly) {
+        
         int startBlockOffset = getBlockOffset(indexPosition, blockIndex);
         int fileId = getBlockFileId(indexPosition, blockIndex);
         
@@ -136,21 +322,15 @@ public class DiskIndex {
             // endBlockOffset = getBlockOffset(indexPosition + 1, blockIndex);
         }
         
-        // create a view buffer on the target block
         BlockReader targetBlock = null;
         try {
             targetBlock = mmaped ? getBlock(startBlockOffset, endBlockOffset, dbFiles[fileId]) : getBlock(
-                startBlockOffset, endBlockOffset, dbFileChannels[fileId]);
+                startBlockOffset, endBlockOffset, dbFileChannels[fileId], keysOnly);
         } catch (IOException e) {
             Logging.logError(Logging.LEVEL_ERROR, this, e);
         }
         
-        // search for the key in the target block and return the result
-        ByteRange val = targetBlock.lookup(key);
-        byte[] result = val == null ? null : val.toBuffer();
-        targetBlock.free();
-        
-        return result;
+        return targetBlock;
     }
     
     public long numKeys() {
@@ -200,6 +380,26 @@ public class DiskIndex {
     
     public ResultSet<byte[], byte[]> rangeLookup(final byte[] from, final byte[] to,
         final boolean ascending) {
+        return rangeLookup(from, to, ascending, -1);
+    }
+    
+    /**
+     * Performs a range lookup that only returns a part of each value.
+     * 
+     * @param from
+     *            smallest key (inclusively)
+     * @param to
+     *            largest key (exclusively)
+     * @param ascending
+     *            defines the iteration order
+     * @param maxValueLength
+     *            the maximum number of leading value bytes returned per entry;
+     *            if 0, no values are read at all and <code>null</code> is
+     *            returned instead; if negative, complete values are returned
+     * @return an iterator over the entries in the range
+     */
+    public ResultSet<byte[], byte[]> rangeLookup(final byte[] from, final byte[] to,
+        final boolean ascending, final int maxValueLength) {
         
         // return iterator for mmap'ed indices
         if (mmaped) {
@@ -209,12 +409,13 @@ public class DiskIndex {
                 map[i] = dbFiles[i].slice();
             }
             
-            return new DiskIndexIterator(this, blockIndex, from, to, ascending, map);
+            return new DiskIndexIterator(this, blockIndex, from, to, ascending, map, maxValueLength);
         }
         
         // return iterator for non-mmap'ed indices
         else
-            return new DiskIndexIterator(this, blockIndex, from, to, ascending, dbFileChannels);
+            return new DiskIndexIterator(this, blockIndex, from, to, ascending, dbFileChannels,
+                maxValueLength);
     }
     
     public InternalDiskIndexIterator internalRangeLookup(final byte[] from, final byte[] to,
@@ -303,6 +504,11 @@ public class DiskIndex {
     
     protected BlockReader getBlock(int startBlockOffset, int endBlockOffset, FileChannel channel)
         throws IOException {
+        return getBlock(startBlockOffset, endBlockOffset, channel, false);
+    }
+    
+    protected BlockReader getBlock(int startBlockOffset, int endBlockOffset, FileChannel channel,
+        boolean keysOnly) throws IOException {
         
         if (startBlockOffset > channel.size())
             return null;
@@ -313,9 +519,9 @@ public class DiskIndex {
         BlockReader targetBlock;
         
         if (compressed) {
-            targetBlock = new CompressedBlockReader(channel, startBlockOffset, endBlockOffset, comp);
+            targetBlock = new CompressedBlockReader(channel, startBlockOffset, endBlockOffset, comp, keysOnly);
         } else {
-            targetBlock = new DefaultBlockReader(channel, startBlockOffset, endBlockOffset, comp);
+            targetBlock = new DefaultBlockReader(channel, startBlockOffset, endBlockOffset, comp, keysOnly);
         }
         
         return targetBlock;
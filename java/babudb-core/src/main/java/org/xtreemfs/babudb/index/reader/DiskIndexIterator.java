@@ -19,6 +19,8 @@ import org.xtreemfs.foundation.buffer.BufferPool;
 
 public class DiskIndexIterator extends DiskIndexIteratorBase implements ResultSet<byte[], byte[]> {
     
+    private final int maxValueLength;
+    
     /**
      * Disk index iterator for mmap'ed index files.
      * 
@@ -37,7 +39,34 @@ public class DiskIndexIterator extends DiskIndexIteratorBase implements ResultSe
      */
     public DiskIndexIterator(DiskIndex index, BlockReader blockIndexReader, byte[] from, byte[] to,
         boolean ascending, ByteBuffer[] maps) {
-        super(index, blockIndexReader, from, to, ascending, maps, null);
+        this(index, blockIndexReader, from, to, ascending, maps, -1);
+    }
+    
+    /**
+     * Disk index iterator for mmap'ed index files that only returns a part of
+     * each value.
+     * 
+     * @param index
+     *            reference to the index
+     * @param blockIndexReader
+     *            reference to the block index reader
+     * @param from
+     *            smallest key (inclusively)
+     * @param to
+     *            largest key (exclusively)
+     * @param ascending
+     *            defines the iteration order
+     * @param maps
+     *            an array of mmap'ed buffers
+     * @param maxValueLength
+     *            the maximum number of leading value bytes to return; if 0,
+     *            all values are <code>null</code>; if negative, complete
+     *            values are returned
+     */
+    public DiskIndexIterator(DiskIndex index, BlockReader blockIndexReader, byte[] from, byte[] to,
+        boolean ascending, ByteBuffer[] maps, int maxValueLength) {
+        super(index, blockIndexReader, from, to, ascending, maps, null, maxValueLength == 0);
+        this.maxValueLength = maxValueLength;
     }
     
     /**
@@ -58,7 +87,34 @@ public class DiskIndexIterator extends DiskIndexIteratorBase implements ResultSe
      */
     public DiskIndexIterator(DiskIndex index, BlockReader blockIndexReader, byte[] from, byte[] to,
         boolean ascending, FileChannel[] dbFileChannels) {
-        super(index, blockIndexReader, from, to, ascending, null, dbFileChannels);
+        this(index, blockIndexReader, from, to, ascending, dbFileChannels, -1);
+    }
+    
+    /**
+     * Disk index iterator for streamed index files that only returns a part
+     * of each value.
+     * 
+     * @param index
+     *            reference to the index
+     * @param blockIndexReader
+     *            reference to the block index reader
+     * @param from
+     *            smallest key (inclusively)
+     * @param to
+     *            largest key (exclusively)
+     * @param ascending
+     *            defines the iteration order
+     * @param dbFileChannels
+     *            an array of file channels
+     * @param maxValueLength
+     *            the maximum number of leading value bytes to return; if 0,
+     *            no values are read from the files, and all values are
+     *            <code>null</code>; if negative, complete values are returned
+     */
+    public DiskIndexIterator(DiskIndex index, BlockReader blockIndexReader, byte[] from, byte[] to,
+        boolean ascending, FileChannel[] dbFileChannels, int maxValueLength) {
+        super(index, blockIndexReader, from, to, ascending, null, dbFileChannels, maxValueLength == 0);
+        this.maxValueLength = maxValueLength;
     }
     
     @Override
@@ -76,10 +132,13 @@ public class DiskIndexIterator extends DiskIndexIteratorBase implements ResultSe
             
             {
                 key = entry.getKey().toBuffer();
-                value = entry.getValue().toBuffer();
                 
-                if(entry.getValue().getReusableBuf() != null)
-                    BufferPool.free(entry.getValue().getReusableBuf());
+                // with keys only, the buffer is attached to the key
+                ByteRange range = entry.getValue() == null ? entry.getKey() : entry.getValue();
+                value = entry.getValue() == null ? null : range.toBuffer(maxValueLength);
+                
+                if(range.getReusableBuf() != null)
+                    BufferPool.free(range.getReusableBuf());
             }
             
             @Override
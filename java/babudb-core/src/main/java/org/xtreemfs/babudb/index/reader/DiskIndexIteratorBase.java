@@ -38,6 +38,8 @@ public abstract class DiskIndexIteratorBase {
     
     private final boolean                           ascending;
     
+    private final boolean                           keysOnly;
+    
     private int                                     currentBlockIndex;
     
     private BlockReader                             currentBlock;
@@ -46,6 +48,18 @@ public abstract class DiskIndexIteratorBase {
     
     protected DiskIndexIteratorBase(DiskIndex index, BlockReader blockIndexReader, byte[] from, byte[] to,
         boolean ascending, ByteBuffer[] maps, FileChannel[] dbFileChannels) {
+        this(index, blockIndexReader, from, to, ascending, maps, dbFileChannels, false);
+    }
+    
+    /**
+     * @param keysOnly
+     *            if <code>true</code>, values are neither read from streamed
+     *            index files nor accessed in mmap'ed ones; all entries
+     *            returned by the current block iterator have
+     *            <code>null</code> values
+     */
+    protected DiskIndexIteratorBase(DiskIndex index, BlockReader blockIndexReader, byte[] from, byte[] to,
+        boolean ascending, ByteBuffer[] maps, FileChannel[] dbFileChannels, boolean keysOnly) {
         
         this.maps = maps;
         this.dbFileChannels = dbFileChannels;
@@ -53,6 +67,7 @@ public abstract class DiskIndexIteratorBase {
         this.from = from;
         this.to = to;
         this.ascending = ascending;
+        this.keysOnly = keysOnly;
         
         this.blockIndexReader = blockIndexReader.clone();
         
@@ -155,7 +170,7 @@ public abstract class DiskIndexIteratorBase {
         
         try {
             currentBlock = maps != null ? index.getBlock(startOffset, endOffset, maps[fileId]) : index
-                    .getBlock(startOffset, endOffset, dbFileChannels[fileId]);
+                    .getBlock(startOffset, endOffset, dbFileChannels[fileId], keysOnly);
         } catch (ClosedByInterruptException exc) {
             Logging.logError(Logging.LEVEL_DEBUG, this, exc);
         } catch (IOException exc) {
@@ -163,7 +178,7 @@ public abstract class DiskIndexIteratorBase {
         }
         
         currentBlockIterator = currentBlock == null ? null : currentBlock.rangeLookup(from == null ? null
-            : from, to == null ? null : to, ascending);
+            : from, to == null ? null : to, ascending, keysOnly);
     }
     
 }
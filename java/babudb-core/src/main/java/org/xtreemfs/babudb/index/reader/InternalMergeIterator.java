@@ -89,6 +89,14 @@ public class InternalMergeIterator implements ResultSet<Object, Object> {
             diskIndexIterator.free();
     }
     
+    private int compare(ByteRange diskIndexKey, byte[] overlayKey) {
+        
+        // keys from compressed blocks do not contain the prefix shared by all
+        // keys of the block, so they have to be compared as a whole
+        return diskIndexKey.hasPrefix() ? comp.compare(diskIndexKey.toBuffer(), overlayKey) : comp
+                .compare(diskIndexKey, overlayKey);
+    }
+    
     private void nextElement() {
         
         // find the smallest element in the 'rightmost' tree
@@ -105,7 +113,7 @@ public class InternalMergeIterator implements ResultSet<Object, Object> {
             // if the next overlay key is equal to the next disk index key,
             // shift disk index element
             if (nextOverlayEntry != null && nextDiskIndexEntry != null
-                && comp.compare(nextDiskIndexEntry.getKey(), nextOverlayEntry.getKey()) == 0) {
+                && compare(nextDiskIndexEntry.getKey(), nextOverlayEntry.getKey()) == 0) {
                 
                 // free the buffer if necessary
                 if(nextDiskIndexEntry.getValue().getReusableBuf() != null)
@@ -137,7 +145,7 @@ public class InternalMergeIterator implements ResultSet<Object, Object> {
                     nextDiskIndexEntry = null;
                 }
 
-                else if (comp.compare(nextDiskIndexEntry.getKey(), nextOverlayEntry.getKey()) < 0) {
+                else if (compare(nextDiskIndexEntry.getKey(), nextOverlayEntry.getKey()) < 0) {
                     nextEntry = InternalBufferUtil.cast(nextDiskIndexEntry);
                     nextDiskIndexEntry = null;
                 }
@@ -159,7 +167,7 @@ public class InternalMergeIterator implements ResultSet<Object, Object> {
                     nextDiskIndexEntry = null;
                 }
 
-                else if (comp.compare(nextDiskIndexEntry.getKey(), nextOverlayEntry.getKey()) > 0) {
+                else if (compare(nextDiskIndexEntry.getKey(), nextOverlayEntry.getKey()) > 0) {
                     nextEntry = InternalBufferUtil.cast(nextDiskIndexEntry);
                     nextDiskIndexEntry = null;
                 }
@@ -45,6 +45,8 @@ public class DiskIndexWriter {
     
     private short   blockFileId;
     
+    private final IOThrottle throttle;
+    
     /**
      * Creates a new DiskIndexWriter
      * 
@@ -62,6 +64,30 @@ public class DiskIndexWriter {
      */
     public DiskIndexWriter(String path, int maxBlockEntries, boolean compressed, int maxFileSize)
         throws IOException {
+        this(path, maxBlockEntries, compressed, maxFileSize, null);
+    }
+    
+    /**
+     * Creates a new DiskIndexWriter that limits the rate at which the index is
+     * written.
+     * 
+     * @param path
+     *            The path to the directory where the index will be written. The
+     *            directory is created if it does not yet exist.
+     * @param maxBlockEntries
+     *            The maximum number of entries in a single block.
+     * @param compressed
+     *            Indicates if the blocks should be compressed.
+     * @param maxFileSize
+     *            The max size of a file storing blocks in bytes. On a 32-bit
+     *            system this should not be larger than 2GB.
+     * @param throttle
+     *            The throttle all writes have to pass, or <code>null</code> if
+     *            the index is written at full speed.
+     * @throws IOException
+     */
+    public DiskIndexWriter(String path, int maxBlockEntries, boolean compressed, int maxFileSize,
+        IOThrottle throttle) throws IOException {
         
         if (!path.endsWith(System.getProperty("file.separator")))
             path += System.getProperty("file.separator");
@@ -83,6 +109,7 @@ public class DiskIndexWriter {
         this.path = path;
         this.maxBlockEntries = maxBlockEntries;
         this.maxFileSize = maxFileSize;
+        this.throttle = throttle;
     }
     
     /**
@@ -221,6 +248,8 @@ public class DiskIndexWriter {
         
         if (buf instanceof byte[]) {
             byte[] bytes = (byte[]) buf;
+            if (throttle != null)
+                throttle.acquire(bytes.length);
             out.write(bytes);
             return bytes.length;
         }
@@ -234,6 +263,8 @@ public class DiskIndexWriter {
             range.getBuf().position(range.getStartOffset());
             ByteBuffer slice = range.getBuf().slice();
             slice.limit(range.getSize());
+            if (throttle != null)
+                throttle.acquire(range.getSize());
             return out.getChannel().write(slice);
         }
         
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2008 - 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.babudb.index.writer;
+
+import java.io.InterruptedIOException;
+
+/**
+ * A token bucket that limits the rate at which background writers, like the
+ * checkpointer, write index files to disk, so that they do not saturate the
+ * device that also holds the database log.
+ * <p>
+ * In adaptive mode, the sync latencies observed by the log are reported to the
+ * throttle. The write rate is halved whenever the average sync latency exceeds
+ * the configured maximum, and it is slowly raised again up to the configured
+ * rate as soon as the latency has recovered.
+ * </p>
+ *
+ * @author stender
+ */
+public class IOThrottle {
+
+    /**
+     * the minimum number of nanoseconds between two adjustments of the rate
+     */
+    private static final long ADJUST_INTERVAL = 100L * 1000 * 1000;
+
+    /**
+     * the minimum size of the bucket in bytes
+     */
+    private static final long MIN_BURST       = 64 * 1024;
+
+    /**
+     * the configured rate in bytes/s, 0 if the rate is unlimited
+     */
+    private final long        maxRate;
+
+    /**
+     * the maximum acceptable log sync latency in microseconds, 0 if adaptive
+     * mode is disabled
+     */
+    private final long        maxSyncLatency;
+
+    private volatile long     currentRate;
+
+    /**
+     * the available tokens in bytes; negative if bytes have been reserved in
+     * advance
+     */
+    private long              tokens;
+
+    private long              lastRefill;
+
+    private long              bytesWritten;
+
+    private long              throttledNanos;
+
+    /**
+     * the exponentially weighted moving average of the log sync latency in
+     * microseconds
+     */
+    private volatile long     syncLatency;
+
+    private volatile long     backoffs;
+
+    private long              lastAdjustment;
+
+    private final Object      latencyLock     = new Object();
+
+    /**
+     * Creates a new throttle.
+     *
+     * @param bytesPerSecond
+     *            the maximum rate in bytes/s, 0 if the rate is unlimited
+     * @param maxSyncLatencyMicros
+     *            the maximum log sync latency in microseconds before the rate
+     *            is reduced, 0 to disable adaptive mode
+     */
+    public IOThrottle(long bytesPerSecond, long maxSyncLatencyMicros) {
+
+        if (bytesPerSecond < 0 || maxSyncLatencyMicros < 0)
+            throw new IllegalArgumentException("the rate and the sync latency must not be negative");
+
+        this.maxRate = bytesPerSecond;
+        this.maxSyncLatency = bytesPerSecond == 0 ? 0 : maxSyncLatencyMicros;
+        this.currentRate = bytesPerSecond;
+        this.lastRefill = System.nanoTime();
+        this.lastAdjustment = lastRefill;
+        this.tokens = getBurst(bytesPerSecond);
+    }
+
+    /**
+     * Reserves the given number of bytes and blocks until the caller may write
+     * them according to the current rate.
+     *
+     * @param bytes
+     *            the number of bytes to write
+     * @throws InterruptedIOException
+     *             if the thread has been interrupted while waiting
+     */
+    public void acquire(int bytes) throws InterruptedIOException {
+
+        long waitNanos;
+        synchronized (this) {
+
+            bytesWritten += bytes;
+
+            long rate = currentRate;
+            if (rate == 0)
+                return;
+
+            // compute the refill in floating point, as the product of a long
+            // idle period and the rate may exceed the range of a long
+            long now = System.nanoTime();
+            double refill = (double) (now - lastRefill) * rate / 1000000000L;
+            tokens = (long) Math.min(getBurst(rate), tokens + refill);
+            lastRefill = now;
+
+            tokens -= bytes;
+            if (tokens >= 0)
+                return;
+
+            // sleep until the debt has been paid off
+            waitNanos = (long) (-tokens * 1000000000.0 / rate);
+            throttledNanos += waitNanos;
+        }
+
+        try {
+            Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the I/O throttle");
+        }
+    }
+
+    /**
+     * Reports the latency of a sync of the database log. In adaptive mode, the
+     * rate is adjusted according to the average latency.
+     *
+     * @param latencyMicros
+     *            the duration of the sync in microseconds
+     */
+    public void syncCompleted(long latencyMicros) {
+
+        if (maxSyncLatency == 0)
+            return;
+
+        synchronized (latencyLock) {
+
+            long avg = syncLatency == 0 ? latencyMicros : (7 * syncLatency + latencyMicros) / 8;
+            syncLatency = avg;
+
+            long now = System.nanoTime();
+            if (now - lastAdjustment < ADJUST_INTERVAL)
+                return;
+            lastAdjustment = now;
+
+            if (avg > maxSyncLatency) {
+                currentRate = Math.max(maxRate / 64, currentRate / 2);
+                backoffs++;
+            } else {
+                currentRate = Math.min(maxRate, currentRate + maxRate / 16);
+            }
+        }
+    }
+
+    /**
+     * @return the configured rate in bytes/s, 0 if the rate is unlimited
+     */
+    public long getMaxRate() {
+        return maxRate;
+    }
+
+    /**
+     * @return the current rate in bytes/s, 0 if the rate is unlimited
+     */
+    public long getCurrentRate() {
+        return currentRate;
+    }
+
+    /**
+     * @return the number of bytes written through the throttle
+     */
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return the total time writers have been delayed in milliseconds
+     */
+    public synchronized long getThrottledMillis() {
+        return throttledNanos / 1000000;
+    }
+
+    /**
+     * @return the average log sync latency in microseconds, 0 if adaptive mode
+     *         is disabled
+     */
+    public long getSyncLatency() {
+        return syncLatency;
+    }
+
+    /**
+     * @return the number of times the rate has been reduced because of a high
+     *         log sync latency
+     */
+    public long getBackoffs() {
+        return backoffs;
+    }
+
+    private static long getBurst(long rate) {
+        return Math.max(MIN_BURST, rate / 10);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.babudb.log;
+
+import java.util.zip.Checksum;
+
+/**
+ * CRC-32C (Castagnoli) checksum. The implementation processes eight bytes per
+ * iteration ("slicing-by-8").
+ * <p>
+ * Use {@link #newInstance()} to obtain a checksum object. On platforms that
+ * ship <code>java.util.zip.CRC32C</code>, which is intrinsified by the JIT, the
+ * platform implementation is returned; otherwise, an instance of this class is
+ * returned. Both compute the same values.
+ * </p>
+ */
+public class CRC32C implements Checksum {
+
+    /**
+     * reversed Castagnoli polynomial
+     */
+    private static final int                      POLYNOMIAL = 0x82F63B78;
+
+    private static final int[][]                  TABLES     = new int[8][256];
+
+    private static final Class<? extends Checksum> PLATFORM_IMPL;
+
+    static {
+
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int j = 0; j < 8; j++)
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            TABLES[0][i] = crc;
+        }
+
+        for (int i = 0; i < 256; i++)
+            for (int t = 1; t < 8; t++)
+                TABLES[t][i] = (TABLES[t - 1][i] >>> 8) ^ TABLES[0][TABLES[t - 1][i] & 0xFF];
+
+        Class<? extends Checksum> impl = null;
+        try {
+            impl = Class.forName("java.util.zip.CRC32C").asSubclass(Checksum.class);
+        } catch (Throwable exc) {
+            // not available before Java 9
+        }
+        PLATFORM_IMPL = impl;
+    }
+
+    private int                                   crc        = 0xFFFFFFFF;
+
+    /**
+     * Creates a new CRC-32C checksum object, preferably the platform's
+     * implementation.
+     *
+     * @return the checksum object
+     */
+    public static Checksum newInstance() {
+
+        if (PLATFORM_IMPL != null) {
+            try {
+                return PLATFORM_IMPL.newInstance();
+            } catch (Exception exc) {
+                // fall back to the own implementation
+            }
+        }
+
+        return new CRC32C();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.zip.Checksum#update(int)
+     */
+    @Override
+    public void update(int b) {
+        crc = (crc >>> 8) ^ TABLES[0][(crc ^ b) & 0xFF];
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.zip.Checksum#update(byte[], int, int)
+     */
+    @Override
+    public void update(byte[] b, int off, int len) {
+
+        final int[] t0 = TABLES[0], t1 = TABLES[1], t2 = TABLES[2], t3 = TABLES[3];
+        final int[] t4 = TABLES[4], t5 = TABLES[5], t6 = TABLES[6], t7 = TABLES[7];
+
+        int c = crc;
+        int i = off;
+        final int end = off + len;
+
+        for (; end - i >= 8; i += 8) {
+            int lo = c ^ ((b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24);
+            c = t7[lo & 0xFF] ^ t6[(lo >>> 8) & 0xFF] ^ t5[(lo >>> 16) & 0xFF] ^ t4[lo >>> 24]
+                ^ t3[b[i + 4] & 0xFF] ^ t2[b[i + 5] & 0xFF] ^ t1[b[i + 6] & 0xFF] ^ t0[b[i + 7] & 0xFF];
+        }
+
+        for (; i < end; i++)
+            c = (c >>> 8) ^ t0[(c ^ b[i]) & 0xFF];
+
+        crc = c;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.zip.Checksum#getValue()
+     */
+    @Override
+    public long getValue() {
+        return (~crc) & 0xFFFFFFFFL;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.zip.Checksum#reset()
+     */
+    @Override
+    public void reset() {
+        crc = 0xFFFFFFFF;
+    }
+
+}
@@ -14,8 +14,6 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.util.zip.CRC32;
-import java.util.zip.Checksum;
 
 import org.xtreemfs.babudb.lsmdb.LSN;
 import org.xtreemfs.foundation.buffer.BufferPool;
@@ -25,34 +23,110 @@ import org.xtreemfs.foundation.logging.Logging.Category;
 
 /**
  * Interface for reading on-disk operation logs.
+ * <p>
+ * The log file is read in large chunks. Once a chunk has been read, the frames
+ * and checksums of all complete entries it contains are validated in a single
+ * pass. Entries are then handed out as views on the chunk, so that neither
+ * system calls nor copies are necessary per entry. The file is truncated at
+ * the first invalid entry as soon as it is reached by the reader.
+ * </p>
  * 
  * @author bjko
  */
 public class DiskLogFile {
     
-    protected File            file;
+    /**
+     * the default size of the chunks in which log files are read
+     */
+    public static final int    DEFAULT_CHUNK_SIZE = 1024 * 1024;
     
-    protected FileChannel     channel;
+    private static final int   INT_SIZE           = Integer.SIZE / 8;
     
-    protected FileInputStream fis;
+    protected File             file;
     
-    protected Checksum        csumAlgo;
+    protected FileChannel      channel;
     
-    protected ByteBuffer      myInt;
+    protected FileInputStream  fis;
     
-    protected LogEntry        next;
+    protected LogEntry         next;
+    
+    /**
+     * the offset of the entry returned next in the file
+     */
+    protected long             nextOffset;
+    
+    /**
+     * the offset at which the first chunk is read
+     */
+    protected long             startOffset;
+    
+    /**
+     * the minimum number of bytes read from the file at once
+     */
+    protected final int        chunkSize;
+    
+    /**
+     * the chunk that is currently parsed; returned entries are views on it
+     */
+    protected ReusableBuffer   chunk;
+    
+    /**
+     * the offset of the current chunk in the file
+     */
+    protected long             chunkOffset;
+    
+    /**
+     * the position of the next entry in the current chunk
+     */
+    protected int              chunkPosition;
+    
+    /**
+     * the position up to which the entries in the current chunk have been
+     * validated
+     */
+    protected int              validLimit;
+    
+    /**
+     * the length of the entry at <code>validLimit</code>, if the entry is
+     * incomplete in the current chunk but not in the file
+     */
+    protected int              pendingLength;
+    
+    /**
+     * the reason why the entry at <code>validLimit</code> is invalid, or
+     * <code>null</code> if it has not been identified as invalid
+     */
+    protected LogEntryException invalidEntry;
     
     public DiskLogFile(String baseDir, LSN logLSN) throws IOException, LogEntryException {
         this(baseDir + DiskLogger.createLogFileName(logLSN.getViewId(), logLSN.getSequenceNo()));
     }
     
     public DiskLogFile(String filename) throws IOException, LogEntryException {
+        this(filename, DEFAULT_CHUNK_SIZE);
+    }
+    
+    /**
+     * Opens a log file for reading.
+     *
+     * @param filename
+     *            the name of the log file
+     * @param chunkSize
+     *            the minimum number of bytes to read from the file at once
+     * @throws IOException
+     *             if the file could not be opened
+     * @throws LogEntryException
+     *             if the first entry could not be read
+     */
+    public DiskLogFile(String filename, int chunkSize) throws IOException, LogEntryException {
         
-        file = new File(filename);
-        fis = new FileInputStream(file);
-        channel = fis.getChannel();
-        myInt = ByteBuffer.allocate(Integer.SIZE / 8);
-        csumAlgo = new CRC32();
+        if (chunkSize < LogEntry.headerLength)
+            throw new IllegalArgumentException("chunk size must not be smaller than " + LogEntry.headerLength);
+        
+        this.file = new File(filename);
+        this.fis = new FileInputStream(file);
+        this.channel = fis.getChannel();
+        this.chunkSize = chunkSize;
         
         next = getNext();
     }
@@ -61,6 +135,7 @@ public class DiskLogFile {
         LogEntry tmp = next;
         next = null;
         if (tmp != null) tmp.free();
+        freeChunk();
         channel.close();
         fis.close();
     }
@@ -75,77 +150,305 @@ public class DiskLogFile {
         return tmp;
     }
     
+    /**
+     * Returns the entry that will be returned by the next call of
+     * {@link #next()}, without advancing.
+     *
+     * @return the next entry, or <code>null</code>, if there is none
+     */
+    public LogEntry peek() {
+        return next;
+    }
+    
+    /**
+     * Skips all entries with LSNs smaller than the given one. If the log file
+     * has a sparse index, the file is positioned directly at the latest
+     * indexed entry that does not exceed the LSN, so that only the entries
+     * following it have to be read.
+     *
+     * @param lsn
+     *            the LSN of the entry to return next
+     * @throws LogEntryException
+     *             if an entry could not be read
+     */
+    public void skipTo(LSN lsn) throws LogEntryException {
+        
+        if (next == null || next.getLSN().compareTo(lsn) >= 0)
+            return;
+        
+        try {
+            LogIndex index = LogIndex.load(file);
+            int sample = index == null ? -1 : index.floor(lsn);
+            if (sample >= 0 && index.getOffset(sample) > nextOffset
+                && isEntryAt(index.getOffset(sample), index.getLSN(sample))) {
+                
+                LogEntry tmp = next;
+                next = null;
+                tmp.free();
+                freeChunk();
+                invalidEntry = null;
+                
+                startOffset = index.getOffset(sample);
+                next = getNext();
+            }
+        } catch (IOException exc) {
+            // the index is a hint only; read the log sequentially instead
+            Logging.logMessage(Logging.LEVEL_DEBUG, Category.babudb, this, "cannot use log index of %s: %s",
+                file.getName(), exc.getMessage());
+        }
+        
+        while (next != null && next.getLSN().compareTo(lsn) < 0) {
+            LogEntry tmp = next;
+            next = getNext();
+            tmp.free();
+        }
+    }
+    
+    /**
+     * Truncates the log file before the entry that would be returned next.
+     *
+     * @throws IOException
+     *             if the file could not be truncated
+     */
+    public void truncateRemainder() throws IOException {
+        
+        if (next == null)
+            return;
+        
+        Logging.logMessage(Logging.LEVEL_WARN, Category.babudb, this,
+            "log file %s will be truncated at offset %d", file.getName(), nextOffset);
+        
+        LogEntry tmp = next;
+        next = null;
+        tmp.free();
+        freeChunk();
+        invalidEntry = null;
+        
+        channel.close();
+        fis.close();
+        
+        FileOutputStream fout = new FileOutputStream(file, true);
+        try {
+            fout.getChannel().truncate(nextOffset);
+        } finally {
+            fout.close();
+        }
+        
+        fis = new FileInputStream(file);
+        channel = fis.getChannel();
+        channel.position(nextOffset);
+    }
+    
     protected LogEntry getNext() throws LogEntryException {
         
-        long offset = -1;
-        ReusableBuffer item = null;
         try {
             
-            if (channel.position() == channel.size())
-                return null;
+            // if all validated entries of the current chunk have been
+            // returned, continue with the next chunk
+            if (chunk == null || chunkPosition == validLimit) {
+                
+                if (invalidEntry == null && !readChunk())
+                    return null;
+                
+                if (invalidEntry != null && chunkPosition == validLimit) {
+                    truncate(chunkOffset + chunkPosition, invalidEntry);
+                    return null;
+                }
+            }
+            
+            LogEntry e = LogEntry.deserializeChecked(chunk, chunkPosition);
+            nextOffset = chunkOffset + chunkPosition;
+            chunkPosition += chunk.getBuffer().getInt(chunkPosition);
+            return e;
             
-            int numRead = channel.read(myInt);
-            if (numRead < Integer.SIZE / 8)
-                return null;
+        } catch (IOException ex) {
             
-            myInt.flip();
-            int entrySize = myInt.getInt();
-            myInt.flip();
-            offset = channel.position() - Integer.SIZE / 8;
-            channel.position(offset);
+            Logging.logMessage(Logging.LEVEL_DEBUG, Category.babudb, this, ex.getMessage());
+            throw new LogEntryException("Cannot read log entry: " + ex);
+        }
+    }
+    
+    /**
+     * Reads the next chunk from the log file, starting at the first entry that
+     * has not been returned yet, and validates all entries in it.
+     *
+     * @return <code>false</code>, if the end of the file has been reached,
+     *         <code>true</code>, otherwise
+     * @throws IOException
+     *             if an I/O error occurred
+     */
+    private boolean readChunk() throws IOException {
+        
+        final long offset = chunk == null ? startOffset : chunkOffset + chunkPosition;
+        pendingLength = 0;
+        
+        do {
             
-            if (entrySize < 0)
-                throw new LogEntryException("log entry with negative size detected: " + entrySize);
+            final long available = channel.size() - offset;
             
-            item = BufferPool.allocate(entrySize);
-            channel.read(item.getBuffer());
-            item.flip();
-            LogEntry e = LogEntry.deserialize(item, csumAlgo);
-            csumAlgo.reset();
-            return e;
+            // as long as not even the length of the next entry can be read,
+            // the end of the log has been reached
+            if (available < INT_SIZE)
+                return false;
             
-        } catch (LogEntryException ex) {
+            // make sure that at least one entry fits into the chunk
+            final int size = (int) Math.min(available, Math.max(chunkSize, pendingLength));
             
-            // in case of an invalid log entry ...
-            Logging.logMessage(Logging.LEVEL_ERROR, Category.babudb, this, "***** INVALID LOG ENTRY *****");
-            Logging.logMessage(Logging.LEVEL_ERROR, Category.babudb, this,
-                "the log contains an invalid log entry at offset %d, file will be truncated at offset %d",
-                offset, offset);
-            Logging.logMessage(Logging.LEVEL_ERROR, Category.babudb, this, ex.getMessage());
+            ReusableBuffer buf = ReusableBuffer.wrap(new byte[size]);
+            ByteBuffer bb = buf.getBuffer();
+            while (bb.hasRemaining()) {
+                if (channel.read(bb, offset + bb.position()) < 0)
+                    break;
+            }
+            bb.flip();
             
-            // trucate the log at the end of the previous entry
-            try {
-                
-                // close the channel
-                channel.close();
-                
-                // truncate the file
-                FileOutputStream fout = new FileOutputStream(file, true);
-                fout.getChannel().truncate(offset);
-                fout.close();
-                
-                // re-open the channel and set the position behind the last
-                // entry
-                fis = new FileInputStream(file);
-                channel = fis.getChannel();
-                channel.position(offset);
-                
-            } catch (IOException exc) {
-                throw new LogEntryException("Cannot truncate log file: " + ex);
+            freeChunk();
+            chunk = buf;
+            chunkOffset = offset;
+            chunkPosition = 0;
+            
+            validateChunk(offset + bb.limit() >= channel.size());
+            
+        } while (chunkPosition == validLimit && invalidEntry == null && pendingLength > 0);
+        
+        return chunkPosition < validLimit || invalidEntry != null;
+    }
+    
+    /**
+     * Checks the frames and checksums of all entries in the current chunk,
+     * and determines the limit up to which the chunk contains valid entries.
+     *
+     * @param endOfFile
+     *            <code>true</code>, if the chunk reaches up to the end of the
+     *            file
+     */
+    private void validateChunk(boolean endOfFile) {
+        
+        final ByteBuffer bb = chunk.getBuffer();
+        final byte[] data = bb.array();
+        final int limit = bb.limit();
+        
+        int pos = chunkPosition;
+        pendingLength = 0;
+        invalidEntry = null;
+        
+        while (limit - pos >= INT_SIZE) {
+            
+            final int length1 = bb.getInt(pos);
+            
+            if (length1 < 0) {
+                invalidEntry = new LogEntryException("log entry with negative size detected: " + length1);
+                break;
             }
             
-            return null;
+            if (length1 < LogEntry.headerLength) {
+                invalidEntry = new LogEntryException("Invalid Frame. The length of the log entry is smaller "
+                    + "than its header; length=" + length1);
+                break;
+            }
             
-        } catch (IOException ex) {
+            if (length1 > limit - pos) {
+                if (endOfFile)
+                    invalidEntry = new LogEntryException("The log entry is incomplete. "
+                        + "The length indicated in the header exceeds the available data.");
+                else
+                    pendingLength = length1;
+                break;
+            }
             
-            Logging.logMessage(Logging.LEVEL_DEBUG, Category.babudb, this, ex.getMessage());
-            throw new LogEntryException("Cannot read log entry: " + ex);
+            final int length2 = bb.getInt(pos + length1 - INT_SIZE);
+            if (length1 != length2) {
+                invalidEntry = new LogEntryException("Invalid Frame. The length entries do not match; length1="
+                    + length1 + ", length2=" + length2);
+                break;
+            }
             
-        } finally {
-            if (item != null)
-                BufferPool.free(item);
+            if (LogEntry.USE_CHECKSUMS) {
+                try {
+                    int csum = LogEntry.calculateChecksum(data, bb.arrayOffset() + pos, length1);
+                    if (csum != bb.getInt(pos + INT_SIZE))
+                        throw new LogEntryException("Invalid Checksum. Checksum in log entry and calculated "
+                            + "checksum do not match.");
+                } catch (LogEntryException exc) {
+                    invalidEntry = exc;
+                    break;
+                }
+            }
+            
+            pos += length1;
         }
         
+        validLimit = pos;
+    }
+    
+    /**
+     * Truncates the log file at the given offset.
+     *
+     * @param offset
+     *            the offset of the invalid entry
+     * @param ex
+     *            the reason why the entry is invalid
+     * @throws LogEntryException
+     *             if the file could not be truncated
+     */
+    private void truncate(long offset, LogEntryException ex) throws LogEntryException {
+        
+        // in case of an invalid log entry ...
+        Logging.logMessage(Logging.LEVEL_ERROR, Category.babudb, this, "***** INVALID LOG ENTRY *****");
+        Logging.logMessage(Logging.LEVEL_ERROR, Category.babudb, this,
+            "the log contains an invalid log entry at offset %d, file will be truncated at offset %d", offset,
+            offset);
+        Logging.logMessage(Logging.LEVEL_ERROR, Category.babudb, this, ex.getMessage());
+        
+        // the remainder of the chunk is not valid anymore
+        invalidEntry = null;
+        validLimit = chunkPosition;
+        
+        // trucate the log at the end of the previous entry
+        try {
+            
+            // close the channel
+            channel.close();
+            
+            // truncate the file
+            FileOutputStream fout = new FileOutputStream(file, true);
+            fout.getChannel().truncate(offset);
+            fout.close();
+            
+            // re-open the channel and set the position behind the last
+            // entry
+            fis = new FileInputStream(file);
+            channel = fis.getChannel();
+            channel.position(offset);
+            
+        } catch (IOException exc) {
+            throw new LogEntryException("Cannot truncate log file: " + ex);
+        }
+    }
+    
+    /**
+     * Checks whether the header of the entry with the given LSN is located at
+     * the given offset, without validating the entry.
+     */
+    private boolean isEntryAt(long offset, LSN lsn) throws IOException {
+        
+        ByteBuffer header = ByteBuffer.allocate(LogEntry.headerLength);
+        while (header.hasRemaining()) {
+            if (channel.read(header, offset + header.position()) < 0)
+                return false;
+        }
+        
+        final int length = header.getInt(0);
+        return length >= LogEntry.headerLength && offset + length <= channel.size()
+            && header.getInt(2 * INT_SIZE) == lsn.getViewId() && header.getLong(3 * INT_SIZE) == lsn.getSequenceNo();
+    }
+    
+    private void freeChunk() {
+        // entries that have been returned keep their own references to the
+        // chunk
+        if (chunk != null)
+            BufferPool.free(chunk);
+        chunk = null;
     }
     
 }
@@ -10,8 +10,12 @@ package org.xtreemfs.babudb.log;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.regex.Matcher;
@@ -22,12 +26,20 @@ import org.xtreemfs.babudb.lsmdb.LSN;
 
 /**
  * An iterator that returns log entries from multiple log files.
+ * <p>
+ * If the log files reside in multiple directories, the log is striped, i.e.
+ * the files with the same name in the different directories cover the same
+ * range of LSNs. Their entries are merged in the order of their LSNs. As the
+ * stripes are written independently, a crash may leave entries in a stripe
+ * that follow an entry missing in another stripe. Iteration stops at such a
+ * gap.
+ * </p>
  * 
  * @author stender, bjko
  */
 public class DiskLogIterator implements Iterator<LogEntry> {
     
-    private String        dbLogDir;
+    private String[]      dbLogDirs;
     
     private LSN           from;
     
@@ -35,10 +47,26 @@ public class DiskLogIterator implements Iterator<LogEntry> {
     
     private LSN           currentLog;
     
-    private DiskLogFile   currentFile;
+    private DiskLogFile[] currentFiles;
     
     private LogEntry      nextEntry;
     
+    /**
+     * the LSN of the latest entry returned from a striped log
+     */
+    private LSN           lastLSN;
+    
+    /**
+     * set if the iteration of a striped log was stopped at a gap
+     */
+    private boolean       gapDetected;
+    
+    /**
+     * the LSN newly opened log files are positioned at, as long as the first
+     * entry has not been found
+     */
+    private LSN           seekTo;
+    
     /**
      * @param logFiles
      * @param from
@@ -53,7 +81,10 @@ public class DiskLogIterator implements Iterator<LogEntry> {
         
         if (logFiles != null && logFiles.length > 0) {
             
-            dbLogDir = logFiles[0].getParent() + "/";
+            Set<String> dirs = new LinkedHashSet<String>();
+            for (File logFile : logFiles)
+                dirs.add(logFile.getParent() + "/");
+            dbLogDirs = dirs.toArray(new String[dirs.size()]);
             
             // read list of logs and create a list ordered from min LSN to
             // max LSN
@@ -131,52 +162,159 @@ public class DiskLogIterator implements Iterator<LogEntry> {
         nextEntry = null;
         if (tmp != null)
             tmp.free();
-        if(currentFile != null)
-            currentFile.close();
+        closeCurrentFiles();
+    }
+    
+    /**
+     * Discards all entries of a striped log that could not be returned because
+     * an entry with a smaller LSN is missing. Such entries may only remain from
+     * a crash, and they have never been acknowledged. They have to be discarded
+     * before new entries are appended to the log, because their LSNs will be
+     * reassigned.
+     * <p>
+     * Must only be invoked after all entries have been returned.
+     * </p>
+     * 
+     * @throws IOException
+     */
+    public void discardUnreachableEntries() throws IOException {
+        
+        assert (nextEntry == null);
+        
+        if (!gapDetected)
+            return;
+        
+        // truncate the current files at the gap ...
+        if (currentFiles != null) {
+            for (DiskLogFile file : currentFiles)
+                file.truncateRemainder();
+        }
+        
+        // ... and delete all subsequent files
+        while (logList.hasNext()) {
+            LSN log = logList.next();
+            for (String dir : dbLogDirs) {
+                File file = new File(dir + DiskLogger.createLogFileName(log.getViewId(), log.getSequenceNo()));
+                if (file.exists() && !file.delete())
+                    throw new IOException("could not delete log file " + file.getPath());
+                if (!LogIndex.delete(file))
+                    throw new IOException("could not delete index of log file " + file.getPath());
+            }
+        }
     }
     
     protected void findFirstEntry() throws IOException, LogEntryException {
         
-        if (logList == null || !logList.hasNext())
+        if (logList == null)
             return;
         
-        do {
-            currentLog = logList.next();
-            if(currentFile != null)
-                currentFile.close();
-            currentFile = new DiskLogFile(dbLogDir, currentLog);
-        } while (!currentFile.hasNext() && logList.hasNext());
+        // skip the entries preceding 'from' by means of the log indices
+        seekTo = from;
         
-        while (currentFile.hasNext()) {
-            LogEntry le = currentFile.next();
+        LogEntry le = null;
+        while ((le = findNextEntry()) != null) {
             if (from == null || le.getLSN().compareTo(from) >= 0) {
                 nextEntry = le;
                 break;
             }
             le.free();
         }
+        
+        seekTo = null;
     }
     
     protected LogEntry findNextEntry() throws IOException, LogEntryException {
         
-        if (logList == null)
+        if (logList == null || gapDetected)
             return null;
         
-        // if there is another log entry in the current file, return it
-        if (currentFile.hasNext())
-            return currentFile.next();
+        while (true) {
+            
+            // if there is another log entry in the current files, return the
+            // one with the smallest LSN
+            if (currentFiles != null) {
+                
+                DiskLogFile nextFile = null;
+                for (DiskLogFile file : currentFiles) {
+                    if (file.hasNext()
+                        && (nextFile == null || file.peek().getLSN().compareTo(nextFile.peek().getLSN()) < 0))
+                        nextFile = file;
+                }
+                
+                if (nextFile != null) {
+                    
+                    if (dbLogDirs.length > 1) {
+                        
+                        // within a view, LSNs of a striped log are
+                        // consecutive; stop at the first gap
+                        LSN lsn = nextFile.peek().getLSN();
+                        if (lastLSN != null && lastLSN.getViewId() == lsn.getViewId()
+                            && lastLSN.getSequenceNo() + 1 != lsn.getSequenceNo()) {
+                            gapDetected = true;
+                            return null;
+                        }
+                        lastLSN = lsn;
+                    }
+                    
+                    return nextFile.next();
+                }
+                
+                // if all entries have been read from the current files, close
+                // them
+                closeCurrentFiles();
+            }
+            
+            // if there are no more log entries to read,
+            if (!logList.hasNext())
+                return null;
+            
+            // in any other case, switch to the next log files and repeat the
+            // procedure
+            currentLog = logList.next();
+            openCurrentFiles();
+        }
+    }
+    
+    /**
+     * Opens the files of the current log in all directories in which they
+     * exist.
+     */
+    private void openCurrentFiles() throws IOException, LogEntryException {
         
-        // if all entries have been read from the current file, close it
-        currentFile.close();
+        List<DiskLogFile> files = new ArrayList<DiskLogFile>(dbLogDirs.length);
+        try {
+            for (String dir : dbLogDirs) {
+                if (dbLogDirs.length == 1
+                    || new File(dir + DiskLogger.createLogFileName(currentLog.getViewId(), currentLog.getSequenceNo()))
+                            .exists())
+                    files.add(new DiskLogFile(dir, currentLog));
+            }
+            
+            if (seekTo != null) {
+                for (DiskLogFile file : files)
+                    file.skipTo(seekTo);
+            }
+        } catch (IOException exc) {
+            for (DiskLogFile file : files)
+                file.close();
+            throw exc;
+        } catch (LogEntryException exc) {
+            for (DiskLogFile file : files)
+                file.close();
+            throw exc;
+        }
         
-        // if there are no more log entries to read,
-        if (!logList.hasNext())
-            return null;
+        currentFiles = files.toArray(new DiskLogFile[files.size()]);
+    }
+    
+    private void closeCurrentFiles() throws IOException {
+        
+        if (currentFiles == null)
+            return;
         
-        // in any other case, switch to the next log file and repeat the
-        // procedure
-        currentLog = logList.next();
-        currentFile = new DiskLogFile(dbLogDir, currentLog);
-        return findNextEntry();
+        DiskLogFile[] files = currentFiles;
+        currentFiles = null;
+        for (DiskLogFile file : files)
+            file.close();
     }
 }
\ No newline at end of file
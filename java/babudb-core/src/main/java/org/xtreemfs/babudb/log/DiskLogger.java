@@ -8,23 +8,22 @@
 
 package org.xtreemfs.babudb.log;
 
-import java.io.File;
-import java.io.FileDescriptor;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.zip.CRC32;
 
 import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
+import org.xtreemfs.babudb.index.writer.IOThrottle;
 import org.xtreemfs.babudb.lsmdb.LSN;
 import org.xtreemfs.foundation.LifeCycleThread;
 import org.xtreemfs.foundation.buffer.BufferPool;
@@ -34,6 +33,13 @@ import org.xtreemfs.foundation.logging.Logging.Category;
 
 /**
  * Writes entries to the on disc operations log and syncs after blocks of MAX_ENTRIES_PER_BLOCK.
+ * <p>
+ * The log may be striped across multiple directories, typically located on different devices. In this case, the
+ * logger only assigns LSNs and distributes the entries round-robin by their sequence numbers across the stripes,
+ * which write and sync them in parallel. Each entry, and therefore each transaction, is written to exactly one
+ * stripe as a whole. Entries are acknowledged strictly in the order of their LSNs, i.e. not before all entries
+ * with smaller LSNs have been synced as well.
+ * </p>
  * 
  * @author bjko
  * @author flangner
@@ -71,36 +77,94 @@ public class DiskLogger extends LifeCycleThread {
 
     private static final String        RUNTIME_STATE_PROCESSEDLOGENTRIES = "diskLogger.processedLogEntryCount";
 
+    private static final String        RUNTIME_STATE_TAILCACHESIZE       = "diskLogger.tailCacheSize";
+
+    private static final String        RUNTIME_STATE_TAILCACHEHITS       = "diskLogger.tailCacheHits";
+
+    private static final String        RUNTIME_STATE_TAILCACHEMISSES     = "diskLogger.tailCacheMisses";
+
+    /**
+     * The stripes of the log, one per log file directory.
+     */
+    private final LogStripe[]          stripes;
+
     /**
-     * NIO FileChannel used to write ByteBuffers directly to file.
+     * The LogEntries to be written to disk.
      */
-    private FileChannel                channel;
+    private final LinkedList<LogEntry> entries                           = new LinkedList<LogEntry>();
 
     /**
-     * Stream used to obtain the FileChannel and to flush file.
+     * Guards the queue of entries to be written. A j.u.c. lock is used instead of the monitor, so that appending
+     * virtual threads do not pin their carrier thread while they wait for queue space.
      */
-    private RandomAccessFile           fos;
+    private final ReentrantLock        queueLock                         = new ReentrantLock();
+
+    private final Condition            notEmpty                          = queueLock.newCondition();
+
+    private final Condition            notFull                           = queueLock.newCondition();
+
+    private final Condition            notDraining                       = queueLock.newCondition();
 
     /**
-     * Used to sync file.
+     * The number of entries whose modifications are applied in-memory, but which have not been appended to the
+     * queue yet.
      */
-    private FileDescriptor             fdes;
+    private int                        pendingAppends;
 
     /**
-     * The LogEntries to be written to disk.
+     * Set while the queue is drained for a checkpoint, in order to hold back new modifications.
      */
-    private final LinkedList<LogEntry> entries                           = new LinkedList<LogEntry>();
+    private boolean                    draining;
 
     /**
-     * If set to true the thread will shutdown.
+     * The LogEntries that have been assigned to a stripe but not acknowledged yet, ordered by their LSNs. Only used
+     * if the log is striped.
      */
-    private volatile boolean           quit                              = true;
-    private boolean                    graceful;
+    private final LinkedList<LogEntry> inFlight                          = new LinkedList<LogEntry>();
 
     /**
-     * log file directory name
+     * The LSN of the latest entry each stripe has written.
      */
-    private final String               logfileDir;
+    private final LSN[]                writtenLSNs;
+
+    /**
+     * The serialized forms of in-flight entries that have been written, until they are added to the tail cache.
+     */
+    private final Map<LogEntry, ReusableBuffer> serializedEntries    = new IdentityHashMap<LogEntry, ReusableBuffer>();
+
+    /**
+     * The errors that occurred while writing in-flight entries.
+     */
+    private final Map<LogEntry, Exception> failures                      = new IdentityHashMap<LogEntry, Exception>();
+
+    /**
+     * The error that occurred while writing the first entry that could not be written to the current log file, or
+     * <code>null</code>. As the log cannot be replayed beyond a missing entry, all subsequent entries fail as well
+     * until the next log file is loaded.
+     */
+    private Exception                  writeFailure;
+
+    /**
+     * Lock that ensures that entries written by different stripes are acknowledged in the order of their LSNs.
+     */
+    private final Object               ackLock                           = new Object();
+
+    /**
+     * The most recently synced entries, or <code>null</code> if no entries are cached.
+     */
+    private final LogTailCache         tailCache;
+    
+    /**
+     * The throttle that is informed about the sync latencies of the log, or
+     * <code>null</code>.
+     */
+    private volatile IOThrottle        ioThrottle;
+
+    /**
+     * If set to true the thread will shutdown.
+     */
+    private volatile boolean           quit                              = true;
+    private boolean                    graceful;
 
     /**
      * log sequence number to assign to assign to next log entry
@@ -112,11 +176,6 @@ public class DiskLogger extends LifeCycleThread {
      */
     private final AtomicInteger        currentViewId                     = new AtomicInteger();
 
-    /**
-     * current log file name
-     */
-    private volatile String            currentLogFileName;
-
     /**
      * Lock for switching log files atomically.
      */
@@ -128,8 +187,6 @@ public class DiskLogger extends LifeCycleThread {
 
     private final Object               pseudoSyncWaitMonitor             = new Object();
 
-    private final CRC32                csumAlgo                          = new CRC32();
-
     private final int                  maxQ;
 
     private AtomicInteger              _processedLogEntries              = new AtomicInteger();
@@ -151,16 +208,40 @@ public class DiskLogger extends LifeCycleThread {
      */
     public DiskLogger(String logfileDir, LSN initLSN, SyncMode syncMode, int pseudoSyncWait, int maxQ)
             throws IOException {
+        this(new String[] { logfileDir }, initLSN, syncMode, pseudoSyncWait, maxQ, 0);
+    }
+
+    /**
+     * Creates a new instance of DiskLogger that stripes the log across the given directories.
+     * 
+     * @param logfileDirs
+     *            the log file directories, one per stripe.
+     * @param initLSN
+     * @param syncMode
+     * @param pseudoSyncWait
+     * @param maxQ
+     * @param tailCacheSize
+     *            the maximum number of bytes of recently synced entries to keep in memory, 0 disables caching.
+     * 
+     * @throws java.io.IOException
+     *             If the log files cannot be created.
+     */
+    public DiskLogger(String[] logfileDirs, LSN initLSN, SyncMode syncMode, int pseudoSyncWait, int maxQ,
+            int tailCacheSize) throws IOException {
 
         super("DiskLogger");
 
-        if (logfileDir == null) {
-            throw new RuntimeException("expected a non-null log file directory name!");
+        if (logfileDirs == null || logfileDirs.length == 0) {
+            throw new RuntimeException("expected at least one log file directory name!");
         }
-        if (logfileDir.endsWith("/")) {
-            this.logfileDir = logfileDir;
-        } else {
-            this.logfileDir = logfileDir + "/";
+
+        this.stripes = new LogStripe[logfileDirs.length];
+        this.writtenLSNs = new LSN[logfileDirs.length];
+        for (int i = 0; i < logfileDirs.length; i++) {
+            if (logfileDirs[i] == null) {
+                throw new RuntimeException("expected a non-null log file directory name!");
+            }
+            stripes[i] = new LogStripe(this, i, logfileDirs[i], syncMode);
         }
 
         if (pseudoSyncWait > 0 && syncMode == SyncMode.ASYNC) {
@@ -171,6 +252,7 @@ public class DiskLogger extends LifeCycleThread {
         this.pseudoSyncWait = pseudoSyncWait;
         this.syncMode = syncMode;
         this.maxQ = maxQ;
+        this.tailCache = tailCacheSize > 0 ? new LogTailCache(tailCacheSize) : null;
 
         loadLogFile(initLSN);
     }
@@ -181,21 +263,17 @@ public class DiskLogger extends LifeCycleThread {
      * @throws IOException
      */
     public void dropLogFile() throws IOException {
-        channel.close();
-        fos.close();
-
-        // delete invalid (because empty) database log on switch
-        if (currentLogFileName != null) {
-            File f = new File(currentLogFileName);
-            if (f.length() == 0L) {
-                boolean suc = f.delete();
-                assert (suc) : "An empty database log file could not have been deleted properly.";
-            }
+
+        // all stripes have to be complete before their files may be closed
+        try {
+            waitForInFlightEntries();
+        } catch (InterruptedException e) {
+            throw new IOException("interrupted while waiting for in-flight log entries");
         }
 
-        channel = null;
-        fos = null;
-        currentLogFileName = null;
+        for (LogStripe stripe : stripes) {
+            stripe.close();
+        }
     }
 
     /**
@@ -208,6 +286,9 @@ public class DiskLogger extends LifeCycleThread {
 
         // update disk-log LSN
         if (initLSN != null) {
+            if (tailCache != null) {
+                tailCache.clear();
+            }
             this.currentViewId.set(initLSN.getViewId());
             assert (initLSN.getSequenceNo() > 0);
             this.nextLogSequenceNo.set(initLSN.getSequenceNo());
@@ -217,7 +298,49 @@ public class DiskLogger extends LifeCycleThread {
     }
 
     public long getLogFileSize() {
-        return new File(currentLogFileName).length();
+        long size = 0L;
+        for (LogStripe stripe : stripes) {
+            size += stripe.getLogFileSize();
+        }
+        return size;
+    }
+
+    /**
+     * @return the cache of the most recently synced entries, or <code>null</code> if caching is disabled.
+     */
+    public LogTailCache getTailCache() {
+        return tailCache;
+    }
+
+    /**
+     * Sets the throttle that is informed about the latency of each sync of the log, so that it can adapt the rate of
+     * background writes.
+     * 
+     * @param throttle
+     *            the throttle, or <code>null</code>.
+     */
+    public void setIOThrottle(IOThrottle throttle) {
+        this.ioThrottle = throttle;
+    }
+
+    /**
+     * Reports the duration of writing and syncing a batch of entries.
+     * 
+     * @param nanos
+     *            the duration in nanoseconds.
+     */
+    void syncCompleted(long nanos) {
+        IOThrottle throttle = ioThrottle;
+        if (throttle != null) {
+            throttle.syncCompleted(nanos / 1000);
+        }
+    }
+
+    /**
+     * @return the number of stripes the log consists of.
+     */
+    public int getStripeCount() {
+        return stripes.length;
     }
 
     /**
@@ -229,23 +352,111 @@ public class DiskLogger extends LifeCycleThread {
      * @throws InterruptedException
      *             if the entry could not be appended.
      */
-    public synchronized void append(LogEntry entry) throws InterruptedException, IllegalStateException {
+    public void append(LogEntry entry) throws InterruptedException, IllegalStateException {
 
         assert (entry != null);
 
-        // wait for queue space to become available
-        if (!quit && maxQ > 0 && entries.size() >= maxQ) {
-            wait();
+        queueLock.lock();
+        try {
+
+            // wait for queue space to become available
+            while (!quit && maxQ > 0 && entries.size() >= maxQ) {
+                notFull.await();
+            }
+
+            if (!quit) {
+                assert (maxQ == 0 || entries.size() < maxQ);
+
+                entries.add(entry);
+                notEmpty.signal();
+            } else {
+                throw new InterruptedException("Appending the LogEntry to the DiskLogger's "
+                        + "queue was interrupted, due DiskLogger shutdown.");
+            }
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    /**
+     * Announces an entry that will be appended after its modifications have been applied in-memory. Blocks while
+     * the queue is drained for a checkpoint. Each call has to be followed by a call to {@link #endAppend()}.
+     * 
+     * @throws InterruptedException
+     *             if interrupted while waiting for the checkpoint.
+     */
+    public void beginAppend() throws InterruptedException {
+
+        queueLock.lockInterruptibly();
+        try {
+            while (!quit && draining) {
+                notDraining.await();
+            }
+            pendingAppends++;
+        } finally {
+            queueLock.unlock();
         }
+    }
 
-        if (!quit) {
-            assert (maxQ == 0 || entries.size() < maxQ);
+    /**
+     * Marks an entry announced by {@link #beginAppend()} as appended or discarded.
+     */
+    public void endAppend() {
 
-            entries.add(entry);
-            notifyAll();
-        } else {
-            throw new InterruptedException("Appending the LogEntry to the DiskLogger's "
-                    + "queue was interrupted, due DiskLogger shutdown.");
+        queueLock.lock();
+        try {
+            if (--pendingAppends == 0) {
+                notFull.signalAll();
+            }
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    /**
+     * Acquires the lock for switching log files after all announced and queued entries have been written. New
+     * entries cannot be announced until {@link #unlockDrained()} is called. This ensures that in-memory snapshots
+     * taken while holding the lock reflect exactly the entries up to the latest LSN, which matters for
+     * modifications that must not be replayed twice, like merges.
+     * 
+     * @throws InterruptedException
+     *             if interrupted while waiting.
+     */
+    public void lockDrained() throws InterruptedException {
+
+        queueLock.lockInterruptibly();
+        try {
+            draining = true;
+            try {
+                while (!quit && (pendingAppends > 0 || !entries.isEmpty())) {
+                    notFull.await();
+                }
+                lock();
+            } catch (InterruptedException ex) {
+                draining = false;
+                notDraining.signalAll();
+                throw ex;
+            }
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    /**
+     * Releases the lock acquired by {@link #lockDrained()}.
+     */
+    public void unlockDrained() {
+
+        // the lock is released first, as the queue lock is always acquired
+        // before it
+        unlock();
+
+        queueLock.lock();
+        try {
+            draining = false;
+            notDraining.signalAll();
+        } finally {
+            queueLock.unlock();
         }
     }
 
@@ -296,6 +507,11 @@ public class DiskLogger extends LifeCycleThread {
         assert (quit);
 
         quit = false;
+        if (stripes.length > 1) {
+            for (LogStripe stripe : stripes) {
+                stripe.start();
+            }
+        }
         super.start();
     }
 
@@ -313,10 +529,11 @@ public class DiskLogger extends LifeCycleThread {
             try {
 
                 // wait for an entry
-                synchronized (this) {
+                queueLock.lock();
+                try {
 
                     if (!quit && entries.isEmpty()) {
-                        wait();
+                        notEmpty.await();
                     }
 
                     if (quit) {
@@ -330,9 +547,11 @@ public class DiskLogger extends LifeCycleThread {
 
                             tmpE.add(tmp);
                         }
-                        notifyAll();
+                        notFull.signalAll();
                         lock();
                     }
+                } finally {
+                    queueLock.unlock();
                 }
 
                 processLogEntries(tmpE);
@@ -369,6 +588,7 @@ public class DiskLogger extends LifeCycleThread {
                 try {
                     lock();
                     processLogEntries(entries);
+                    waitForInFlightEntries();
                 } finally {
                     if (hasLock())
                         unlock();
@@ -398,20 +618,27 @@ public class DiskLogger extends LifeCycleThread {
      *            - flag to determine, if shutdown should process gracefully, or not.
      * @throws InterruptedException
      */
-    public synchronized void shutdown(boolean graceful) throws InterruptedException {
+    public void shutdown(boolean graceful) throws InterruptedException {
 
-        lock();
-        this.graceful = graceful;
-        quit = true;
-        notifyAll();
-
-        // stop pseudoSyncWait, if shutdown is ungraceful
-        if (!graceful && pseudoSyncWait > 0) {
-            synchronized (pseudoSyncWaitMonitor) {
-                pseudoSyncWaitMonitor.notify();
+        queueLock.lock();
+        try {
+            lock();
+            this.graceful = graceful;
+            quit = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+            notDraining.signalAll();
+
+            // stop pseudoSyncWait, if shutdown is ungraceful
+            if (!graceful && pseudoSyncWait > 0) {
+                synchronized (pseudoSyncWaitMonitor) {
+                    pseudoSyncWaitMonitor.notify();
+                }
             }
+            unlock();
+        } finally {
+            queueLock.unlock();
         }
-        unlock();
     }
 
     /**
@@ -420,14 +647,15 @@ public class DiskLogger extends LifeCycleThread {
     @Deprecated
     public void destroy() {
         stop();
-        try {
+        for (LogStripe stripe : stripes) {
+            if (stripe.isAlive()) {
+                stripe.stop();
+            }
             try {
-                fdes.sync();
-            } finally {
-                fos.close();
+                stripe.cleanUp();
+            } catch (IOException e) {
+                /* ignored */
             }
-        } catch (IOException e) {
-            /* ignored */
         }
     }
 
@@ -442,22 +670,34 @@ public class DiskLogger extends LifeCycleThread {
         return new LSN(currentViewId.get(), nextLogSequenceNo.get() - 1L);
     }
 
+    /**
+     * @return the number of entries that have been written to the log since it has been started.
+     */
+    public int getProcessedLogEntryCount() {
+        return _processedLogEntries.get();
+    }
+
     public Object getRuntimeState(String property) {
         if (RUNTIME_STATE_PROCESSEDLOGENTRIES.equals(property))
             return _processedLogEntries.get();
+        if (RUNTIME_STATE_TAILCACHESIZE.equals(property))
+            return tailCache == null ? 0L : tailCache.getSize();
+        if (RUNTIME_STATE_TAILCACHEHITS.equals(property))
+            return tailCache == null ? 0L : tailCache.getHits();
+        if (RUNTIME_STATE_TAILCACHEMISSES.equals(property))
+            return tailCache == null ? 0L : tailCache.getMisses();
         return null;
     }
 
     public Map<String, Object> getRuntimeState() {
         Map<String, Object> map = new HashMap<String, Object>();
         map.put(RUNTIME_STATE_PROCESSEDLOGENTRIES, _processedLogEntries.get());
+        map.put(RUNTIME_STATE_TAILCACHESIZE, tailCache == null ? 0L : tailCache.getSize());
+        map.put(RUNTIME_STATE_TAILCACHEHITS, tailCache == null ? 0L : tailCache.getHits());
+        map.put(RUNTIME_STATE_TAILCACHEMISSES, tailCache == null ? 0L : tailCache.getMisses());
         return map;
     }
 
-    private String createLogFileName() {
-        return logfileDir + createLogFileName(currentViewId.get(), nextLogSequenceNo.get());
-    }
-
     /**
      * Closes the log-file. And frees remaining entries.
      * 
@@ -466,13 +706,39 @@ public class DiskLogger extends LifeCycleThread {
     private void cleanUp() throws IOException {
 
         try {
-            fdes.sync();
+            // stripes write all entries assigned to them before they stop
+            if (stripes.length > 1) {
+                for (LogStripe stripe : stripes) {
+                    stripe.shutdown();
+                }
+                for (LogStripe stripe : stripes) {
+                    try {
+                        stripe.waitForShutdown();
+                    } catch (Exception e) {
+                        Logging.logError(Logging.LEVEL_ERROR, this, e);
+                    }
+                }
+            }
         } finally {
             try {
-                fos.close();
+                IOException exc = null;
+                for (LogStripe stripe : stripes) {
+                    try {
+                        stripe.cleanUp();
+                    } catch (IOException e) {
+                        exc = e;
+                    }
+                }
+                if (exc != null) {
+                    throw exc;
+                }
             } finally {
 
-                synchronized (this) {
+                failInFlightEntries(new BabuDBException(ErrorCode.INTERRUPTED, "DiskLogger was shut down, before "
+                        + "the entry could be written to the log-file"));
+
+                queueLock.lock();
+                try {
                     assert (graceful || entries.size() == 0);
 
                     // clear pending requests, if available
@@ -482,6 +748,8 @@ public class DiskLogger extends LifeCycleThread {
                                 new BabuDBException(ErrorCode.INTERRUPTED, "DiskLogger was shut down, before the "
                                         + "entry could be written to the log-file"));
                     }
+                } finally {
+                    queueLock.unlock();
                 }
             }
         }
@@ -498,54 +766,201 @@ public class DiskLogger extends LifeCycleThread {
 
         assert (hasLock());
 
-        for (LogEntry le : entries) {
-            assert (le != null) : "Entry must not be null";
-            int viewID = currentViewId.get();
-            long seqNo = nextLogSequenceNo.getAndIncrement();
+        List<ReusableBuffer> serialized = stripes.length == 1 ? new ArrayList<ReusableBuffer>(entries.size()) : null;
+        long start = System.nanoTime();
+        try {
 
-            if (le.getLSN() != null && (le.getLSN().getSequenceNo() != seqNo || le.getLSN().getViewId() != viewID)) {
+            for (LogEntry le : entries) {
+                assert (le != null) : "Entry must not be null";
+                int viewID = currentViewId.get();
+                long seqNo = nextLogSequenceNo.getAndIncrement();
 
-                throw new IOException("LogEntry (" + le.getPayloadType() + ") had unexpected LSN: " + le.getLSN()
-                        + "\n" + viewID + ":" + seqNo + " was expected instead.");
-            }
+                if (le.getLSN() != null
+                        && (le.getLSN().getSequenceNo() != seqNo || le.getLSN().getViewId() != viewID)) {
 
-            le.assignId(viewID, seqNo);
+                    throw new IOException("LogEntry (" + le.getPayloadType() + ") had unexpected LSN: "
+                            + le.getLSN() + "\n" + viewID + ":" + seqNo + " was expected instead.");
+                }
 
-            ReusableBuffer buffer = null;
-            try {
-                buffer = le.serialize(csumAlgo);
+                le.assignId(viewID, seqNo);
 
-                Logging.logMessage(Logging.LEVEL_DEBUG, Category.babudb, this,
-                        "Writing entry LSN(%d:%d) with %d bytes payload [%s] to log. " + "[serialized %d bytes]",
-                        viewID, seqNo, le.getPayload().remaining(), new String(le.getPayload().array()),
-                        buffer.remaining());
+                if (stripes.length == 1) {
+                    // write the LogEntry to the local disk
+                    serialized.add(stripes[0].write(le));
+                } else {
+                    // hand the LogEntry over to its stripe, which acknowledges it
+                    // asynchronously
+                    synchronized (inFlight) {
+                        inFlight.add(le);
+                    }
+                    getStripe(le).enqueue(le);
+                }
 
-                // write the LogEntry to the local disk
-                channel.write(buffer.getBuffer());
+                _processedLogEntries.incrementAndGet();
+            }
 
-            } finally {
-                csumAlgo.reset();
-                if (buffer != null)
+            if (stripes.length == 1) {
+                stripes[0].force();
+                syncCompleted(System.nanoTime() - start);
+                Iterator<ReusableBuffer> buffers = serialized.iterator();
+                for (LogEntry le : entries) {
+                    ReusableBuffer buffer = buffers.next();
+                    if (tailCache != null) {
+                        tailCache.add(le.getLSN(), buffer);
+                    }
+                    le.free();
+                    le.getListener().synced(le.getLSN());
+                }
+            }
+            entries.clear();
+
+        } finally {
+            if (serialized != null) {
+                for (ReusableBuffer buffer : serialized) {
                     BufferPool.free(buffer);
+                }
+            }
+        }
+
+        if (pseudoSyncWait > 0) {
+            synchronized (pseudoSyncWaitMonitor) {
+                pseudoSyncWaitMonitor.wait(pseudoSyncWait);
+            }
+        }
+    }
+
+    /**
+     * Callback for stripes that have written a batch of entries. Acknowledges all in-flight entries up to the first
+     * one that has not been written yet. Once an entry could not be written, all entries with greater LSNs fail
+     * until the next log file is loaded.
+     * 
+     * @param stripe
+     *            the stripe that has written the batch.
+     * @param batch
+     *            the entries that have been written, in the order of their LSNs.
+     * @param serialized
+     *            the serialized entries that have been written; the logger takes care of freeing them.
+     * @param error
+     *            the error that occurred while writing the batch, or <code>null</code> if the batch has been synced
+     *            successfully.
+     */
+    void stripeWritten(LogStripe stripe, List<LogEntry> batch, List<ReusableBuffer> serialized, Exception error) {
+
+        if (tailCache == null || error != null) {
+            for (ReusableBuffer buffer : serialized) {
+                BufferPool.free(buffer);
             }
+        }
 
-            _processedLogEntries.incrementAndGet();
+        if (batch.isEmpty()) {
+            return;
         }
 
-        if (syncMode == SyncMode.FSYNC) {
-            channel.force(true);
-        } else if (this.syncMode == SyncMode.FDATASYNC) {
-            channel.force(false);
+        synchronized (ackLock) {
+
+            List<LogEntry> completed = new ArrayList<LogEntry>();
+            Map<LogEntry, Exception> failed = new IdentityHashMap<LogEntry, Exception>();
+
+            synchronized (inFlight) {
+
+                writtenLSNs[stripe.index] = batch.get(batch.size() - 1).getLSN();
+                if (error != null) {
+                    for (LogEntry le : batch) {
+                        failures.put(le, error);
+                    }
+                } else if (tailCache != null) {
+                    for (int i = 0; i < batch.size(); i++) {
+                        serializedEntries.put(batch.get(i), serialized.get(i));
+                    }
+                }
+
+                // collect the longest prefix of written entries
+                while (!inFlight.isEmpty()) {
+                    LogEntry head = inFlight.getFirst();
+                    LSN written = writtenLSNs[getStripe(head).index];
+                    if (written == null || written.compareTo(head.getLSN()) < 0) {
+                        break;
+                    }
+                    inFlight.removeFirst();
+                    completed.add(head);
+                    Exception exc = failures.remove(head);
+                    if (exc != null && writeFailure == null) {
+                        writeFailure = exc;
+                    } else if (exc == null) {
+                        exc = writeFailure;
+                    }
+                    ReusableBuffer buffer = serializedEntries.remove(head);
+                    if (buffer != null) {
+                        if (exc == null) {
+                            tailCache.add(head.getLSN(), buffer);
+                        }
+                        BufferPool.free(buffer);
+                    }
+                    if (exc != null) {
+                        failed.put(head, exc);
+                    }
+                }
+
+                if (inFlight.isEmpty()) {
+                    inFlight.notifyAll();
+                }
+            }
+
+            for (LogEntry le : completed) {
+                le.free();
+                Exception exc = failed.get(le);
+                if (exc == null) {
+                    le.getListener().synced(le.getLSN());
+                } else {
+                    le.getListener().failed(exc);
+                }
+            }
         }
-        for (LogEntry le : entries) {
-            le.free();
-            le.getListener().synced(le.getLSN());
+    }
+
+    /**
+     * @param le
+     * @return the stripe the given entry is assigned to.
+     */
+    private LogStripe getStripe(LogEntry le) {
+        return stripes[(int) (le.getLogSequenceNo() % stripes.length)];
+    }
+
+    /**
+     * Blocks until all entries that have been assigned to a stripe have been acknowledged.
+     * 
+     * @throws InterruptedException
+     */
+    private void waitForInFlightEntries() throws InterruptedException {
+        synchronized (inFlight) {
+            while (!inFlight.isEmpty()) {
+                inFlight.wait();
+            }
         }
-        entries.clear();
+    }
 
-        if (pseudoSyncWait > 0) {
-            synchronized (pseudoSyncWaitMonitor) {
-                pseudoSyncWaitMonitor.wait(pseudoSyncWait);
+    /**
+     * Fails all entries that have been assigned to a stripe but have not been acknowledged.
+     * 
+     * @param error
+     */
+    private void failInFlightEntries(Exception error) {
+        synchronized (ackLock) {
+            List<LogEntry> pending;
+            synchronized (inFlight) {
+                pending = new ArrayList<LogEntry>(inFlight);
+                inFlight.clear();
+                failures.clear();
+                writeFailure = null;
+                for (ReusableBuffer buffer : serializedEntries.values()) {
+                    BufferPool.free(buffer);
+                }
+                serializedEntries.clear();
+                inFlight.notifyAll();
+            }
+            for (LogEntry le : pending) {
+                le.free();
+                le.getListener().failed(error);
             }
         }
     }
@@ -581,37 +996,32 @@ public class DiskLogger extends LifeCycleThread {
      */
     private void loadLogFile() throws IOException {
 
-        assert (channel == null && fos == null);
-
-        // get the current log-file's name
-        this.currentLogFileName = createLogFileName();
-
-        // open that file
-        File lf = new File(currentLogFileName);
-        if (!lf.getParentFile().exists() && !lf.getParentFile().mkdirs()) {
-            throw new IOException("could not create parent directory for database log file");
+        // all stripes use the same file name
+        String logFileName = createLogFileName(currentViewId.get(), nextLogSequenceNo.get());
+        for (LogStripe stripe : stripes) {
+            stripe.open(logFileName);
         }
 
-        String openMode = "";
-        switch (syncMode) {
-        case ASYNC:
-        case FSYNC:
-        case FDATASYNC: {
-            openMode = "rw";
-            break;
-        }
-        case SYNC_WRITE: {
-            openMode = "rwd";
-            break;
+        // the new log file starts without a gap
+        synchronized (inFlight) {
+            writeFailure = null;
         }
-        case SYNC_WRITE_METADATA: {
-            openMode = "rws";
-            break;
-        }
-        }
-        fos = new RandomAccessFile(lf, openMode);
-        fos.setLength(0);
-        channel = fos.getChannel();
-        fdes = fos.getFD();
+    }
+
+    /**
+     * NEVER USE THIS EXCEPT FOR UNIT TESTS! Replaces the stripe with the same index before the logger is started,
+     * in order to inject faults.
+     * 
+     * @param stripe
+     *            the new stripe.
+     * @throws IOException
+     */
+    void replaceStripe(LogStripe stripe) throws IOException {
+
+        assert (quit);
+
+        stripes[stripe.index].close();
+        stripes[stripe.index] = stripe;
+        stripe.open(createLogFileName(currentViewId.get(), nextLogSequenceNo.get()));
     }
 }
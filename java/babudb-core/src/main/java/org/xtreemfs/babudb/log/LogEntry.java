@@ -8,6 +8,8 @@
 
 package org.xtreemfs.babudb.log;
 
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
 import java.util.zip.Checksum;
 
 import org.xtreemfs.babudb.lsmdb.LSMDBRequest;
@@ -29,6 +31,11 @@ public class LogEntry {
     protected static final int  headerLength        = Integer.SIZE / 8 * 4 + 
                                                   Long.SIZE / 8 + Byte.SIZE / 8;
     
+    /**
+     * offset of the type byte in a serialized entry
+     */
+    private static final int    TYPE_OFFSET         = Integer.SIZE / 8 * 3 + Long.SIZE / 8;
+    
     public static final boolean USE_CHECKSUMS       = true;
     
     public static final byte    PAYLOAD_TYPE_INSERT = 0;
@@ -45,6 +52,43 @@ public class LogEntry {
     
     public static final byte    PAYLOAD_TYPE_TRANSACTION = 6;
     
+    /**
+     * format version of log entries that are protected by CRC32 checksums
+     */
+    public static final byte    FORMAT_VERSION_CRC32 = 0;
+    
+    /**
+     * format version of log entries that are protected by CRC32C checksums
+     */
+    public static final byte    FORMAT_VERSION_CRC32C = 1;
+    
+    /**
+     * format version in which log entries are serialized
+     */
+    public static final byte    CURRENT_FORMAT_VERSION = FORMAT_VERSION_CRC32C;
+    
+    /**
+     * the type byte of a serialized entry contains the payload type in its
+     * lower and the format version in its upper four bits
+     */
+    private static final int    FORMAT_VERSION_SHIFT = 4;
+    
+    private static final int    PAYLOAD_TYPE_MASK   = 0x0F;
+    
+    /**
+     * the value of the checksum field while the checksum is being calculated
+     */
+    private static final byte[] EMPTY_CHECKSUM      = new byte[Integer.SIZE / 8];
+    
+    /**
+     * checksum algorithms of the calling thread, indexed by format version
+     */
+    private static final ThreadLocal<Checksum[]> checksums = new ThreadLocal<Checksum[]>() {
+        protected Checksum[] initialValue() {
+            return new Checksum[] { new CRC32(), CRC32C.newInstance() };
+        }
+    };
+    
     /**
      * view ID of the log entry. The view ID is an epoch number which creates a
      * total order on the log entries (viewId.logSequenceNo).
@@ -63,6 +107,8 @@ public class LogEntry {
     
     protected byte              payloadType;
     
+    protected byte              formatVersion       = CURRENT_FORMAT_VERSION;
+    
     private LogEntry() {
     }
         
@@ -79,7 +125,14 @@ public class LogEntry {
         this.logSequenceNo = logSequenceNo;
     }
     
-    public ReusableBuffer serialize(Checksum csumAlgo) {
+    /**
+     * Serializes the entry in the current format version. The checksum
+     * algorithm of the calling thread is used, so that the method may be
+     * invoked concurrently.
+     * 
+     * @return a buffer containing the serialized entry
+     */
+    public ReusableBuffer serialize() {
         assert (viewId > 0);
         assert (logSequenceNo > 0);
         
@@ -89,7 +142,7 @@ public class LogEntry {
         buf.putInt(checksum);
         buf.putInt(viewId);
         buf.putLong(logSequenceNo);
-        buf.put(payloadType);
+        buf.put((byte) (CURRENT_FORMAT_VERSION << FORMAT_VERSION_SHIFT | payloadType));
         buf.put(payload);
         payload.flip(); // otherwise payload is not reusable
         buf.putInt(bufSize);
@@ -101,6 +154,8 @@ public class LogEntry {
             buf.putInt(0);
             buf.position(0);
             
+            Checksum csumAlgo = checksums.get()[CURRENT_FORMAT_VERSION];
+            csumAlgo.reset();
             csumAlgo.update(buf.array(), 0, bufSize);
             int cPos = buf.position();
             
@@ -169,7 +224,19 @@ public class LogEntry {
         
     }
     
-    public static LogEntry deserialize(ReusableBuffer data, Checksum csumAlgo) 
+    /**
+     * Deserializes an entry of any supported format version. The checksum
+     * algorithm of the calling thread is used, so that the method may be
+     * invoked concurrently.
+     * 
+     * @param data
+     *            the buffer containing the serialized entry
+     * @return the log entry; its payload is a view buffer on <code>data</code>
+     * @throws LogEntryException
+     *             if the entry is incomplete, corrupted, or has an unsupported
+     *             format version
+     */
+    public static LogEntry deserialize(ReusableBuffer data) 
         throws LogEntryException {
         checkIntegrity(data);
         
@@ -180,7 +247,7 @@ public class LogEntry {
         e.checksum = data.getInt();
         e.viewId = data.getInt();
         e.logSequenceNo = data.getLong();
-        e.payloadType = data.get();
+        e.setType(data.get());
         final int payloadSize = bufSize - headerLength;
         int payloadPosition = data.position();
         ReusableBuffer payload = data.createViewBuffer();
@@ -188,11 +255,14 @@ public class LogEntry {
         e.payload = payload;
         
         if (USE_CHECKSUMS) {
+            Checksum csumAlgo = getChecksum(e.formatVersion);
+            
             // reset the old checksum to 0, before calculating a new one
             data.position(startPos + Integer.SIZE / 8);
             data.putInt(0);
             data.position(startPos);
             
+            csumAlgo.reset();
             csumAlgo.update(data.array(), startPos, bufSize);
             int csum = (int) csumAlgo.getValue();
             
@@ -201,6 +271,7 @@ public class LogEntry {
             data.putInt((int) e.checksum);
             
             if (csum != e.checksum) {
+                e.free();
                 throw new LogEntryException(
                     "Invalid Checksum. Checksum in log entry and calculated " +
                     "checksum do not match.");
@@ -212,6 +283,92 @@ public class LogEntry {
         return e;
     }
     
+    /**
+     * Calculates the checksum of a serialized log entry stored in a byte
+     * array. The algorithm is selected by the format version of the entry. The
+     * checksum field of the entry is treated as zero, so that the array does
+     * not have to be modified.
+     * 
+     * @param data
+     *            the array containing the serialized entry
+     * @param offset
+     *            the offset of the entry in the array
+     * @param length
+     *            the length of the entry, including both length fields
+     * @return the checksum of the entry
+     * @throws LogEntryException
+     *             if the format version of the entry is not supported
+     */
+    static int calculateChecksum(byte[] data, int offset, int length) throws LogEntryException {
+        
+        final int intSize = Integer.SIZE / 8;
+        final Checksum csumAlgo = getChecksum(getFormatVersion(data[offset + TYPE_OFFSET]));
+        
+        csumAlgo.reset();
+        csumAlgo.update(data, offset, intSize);
+        csumAlgo.update(EMPTY_CHECKSUM, 0, intSize);
+        csumAlgo.update(data, offset + 2 * intSize, length - 2 * intSize);
+        
+        return (int) csumAlgo.getValue();
+    }
+    
+    /**
+     * Creates a log entry from a serialized entry that has already been
+     * checked for integrity. The payload of the resulting entry is a view
+     * buffer on <code>data</code>, i.e. no data is copied.
+     *
+     * @param data
+     *            the buffer containing the serialized entry
+     * @param offset
+     *            the absolute offset of the entry in the buffer
+     * @return the log entry
+     */
+    static LogEntry deserializeChecked(ReusableBuffer data, int offset) {
+        
+        final ByteBuffer buf = data.getBuffer();
+        final int bufSize = buf.getInt(offset);
+        
+        LogEntry e = new LogEntry();
+        e.checksum = buf.getInt(offset + Integer.SIZE / 8);
+        e.viewId = buf.getInt(offset + 2 * Integer.SIZE / 8);
+        e.logSequenceNo = buf.getLong(offset + 3 * Integer.SIZE / 8);
+        e.setType(buf.get(offset + TYPE_OFFSET));
+        
+        ReusableBuffer payload = data.createViewBuffer();
+        payload.range(offset + headerLength - Integer.SIZE / 8, bufSize - headerLength);
+        e.payload = payload;
+        
+        return e;
+    }
+    
+    /**
+     * Returns the checksum algorithm of the calling thread for the given format
+     * version.
+     * 
+     * @param formatVersion
+     *            the format version
+     * @return the checksum algorithm
+     * @throws LogEntryException
+     *             if the format version is not supported
+     */
+    private static Checksum getChecksum(byte formatVersion) throws LogEntryException {
+        
+        Checksum[] algos = checksums.get();
+        if (formatVersion < 0 || formatVersion >= algos.length)
+            throw new LogEntryException("Unsupported log entry format version: " + formatVersion);
+        
+        return algos[formatVersion];
+    }
+    
+    private static byte getFormatVersion(byte type) {
+        return (byte) ((type & 0xFF) >>> FORMAT_VERSION_SHIFT);
+    }
+    
+    private void setType(byte type) {
+        this.payloadType = (byte) (type & PAYLOAD_TYPE_MASK);
+        this.formatVersion = getFormatVersion(type);
+    }
+    
     public void free() {
         BufferPool.free(payload);
         payload = null;
@@ -229,6 +386,14 @@ public class LogEntry {
         return payloadType;
     }
     
+    /**
+     * @return the format version in which the entry was serialized when it was
+     *         read, or the current format version for new entries
+     */
+    public byte getFormatVersion() {
+        return formatVersion;
+    }
+    
     /* (non-Javadoc)
      * @see java.lang.Object#clone()
      */
@@ -238,6 +403,7 @@ public class LogEntry {
         result.assignId(viewId, logSequenceNo);
         result.attachment = attachment;
         result.checksum = checksum;
+        result.formatVersion = formatVersion;
         return result;
     }
     
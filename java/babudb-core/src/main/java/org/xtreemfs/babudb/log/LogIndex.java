@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2008 - 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.babudb.log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.xtreemfs.babudb.lsmdb.LSN;
+
+/**
+ * A sparse index that maps LSNs to the offsets of their entries in a log
+ * file. It contains a sample for the first entry after every
+ * <code>SAMPLE_INTERVAL</code> bytes of the log file.
+ * <p>
+ * The index is created while the log file is written and persisted alongside
+ * of it, in a file with the suffix <code>FILE_SUFFIX</code>. It is a hint
+ * only: the index file is neither synced nor recovered after a crash, and
+ * readers have to verify that a log entry with the expected LSN is located at
+ * the offset.
+ * </p>
+ *
+ * @author bjko
+ */
+public class LogIndex {
+
+    /**
+     * the suffix of an index file, appended to the name of the log file
+     */
+    public static final String FILE_SUFFIX     = ".idx";
+
+    /**
+     * the minimum number of bytes between two samples
+     */
+    public static final int    SAMPLE_INTERVAL = 64 * 1024;
+
+    /**
+     * the size of a sample in the index file: view ID, sequence number, offset
+     */
+    private static final int   RECORD_SIZE     = 4 + 8 + 8;
+
+    private final File         indexFile;
+
+    private int[]              viewIds;
+
+    private long[]             seqNos;
+
+    private long[]             offsets;
+
+    private int                size;
+
+    /**
+     * the file the samples are appended to, or <code>null</code> if it has not
+     * been created yet or the index is read-only
+     */
+    private RandomAccessFile   out;
+
+    private final ByteBuffer   record          = ByteBuffer.allocate(RECORD_SIZE);
+
+    private LogIndex(File indexFile, int capacity) {
+        this.indexFile = indexFile;
+        this.viewIds = new int[capacity];
+        this.seqNos = new long[capacity];
+        this.offsets = new long[capacity];
+    }
+
+    /**
+     * Creates a new, empty index for the given log file. A stale index file
+     * from an earlier log file with the same name is deleted. The index file
+     * itself is created as soon as the first sample is added.
+     *
+     * @param logFile
+     *            the log file
+     * @return the index
+     * @throws IOException
+     *             if a stale index file could not be deleted
+     */
+    static LogIndex create(File logFile) throws IOException {
+
+        File indexFile = getIndexFile(logFile);
+        if (indexFile.exists() && !indexFile.delete())
+            throw new IOException("could not delete stale log index " + indexFile.getPath());
+
+        return new LogIndex(indexFile, 16);
+    }
+
+    /**
+     * Loads the index of the given log file.
+     *
+     * @param logFile
+     *            the log file
+     * @return the index, or <code>null</code>, if the log file has no index
+     * @throws IOException
+     *             if the index file could not be read
+     */
+    static LogIndex load(File logFile) throws IOException {
+
+        File indexFile = getIndexFile(logFile);
+        if (!indexFile.exists())
+            return null;
+
+        FileInputStream in = new FileInputStream(indexFile);
+        try {
+            FileChannel channel = in.getChannel();
+
+            // a partially written sample at the end is ignored
+            int count = (int) (channel.size() / RECORD_SIZE);
+            ByteBuffer buf = ByteBuffer.allocate(count * RECORD_SIZE);
+            while (buf.hasRemaining() && channel.read(buf) >= 0)
+                ;
+            buf.flip();
+
+            LogIndex index = new LogIndex(indexFile, Math.max(count, 1));
+            while (buf.remaining() >= RECORD_SIZE)
+                index.add(buf.getInt(), buf.getLong(), buf.getLong());
+
+            return index;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Deletes the index of the given log file, if it exists.
+     *
+     * @param logFile
+     *            the log file
+     * @return <code>false</code>, if an existing index file could not be
+     *         deleted, <code>true</code> otherwise
+     */
+    public static boolean delete(File logFile) {
+        File indexFile = getIndexFile(logFile);
+        return !indexFile.exists() || indexFile.delete();
+    }
+
+    /**
+     * Records that an entry has been appended to the log file. A sample is
+     * added to the index if the entry starts at least
+     * <code>SAMPLE_INTERVAL</code> bytes behind the latest sample.
+     *
+     * @param lsn
+     *            the LSN of the entry
+     * @param offset
+     *            the offset of the entry in the log file
+     * @throws IOException
+     *             if the sample could not be written to the index file
+     */
+    void entryWritten(LSN lsn, long offset) throws IOException {
+
+        long lastOffset = size == 0 ? 0L : offsets[size - 1];
+        if (offset - lastOffset < SAMPLE_INTERVAL)
+            return;
+
+        add(lsn.getViewId(), lsn.getSequenceNo(), offset);
+
+        if (out == null)
+            out = new RandomAccessFile(indexFile, "rw");
+
+        record.clear();
+        record.putInt(lsn.getViewId()).putLong(lsn.getSequenceNo()).putLong(offset);
+        record.flip();
+        FileChannel channel = out.getChannel();
+        while (record.hasRemaining())
+            channel.write(record);
+    }
+
+    /**
+     * Returns the latest sample that does not exceed the given LSN.
+     *
+     * @param lsn
+     *            the LSN
+     * @return the position of the sample, or -1, if there is no such sample
+     */
+    int floor(LSN lsn) {
+
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(mid, lsn);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+
+        return high;
+    }
+
+    LSN getLSN(int sample) {
+        return new LSN(viewIds[sample], seqNos[sample]);
+    }
+
+    long getOffset(int sample) {
+        return offsets[sample];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Closes the index file.
+     *
+     * @throws IOException
+     */
+    void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    private void add(int viewId, long seqNo, long offset) {
+
+        if (size == offsets.length) {
+            int capacity = size * 2;
+            int[] v = new int[capacity];
+            long[] s = new long[capacity];
+            long[] o = new long[capacity];
+            System.arraycopy(viewIds, 0, v, 0, size);
+            System.arraycopy(seqNos, 0, s, 0, size);
+            System.arraycopy(offsets, 0, o, 0, size);
+            viewIds = v;
+            seqNos = s;
+            offsets = o;
+        }
+
+        viewIds[size] = viewId;
+        seqNos[size] = seqNo;
+        offsets[size] = offset;
+        size++;
+    }
+
+    private int compare(int sample, LSN lsn) {
+        if (viewIds[sample] != lsn.getViewId())
+            return viewIds[sample] < lsn.getViewId() ? -1 : 1;
+        if (seqNos[sample] != lsn.getSequenceNo())
+            return seqNos[sample] < lsn.getSequenceNo() ? -1 : 1;
+        return 0;
+    }
+
+    private static File getIndexFile(File logFile) {
+        return new File(logFile.getPath() + FILE_SUFFIX);
+    }
+}
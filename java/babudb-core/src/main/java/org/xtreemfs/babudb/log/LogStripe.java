@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2008 - 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.babudb.log;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.xtreemfs.babudb.log.DiskLogger.SyncMode;
+import org.xtreemfs.foundation.LifeCycleThread;
+import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.ReusableBuffer;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+
+/**
+ * A single stripe of the on-disk operations log, i.e. the log file in one of
+ * the log directories.
+ * <p>
+ * If the log consists of a single stripe, the {@link DiskLogger} writes the
+ * stripe's file directly. Otherwise, each stripe runs its own thread which
+ * writes and syncs the entries assigned to it by the {@link DiskLogger}, so
+ * that the stripes are written to their devices in parallel.
+ * </p>
+ *
+ * @author bjko
+ */
+class LogStripe extends LifeCycleThread {
+
+    /**
+     * the position of the stripe in the log
+     */
+    final int                          index;
+
+    /**
+     * the logger the stripe belongs to
+     */
+    private final DiskLogger           logger;
+
+    /**
+     * the directory of the stripe's log files
+     */
+    private final String               logfileDir;
+
+    private final SyncMode             syncMode;
+
+    /**
+     * NIO FileChannel used to write ByteBuffers directly to file.
+     */
+    private FileChannel                channel;
+
+    /**
+     * Stream used to obtain the FileChannel and to flush file.
+     */
+    private RandomAccessFile           fos;
+
+    /**
+     * Used to sync file.
+     */
+    private FileDescriptor             fdes;
+
+    /**
+     * current log file name
+     */
+    private volatile String            currentLogFileName;
+
+    /**
+     * the sparse LSN index of the current log file
+     */
+    private LogIndex                   lsnIndex;
+
+    /**
+     * the offset at which the next entry will be written
+     */
+    private long                       position;
+
+    /**
+     * The LogEntries assigned to this stripe that have not been written yet.
+     */
+    private final LinkedList<LogEntry> entries = new LinkedList<LogEntry>();
+
+    private volatile boolean           quit    = true;
+
+    LogStripe(DiskLogger logger, int index, String logfileDir, SyncMode syncMode) {
+
+        super("DiskLogger#" + index);
+
+        this.logger = logger;
+        this.index = index;
+        this.logfileDir = logfileDir.endsWith("/") ? logfileDir : logfileDir + "/";
+        this.syncMode = syncMode;
+    }
+
+    /**
+     * Creates and opens the stripe's log file with the given name.
+     *
+     * @param logFileName
+     *            the name of the log file
+     * @throws IOException
+     */
+    synchronized void open(String logFileName) throws IOException {
+
+        assert (channel == null && fos == null);
+
+        // get the current log-file's name
+        this.currentLogFileName = logfileDir + logFileName;
+
+        // open that file
+        File lf = new File(currentLogFileName);
+        if (!lf.getParentFile().exists() && !lf.getParentFile().mkdirs()) {
+            throw new IOException("could not create parent directory for database log file");
+        }
+
+        String openMode = "";
+        switch (syncMode) {
+        case ASYNC:
+        case FSYNC:
+        case FDATASYNC: {
+            openMode = "rw";
+            break;
+        }
+        case SYNC_WRITE: {
+            openMode = "rwd";
+            break;
+        }
+        case SYNC_WRITE_METADATA: {
+            openMode = "rws";
+            break;
+        }
+        }
+        fos = new RandomAccessFile(lf, openMode);
+        fos.setLength(0);
+        channel = fos.getChannel();
+        fdes = fos.getFD();
+
+        lsnIndex = LogIndex.create(lf);
+        position = 0L;
+    }
+
+    /**
+     * Closes the stripe's current log file. The file is deleted if it is
+     * empty.
+     *
+     * @throws IOException
+     */
+    synchronized void close() throws IOException {
+
+        channel.close();
+        fos.close();
+        lsnIndex.close();
+
+        // delete invalid (because empty) database log on switch
+        if (currentLogFileName != null) {
+            File f = new File(currentLogFileName);
+            if (f.length() == 0L) {
+                boolean suc = f.delete();
+                suc &= LogIndex.delete(f);
+                assert (suc) : "An empty database log file could not have been deleted properly.";
+            }
+        }
+
+        channel = null;
+        fos = null;
+        lsnIndex = null;
+        currentLogFileName = null;
+    }
+
+    /**
+     * Syncs and closes the stripe's current log file on shutdown.
+     *
+     * @throws IOException
+     */
+    synchronized void cleanUp() throws IOException {
+        try {
+            fdes.sync();
+        } finally {
+            try {
+                fos.close();
+            } finally {
+                lsnIndex.close();
+            }
+        }
+    }
+
+    long getLogFileSize() {
+        return new File(currentLogFileName).length();
+    }
+
+    /**
+     * Appends the serialized entry to the stripe's current log file.
+     *
+     * @param le
+     *            the entry, with an LSN assigned
+     * @return the serialized entry, which has to be freed by the caller
+     * @throws IOException
+     */
+    synchronized ReusableBuffer write(LogEntry le) throws IOException {
+
+        ReusableBuffer buffer = null;
+        boolean written = false;
+        try {
+            buffer = le.serialize();
+
+            Logging.logMessage(Logging.LEVEL_DEBUG, Category.babudb, this,
+                    "Writing entry LSN(%d:%d) with %d bytes payload [%s] to log. " + "[serialized %d bytes]", le
+                            .getViewId(), le.getLogSequenceNo(), le.getPayload().remaining(), new String(le
+                            .getPayload().array()), buffer.remaining());
+
+            // write the LogEntry to the local disk
+            lsnIndex.entryWritten(le.getLSN(), position);
+            position += buffer.remaining();
+            channel.write(buffer.getBuffer());
+
+            written = true;
+            return buffer;
+
+        } finally {
+            if (!written && buffer != null)
+                BufferPool.free(buffer);
+        }
+    }
+
+    /**
+     * Forces all written entries to the disk, according to the sync mode.
+     *
+     * @throws IOException
+     */
+    synchronized void force() throws IOException {
+        if (syncMode == SyncMode.FSYNC) {
+            channel.force(true);
+        } else if (this.syncMode == SyncMode.FDATASYNC) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Assigns an entry to the stripe. Entries have to be enqueued in the order
+     * of their LSNs.
+     *
+     * @param le
+     *            the entry, with an LSN assigned
+     */
+    synchronized void enqueue(LogEntry le) {
+        entries.add(le);
+        notifyAll();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Thread#start()
+     */
+    @Override
+    public synchronized void start() {
+
+        assert (quit);
+
+        quit = false;
+        super.start();
+    }
+
+    /**
+     * Main loop. Writes and syncs the enqueued entries in batches and reports
+     * them to the logger.
+     */
+    public void run() {
+        List<LogEntry> batch = new ArrayList<LogEntry>(DiskLogger.MAX_ENTRIES_PER_BLOCK);
+        List<ReusableBuffer> serialized = new ArrayList<ReusableBuffer>(DiskLogger.MAX_ENTRIES_PER_BLOCK);
+
+        notifyStarted();
+
+        while (true) {
+            try {
+
+                synchronized (this) {
+
+                    // pending entries are written on shutdown, because they
+                    // already have been sequenced
+                    if (!quit && entries.isEmpty()) {
+                        wait();
+                    }
+
+                    if (quit && entries.isEmpty()) {
+                        break;
+                    }
+
+                    LogEntry tmp = null;
+                    while (batch.size() < DiskLogger.MAX_ENTRIES_PER_BLOCK && (tmp = entries.poll()) != null) {
+                        batch.add(tmp);
+                    }
+
+                    long start = System.nanoTime();
+                    for (LogEntry le : batch) {
+                        serialized.add(write(le));
+                    }
+                    force();
+                    logger.syncCompleted(System.nanoTime() - start);
+                }
+
+                logger.stripeWritten(this, batch, serialized, null);
+
+            } catch (IOException ex) {
+
+                Logging.logError(Logging.LEVEL_ERROR, this, ex);
+                logger.stripeWritten(this, batch, serialized, ex);
+
+            } catch (InterruptedException ex) {
+                if (!quit) {
+                    notifyCrashed(ex);
+                    return;
+                }
+            } finally {
+                // the serialized entries have been handed over to the logger
+                batch.clear();
+                serialized.clear();
+            }
+        }
+
+        notifyStopped();
+    }
+
+    /**
+     * Stops the stripe's thread after all enqueued entries have been written.
+     */
+    public synchronized void shutdown() {
+        quit = true;
+        notifyAll();
+    }
+}
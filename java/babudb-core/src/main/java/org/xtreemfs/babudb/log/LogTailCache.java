@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2008 - 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.babudb.log;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xtreemfs.babudb.lsmdb.LSN;
+import org.xtreemfs.foundation.buffer.ReusableBuffer;
+
+/**
+ * A ring buffer of the most recently synced log entries in their serialized
+ * form, bounded by the total number of bytes. It allows consumers that tail the
+ * log, like the replication, to retrieve recent entries without reading the
+ * log files.
+ * <p>
+ * Entries are added by the {@link DiskLogger} in the order of their LSNs, as
+ * soon as they have been synced. The oldest entries are evicted when the
+ * capacity is exceeded.
+ * </p>
+ *
+ * @author bjko
+ */
+public class LogTailCache {
+
+    private static final int INITIAL_SLOTS = 1024;
+
+    /**
+     * the maximum number of bytes of all cached entries
+     */
+    private final long       capacity;
+
+    private LSN[]            lsns;
+
+    private byte[][]         entries;
+
+    /**
+     * the slot of the oldest entry
+     */
+    private int              head;
+
+    private int              count;
+
+    /**
+     * the number of bytes of all cached entries
+     */
+    private long             size;
+
+    private long             hits;
+
+    private long             misses;
+
+    /**
+     * Creates a new log tail cache.
+     *
+     * @param capacity
+     *            the maximum number of bytes of all cached entries
+     */
+    public LogTailCache(long capacity) {
+
+        if (capacity <= 0)
+            throw new IllegalArgumentException("the capacity of the log tail cache has to be positive");
+
+        this.capacity = capacity;
+        this.lsns = new LSN[INITIAL_SLOTS];
+        this.entries = new byte[INITIAL_SLOTS][];
+    }
+
+    /**
+     * Adds a copy of a synced entry to the cache. The oldest entries are
+     * evicted if the capacity is exceeded.
+     *
+     * @param lsn
+     *            the LSN of the entry
+     * @param serialized
+     *            the serialized entry, starting at position 0 of the buffer
+     *            and ending at its limit
+     */
+    synchronized void add(LSN lsn, ReusableBuffer serialized) {
+
+        // LSNs are only reset if the log is reloaded; cached entries may be
+        // outdated in this case
+        if (count > 0 && lsn.compareTo(lsns[slot(count - 1)]) <= 0)
+            clear();
+
+        ByteBuffer bb = serialized.getBuffer().duplicate();
+        bb.position(0);
+        byte[] entry = new byte[bb.remaining()];
+        bb.get(entry);
+
+        if (entry.length > capacity) {
+            clear();
+            return;
+        }
+
+        while (size + entry.length > capacity)
+            evict();
+
+        if (count == lsns.length)
+            grow();
+
+        int slot = slot(count);
+        lsns[slot] = lsn;
+        entries[slot] = entry;
+        size += entry.length;
+        count++;
+    }
+
+    /**
+     * Returns the serialized entries with consecutive LSNs, starting at the
+     * given LSN.
+     *
+     * @param from
+     *            the LSN of the first entry to return
+     * @param to
+     *            the LSN of the last entry to return, inclusive
+     * @param maxEntries
+     *            the maximum number of entries to return
+     * @return the serialized entries, or <code>null</code>, if the entry with
+     *         LSN <code>from</code> is not cached
+     */
+    public synchronized List<byte[]> get(LSN from, LSN to, int maxEntries) {
+
+        int pos = find(from);
+        if (pos < 0) {
+            misses++;
+            return null;
+        }
+        hits++;
+
+        List<byte[]> result = new ArrayList<byte[]>();
+        LSN prev = null;
+        for (; pos < count && result.size() < maxEntries; pos++) {
+
+            LSN lsn = lsns[slot(pos)];
+            if (lsn.compareTo(to) > 0)
+                break;
+
+            // stop at gaps and view changes
+            if (prev != null
+                && (lsn.getViewId() != prev.getViewId() || lsn.getSequenceNo() != prev.getSequenceNo() + 1))
+                break;
+
+            result.add(entries[slot(pos)]);
+            prev = lsn;
+        }
+
+        return result;
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < count; i++) {
+            lsns[slot(i)] = null;
+            entries[slot(i)] = null;
+        }
+        head = 0;
+        count = 0;
+        size = 0;
+    }
+
+    /**
+     * @return the number of bytes of all cached entries
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of cached entries
+     */
+    public synchronized int getEntryCount() {
+        return count;
+    }
+
+    /**
+     * @return the number of requests that could be served from the cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of requests that could not be served from the cache
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Binary search for the position of the entry with the given LSN.
+     */
+    private int find(LSN lsn) {
+
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = lsns[slot(mid)].compareTo(lsn);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+
+        return -1;
+    }
+
+    private void evict() {
+        size -= entries[head].length;
+        lsns[head] = null;
+        entries[head] = null;
+        head = (head + 1) % lsns.length;
+        count--;
+    }
+
+    private void grow() {
+        LSN[] l = new LSN[lsns.length * 2];
+        byte[][] e = new byte[entries.length * 2][];
+        for (int i = 0; i < count; i++) {
+            l[i] = lsns[slot(i)];
+            e[i] = entries[slot(i)];
+        }
+        lsns = l;
+        entries = e;
+        head = 0;
+    }
+
+    private int slot(int pos) {
+        return (head + pos) % lsns.length;
+    }
+}
@@ -47,6 +47,66 @@ public class BabuDBInsertGroup implements DatabaseInsertGroup {
         rec.addInsert(indexId, key, null);
     }
     
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseInsertGroup#addMerge(int, byte[], byte[])
+     */
+    @Override
+    public void addMerge(int indexId, byte[] key, byte[] operand) {
+        if (operand == null)
+            throw new IllegalArgumentException("operand must not be null");
+        rec.addMerge(indexId, key, operand);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseInsertGroup#addDeleteRange(int, byte[], byte[])
+     */
+    @Override
+    public void addDeleteRange(int indexId, byte[] from, byte[] to) {
+        rec.addDeleteRange(indexId, from, to);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseInsertGroup#addCondition(int, byte[], byte[])
+     */
+    @Override
+    public void addCondition(int indexId, byte[] key, byte[] expected) {
+        rec.addCondition(indexId, key, expected);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseInsertGroup#addInsertIfAbsent(int, byte[], 
+     *          byte[])
+     */
+    @Override
+    public void addInsertIfAbsent(int indexId, byte[] key, byte[] value) {
+        rec.addCondition(indexId, key, null);
+        rec.addInsert(indexId, key, value);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseInsertGroup#addInsertIfEquals(int, byte[], 
+     *          byte[], byte[])
+     */
+    @Override
+    public void addInsertIfEquals(int indexId, byte[] key, byte[] value, byte[] expected) {
+        if (expected == null)
+            throw new IllegalArgumentException("expected value must not be null");
+        rec.addCondition(indexId, key, expected);
+        rec.addInsert(indexId, key, value);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseInsertGroup#addDeleteIfEquals(int, byte[], 
+     *          byte[])
+     */
+    @Override
+    public void addDeleteIfEquals(int indexId, byte[] key, byte[] expected) {
+        if (expected == null)
+            throw new IllegalArgumentException("expected value must not be null");
+        rec.addCondition(indexId, key, expected);
+        rec.addInsert(indexId, key, null);
+    }
+    
     public String toString() {
         return rec.toString();
     }
@@ -93,6 +93,42 @@ public class BabuDBTransaction extends TransactionInternal {
         return insertRecordGroup(databaseName, irg);
     }
     
+    @Override
+    public TransactionInternal insertRecordIfAbsent(String databaseName, int indexId, byte[] key, 
+            byte[] value) {
+        
+        InsertRecordGroup irg = new InsertRecordGroup(-1);
+        irg.addCondition(indexId, key, null);
+        irg.addInsert(indexId, key, value);
+        return insertRecordGroup(databaseName, irg);
+    }
+    
+    @Override
+    public TransactionInternal insertRecordIfEquals(String databaseName, int indexId, byte[] key, 
+            byte[] value, byte[] expected) {
+        
+        if (expected == null)
+            throw new IllegalArgumentException("expected value must not be null");
+        
+        InsertRecordGroup irg = new InsertRecordGroup(-1);
+        irg.addCondition(indexId, key, expected);
+        irg.addInsert(indexId, key, value);
+        return insertRecordGroup(databaseName, irg);
+    }
+    
+    @Override
+    public TransactionInternal deleteRecordIfEquals(String databaseName, int indexId, byte[] key, 
+            byte[] expected) {
+        
+        if (expected == null)
+            throw new IllegalArgumentException("expected value must not be null");
+        
+        InsertRecordGroup irg = new InsertRecordGroup(-1);
+        irg.addCondition(indexId, key, expected);
+        irg.addInsert(indexId, key, null);
+        return insertRecordGroup(databaseName, irg);
+    }
+    
     @Override
     public TransactionInternal insertRecordGroup(String databaseName, InsertRecordGroup irg) {
         return insertRecordGroup(databaseName, irg, null);
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2008 - 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.babudb.lsmdb;
+
+/**
+ * Decides when the checkpointer creates a new checkpoint. The policy is
+ * consulted by the checkpointer thread every <code>babudb.checkInterval</code>
+ * seconds; manually triggered checkpoints are created regardless of the
+ * policy.
+ * <p>
+ * A custom policy can be configured with <code>babudb.checkpointPolicy</code>.
+ * It has to provide a public constructor that either accepts a
+ * {@link org.xtreemfs.babudb.config.BabuDBConfig} or no arguments.
+ * </p>
+ *
+ * @author stender
+ */
+public interface CheckpointPolicy {
+
+    /**
+     * Checks whether a checkpoint has to be created.
+     *
+     * @param state
+     *            the current state of the log and the databases
+     * @return a human-readable reason for the checkpoint, or <code>null</code>
+     *         if no checkpoint has to be created
+     */
+    public String checkpointReason(CheckpointState state);
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2008 - 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.babudb.lsmdb;
+
+/**
+ * The inputs of a {@link CheckpointPolicy}, as observed by the checkpointer
+ * when it evaluates the policy.
+ *
+ * @author stender
+ */
+public class CheckpointState {
+
+    private final long logSize;
+
+    private final long replayThroughput;
+
+    private final long overlaySize;
+
+    private final long millisSinceLastCheckpoint;
+
+    private final long logEntryRate;
+
+    /**
+     * Creates a new checkpoint state.
+     *
+     * @param logSize
+     *            the size of the log in bytes
+     * @param replayThroughput
+     *            the measured log replay throughput in bytes/s, 0 if unknown
+     * @param overlaySize
+     *            the estimated memory held by the in-memory overlays of all
+     *            databases in bytes
+     * @param millisSinceLastCheckpoint
+     *            the time since the latest checkpoint, or since the database
+     *            has been started, in milliseconds
+     * @param logEntryRate
+     *            the rate at which entries have been appended to the log since
+     *            the previous evaluation, in entries/s
+     */
+    public CheckpointState(long logSize, long replayThroughput, long overlaySize, long millisSinceLastCheckpoint,
+        long logEntryRate) {
+
+        this.logSize = logSize;
+        this.replayThroughput = replayThroughput;
+        this.overlaySize = overlaySize;
+        this.millisSinceLastCheckpoint = millisSinceLastCheckpoint;
+        this.logEntryRate = logEntryRate;
+    }
+
+    /**
+     * @return the size of the log in bytes, i.e. the amount of data that has
+     *         to be replayed after a restart
+     */
+    public long getLogSize() {
+        return logSize;
+    }
+
+    /**
+     * @return the log replay throughput in bytes/s measured when the database
+     *         was started, 0 if unknown
+     */
+    public long getReplayThroughput() {
+        return replayThroughput;
+    }
+
+    /**
+     * @return the expected time to replay the log after a restart in
+     *         milliseconds, -1 if unknown
+     */
+    public long getExpectedReplayMillis() {
+        return replayThroughput == 0 ? -1 : logSize * 1000 / replayThroughput;
+    }
+
+    /**
+     * @return the estimated memory held by the in-memory overlays of all
+     *         databases in bytes
+     */
+    public long getOverlaySize() {
+        return overlaySize;
+    }
+
+    /**
+     * @return the time since the latest checkpoint, or since the database has
+     *         been started, in milliseconds
+     */
+    public long getMillisSinceLastCheckpoint() {
+        return millisSinceLastCheckpoint;
+    }
+
+    /**
+     * @return the foreground load, i.e. the rate at which entries have been
+     *         appended to the log since the previous evaluation, in entries/s
+     */
+    public long getLogEntryRate() {
+        return logEntryRate;
+    }
+}
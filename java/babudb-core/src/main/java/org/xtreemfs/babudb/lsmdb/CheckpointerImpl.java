@@ -18,6 +18,12 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -30,7 +36,10 @@ import org.xtreemfs.babudb.api.dev.DatabaseInternal;
 import org.xtreemfs.babudb.api.dev.SnapshotManagerInternal;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
+import org.xtreemfs.babudb.config.BabuDBConfig;
+import org.xtreemfs.babudb.index.writer.IOThrottle;
 import org.xtreemfs.babudb.log.DiskLogger;
+import org.xtreemfs.babudb.log.LogIndex;
 import org.xtreemfs.babudb.snapshots.SnapshotConfig;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.logging.Logging.Category;
@@ -64,6 +73,20 @@ public class CheckpointerImpl extends CheckpointerInternal {
     private static final String                RUNTIME_STATE_CPCOUNT        = "checkpointer.cpCount";
     private static final String                RUNTIME_STATE_LASTCP         = "checkpointer.lastCpTimestampMillis";
     private static final String                RUNTIME_STATE_LASTCPDURATION = "checkpointer.lastCpDurationMillis";
+    private static final String                RUNTIME_STATE_IORATELIMIT    = "checkpointer.ioRateLimit";
+    private static final String                RUNTIME_STATE_IOCURRENTRATE  = "checkpointer.ioCurrentRate";
+    private static final String                RUNTIME_STATE_IOBYTESWRITTEN = "checkpointer.ioBytesWritten";
+    private static final String                RUNTIME_STATE_IOTHROTTLED    = "checkpointer.ioThrottledMillis";
+    private static final String                RUNTIME_STATE_SYNCLATENCY    = "checkpointer.syncLatencyMicros";
+    private static final String                RUNTIME_STATE_IOBACKOFFS     = "checkpointer.ioBackoffs";
+    private static final String                RUNTIME_STATE_LASTCPREASON   = "checkpointer.lastCpReason";
+    private static final String                RUNTIME_STATE_REPLAYRATE     = "checkpointer.replayThroughput";
+    
+    /**
+     * the minimum number of replayed bytes for a meaningful measurement of the
+     * replay throughput
+     */
+    private static final long                  MIN_REPLAY_SAMPLE            = 64 * 1024;
     
     private volatile boolean                   quit;
     
@@ -75,12 +98,37 @@ public class CheckpointerImpl extends CheckpointerInternal {
     private long                               checkInterval;
     
     /**
-     * Maximum file size of operations log in bytes.
+     * decides when checkpoints are created automatically
+     */
+    private CheckpointPolicy                   policy;
+    
+    /**
+     * the log replay throughput in bytes/s measured at startup, 0 if unknown
+     */
+    private volatile long                      replayThroughput;
+    
+    /**
+     * the time of the latest checkpoint, or of the first initialization
      */
-    private long                               maxLogLength;
+    private long                               lastCheckpointTime;
+    
+    /**
+     * the time and the number of processed log entries of the latest policy
+     * evaluation
+     */
+    private long                               lastEvaluationTime;
+    
+    private int                                lastLogEntryCount;
+    
+    private volatile String                    _lastCheckpointReason;
     
     private final BabuDBInternal               dbs;
     
+    /**
+     * limits the rate at which checkpoints and snapshots are written to disk
+     */
+    private volatile IOThrottle                throttle;
+    
     /**
      * a queue containing all snapshot materialization requests that should be
      * executed before the next checkpoint is made
@@ -126,7 +174,20 @@ public class CheckpointerImpl extends CheckpointerInternal {
         
         this.logger = logger;
         this.checkInterval = 1000L * checkInterval;
-        this.maxLogLength = maxLogLength;
+        
+        if (throttle == null)
+            throttle = new IOThrottle(dbs.getConfig().getCheckpointIORate(),
+                1000L * dbs.getConfig().getCheckpointIOMaxSyncLatency());
+        logger.setIOThrottle(throttle);
+        
+        if (policy == null)
+            policy = createPolicy(maxLogLength);
+        
+        long now = System.currentTimeMillis();
+        if (lastCheckpointTime == 0)
+            lastCheckpointTime = now;
+        lastEvaluationTime = now;
+        lastLogEntryCount = logger.getProcessedLogEntryCount();
         
         if (!suspended.compareAndSet(true, false) && !quit) {
             start();
@@ -200,6 +261,79 @@ public class CheckpointerImpl extends CheckpointerInternal {
         checkpoint(false);
     }
     
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.xtreemfs.babudb.api.dev.CheckpointerInternal#replayCompleted(long,
+     * long)
+     */
+    @Override
+    public void replayCompleted(long bytes, long millis) {
+        if (bytes >= MIN_REPLAY_SAMPLE && millis > 0)
+            replayThroughput = bytes * 1000 / millis;
+    }
+    
+    /**
+     * Creates the configured checkpoint policy.
+     * 
+     * @param maxLogLength
+     *            the maximum log size for the default policy
+     * @return the policy
+     * @throws BabuDBException
+     *             if a custom policy could not be instantiated
+     */
+    private CheckpointPolicy createPolicy(long maxLogLength) throws BabuDBException {
+        
+        String className = dbs.getConfig().getCheckpointPolicy();
+        if (className == null)
+            return new DefaultCheckpointPolicy(maxLogLength, 1000L * dbs.getConfig().getMaxReplayTime(), dbs
+                    .getConfig().getMaxOverlaySize(), 1000L * dbs.getConfig().getMaxCheckpointInterval(), dbs
+                    .getConfig().getCheckpointBusyRate());
+        
+        try {
+            Class<? extends CheckpointPolicy> clazz = Class.forName(className).asSubclass(CheckpointPolicy.class);
+            try {
+                return clazz.getConstructor(BabuDBConfig.class).newInstance(dbs.getConfig());
+            } catch (NoSuchMethodException exc) {
+                return clazz.newInstance();
+            }
+        } catch (Exception exc) {
+            throw new BabuDBException(ErrorCode.INTERNAL_ERROR, "could not create checkpoint policy '" + className
+                + "'", exc);
+        }
+    }
+    
+    /**
+     * Evaluates the checkpoint policy.
+     * 
+     * @return the reason for a checkpoint, or <code>null</code> if no
+     *         checkpoint has to be created
+     */
+    private String evaluatePolicy() {
+        
+        long now = System.currentTimeMillis();
+        
+        // the foreground load since the previous evaluation
+        int logEntryCount = logger.getProcessedLogEntryCount();
+        long logEntryRate = now > lastEvaluationTime ? Math.max(0, logEntryCount - lastLogEntryCount) * 1000L
+            / (now - lastEvaluationTime) : 0;
+        lastEvaluationTime = now;
+        lastLogEntryCount = logEntryCount;
+        
+        return policy.checkpointReason(new CheckpointState(logger.getLogFileSize(), replayThroughput,
+            getOverlaySize(), now - lastCheckpointTime, logEntryRate));
+    }
+    
+    /**
+     * @return the estimated memory held by the overlays of all databases
+     */
+    private long getOverlaySize() {
+        long size = 0;
+        for (DatabaseInternal db : dbs.getDatabaseManager().getDatabaseList())
+            size += db.getLSMDB().getOverlaySize();
+        return size;
+    }
+    
     /**
      * Materialize all snapshots in the queue before taking a checkpoint.
      * 
@@ -226,68 +360,119 @@ public class CheckpointerImpl extends CheckpointerInternal {
             
             SnapshotManagerInternal snapMan = dbs.getSnapshotManager();
             
-            // write the snapshot
-            dbs.getDatabaseManager().getDatabase(rq.dbName)
-                    .proceedWriteSnapshot(rq.snapIDs, snapMan.getSnapshotDir(rq.dbName, rq.snap.getName()), rq.snap);
+            // the database may have been deleted in the meantime
+            DatabaseInternal db = null;
+            try {
+                db = dbs.getDatabaseManager().getDatabase(rq.dbName);
+            } catch (BabuDBException exc) {
+                if (exc.getErrorCode() != ErrorCode.NO_SUCH_DB)
+                    throw exc;
+            }
+            if (db == null || !db.getLSMDB().acquire()) {
+                Logging.logMessage(Logging.LEVEL_DEBUG, Category.babudb, this,
+                        "skipping snapshot materialization, database '%s' has been deleted", rq.dbName);
+                continue;
+            }
             
-            // notify the snapshot manager about the completion
-            // of the snapshot
-            snapMan.snapshotComplete(rq.dbName, rq.snap);
+            try {
+                // write the snapshot
+                db.getLSMDB().writeSnapshot(snapMan.getSnapshotDir(rq.dbName, rq.snap.getName()), rq.snapIDs,
+                    rq.snap, throttle);
+                
+                // notify the snapshot manager about the completion
+                // of the snapshot
+                snapMan.snapshotComplete(rq.dbName, rq.snap);
+                
+            } catch (IOException exc) {
+                throw new BabuDBException(ErrorCode.IO_ERROR, "cannot write snapshot: " + exc, exc);
+            } catch (BabuDBException exc) {
+                if (exc.getErrorCode() != ErrorCode.NO_SUCH_DB)
+                    throw exc;
+            } finally {
+                db.getLSMDB().release();
+            }
             
             Logging.logMessage(Logging.LEVEL_DEBUG, Category.babudb, this, "snapshot materialization complete");
         }
     }
     
     /**
-     * Internal method for creating a new database checkpoint. This involves the
-     * following steps:
+     * Takes in-memory snapshots of all indices of the given databases and
+     * creates a new log file for subsequent insertions. This has to be sync'ed
+     * with new insertions and modifications of the set of databases, but
+     * should be very fast. The caller has to hold the lock acquired by
+     * {@link DiskLogger#lockDrained()}.
+     * 
+     * @param databases
+     *            the databases
+     * @return the snapshot IDs of the databases' indices
+     * @throws BabuDBException
+     * @throws InterruptedException
+     */
+    private int[][] snapshotDatabases(Collection<DatabaseInternal> databases) throws BabuDBException,
+        InterruptedException {
+        Logging.logMessage(Logging.LEVEL_INFO, Category.babudb, this, "initiating database checkpoint...");
+        
+        int[][] snapIds = new int[databases.size()][];
+        int i = 0;
+        
+        try {
+            // critical block
+            for (DatabaseInternal db : databases) {
+                snapIds[i++] = db.proceedCreateSnapshot();
+            }
+            lastWrittenLSN = logger.switchLogFile(incrementViewId);
+            incrementViewId = false;
+        } catch (IOException ex) {
+            throw new BabuDBException(ErrorCode.IO_ERROR, "cannot create checkpoint", ex);
+        }
+        
+        return snapIds;
+    }
+    
+    /**
+     * Internal method for completing a new database checkpoint, after the
+     * in-memory snapshots have been taken. This involves the following steps:
      * <ol>
-     * <li>snapshot all indices of all databases
-     * <li>create new log file for subsequent insertions
      * <li>write index snapshots to new on-disk index files
      * <li>link new on-disk files to index structures
      * <li>delete any obsolete on-disk files
      * <li>delete any obsolete log files
      * </ol>
-     * The first two steps need to be sync'ed with new insertions but should be
-     * very fast. The following steps are performed in a fully asynchronous
-     * manner.
+     * These steps are performed in a fully asynchronous manner, without
+     * blocking modifications of the set of databases. Index snapshots may be
+     * written in parallel; the log files are not deleted before all of them
+     * are complete. Databases that are deleted in the meantime are skipped.
      * 
+     * @param databases
+     *            the databases
+     * @param snapIds
+     *            the snapshot IDs of the databases' indices
      * @throws BabuDBException
      * @throws InterruptedException
      */
-    private void createCheckpoint() throws BabuDBException, InterruptedException {
-        Logging.logMessage(Logging.LEVEL_INFO, Category.babudb, this, "initiating database checkpoint...");
+    private void createCheckpoint(Collection<DatabaseInternal> databases, int[][] snapIds)
+        throws BabuDBException, InterruptedException {
         
-        Collection<DatabaseInternal> databases = dbs.getDatabaseManager().getDatabaseList();
+        writeSnapshots(databases, snapIds, lastWrittenLSN);
         
-        try {
-            int[][] snapIds = new int[databases.size()][];
-            int i = 0;
-            
+        // link all indices to their new snapshots, once all of them have
+        // been written
+        for (DatabaseInternal db : databases) {
+            if (!db.getLSMDB().acquire())
+                continue;
             try {
-                // critical block...
-                logger.lock();
-                for (DatabaseInternal db : databases) {
-                    snapIds[i++] = db.proceedCreateSnapshot();
-                }
-                lastWrittenLSN = logger.switchLogFile(incrementViewId);
-                incrementViewId = false;
-            } finally {
-                if (logger.hasLock())
-                    logger.unlock();
-            }
-            
-            i = 0;
-            for (DatabaseInternal db : databases) {
-                db.proceedWriteSnapshot(lastWrittenLSN.getViewId(), lastWrittenLSN.getSequenceNo(), snapIds[i++]);
                 db.proceedCleanupSnapshot(lastWrittenLSN.getViewId(), lastWrittenLSN.getSequenceNo());
+            } finally {
+                db.getLSMDB().release();
             }
-            
-            // delete all logfile with LSN <= lastWrittenLSN
-            File f = new File(dbs.getConfig().getDbLogDir());
+        }
+        
+        // delete all logfile with LSN <= lastWrittenLSN from all stripes
+        for (String logDir : dbs.getConfig().getDbLogDirs()) {
+            File f = new File(logDir);
             String[] logs = f.list(new FilenameFilter() {
-                
+            
                 public boolean accept(File dir, String name) {
                     return name.endsWith(".dbl");
                 }
@@ -305,19 +490,115 @@ public class CheckpointerImpl extends CheckpointerInternal {
                     if (logLSN.compareTo(lastWrittenLSN) <= 0) {
                         Logging.logMessage(Logging.LEVEL_DEBUG, Category.babudb, this,
                                 "deleting old db log file: " + log);
-                        f = new File(dbs.getConfig().getDbLogDir() + log);
+                        f = new File(logDir + log);
                         if (!f.delete())
                             Logging.logMessage(Logging.LEVEL_WARN, Category.babudb, this,
                                     "could not delete log file: %s", f.getAbsolutePath());
+                        if (!LogIndex.delete(f))
+                            Logging.logMessage(Logging.LEVEL_WARN, Category.babudb, this,
+                                    "could not delete index of log file: %s", f.getAbsolutePath());
                     }
                 }
             }
-        } catch (IOException ex) {
-            throw new BabuDBException(ErrorCode.IO_ERROR, "cannot create checkpoint", ex);
         }
         Logging.logMessage(Logging.LEVEL_INFO, Category.babudb, this, "checkpoint complete");
     }
     
+    /**
+     * Writes the snapshots of all indices of the given databases to disk. If
+     * more than one checkpoint thread has been configured, the snapshots are
+     * written in parallel. The method returns when all snapshots have been
+     * written, or after all running writes have been finished if a write has
+     * failed.
+     * 
+     * @param databases
+     *            the databases
+     * @param snapIds
+     *            the snapshot IDs of the databases' indices
+     * @param lsn
+     *            the LSN of the checkpoint
+     * @throws BabuDBException
+     *             if a snapshot could not be written
+     * @throws InterruptedException
+     */
+    private void writeSnapshots(Collection<DatabaseInternal> databases, int[][] snapIds, final LSN lsn)
+        throws BabuDBException, InterruptedException {
+        
+        int numThreads = dbs.getConfig().getCheckpointThreads();
+        
+        if (numThreads <= 1) {
+            int i = 0;
+            for (DatabaseInternal db : databases) {
+                int[] ids = snapIds[i++];
+                if (!db.getLSMDB().acquire())
+                    continue;
+                try {
+                    db.getLSMDB().writeSnapshot(lsn.getViewId(), lsn.getSequenceNo(), ids, throttle);
+                } catch (IOException ex) {
+                    throw new BabuDBException(ErrorCode.IO_ERROR, "cannot write snapshot: " + ex, ex);
+                } finally {
+                    db.getLSMDB().release();
+                }
+            }
+            return;
+        }
+        
+        final AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+            
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Checkpointer#" + threadCount.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        
+        try {
+            List<Future<?>> writes = new LinkedList<Future<?>>();
+            int i = 0;
+            for (DatabaseInternal db : databases) {
+                final LSMDatabase lsmDB = db.getLSMDB();
+                final int[] ids = snapIds[i++];
+                for (int index = 0; index < ids.length; index++) {
+                    final int idx = index;
+                    writes.add(pool.submit(new Callable<Object>() {
+                        
+                        public Object call() throws IOException {
+                            if (!lsmDB.acquire())
+                                return null;
+                            try {
+                                lsmDB.writeSnapshot(idx, lsn.getViewId(), lsn.getSequenceNo(), ids[idx], throttle);
+                            } finally {
+                                lsmDB.release();
+                            }
+                            return null;
+                        }
+                    }));
+                }
+            }
+            
+            // wait for all writes, and remember the first failure
+            Throwable error = null;
+            for (Future<?> write : writes) {
+                try {
+                    write.get();
+                } catch (ExecutionException ex) {
+                    if (error == null)
+                        error = ex.getCause();
+                }
+            }
+            
+            if (error != null)
+                throw new BabuDBException(ErrorCode.IO_ERROR, "cannot write snapshot: " + error, error);
+            
+        } catch (InterruptedException ex) {
+            pool.shutdownNow();
+            throw ex;
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
     /*
      * (non-Javadoc)
      * 
@@ -388,28 +669,45 @@ public class CheckpointerImpl extends CheckpointerInternal {
                     }
                 }
                 
-                final long lfsize = logger.getLogFileSize();
-                if (manualCheckpoint || lfsize > maxLogLength) {
+                String reason = manualCheckpoint ? "manual checkpoint" : evaluatePolicy();
+                if (reason != null) {
                     
-                    if (!manualCheckpoint) {
-                        Logging.logMessage(Logging.LEVEL_INFO, Category.babudb, this,
-                                "database operation log has exceeded threshold " + "size of " + maxLogLength + " ("
-                                        + lfsize + ")");
-                    } else {
-                        Logging.logMessage(Logging.LEVEL_INFO, Category.babudb, this, "triggered manual checkpoint");
-                    }
+                    Logging.logMessage(Logging.LEVEL_INFO, Category.babudb, this, "triggered checkpoint: %s", reason);
                     
-                    synchronized (dbs.getDatabaseManager().getDBModificationLock()) {
-                        synchronized (this) {
-                            long start = System.currentTimeMillis();
-                            materializeSnapshots();
-                            createCheckpoint();
-                            
-                            // update statistics
-                            _checkpointCount.incrementAndGet();
-                            _lastCheckpoint.set(System.currentTimeMillis());
-                            _lastCheckpointDuration.set(System.currentTimeMillis() - start);
+                    long start = System.currentTimeMillis();
+                    
+                    // the set of databases must not be modified while the
+                    // snapshots are taken, but may be modified while they are
+                    // written
+                    Collection<DatabaseInternal> databases = null;
+                    int[][] snapIds = null;
+                    
+                    // pending log entries are written first, so that the
+                    // snapshots do not contain any modifications beyond the
+                    // LSN; this has to happen before the set of databases is
+                    // locked, as pending entries may still have to modify it
+                    logger.lockDrained();
+                    try {
+                        synchronized (dbs.getDatabaseManager().getDBModificationLock()) {
+                            synchronized (this) {
+                                databases = dbs.getDatabaseManager().getDatabaseList();
+                                snapIds = snapshotDatabases(databases);
+                            }
                         }
+                    } finally {
+                        logger.unlockDrained();
+                    }
+                    
+                    synchronized (this) {
+                        materializeSnapshots();
+                        createCheckpoint(databases, snapIds);
+                        
+                        // update statistics
+                        _checkpointCount.incrementAndGet();
+                        _lastCheckpoint.set(System.currentTimeMillis());
+                        _lastCheckpointDuration.set(System.currentTimeMillis() - start);
+                        _lastCheckpointReason = reason;
+                        lastCheckpointTime = System.currentTimeMillis();
                     }
                 }
             } catch (InterruptedException ex) {
@@ -462,6 +760,26 @@ public class CheckpointerImpl extends CheckpointerInternal {
             return _lastCheckpoint.get();
         if (RUNTIME_STATE_LASTCPDURATION.equals(property))
             return _lastCheckpointDuration.get();
+        if (RUNTIME_STATE_LASTCPREASON.equals(property))
+            return _lastCheckpointReason;
+        if (RUNTIME_STATE_REPLAYRATE.equals(property))
+            return replayThroughput;
+        
+        IOThrottle throttle = this.throttle;
+        if (throttle == null)
+            return null;
+        if (RUNTIME_STATE_IORATELIMIT.equals(property))
+            return throttle.getMaxRate();
+        if (RUNTIME_STATE_IOCURRENTRATE.equals(property))
+            return throttle.getCurrentRate();
+        if (RUNTIME_STATE_IOBYTESWRITTEN.equals(property))
+            return throttle.getBytesWritten();
+        if (RUNTIME_STATE_IOTHROTTLED.equals(property))
+            return throttle.getThrottledMillis();
+        if (RUNTIME_STATE_SYNCLATENCY.equals(property))
+            return throttle.getSyncLatency();
+        if (RUNTIME_STATE_IOBACKOFFS.equals(property))
+            return throttle.getBackoffs();
         
         return null;
     }
@@ -472,6 +790,18 @@ public class CheckpointerImpl extends CheckpointerInternal {
         map.put(RUNTIME_STATE_CPCOUNT, _checkpointCount.get());
         map.put(RUNTIME_STATE_LASTCP, _lastCheckpoint.get());
         map.put(RUNTIME_STATE_LASTCPDURATION, _lastCheckpointDuration.get());
+        map.put(RUNTIME_STATE_LASTCPREASON, _lastCheckpointReason);
+        map.put(RUNTIME_STATE_REPLAYRATE, replayThroughput);
+        
+        IOThrottle throttle = this.throttle;
+        if (throttle != null) {
+            map.put(RUNTIME_STATE_IORATELIMIT, throttle.getMaxRate());
+            map.put(RUNTIME_STATE_IOCURRENTRATE, throttle.getCurrentRate());
+            map.put(RUNTIME_STATE_IOBYTESWRITTEN, throttle.getBytesWritten());
+            map.put(RUNTIME_STATE_IOTHROTTLED, throttle.getThrottledMillis());
+            map.put(RUNTIME_STATE_SYNCLATENCY, throttle.getSyncLatency());
+            map.put(RUNTIME_STATE_IOBACKOFFS, throttle.getBackoffs());
+        }
         return map;
     }
     
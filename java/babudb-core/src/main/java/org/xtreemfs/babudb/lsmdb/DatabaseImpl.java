@@ -10,11 +10,15 @@ package org.xtreemfs.babudb.lsmdb;
 import java.io.File;
 import java.io.IOException;
 import java.nio.channels.ClosedByInterruptException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.xtreemfs.babudb.BabuDBRequestResultImpl;
+import org.xtreemfs.babudb.api.database.Aggregate;
 import org.xtreemfs.babudb.api.database.DatabaseInsertGroup;
 import org.xtreemfs.babudb.api.database.DatabaseRequestResult;
 import org.xtreemfs.babudb.api.database.ResultSet;
+import org.xtreemfs.babudb.api.database.ScanPage;
 import org.xtreemfs.babudb.api.database.UserDefinedLookup;
 import org.xtreemfs.babudb.api.dev.BabuDBInternal;
 import org.xtreemfs.babudb.api.dev.DatabaseInternal;
@@ -22,6 +26,7 @@ import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
 import org.xtreemfs.babudb.api.index.ByteRangeComparator;
 import org.xtreemfs.babudb.log.DiskLogger.SyncMode;
+import org.xtreemfs.babudb.lsmdb.LSMDBWorker.RequestOperation;
 import org.xtreemfs.babudb.snapshots.SnapshotConfig;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.logging.Logging.Category;
@@ -102,13 +107,21 @@ public class DatabaseImpl implements DatabaseInternal {
     public DatabaseRequestResult<Object> insert(BabuDBInsertGroup irg, Object context) {
         
         InsertRecordGroup ins = irg.getRecord();
-        int dbId = ins.getDatabaseId();
         
-        LSMDBWorker w = dbs.getWorker(dbId);
+        // if the database is partitioned into shards, the insert is sent to
+        // the worker serving the shard of its first key; the worker takes care
+        // of any other shards affected by the insert
+        int workerIndex = ins.getDatabaseId();
+        int numShards = dbs.getConfig().getNumShards();
+        if (numShards > 1 && !ins.getInserts().isEmpty()) {
+            workerIndex += LSMDBWorker.getShard(ins.getInserts().get(0).getKey(), numShards);
+        }
+        
+        LSMDBWorker w = dbs.getWorker(workerIndex);
         if (w != null) {
             if (Logging.isDebug()) {
                 Logging.logMessage(Logging.LEVEL_DEBUG, Category.babudb, this, "insert request"
-                        + " is sent to worker #" + dbId % dbs.getWorkerCount());
+                        + " is sent to worker #" + workerIndex % dbs.getWorkerCount());
             }
             
             BabuDBRequestResultImpl<Object> result = 
@@ -165,17 +178,33 @@ public class DatabaseImpl implements DatabaseInternal {
      * java.lang.Object)
      */
     @Override
-    public DatabaseRequestResult<byte[]> lookup(int indexId, byte[] key, 
+    public DatabaseRequestResult<byte[]> lookup(final int indexId, final byte[] key, 
             Object context) {
         
-        BabuDBRequestResultImpl<byte[]> result = 
+        final BabuDBRequestResultImpl<byte[]> result = 
             new BabuDBRequestResultImpl<byte[]>(context, dbs.getResponseManager());
-        LSMDBWorker w = dbs.getWorker(lsmDB.getDatabaseId());
+        
+        // if lookups bypass the worker threads, delegate the lookup to the
+        // read executor
+        Executor readExecutor = dbs.getReadExecutor();
+        if (readExecutor != null) {
+            executeRead(readExecutor, new Runnable() {
+                public void run() {
+                    directLookup(indexId, key, result);
+                }
+            }, result);
+            return result;
+        }
+        
+        // the lookup is sent to the worker serving the shard of the key, so
+        // that it is processed in order with the inserts into that shard
+        int workerIndex = getWorkerIndex(key);
+        LSMDBWorker w = dbs.getWorker(workerIndex);
         if (w != null) {
             if (Logging.isDebug()) {
                 Logging.logMessage(Logging.LEVEL_DEBUG, Category.babudb, this, "lookup request"
                         + " is sent to worker #" 
-                        + lsmDB.getDatabaseId() % dbs.getWorkerCount());
+                        + workerIndex % dbs.getWorkerCount());
             }
             
             try {
@@ -191,6 +220,39 @@ public class DatabaseImpl implements DatabaseInternal {
         return result;
     }
     
+    /**
+     * Returns the index of the worker serving the shard of the database that
+     * the given key is assigned to.
+     * 
+     * @param key
+     * @return the worker index.
+     */
+    private int getWorkerIndex(byte[] key) {
+        return lsmDB.getDatabaseId() + LSMDBWorker.getShard(key, dbs.getConfig().getNumShards());
+    }
+    
+    /**
+     * Returns the index of the worker serving the shard of the database that
+     * all given keys are assigned to, or the index of the worker serving the
+     * first shard if the keys are assigned to different shards.
+     * 
+     * @param keys
+     * @return the worker index.
+     */
+    private int getWorkerIndex(byte[][] keys) {
+        
+        int numShards = dbs.getConfig().getNumShards();
+        if (numShards <= 1 || keys.length == 0)
+            return lsmDB.getDatabaseId();
+        
+        int shard = LSMDBWorker.getShard(keys[0], numShards);
+        for (int i = 1; i < keys.length; i++) {
+            if (LSMDBWorker.getShard(keys[i], numShards) != shard)
+                return lsmDB.getDatabaseId();
+        }
+        return lsmDB.getDatabaseId() + shard;
+    }
+    
     /**
      * Looks up a key in the database, without using a worker thread.
      * 
@@ -209,13 +271,78 @@ public class DatabaseImpl implements DatabaseInternal {
             listener.finished(lsmDB.getIndex(indexId).lookup(key));
     }
     
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseRO#multiLookup(int, byte[][], java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<byte[][]> multiLookup(final int indexId, final byte[][] keys, 
+            Object context) {
+        
+        final BabuDBRequestResultImpl<byte[][]> result = 
+            new BabuDBRequestResultImpl<byte[][]>(context, dbs.getResponseManager());
+        
+        // if lookups bypass the worker threads, delegate the lookup to the
+        // read executor
+        Executor readExecutor = dbs.getReadExecutor();
+        if (readExecutor != null) {
+            executeRead(readExecutor, new Runnable() {
+                public void run() {
+                    directMultiLookup(indexId, keys, result);
+                }
+            }, result);
+            return result;
+        }
+        
+        // if all keys belong to the same shard, the lookup is sent to the
+        // worker serving it; otherwise, it is sent to the worker serving the
+        // first shard and not ordered with inserts into other shards
+        int workerIndex = getWorkerIndex(keys);
+        LSMDBWorker w = dbs.getWorker(workerIndex);
+        if (w != null) {
+            if (Logging.isDebug()) {
+                Logging.logMessage(Logging.LEVEL_DEBUG, Category.babudb, this, "multi-lookup request"
+                        + " is sent to worker #" 
+                        + workerIndex % dbs.getWorkerCount());
+            }
+            
+            try {
+                w.addRequest(new LSMDBRequest<byte[][]>(lsmDB, indexId, result, 
+                        keys));
+            } catch (InterruptedException ex) {
+                result.failed(new BabuDBException(ErrorCode.INTERRUPTED, 
+                        "operation was interrupted", ex));
+            }
+        } else
+            directMultiLookup(indexId, keys, result);
+        
+        return result;
+    }
+    
+    /**
+     * Looks up multiple keys in the database, without using a worker thread.
+     * 
+     * @param indexId
+     * @param keys
+     * @param listener
+     *            the result listener.
+     */
+    private void directMultiLookup(int indexId, byte[][] keys, 
+            BabuDBRequestResultImpl<byte[][]> listener) {
+        
+        if ((indexId >= lsmDB.getIndexCount()) || (indexId < 0)) {
+            listener.failed(new BabuDBException(ErrorCode.NO_SUCH_INDEX, 
+                    "index does not exist"));
+        } else
+            listener.finished(lsmDB.getIndex(indexId).lookup(keys));
+    }
+    
     /* (non-Javadoc)
      * @see org.xtreemfs.babudb.api.database.DatabaseRO#prefixLookup(int, byte[], java.lang.Object)
      */
     @Override
     public DatabaseRequestResult<ResultSet<byte[], byte[]>> prefixLookup(
             int indexId, byte[] key, Object context) {
-        return prefixLookup(indexId, key, context, true);
+        return prefixLookup(indexId, key, context, true, -1);
     }
     
     /* (non-Javadoc)
@@ -224,7 +351,17 @@ public class DatabaseImpl implements DatabaseInternal {
     @Override
     public DatabaseRequestResult<ResultSet<byte[], byte[]>> 
             reversePrefixLookup(int indexId, byte[] key, Object context) {
-        return prefixLookup(indexId, key, context, false);
+        return prefixLookup(indexId, key, context, false, -1);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseRO#prefixLookup(int, byte[], boolean, int, 
+     *          java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<ResultSet<byte[], byte[]>> prefixLookup(int indexId, 
+            byte[] key, boolean ascending, int maxValueLength, Object context) {
+        return prefixLookup(indexId, key, context, ascending, maxValueLength);
     }
     
     /**
@@ -234,15 +371,29 @@ public class DatabaseImpl implements DatabaseInternal {
      * @param key
      * @param context
      * @param ascending
+     * @param maxValueLength
      * @return the request result object.
      */
     private DatabaseRequestResult<ResultSet<byte[], byte[]>> prefixLookup(
-            int indexId, byte[] key, Object context, boolean ascending) {
+            final int indexId, final byte[] key, Object context, final boolean ascending, 
+            final int maxValueLength) {
         
         final BabuDBRequestResultImpl<ResultSet<byte[], byte[]>> result = 
             new BabuDBRequestResultImpl<ResultSet<byte[], byte[]>>(context, 
                     dbs.getResponseManager());
         
+        // if lookups bypass the worker threads, delegate the prefix lookup to
+        // the read executor
+        Executor readExecutor = dbs.getReadExecutor();
+        if (readExecutor != null) {
+            executeRead(readExecutor, new Runnable() {
+                public void run() {
+                    directPrefixLookup(indexId, key, ascending, maxValueLength, result);
+                }
+            }, result);
+            return result;
+        }
+        
         // if there are worker threads, delegate the prefix lookup to the
         // responsible worker thread
         LSMDBWorker w = dbs.getWorker(lsmDB.getDatabaseId());
@@ -255,7 +406,7 @@ public class DatabaseImpl implements DatabaseInternal {
             
             try {
                 w.addRequest(new LSMDBRequest<ResultSet<byte[], byte[]>>(
-                        lsmDB, indexId, result, key, ascending));
+                        lsmDB, indexId, result, key, ascending, maxValueLength));
             } catch (InterruptedException ex) {
                 result.failed(new BabuDBException(ErrorCode.INTERRUPTED, 
                         "operation was interrupted", ex));
@@ -263,19 +414,33 @@ public class DatabaseImpl implements DatabaseInternal {
         }
 
         // otherwise, perform a direct prefix lookup
-        else {
-            
-            if ((indexId >= lsmDB.getIndexCount()) || (indexId < 0))
-                result.failed(new BabuDBException(ErrorCode.NO_SUCH_INDEX, 
-                        "index does not exist"));
-            else
-                result.finished(lsmDB.getIndex(indexId).prefixLookup(key, 
-                        ascending));
-        }
+        else
+            directPrefixLookup(indexId, key, ascending, maxValueLength, result);
         
         return result;
     }
     
+    /**
+     * Performs a prefix lookup, without using a worker thread.
+     * 
+     * @param indexId
+     * @param key
+     * @param ascending
+     * @param maxValueLength
+     * @param listener
+     *            the result listener.
+     */
+    private void directPrefixLookup(int indexId, byte[] key, boolean ascending, int maxValueLength, 
+            BabuDBRequestResultImpl<ResultSet<byte[], byte[]>> listener) {
+        
+        if ((indexId >= lsmDB.getIndexCount()) || (indexId < 0))
+            listener.failed(new BabuDBException(ErrorCode.NO_SUCH_INDEX, 
+                    "index does not exist"));
+        else
+            listener.finished(lsmDB.getIndex(indexId).prefixLookup(key, 
+                    ascending, maxValueLength));
+    }
+    
     /* (non-Javadoc)
      * @see org.xtreemfs.babudb.api.database.DatabaseRO#rangeLookup(int, byte[], byte[], 
      *          java.lang.Object)
@@ -283,7 +448,7 @@ public class DatabaseImpl implements DatabaseInternal {
     @Override
     public DatabaseRequestResult<ResultSet<byte[], byte[]>> rangeLookup(
             int indexId, byte[] from, byte[] to, Object context) {
-        return rangeLookup(indexId, from, to, context, true);
+        return rangeLookup(indexId, from, to, context, true, -1);
     }
     
     /* (non-Javadoc)
@@ -294,7 +459,17 @@ public class DatabaseImpl implements DatabaseInternal {
     public DatabaseRequestResult<ResultSet<byte[], byte[]>> 
             reverseRangeLookup(int indexId, byte[] from, byte[] to, 
                     Object context) {
-        return rangeLookup(indexId, from, to, context, false);
+        return rangeLookup(indexId, from, to, context, false, -1);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseRO#rangeLookup(int, byte[], byte[], boolean, 
+     *          int, java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<ResultSet<byte[], byte[]>> rangeLookup(int indexId, 
+            byte[] from, byte[] to, boolean ascending, int maxValueLength, Object context) {
+        return rangeLookup(indexId, from, to, context, ascending, maxValueLength);
     }
     
     /**
@@ -305,16 +480,29 @@ public class DatabaseImpl implements DatabaseInternal {
      * @param to
      * @param context
      * @param ascending
+     * @param maxValueLength
      * @return the request result object.
      */
     private DatabaseRequestResult<ResultSet<byte[], byte[]>> rangeLookup(
-            int indexId, byte[] from, byte[] to, Object context, 
-            boolean ascending) {
+            final int indexId, final byte[] from, final byte[] to, Object context, 
+            final boolean ascending, final int maxValueLength) {
         
         final BabuDBRequestResultImpl<ResultSet<byte[], byte[]>> result = 
             new BabuDBRequestResultImpl<ResultSet<byte[], byte[]>>(context, 
                     dbs.getResponseManager());
         
+        // if lookups bypass the worker threads, delegate the range lookup to
+        // the read executor
+        Executor readExecutor = dbs.getReadExecutor();
+        if (readExecutor != null) {
+            executeRead(readExecutor, new Runnable() {
+                public void run() {
+                    directRangeLookup(indexId, from, to, ascending, maxValueLength, result);
+                }
+            }, result);
+            return result;
+        }
+        
         // if there are worker threads, delegate the range lookup to the
         // responsible worker thread
         LSMDBWorker w = dbs.getWorker(lsmDB.getDatabaseId());
@@ -327,7 +515,7 @@ public class DatabaseImpl implements DatabaseInternal {
             
             try {
                 w.addRequest(new LSMDBRequest<ResultSet<byte[], byte[]>>(
-                        lsmDB, indexId, result, from, to, ascending));
+                        lsmDB, indexId, result, from, to, ascending, maxValueLength));
             } catch (InterruptedException ex) {
                 result.failed(new BabuDBException(ErrorCode.INTERRUPTED, 
                         "operation was interrupted", ex));
@@ -335,19 +523,272 @@ public class DatabaseImpl implements DatabaseInternal {
         }
 
         // otherwise, perform a direct range lookup
-        else {
-            
-            if ((indexId >= lsmDB.getIndexCount()) || (indexId < 0))
-                result.failed(new BabuDBException(ErrorCode.NO_SUCH_INDEX, 
-                        "index does not exist"));
-            else
-                result.finished(lsmDB.getIndex(indexId).rangeLookup(from, to, 
-                        ascending));
+        else
+            directRangeLookup(indexId, from, to, ascending, maxValueLength, result);
+        
+        return result;
+    }
+    
+    /**
+     * Performs a range lookup, without using a worker thread.
+     * 
+     * @param indexId
+     * @param from
+     * @param to
+     * @param ascending
+     * @param maxValueLength
+     * @param listener
+     *            the result listener.
+     */
+    private void directRangeLookup(int indexId, byte[] from, byte[] to, boolean ascending, 
+            int maxValueLength, BabuDBRequestResultImpl<ResultSet<byte[], byte[]>> listener) {
+        
+        if ((indexId >= lsmDB.getIndexCount()) || (indexId < 0))
+            listener.failed(new BabuDBException(ErrorCode.NO_SUCH_INDEX, 
+                    "index does not exist"));
+        else
+            listener.finished(lsmDB.getIndex(indexId).rangeLookup(from, to, 
+                    ascending, maxValueLength));
+    }
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseRO#count(int, byte[], byte[], 
+     *          java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<Long> count(final int indexId, final byte[] from, 
+            final byte[] to, Object context) {
+        
+        final BabuDBRequestResultImpl<Long> result = 
+            new BabuDBRequestResultImpl<Long>(context, dbs.getResponseManager());
+        
+        Executor readExecutor = dbs.getReadExecutor();
+        if (readExecutor != null) {
+            executeRead(readExecutor, new Runnable() {
+                public void run() {
+                    directCount(indexId, from, to, result);
+                }
+            }, result);
+            return result;
+        }
+        
+        LSMDBWorker w = dbs.getWorker(lsmDB.getDatabaseId());
+        if (w != null) {
+            try {
+                w.addRequest(new LSMDBRequest<Long>(lsmDB, indexId, result, 
+                        RequestOperation.COUNT, from, to));
+            } catch (InterruptedException ex) {
+                result.failed(new BabuDBException(ErrorCode.INTERRUPTED, 
+                        "operation was interrupted", ex));
+            }
+        } else
+            directCount(indexId, from, to, result);
+        
+        return result;
+    }
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseRO#prefixCount(int, byte[], 
+     *          java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<Long> prefixCount(int indexId, byte[] prefix, 
+            Object context) {
+        byte[][] range = prefixToRange(indexId, prefix);
+        return count(indexId, range[0], range[1], context);
+    }
+    
+    /**
+     * Counts the entries in a range, without using a worker thread.
+     * 
+     * @param indexId
+     * @param from
+     * @param to
+     * @param listener
+     *            the result listener.
+     */
+    private void directCount(int indexId, byte[] from, byte[] to, 
+            BabuDBRequestResultImpl<Long> listener) {
+        
+        if ((indexId >= lsmDB.getIndexCount()) || (indexId < 0))
+            listener.failed(new BabuDBException(ErrorCode.NO_SUCH_INDEX, 
+                    "index does not exist"));
+        else
+            listener.finished(lsmDB.getIndex(indexId).count(from, to));
+    }
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseRO#aggregate(int, byte[], byte[], 
+     *          java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<Aggregate> aggregate(final int indexId, final byte[] from, 
+            final byte[] to, Object context) {
+        
+        final BabuDBRequestResultImpl<Aggregate> result = 
+            new BabuDBRequestResultImpl<Aggregate>(context, dbs.getResponseManager());
+        
+        Executor readExecutor = dbs.getReadExecutor();
+        if (readExecutor != null) {
+            executeRead(readExecutor, new Runnable() {
+                public void run() {
+                    directAggregate(indexId, from, to, result);
+                }
+            }, result);
+            return result;
         }
         
+        LSMDBWorker w = dbs.getWorker(lsmDB.getDatabaseId());
+        if (w != null) {
+            try {
+                w.addRequest(new LSMDBRequest<Aggregate>(lsmDB, indexId, result, 
+                        RequestOperation.AGGREGATE, from, to));
+            } catch (InterruptedException ex) {
+                result.failed(new BabuDBException(ErrorCode.INTERRUPTED, 
+                        "operation was interrupted", ex));
+            }
+        } else
+            directAggregate(indexId, from, to, result);
+        
         return result;
     }
     
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseRO#prefixAggregate(int, byte[], 
+     *          java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<Aggregate> prefixAggregate(int indexId, byte[] prefix, 
+            Object context) {
+        byte[][] range = prefixToRange(indexId, prefix);
+        return aggregate(indexId, range[0], range[1], context);
+    }
+    
+    /**
+     * Aggregates the entries in a range, without using a worker thread.
+     * 
+     * @param indexId
+     * @param from
+     * @param to
+     * @param listener
+     *            the result listener.
+     */
+    private void directAggregate(int indexId, byte[] from, byte[] to, 
+            BabuDBRequestResultImpl<Aggregate> listener) {
+        
+        if ((indexId >= lsmDB.getIndexCount()) || (indexId < 0))
+            listener.failed(new BabuDBException(ErrorCode.NO_SUCH_INDEX, 
+                    "index does not exist"));
+        else
+            listener.finished(lsmDB.getIndex(indexId).aggregate(from, to));
+    }
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseRO#scan(int, byte[], byte[], int, 
+     *          java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<ScanPage> scan(int indexId, byte[] from, byte[] to, 
+            int pageSize, Object context) {
+        return scan(indexId, from, to, null, pageSize, context);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseRO#resumeScan(int, byte[], int, 
+     *          java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<ScanPage> resumeScan(int indexId, byte[] continuationToken, 
+            int pageSize, Object context) {
+        byte[][] token = ScanPage.parseToken(continuationToken);
+        return scan(indexId, token[0], token[1], token[0], pageSize, context);
+    }
+    
+    /**
+     * Retrieves a page of a range scan.
+     * 
+     * @param indexId
+     * @param from
+     * @param to
+     * @param lastKey
+     *            the last key of the previous page, or <code>null</code>.
+     * @param pageSize
+     * @param context
+     * @return the request result object.
+     */
+    private DatabaseRequestResult<ScanPage> scan(final int indexId, final byte[] from, 
+            final byte[] to, final byte[] lastKey, final int pageSize, Object context) {
+        
+        if (pageSize <= 0)
+            throw new IllegalArgumentException("page size must be positive: " + pageSize);
+        
+        final BabuDBRequestResultImpl<ScanPage> result = 
+            new BabuDBRequestResultImpl<ScanPage>(context, dbs.getResponseManager());
+        
+        Executor readExecutor = dbs.getReadExecutor();
+        if (readExecutor != null) {
+            executeRead(readExecutor, new Runnable() {
+                public void run() {
+                    directScan(indexId, from, to, lastKey, pageSize, result);
+                }
+            }, result);
+            return result;
+        }
+        
+        LSMDBWorker w = dbs.getWorker(lsmDB.getDatabaseId());
+        if (w != null) {
+            try {
+                w.addRequest(new LSMDBRequest<ScanPage>(lsmDB, indexId, result, from, to, 
+                        lastKey, pageSize));
+            } catch (InterruptedException ex) {
+                result.failed(new BabuDBException(ErrorCode.INTERRUPTED, 
+                        "operation was interrupted", ex));
+            }
+        } else
+            directScan(indexId, from, to, lastKey, pageSize, result);
+        
+        return result;
+    }
+    
+    /**
+     * Retrieves a page of a range scan, without using a worker thread.
+     * 
+     * @param indexId
+     * @param from
+     * @param to
+     * @param lastKey
+     * @param pageSize
+     * @param listener
+     *            the result listener.
+     */
+    private void directScan(int indexId, byte[] from, byte[] to, byte[] lastKey, int pageSize, 
+            BabuDBRequestResultImpl<ScanPage> listener) {
+        
+        if ((indexId >= lsmDB.getIndexCount()) || (indexId < 0))
+            listener.failed(new BabuDBException(ErrorCode.NO_SUCH_INDEX, 
+                    "index does not exist"));
+        else
+            listener.finished(lsmDB.getIndex(indexId).scan(from, to, lastKey, pageSize));
+    }
+    
+    /**
+     * Translates a prefix into the range of keys with the prefix, according
+     * to the comparator of the given index.
+     * 
+     * @param indexId
+     * @param prefix
+     * @return the range; an unbounded range if the index does not exist, so
+     *         that the error is reported when the range is processed.
+     */
+    private byte[][] prefixToRange(int indexId, byte[] prefix) {
+        
+        if ((indexId >= lsmDB.getIndexCount()) || (indexId < 0) || prefix == null
+            || prefix.length == 0)
+            return new byte[][] { null, null };
+        
+        return lsmDB.getComparators()[indexId].prefixToRange(prefix, true);
+    }
+    
     /*
      * (non-Javadoc)
      * 
@@ -357,11 +798,21 @@ public class DatabaseImpl implements DatabaseInternal {
      */
     @Override
     public DatabaseRequestResult<Object> userDefinedLookup(
-            UserDefinedLookup udl, Object context) {
+            final UserDefinedLookup udl, Object context) {
         
         final BabuDBRequestResultImpl<Object> result = 
             new BabuDBRequestResultImpl<Object>(context, dbs.getResponseManager());
         
+        Executor readExecutor = dbs.getReadExecutor();
+        if (readExecutor != null) {
+            executeRead(readExecutor, new Runnable() {
+                public void run() {
+                    directUserDefinedLookup(udl, result);
+                }
+            }, result);
+            return result;
+        }
+        
         LSMDBWorker w = dbs.getWorker(lsmDB.getDatabaseId());
         if (w != null) {
             if (Logging.isNotice()) {
@@ -381,6 +832,27 @@ public class DatabaseImpl implements DatabaseInternal {
         return result;
     }
     
+    /**
+     * Hands over a lookup to the executor for lookups that bypass the worker
+     * threads.
+     * 
+     * @param executor
+     * @param lookup
+     * @param listener
+     *            the result listener, which is notified if the executor has
+     *            already been shut down.
+     */
+    private static void executeRead(Executor executor, Runnable lookup, 
+            BabuDBRequestResultImpl<?> listener) {
+        
+        try {
+            executor.execute(lookup);
+        } catch (RejectedExecutionException ex) {
+            listener.failed(new BabuDBException(ErrorCode.INTERRUPTED, 
+                    "operation was interrupted", ex));
+        }
+    }
+    
     /**
      * Performs a user-defined lookup, without using a worker thread.
      * 
@@ -464,8 +936,9 @@ public class DatabaseImpl implements DatabaseInternal {
         }
         
         try {
+            // unmodified indices are hard-linked rather than rewritten
             LSN lsn = lsmDB.getOndiskLSN();
-            lsmDB.writeSnapshot(dbs.getConfig().getBaseDir() + destDB + 
+            lsmDB.linkSnapshot(dbs.getConfig().getBaseDir() + destDB + 
                     File.separatorChar, ids, lsn.getViewId(), 
                     lsn.getSequenceNo());
         } catch (IOException ex) {
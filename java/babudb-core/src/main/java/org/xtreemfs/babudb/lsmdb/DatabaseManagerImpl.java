@@ -10,9 +10,11 @@ package org.xtreemfs.babudb.lsmdb;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -40,13 +42,18 @@ import org.xtreemfs.babudb.lsmdb.InsertRecordGroup.InsertRecord;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.logging.Logging.Category;
-import org.xtreemfs.foundation.util.FSUtils;
 
 public class DatabaseManagerImpl implements DatabaseManagerInternal {
     
     private static final String                    RUNTIME_STATE_DBCREATIONCOUNT = "databaseManager.dbCreationCount";
     private static final String                    RUNTIME_STATE_DBDELETIONCOUNT = "databaseManager.dbDeletionCount";
     
+    /**
+     * the maximum time in milliseconds to wait for the directory of a deleted
+     * database to be deleted before its name can be reused
+     */
+    private static final long                      DELETION_TIMEOUT              = 60 * 1000;
+    
     private BabuDBInternal                         dbs;
     
     /**
@@ -74,6 +81,12 @@ public class DatabaseManagerImpl implements DatabaseManagerInternal {
      */
     private final Object                           dbModificationLock;
     
+    /**
+     * Mapping from database name to deleted databases, the directories of which
+     * have not been deleted yet
+     */
+    private final Map<String, LSMDatabase>         deletedDBs;
+    
     private AtomicInteger                          _dbCreationCount              = new AtomicInteger();
     
     private AtomicInteger                          _dbDeletionCount              = new AtomicInteger();
@@ -84,6 +97,7 @@ public class DatabaseManagerImpl implements DatabaseManagerInternal {
         
         this.dbsByName = new HashMap<String, DatabaseInternal>();
         this.dbsById = new HashMap<Integer, DatabaseInternal>();
+        this.deletedDBs = new HashMap<String, LSMDatabase>();
         
         this.compInstances = new HashMap<String, ByteRangeComparator>();
         this.compInstances.put(DefaultByteRangeComparator.class.getName(), new DefaultByteRangeComparator());
@@ -202,6 +216,8 @@ public class DatabaseManagerImpl implements DatabaseManagerInternal {
     public DatabaseInternal createDatabase(String databaseName, int numIndices, ByteRangeComparator[] comparators)
             throws BabuDBException {
         
+        awaitPendingDeletion(databaseName);
+        
         BabuDBRequestResultImpl<Object> result = new BabuDBRequestResultImpl<Object>(dbs.getResponseManager());
         dbs.getTransactionManager().makePersistent(
                 createTransaction().createDatabase(databaseName, numIndices, comparators), result);
@@ -236,6 +252,8 @@ public class DatabaseManagerImpl implements DatabaseManagerInternal {
      */
     @Override
     public void copyDatabase(String sourceDB, String destDB) throws BabuDBException {
+        awaitPendingDeletion(destDB);
+        
         BabuDBRequestResultImpl<Object> result = new BabuDBRequestResultImpl<Object>(dbs.getResponseManager());
         dbs.getTransactionManager().makePersistent(createTransaction().copyDatabase(sourceDB, destDB), result);
         result.get();
@@ -265,6 +283,73 @@ public class DatabaseManagerImpl implements DatabaseManagerInternal {
         return dbModificationLock;
     }
     
+    /**
+     * Returns a deleted database with the given name, the directory of which
+     * has not been deleted yet. The caller has to hold the DB modification
+     * lock.
+     * 
+     * @param dbName
+     *            the database name
+     * @return the deleted database, or <code>null</code>, if no deletion of a
+     *         database with the given name is pending
+     */
+    private LSMDatabase getPendingDeletion(String dbName) {
+        LSMDatabase db = deletedDBs.get(dbName);
+        if (db != null && db.isDirectoryDeleted()) {
+            deletedDBs.remove(dbName);
+            db = null;
+        }
+        return db;
+    }
+    
+    /**
+     * Checks that the directory of a deleted database with the given name is
+     * not in use anymore, so that the name can be reused. The caller has to
+     * hold the DB modification lock.
+     * 
+     * @param dbName
+     *            the database name
+     * @throws BabuDBException
+     *             if the directory of a deleted database with the given name
+     *             has not been deleted yet
+     */
+    private void checkNoPendingDeletion(String dbName) throws BabuDBException {
+        if (getPendingDeletion(dbName) != null)
+            throw new BabuDBException(ErrorCode.DB_EXISTS, "the directory of deleted database '" + dbName
+                    + "' is still in use by a checkpoint");
+    }
+    
+    /**
+     * Waits until the directory of a deleted database with the given name has
+     * been deleted, which happens as soon as a running checkpoint has finished
+     * writing the deleted database. The wait takes place before the database
+     * with the same name is created, so that neither the DB modification lock
+     * nor the log is held meanwhile.
+     * 
+     * @param dbName
+     *            the database name
+     * @throws BabuDBException
+     *             if the directory has not been deleted within
+     *             {@link #DELETION_TIMEOUT} milliseconds, or if the thread was
+     *             interrupted while waiting
+     */
+    private void awaitPendingDeletion(String dbName) throws BabuDBException {
+        
+        LSMDatabase db;
+        synchronized (getDBModificationLock()) {
+            db = getPendingDeletion(dbName);
+        }
+        
+        try {
+            if (db != null && !db.awaitDeletion(DELETION_TIMEOUT))
+                throw new BabuDBException(ErrorCode.DB_EXISTS, "the directory of deleted database '" + dbName
+                        + "' is still in use by a checkpoint");
+        } catch (InterruptedException exc) {
+            throw new BabuDBException(ErrorCode.INTERRUPTED,
+                    "interrupted while waiting for the deletion of database '" + dbName + "'", exc);
+        }
+    }
+    
     /*
      * (non-Javadoc)
      * 
@@ -324,7 +409,7 @@ public class DatabaseManagerImpl implements DatabaseManagerInternal {
                 int numIndices = (Integer) args[0];
                 
                 ByteRangeComparator[] com = null;
-                if (args.length > 2) {
+                if (args.length > 1) {
                     com = (ByteRangeComparator[]) args[1];
                 }
                 if (com == null) {
@@ -340,21 +425,24 @@ public class DatabaseManagerImpl implements DatabaseManagerInternal {
                 
                 DatabaseImpl db = null;
                 synchronized (getDBModificationLock()) {
-                    synchronized (dbs.getCheckpointer()) {
-                        if (dbsByName.containsKey(operation.getDatabaseName())) {
-                            throw new BabuDBException(ErrorCode.DB_EXISTS, "database '" + operation.getDatabaseName()
-                                    + "' already exists");
-                        }
-                        final int dbId = nextDbId++;
-                        db = new DatabaseImpl(dbs, new LSMDatabase(operation.getDatabaseName(), dbId, dbs.getConfig()
-                                .getBaseDir() + operation.getDatabaseName() + File.separatorChar, numIndices, false,
-                                com, dbs.getConfig().getCompression(), dbs.getConfig().getMaxNumRecordsPerBlock(), dbs
-                                        .getConfig().getMaxBlockFileSize(), dbs.getConfig().getDisableMMap(), dbs
-                                        .getConfig().getMMapLimit()));
-                        dbsById.put(dbId, db);
-                        dbsByName.put(operation.getDatabaseName(), db);
-                        dbs.getDBConfigFile().save();
+                    if (dbsByName.containsKey(operation.getDatabaseName())) {
+                        throw new BabuDBException(ErrorCode.DB_EXISTS, "database '" + operation.getDatabaseName()
+                                + "' already exists");
                     }
+                    
+                    // the directory of a former database with the same name
+                    // has to be deleted before it can be reused
+                    checkNoPendingDeletion(operation.getDatabaseName());
+                    
+                    final int dbId = nextDbId++;
+                    db = new DatabaseImpl(dbs, new LSMDatabase(operation.getDatabaseName(), dbId, dbs.getConfig()
+                            .getBaseDir() + operation.getDatabaseName() + File.separatorChar, numIndices, false,
+                            com, dbs.getConfig().getCompression(), dbs.getConfig().getMaxNumRecordsPerBlock(), dbs
+                                    .getConfig().getMaxBlockFileSize(), dbs.getConfig().getDisableMMap(), dbs
+                                    .getConfig().getMMapLimit()));
+                    dbsById.put(dbId, db);
+                    dbsByName.put(operation.getDatabaseName(), db);
+                    dbs.getDBConfigFile().save();
                 }
                 
                 return db;
@@ -383,26 +471,38 @@ public class DatabaseManagerImpl implements DatabaseManagerInternal {
             public Object process(OperationInternal operation) throws BabuDBException {
                 
                 int dbId = InsertRecordGroup.DB_ID_UNKNOWN;
+                LSMDatabase lsmDB = null;
                 synchronized (getDBModificationLock()) {
-                    synchronized (dbs.getCheckpointer()) {
-                        if (!dbsByName.containsKey(operation.getDatabaseName())) {
-                            throw new BabuDBException(ErrorCode.NO_SUCH_DB, "database '" + operation.getDatabaseName()
-                                    + "' does not exists");
-                        }
-                        final LSMDatabase db = getDatabase(operation.getDatabaseName()).getLSMDB();
-                        dbId = db.getDatabaseId();
-                        dbsByName.remove(operation.getDatabaseName());
-                        dbsById.remove(dbId);
-                        
-                        dbs.getSnapshotManager().deleteAllSnapshots(operation.getDatabaseName());
-                        
-                        dbs.getDBConfigFile().save();
-                        File dbDir = new File(dbs.getConfig().getBaseDir(), operation.getDatabaseName());
-                        
-                        if (dbDir.exists()) {
-                            FSUtils.delTree(dbDir);
-                        }
+                    if (!dbsByName.containsKey(operation.getDatabaseName())) {
+                        throw new BabuDBException(ErrorCode.NO_SUCH_DB, "database '" + operation.getDatabaseName()
+                                + "' does not exists");
                     }
+                    final LSMDatabase db = getDatabase(operation.getDatabaseName()).getLSMDB();
+                    dbId = db.getDatabaseId();
+                    dbsByName.remove(operation.getDatabaseName());
+                    dbsById.remove(dbId);
+                    
+                    // a running checkpoint may still write the database's
+                    // indices; the directory is deleted once it has finished
+                    // with the database
+                    db.markDeleted();
+                    for (Iterator<LSMDatabase> it = deletedDBs.values().iterator(); it.hasNext();) {
+                        if (it.next().isDirectoryDeleted())
+                            it.remove();
+                    }
+                    deletedDBs.put(operation.getDatabaseName(), db);
+                    
+                    dbs.getSnapshotManager().deleteAllSnapshots(operation.getDatabaseName());
+                    
+                    dbs.getDBConfigFile().save();
+                    lsmDB = db;
+                }
+                
+                lsmDB.deleteDirectory();
+                
+                // the database is only retained until its directory is deleted
+                synchronized (getDBModificationLock()) {
+                    getPendingDeletion(operation.getDatabaseName());
                 }
                 
                 return null;
@@ -441,15 +541,15 @@ public class DatabaseManagerImpl implements DatabaseManagerInternal {
                 
                 int dbId;
                 synchronized (getDBModificationLock()) {
-                    synchronized (dbs.getCheckpointer()) {
-                        if (dbsByName.containsKey(destDB)) {
-                            throw new BabuDBException(ErrorCode.DB_EXISTS, "database '" + destDB + "' already exists");
-                        }
-                        dbId = nextDbId++;
-                        // just "reserve" the name
-                        dbsByName.put(destDB, null);
-                        dbs.getDBConfigFile().save();
+                    if (dbsByName.containsKey(destDB)) {
+                        throw new BabuDBException(ErrorCode.DB_EXISTS, "database '" + destDB + "' already exists");
                     }
+                    checkNoPendingDeletion(destDB);
+                    
+                    dbId = nextDbId++;
+                    // just "reserve" the name
+                    dbsByName.put(destDB, null);
+                    dbs.getDBConfigFile().save();
                 }
                 // materializing the snapshot takes some time, we should not
                 // hold the
@@ -497,6 +597,16 @@ public class DatabaseManagerImpl implements DatabaseManagerInternal {
             
             @Override
             public Object process(OperationInternal operation) throws BabuDBException {
+                return insert(operation, true, null);
+            }
+            
+            @Override
+            public Object replay(OperationInternal operation, LSN lsn) throws BabuDBException {
+                return insert(operation, false, lsn);
+            }
+            
+            private Object insert(OperationInternal operation, boolean checkConditions, LSN lsn)
+                throws BabuDBException {
                 
                 Object[] args = operation.getParams();
                 
@@ -530,20 +640,66 @@ public class DatabaseManagerImpl implements DatabaseManagerInternal {
                         throw new BabuDBException(ErrorCode.NO_SUCH_INDEX, "index " + ir.getIndexId()
                                 + " does not exist");
                     }
+                    
+                    if (ir.isMerge() && lsmDB.getIndex(ir.getIndexId()).getMergeOperator() == null) {
+                        
+                        throw new BabuDBException(ErrorCode.INTERNAL_ERROR, "index " + ir.getIndexId()
+                                + " does not support merges");
+                    }
                 }
                 
+                // groups with conditions are checked and applied atomically;
+                // inserts into a database are serialized by its workers
+                // anyway, but if there are no workers, any other group has
+                // to be applied under the same lock
+                if (checkConditions && (irg.hasConditions() || dbs.getWorkerCount() == 0)) {
+                    synchronized (lsmDB) {
+                        for (InsertRecord ir : irg.getInserts()) {
+                            if (ir.isCondition()) {
+                                checkCondition(lsmDB, ir);
+                            }
+                        }
+                        apply(lsmDB, irg, lsn);
+                    }
+                } else {
+                    apply(lsmDB, irg, lsn);
+                }
+                
+                return null;
+            }
+            
+            private void checkCondition(LSMDatabase lsmDB, InsertRecord ir) throws BabuDBException {
+                
+                byte[] value = lsmDB.getIndex(ir.getIndexId()).lookup(ir.getKey());
+                if (ir.getValue() == null ? value != null : !Arrays.equals(value, ir.getValue())) {
+                    
+                    throw new BabuDBException(ErrorCode.CONDITION_FAILED, "condition on key "
+                            + Arrays.toString(ir.getKey()) + " of index " + ir.getIndexId()
+                            + " is not satisfied");
+                }
+            }
+            
+            private void apply(LSMDatabase lsmDB, InsertRecordGroup irg, LSN lsn) {
+                
                 // insert into the in-memory-tree
                 for (InsertRecord ir : irg.getInserts()) {
                     LSMTree index = lsmDB.getIndex(ir.getIndexId());
                     
-                    if (ir.getValue() != null) {
+                    // replayed records that are already contained in the
+                    // index' on-disk tree are skipped
+                    if (ir.isCondition()
+                        || (lsn != null && lsn.compareTo(lsmDB.getOndiskLSN(ir.getIndexId())) <= 0)) {
+                        continue;
+                    } else if (ir.isMerge()) {
+                        index.merge(ir.getKey(), ir.getValue());
+                    } else if (ir.isDeleteRange()) {
+                        index.deleteRange(ir.getKey(), ir.getValue());
+                    } else if (ir.getValue() != null) {
                         index.insert(ir.getKey(), ir.getValue());
                     } else {
                         index.delete(ir.getKey());
                     }
                 }
-                
-                return null;
             }
         });
     }
@@ -645,25 +801,34 @@ public class DatabaseManagerImpl implements DatabaseManagerInternal {
             // maps the lockFutures by the databases affected by this txn
             Map<String, DatabaseRequestResult<AtomicBoolean>> databaseLockFutureMap = new HashMap<String, DatabaseRequestResult<AtomicBoolean>>();
             
+            // the number of workers serving different shards of a database
+            int numShards = Math.min(dbs.getConfig().getNumShards(), dbs.getWorkerCount());
+            
             for (String dbName : txn.databasesAffected()) {
                 try {
                     // setup the lock-request if necessary
                     if (!databaseLockFutureMap.containsKey(dbName)) {
                         
-                        LSMDBWorker worker = dbs.getWorker(getDatabase(dbName).getLSMDB().getDatabaseId());
-                        
-                        // retrieve the lockFuture of the worker if already
-                        // available
-                        BabuDBRequestResultImpl<AtomicBoolean> lockFuture = workerLockFutureMap.get(worker);
-                        
-                        // create a new lockFuture otherwise
-                        if (lockFuture == null) {
-                            lockFuture = new BabuDBRequestResultImpl<AtomicBoolean>(txn, dbs.getResponseManager());
-                            worker.addRequest(new LSMDBRequest<AtomicBoolean>(lockFuture));
-                            workerLockFutureMap.put(worker, lockFuture);
+                        int dbId = getDatabase(dbName).getLSMDB().getDatabaseId();
+                        for (int shard = 0; shard < numShards; shard++) {
+                            
+                            LSMDBWorker worker = dbs.getWorker(dbId + shard);
+                            
+                            // retrieve the lockFuture of the worker if already
+                            // available
+                            BabuDBRequestResultImpl<AtomicBoolean> lockFuture = workerLockFutureMap.get(worker);
+                            
+                            // create a new lockFuture otherwise
+                            if (lockFuture == null) {
+                                lockFuture = new BabuDBRequestResultImpl<AtomicBoolean>(txn, dbs
+                                        .getResponseManager());
+                                worker.addRequest(new LSMDBRequest<AtomicBoolean>(lockFuture));
+                                workerLockFutureMap.put(worker, lockFuture);
+                            }
+                            
+                            databaseLockFutureMap.put(TransactionInternal.getShardLockKey(dbName, shard),
+                                lockFuture);
                         }
-                        
-                        databaseLockFutureMap.put(dbName, lockFuture);
                     }
                 } catch (BabuDBException be) {
                     assert (be.getErrorCode() == ErrorCode.NO_SUCH_DB);
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2008 - 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.babudb.lsmdb;
+
+import org.xtreemfs.babudb.config.BabuDBConfig;
+
+/**
+ * The default checkpoint policy. A checkpoint is created if
+ * <ul>
+ * <li>the log exceeds <code>babudb.maxLogfileSize</code>,
+ * <li>the overlays exceed <code>babudb.maxOverlaySize</code> bytes,
+ * <li>replaying the log is expected to take longer than
+ * <code>babudb.maxReplayTime</code> seconds, or
+ * <li>the latest checkpoint is older than
+ * <code>babudb.maxCheckpointInterval</code> seconds and the log is not
+ * empty.
+ * </ul>
+ * The limits on replay time and checkpoint age are soft: while the log grows
+ * by more than <code>babudb.checkpointBusyRate</code> entries/s, they are
+ * relaxed to twice their values, so that checkpoints are preferably created
+ * when the foreground load is low.
+ *
+ * @author stender
+ */
+public class DefaultCheckpointPolicy implements CheckpointPolicy {
+
+    private final long maxLogSize;
+
+    private final long maxReplayMillis;
+
+    private final long maxOverlaySize;
+
+    private final long maxIntervalMillis;
+
+    private final long busyRate;
+
+    /**
+     * Creates a new policy from the given configuration.
+     *
+     * @param cfg
+     *            the configuration
+     */
+    public DefaultCheckpointPolicy(BabuDBConfig cfg) {
+        this(cfg.getMaxLogfileSize(), 1000L * cfg.getMaxReplayTime(), cfg.getMaxOverlaySize(), 1000L * cfg
+                .getMaxCheckpointInterval(), cfg.getCheckpointBusyRate());
+    }
+
+    /**
+     * Creates a new policy. All limits except for the log size are disabled if
+     * set to 0.
+     *
+     * @param maxLogSize
+     *            the maximum size of the log in bytes
+     * @param maxReplayMillis
+     *            the maximum expected log replay time in milliseconds
+     * @param maxOverlaySize
+     *            the maximum memory held by the overlays in bytes
+     * @param maxIntervalMillis
+     *            the maximum age of the latest checkpoint in milliseconds
+     * @param busyRate
+     *            the log entry rate in entries/s above which the soft limits
+     *            are relaxed
+     */
+    public DefaultCheckpointPolicy(long maxLogSize, long maxReplayMillis, long maxOverlaySize,
+        long maxIntervalMillis, long busyRate) {
+
+        this.maxLogSize = maxLogSize;
+        this.maxReplayMillis = maxReplayMillis;
+        this.maxOverlaySize = maxOverlaySize;
+        this.maxIntervalMillis = maxIntervalMillis;
+        this.busyRate = busyRate;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * org.xtreemfs.babudb.lsmdb.CheckpointPolicy#checkpointReason(org.xtreemfs
+     * .babudb.lsmdb.CheckpointState)
+     */
+    @Override
+    public String checkpointReason(CheckpointState state) {
+
+        if (state.getLogSize() > maxLogSize)
+            return "log size " + state.getLogSize() + " exceeds " + maxLogSize + " bytes";
+
+        if (maxOverlaySize > 0 && state.getOverlaySize() > maxOverlaySize)
+            return "overlay size " + state.getOverlaySize() + " exceeds " + maxOverlaySize + " bytes";
+
+        // soft limits are relaxed while the foreground load is high
+        long factor = busyRate > 0 && state.getLogEntryRate() > busyRate ? 2 : 1;
+
+        long replayMillis = state.getExpectedReplayMillis();
+        if (maxReplayMillis > 0 && replayMillis > factor * maxReplayMillis)
+            return "expected replay time " + replayMillis + " exceeds " + factor * maxReplayMillis + " ms";
+
+        if (maxIntervalMillis > 0 && state.getLogSize() > 0
+            && state.getMillisSinceLastCheckpoint() > factor * maxIntervalMillis)
+            return "latest checkpoint is older than " + factor * maxIntervalMillis + " ms";
+
+        return null;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2008 - 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.babudb.lsmdb;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.channels.FileChannel;
+
+/**
+ * Creates hard links to immutable on-disk files, like the files of an on-disk
+ * index. Hard links are created by means of <code>java.nio.file.Files</code>
+ * if the platform provides it; files are copied if this is not the case, or
+ * if a link cannot be created, e.g. because the target resides on a different
+ * file system.
+ *
+ * @author stender
+ */
+class FileLinker {
+
+    private static final Method TO_PATH;
+
+    private static final Method CREATE_LINK;
+
+    static {
+
+        Method toPath = null;
+        Method createLink = null;
+        try {
+            toPath = File.class.getMethod("toPath");
+            Class<?> pathClass = toPath.getReturnType();
+            createLink = Class.forName("java.nio.file.Files").getMethod("createLink", pathClass, pathClass);
+        } catch (Throwable exc) {
+            // not available before Java 7
+            toPath = null;
+        }
+        TO_PATH = toPath;
+        CREATE_LINK = createLink;
+    }
+
+    private FileLinker() {
+    }
+
+    /**
+     * Links all files of a directory into a new directory.
+     *
+     * @param srcDir
+     *            the source directory
+     * @param destDir
+     *            the target directory, which must not exist yet
+     * @return <code>true</code>, if all files have been linked,
+     *         <code>false</code>, if at least one file has been copied
+     * @throws IOException
+     *             if the source directory cannot be read, or a file can
+     *             neither be linked nor copied
+     */
+    static boolean linkDirectory(File srcDir, File destDir) throws IOException {
+
+        File[] files = srcDir.listFiles();
+        if (files == null)
+            throw new IOException("could not list directory '" + srcDir + "'");
+
+        if (!destDir.mkdirs())
+            throw new IOException("could not create directory '" + destDir + "'");
+
+        boolean linked = true;
+        for (File file : files) {
+            if (!file.isFile())
+                continue;
+            File dest = new File(destDir, file.getName());
+            if (!link(file, dest)) {
+                copy(file, dest);
+                linked = false;
+            }
+        }
+
+        return linked;
+    }
+
+    /**
+     * Tries to create a hard link.
+     *
+     * @param src
+     *            the existing file
+     * @param dest
+     *            the link to create
+     * @return <code>true</code>, if the link has been created,
+     *         <code>false</code>, otherwise
+     */
+    static boolean link(File src, File dest) {
+
+        if (TO_PATH == null)
+            return false;
+
+        try {
+            CREATE_LINK.invoke(null, TO_PATH.invoke(dest), TO_PATH.invoke(src));
+            return true;
+        } catch (Exception exc) {
+            return false;
+        }
+    }
+
+    private static void copy(File src, File dest) throws IOException {
+
+        FileInputStream in = new FileInputStream(src);
+        try {
+            FileOutputStream out = new FileOutputStream(dest);
+            try {
+                FileChannel inChannel = in.getChannel();
+                FileChannel outChannel = out.getChannel();
+                long size = inChannel.size();
+                long pos = 0;
+                while (pos < size)
+                    pos += inChannel.transferTo(pos, size - pos, outChannel);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -35,6 +35,26 @@ public class InsertRecordGroup {
         records.add(new InsertRecord(indexId, key, value));
     }
     
+    public void addMerge(int indexId, byte[] key, byte[] operand) {
+        records.add(new InsertRecord(indexId, key, operand, InsertRecord.TYPE_MERGE));
+    }
+    
+    public void addDeleteRange(int indexId, byte[] from, byte[] to) {
+        records.add(new InsertRecord(indexId, from == null ? new byte[0] : from, to == null ? new byte[0] : to,
+            InsertRecord.TYPE_DELETE_RANGE));
+    }
+    
+    public void addCondition(int indexId, byte[] key, byte[] expected) {
+        records.add(new InsertRecord(indexId, key, expected, InsertRecord.TYPE_CONDITION));
+    }
+    
+    public boolean hasConditions() {
+        for (InsertRecord ir : records)
+            if (ir.isCondition())
+                return true;
+        return false;
+    }
+    
     public List<InsertRecord> getInserts() {
         return records;
     }
@@ -76,16 +96,52 @@ public class InsertRecordGroup {
     }
     
     public static class InsertRecord {
+        
+        /**
+         * inserts the value, or deletes the key if the value is
+         * <code>null</code>
+         */
+        public static final byte TYPE_INSERT       = 0;
+        
+        /**
+         * merges the value as an operand into the existing value
+         */
+        public static final byte TYPE_MERGE        = 1;
+        
+        /**
+         * deletes all keys from the key (inclusively) to the value
+         * (exclusively); empty bounds are unbounded
+         */
+        public static final byte TYPE_DELETE_RANGE = 2;
+        
+        /**
+         * requires the key to have the value, or no value if the value is
+         * <code>null</code>, in order for the group to be executed
+         */
+        public static final byte TYPE_CONDITION    = 3;
+        
+        /**
+         * the key length that marks a condition
+         */
+        private static final int CONDITION_MARKER  = Integer.MIN_VALUE;
+        
         private final byte   indexId;
         
         private final byte[] key;
         
         private final byte[] value;
         
+        private final byte   type;
+        
         public InsertRecord(int indexId, byte[] key, byte[] value) {
+            this(indexId, key, value, TYPE_INSERT);
+        }
+        
+        public InsertRecord(int indexId, byte[] key, byte[] value, byte type) {
             this.indexId = (byte) indexId;
             this.key = key;
             this.value = value;
+            this.type = type;
         }
         
         public int getIndexId() {
@@ -100,8 +156,22 @@ public class InsertRecordGroup {
             return value;
         }
         
+        public boolean isMerge() {
+            return type == TYPE_MERGE;
+        }
+        
+        public boolean isDeleteRange() {
+            return type == TYPE_DELETE_RANGE;
+        }
+        
+        public boolean isCondition() {
+            return type == TYPE_CONDITION;
+        }
+        
         public int getSize() {
-            if (value != null)
+            if (type == TYPE_CONDITION)
+                return Byte.SIZE / 8 + Integer.SIZE / 8 * 3 + key.length + (value == null ? 0 : value.length);
+            else if (value != null)
                 return Byte.SIZE / 8 + Integer.SIZE / 8 * 2 + key.length + value.length;
             else
                 return Byte.SIZE / 8 + Integer.SIZE / 8 * 2 + key.length;
@@ -109,9 +179,35 @@ public class InsertRecordGroup {
         
         public void serialize(ReusableBuffer buffer) {
             buffer.put(indexId);
+            if (type == TYPE_CONDITION) {
+                // conditions are marked by a dedicated key length, and a
+                // missing expected value by a negative value length
+                buffer.putInt(CONDITION_MARKER);
+                buffer.putInt(key.length);
+                buffer.put(key);
+                if (value != null) {
+                    buffer.putInt(value.length);
+                    buffer.put(value);
+                } else {
+                    buffer.putInt(-1);
+                }
+                return;
+            }
+            if (type == TYPE_DELETE_RANGE) {
+                // range deletions are marked by a negative key length
+                buffer.putInt(-1 - key.length);
+                buffer.put(key);
+                buffer.putInt(value.length);
+                buffer.put(value);
+                return;
+            }
             buffer.putInt(key.length);
             buffer.put(key);
-            if (value != null) {
+            if (type == TYPE_MERGE) {
+                // operands are marked by a negative length
+                buffer.putInt(-1 - value.length);
+                buffer.put(value);
+            } else if (value != null) {
                 buffer.putInt(value.length);
                 buffer.put(value);
             } else {
@@ -124,10 +220,35 @@ public class InsertRecordGroup {
             int indexId = 0x00FF & tmp;
             
             int size = buffer.getInt();
+            if (size == CONDITION_MARKER) {
+                byte[] key = new byte[buffer.getInt()];
+                buffer.get(key);
+                byte[] expected = null;
+                size = buffer.getInt();
+                if (size >= 0) {
+                    expected = new byte[size];
+                    buffer.get(expected);
+                }
+                return new InsertRecord(indexId, key, expected, TYPE_CONDITION);
+            }
+            if (size < 0) {
+                byte[] from = new byte[-1 - size];
+                buffer.get(from);
+                byte[] to = new byte[buffer.getInt()];
+                buffer.get(to);
+                return new InsertRecord(indexId, from, to, TYPE_DELETE_RANGE);
+            }
+            
             byte[] key = new byte[size];
             buffer.get(key);
             
             size = buffer.getInt();
+            if (size < 0) {
+                byte[] operand = new byte[-1 - size];
+                buffer.get(operand);
+                return new InsertRecord(indexId, key, operand, TYPE_MERGE);
+            }
+            
             byte[] value = null;
             if (size > 0) {
                 value = new byte[size];
@@ -143,6 +264,12 @@ public class InsertRecordGroup {
             sb.append("index: " + indexId);
             sb.append(", key: " + (key == null ? null : Arrays.toString(key)));
             sb.append(", value: " + (value == null ? null : Arrays.toString(value)));
+            if (type == TYPE_MERGE)
+                sb.append(" (merge)");
+            else if (type == TYPE_DELETE_RANGE)
+                sb.append(" (range deletion)");
+            else if (type == TYPE_CONDITION)
+                sb.append(" (condition)");
             
             return sb.toString();
         }
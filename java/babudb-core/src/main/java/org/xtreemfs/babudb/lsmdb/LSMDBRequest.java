@@ -31,12 +31,18 @@ public class LSMDBRequest<T> {
     
     private final byte[]                        lookupKey;
     
+    private byte[][]                            lookupKeys;
+    
     private byte[]                              from;
     
     private byte[]                              to;
     
     private boolean                             ascending;
     
+    private int                                 maxValueLength = -1;
+    
+    private int                                 pageSize;
+    
     private final UserDefinedLookup             udLookup;
     
     /**
@@ -76,9 +82,21 @@ public class LSMDBRequest<T> {
         this.udLookup = null;
     }
     
+    public LSMDBRequest(LSMDatabase database, int indexId, 
+            BabuDBRequestResultImpl<T> listener, byte[][] keys) {
+        this.operation = RequestOperation.MULTI_LOOKUP;
+        this.database = database;
+        this.indexId = indexId;
+        this.lookupKey = null;
+        this.lookupKeys = keys;
+        this.insertData = null;
+        this.listener = listener;
+        this.udLookup = null;
+    }
+    
     public LSMDBRequest(LSMDatabase database, int indexId, 
             BabuDBRequestResultImpl<T> listener, byte[] prefix, 
-            boolean ascending) {
+            boolean ascending, int maxValueLength) {
         this.operation = RequestOperation.PREFIX_LOOKUP;
         this.database = database;
         this.indexId = indexId;
@@ -87,11 +105,12 @@ public class LSMDBRequest<T> {
         this.listener = listener;
         this.udLookup = null;
         this.ascending = ascending;
+        this.maxValueLength = maxValueLength;
     }
     
     public LSMDBRequest(LSMDatabase database, int indexId, 
             BabuDBRequestResultImpl<T> listener, byte[] from, byte[] to, 
-            boolean ascending) {
+            boolean ascending, int maxValueLength) {
         this.operation = RequestOperation.RANGE_LOOKUP;
         this.database = database;
         this.indexId = indexId;
@@ -102,6 +121,37 @@ public class LSMDBRequest<T> {
         this.listener = listener;
         this.udLookup = null;
         this.ascending = ascending;
+        this.maxValueLength = maxValueLength;
+    }
+    
+    public LSMDBRequest(LSMDatabase database, int indexId, 
+            BabuDBRequestResultImpl<T> listener, RequestOperation operation, 
+            byte[] from, byte[] to) {
+        assert (operation == RequestOperation.COUNT || operation == RequestOperation.AGGREGATE);
+        this.operation = operation;
+        this.database = database;
+        this.indexId = indexId;
+        this.from = from;
+        this.to = to;
+        this.lookupKey = null;
+        this.insertData = null;
+        this.listener = listener;
+        this.udLookup = null;
+    }
+    
+    public LSMDBRequest(LSMDatabase database, int indexId, 
+            BabuDBRequestResultImpl<T> listener, byte[] from, byte[] to, 
+            byte[] lastKey, int pageSize) {
+        this.operation = RequestOperation.SCAN;
+        this.database = database;
+        this.indexId = indexId;
+        this.from = from;
+        this.to = to;
+        this.lookupKey = lastKey;
+        this.insertData = null;
+        this.listener = listener;
+        this.udLookup = null;
+        this.pageSize = pageSize;
     }
     
     public LSMDBRequest(LSMDatabase database, 
@@ -135,6 +185,10 @@ public class LSMDBRequest<T> {
         return lookupKey;
     }
     
+    public byte[][] getLookupKeys() {
+        return lookupKeys;
+    }
+    
     public byte[] getFrom() {
         return from;
     }
@@ -147,6 +201,14 @@ public class LSMDBRequest<T> {
         return ascending;
     }
     
+    public int getMaxValueLength() {
+        return maxValueLength;
+    }
+    
+    public int getPageSize() {
+        return pageSize;
+    }
+    
     public BabuDBRequestResultImpl<T> getListener() {
         return listener;
     }
@@ -8,74 +8,151 @@
 package org.xtreemfs.babudb.lsmdb;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.xtreemfs.babudb.BabuDBRequestResultImpl;
+import org.xtreemfs.babudb.api.database.Aggregate;
+import org.xtreemfs.babudb.api.database.ScanPage;
 import org.xtreemfs.babudb.api.database.UserDefinedLookup;
 import org.xtreemfs.babudb.api.dev.BabuDBInternal;
+import org.xtreemfs.babudb.api.dev.ResponseManagerInternal;
+import org.xtreemfs.babudb.api.dev.transaction.TransactionInternal;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
+import org.xtreemfs.babudb.lsmdb.InsertRecordGroup.InsertRecord;
 import org.xtreemfs.foundation.LifeCycleThread;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.logging.Logging.Category;
 
 /**
+ * A worker thread that processes the requests of the databases assigned to
+ * it.
+ * <p>
+ * Requests are appended to a non-blocking queue, which the worker drains in
+ * batches of up to {@link #MAX_BATCH} requests. An idle worker is parked and
+ * only unparked by the producer that appends the next request. If
+ * <code>maxQ</code> is set, producers block on a semaphore as soon as the
+ * queue is full; each drained batch only releases as many producers as it has
+ * freed slots. Consecutive inserts for the same database within a batch are
+ * coalesced into a single transaction, and thus into a single log entry.
+ * </p>
+ * <p>
+ * If databases are partitioned into shards, shard <i>s</i> of the database
+ * with ID <i>d</i> is served by worker <i>(d + s) mod n</i>. Inserts into
+ * different shards of a database are thus processed in parallel. A worker
+ * holds the shard locks of all workers serving the shards affected by an
+ * insert until the insert has been applied and appended to the log, so that
+ * the in-memory state of each key always reflects the order of the log.
+ * Lookups of keys in a single shard are sent to the worker serving the shard;
+ * all other reads are sent to the worker serving the first shard.
+ * </p>
+ * 
  * @author bjko
  */
 public class LSMDBWorker extends LifeCycleThread {
     
     public static enum RequestOperation {
-        INSERT, LOOKUP, PREFIX_LOOKUP, RANGE_LOOKUP, USER_DEFINED_LOOKUP, LOCK
+        INSERT, LOOKUP, MULTI_LOOKUP, PREFIX_LOOKUP, RANGE_LOOKUP, COUNT, AGGREGATE, SCAN, USER_DEFINED_LOOKUP, LOCK
     };
     
+    /**
+     * the maximum number of requests taken from the queue at once
+     */
+    static final int                             MAX_BATCH = 64;
+    
     private final AtomicBoolean                  locked = new AtomicBoolean(false);
     
     private final BabuDBInternal                 dbs;
     
-    private final LinkedList<LSMDBRequest<?>>    requests = new LinkedList<LSMDBRequest<?>>();
+    private final int                            workerId;
+    
+    private final int                            numShards;
+    
+    /**
+     * held while an insert into a shard served by this worker is processed
+     */
+    private final ReentrantLock                  shardLock = new ReentrantLock();
+    
+    private final ConcurrentLinkedQueue<LSMDBRequest<?>> requests = 
+        new ConcurrentLinkedQueue<LSMDBRequest<?>>();
+    
+    /**
+     * the free slots of the queue, <code>null</code> if the queue is unbounded
+     */
+    private final Semaphore                      capacity;
     
     private final int                            maxQ;
     
-    private boolean                              quit = true;
-    private boolean                              graceful;
+    private volatile boolean                     parked;
+    
+    private volatile boolean                     quit = true;
+    private volatile boolean                     graceful;
+    
+    private volatile long                        coalescedInserts;
+    
+    private volatile long                        processedInserts;
     
     public LSMDBWorker(BabuDBInternal babuDB, int id, int maxQ) {
         super("LSMDBWrkr#" + id);
         setLifeCycleListener(babuDB);
+        this.workerId = id;
+        this.numShards = babuDB.getConfig().getNumShards();
         this.maxQ = maxQ;
+        this.capacity = maxQ > 0 ? new Semaphore(maxQ) : null;
         this.dbs = babuDB;
     }
     
-    public synchronized void addRequest(LSMDBRequest<?> request) throws InterruptedException {
+    public void addRequest(LSMDBRequest<?> request) throws InterruptedException {
         
         assert (request != null);
         
         // wait for queue space to become available
-        if (!quit && maxQ > 0 && requests.size() >= maxQ) {
-            wait();
+        if (capacity != null && !quit) {
+            capacity.acquire();
         }
         
-        if (!quit) {
-
-            assert (maxQ == 0 || requests.size() < maxQ);
-            
-            requests.add(request);
-            notifyAll();
-        } else {
+        if (quit) {
             throw new InterruptedException("Appending a request to the queue of " + getName() +
                         " was interrupted, due shutdown.");
         }
+        
+        requests.offer(request);
+        
+        // the worker might have quit before it could see the request
+        if (quit && requests.remove(request)) {
+            throw new InterruptedException("Appending a request to the queue of " + getName() +
+                        " was interrupted, due shutdown.");
+        }
+        
+        if (parked) {
+            LockSupport.unpark(this);
+        }
     }
     
     public synchronized void shutdown(boolean graceful) {
         this.graceful = graceful;
         
+        boolean running = !quit;
         quit = true;
-        notifyAll();
+        
+        // release all producers waiting for queue space
+        if (running && capacity != null) {
+            capacity.release(Integer.MAX_VALUE / 2);
+        }
+        LockSupport.unpark(this);
     }
         
     @Override
@@ -92,6 +169,33 @@ public class LSMDBWorker extends LifeCycleThread {
         super.start();
     }
     
+    /**
+     * Returns the shard of a database that a key is assigned to.
+     * 
+     * @param key
+     * @param numShards
+     *            the number of shards per database
+     * @return the shard, a number between 0 and <code>numShards - 1</code>.
+     */
+    public static int getShard(byte[] key, int numShards) {
+        return numShards <= 1 ? 0 : (Arrays.hashCode(key) & Integer.MAX_VALUE) % numShards;
+    }
+    
+    /**
+     * @return the number of inserts that have been coalesced with preceding
+     *         inserts into a single transaction
+     */
+    public long getCoalescedInserts() {
+        return coalescedInserts;
+    }
+    
+    /**
+     * @return the number of inserts that have been processed by this worker
+     */
+    public long getProcessedInserts() {
+        return processedInserts;
+    }
+    
     @Override
     public void run() {
         
@@ -99,43 +203,46 @@ public class LSMDBWorker extends LifeCycleThread {
 
         notifyStarted();
         
+        final List<LSMDBRequest<?>> batch = new ArrayList<LSMDBRequest<?>>(MAX_BATCH);
+        
         while (!quit) {
-            try {
-                final LSMDBRequest<?> r;
-                
-                // wait for a request
-                synchronized (this) {
-                    if (requests.isEmpty() && !quit) {
-                        wait();
-                    }
-                    
-                    if (quit) {
-                        break;
-                        
-                    // get a request
-                    } else {
-                        r = requests.poll();
-                        notify();
-                    }
+            
+            // wait for a request
+            if (requests.isEmpty()) {
+                parked = true;
+                if (requests.isEmpty() && !quit) {
+                    LockSupport.park(this);
                 }
-                                
-                processRequest(r);
-            } catch (InterruptedException ex) {
-                if (!quit) {
+                parked = false;
+                
+                if (Thread.interrupted() && !quit) {
                     cleanUp();
-                    notifyCrashed(ex);
+                    notifyCrashed(new InterruptedException(getName() + " was interrupted"));
                     return;
                 }
+                continue;
             }
+            
+            // get a batch of requests
+            LSMDBRequest<?> r;
+            while (batch.size() < MAX_BATCH && (r = requests.poll()) != null) {
+                batch.add(r);
+            }
+            if (capacity != null && !quit) {
+                capacity.release(batch.size());
+            }
+            
+            processBatch(batch);
+            batch.clear();
         }
         
         // process pending requests on shutdown if graceful flag has not been reset
         if (graceful) {
-            synchronized (this) {
-                for (LSMDBRequest<?> rq : requests) {
-                    processRequest(rq);
-                }
+            LSMDBRequest<?> r;
+            while ((r = requests.poll()) != null) {
+                batch.add(r);
             }
+            processBatch(batch);
         }
         Logging.logMessage(Logging.LEVEL_DEBUG, Category.babudb, this, "worker shutdown complete");
         notifyStopped();
@@ -146,17 +253,73 @@ public class LSMDBWorker extends LifeCycleThread {
      * 
      * @throws IOException
      */
-    private synchronized void cleanUp() {    
-            
-        assert (graceful || requests.size() == 0);
+    private void cleanUp() {    
         
         // clear pending requests, if available
-        for (LSMDBRequest<?> rq : requests) {
+        LSMDBRequest<?> rq;
+        while ((rq = requests.poll()) != null) {
             rq.getListener().failed(new BabuDBException(ErrorCode.INTERRUPTED, 
                 "Worker was shut down, before the request could be proceeded."));
         }
     }
     
+    /**
+     * Processes a batch of requests in their order of arrival. Runs of valid
+     * inserts for the same database are performed as a single transaction.
+     * 
+     * @param batch
+     */
+    private void processBatch(List<LSMDBRequest<?>> batch) {
+        
+        int i = 0;
+        while (i < batch.size()) {
+            
+            LSMDBRequest<?> r = batch.get(i);
+            int j = i + 1;
+            if (isValidInsert(r)) {
+                while (j < batch.size() && batch.get(j).getDatabase() == r.getDatabase()
+                    && isValidInsert(batch.get(j))) {
+                    j++;
+                }
+            }
+            
+            if (j - i > 1) {
+                doInsert(batch.subList(i, j));
+            } else {
+                processRequest(r);
+            }
+            i = j;
+        }
+    }
+    
+    /**
+     * Checks whether the given request is an insert that will not fail in
+     * memory, so that it can safely share a transaction with other inserts.
+     * 
+     * @param r
+     * @return true, if the request may be coalesced.
+     */
+    private static boolean isValidInsert(LSMDBRequest<?> r) {
+        
+        if (r.getOperation() != RequestOperation.INSERT) {
+            return false;
+        }
+        
+        int numIndices = r.getDatabase().getIndexCount();
+        for (InsertRecord ir : r.getInsertData().getInserts()) {
+            if ((ir.getIndexId() >= numIndices) || (ir.getIndexId() < 0)) {
+                return false;
+            }
+            if (ir.isMerge() && r.getDatabase().getIndex(ir.getIndexId()).getMergeOperator() == null) {
+                return false;
+            }
+            if (ir.isCondition()) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
     @SuppressWarnings("unchecked")
     private void processRequest(LSMDBRequest<?> r) {
         switch (r.getOperation()) {
@@ -166,12 +329,24 @@ public class LSMDBWorker extends LifeCycleThread {
         case LOOKUP:
             doLookup((LSMDBRequest<byte[]>) r);
             break;
+        case MULTI_LOOKUP:
+            doMultiLookup((LSMDBRequest<byte[][]>) r);
+            break;
         case PREFIX_LOOKUP:
             doPrefixLookup((LSMDBRequest<Iterator<Entry<byte[], byte[]>>>) r);
             break;
         case RANGE_LOOKUP:
             doRangeLookup((LSMDBRequest<Iterator<Entry<byte[], byte[]>>>) r);
             break;
+        case COUNT:
+            doCount((LSMDBRequest<Long>) r);
+            break;
+        case AGGREGATE:
+            doAggregate((LSMDBRequest<Aggregate>) r);
+            break;
+        case SCAN:
+            doScan((LSMDBRequest<ScanPage>) r);
+            break;
         case USER_DEFINED_LOOKUP:
             doUserLookup((LSMDBRequest<Object>) r);
             break;
@@ -199,6 +374,8 @@ public class LSMDBWorker extends LifeCycleThread {
     @SuppressWarnings("unchecked")
     private void doInsert(final LSMDBRequest<?> r) {
 
+        List<LSMDBWorker> locked = lockShards(Collections.<LSMDBRequest<?>> singletonList(r));
+        processedInserts++;
         try {
             dbs.getTransactionManager().makePersistent(
                     dbs.getDatabaseManager().createTransaction().insertRecordGroup(
@@ -206,6 +383,77 @@ public class LSMDBWorker extends LifeCycleThread {
                             (BabuDBRequestResultImpl<Object>) r.getListener());
         } catch (BabuDBException e) {
             r.getListener().failed(e);
+        } finally {
+            unlockShards(locked);
+        }
+    }
+    
+    private void doInsert(final List<LSMDBRequest<?>> rs) {
+        
+        final LSMDatabase db = rs.get(0).getDatabase();
+        TransactionInternal txn = dbs.getDatabaseManager().createTransaction();
+        for (LSMDBRequest<?> r : rs) {
+            txn.insertRecordGroup(db.getDatabaseName(), r.getInsertData(), db);
+        }
+        
+        List<LSMDBWorker> locked = lockShards(rs);
+        processedInserts += rs.size();
+        try {
+            dbs.getTransactionManager().makePersistent(txn, 
+                    new CoalescedInsertListener(rs, txn, dbs.getResponseManager()));
+            coalescedInserts += rs.size() - 1;
+        } catch (BabuDBException e) {
+            for (LSMDBRequest<?> r : rs) {
+                r.getListener().failed(e);
+            }
+        } finally {
+            unlockShards(locked);
+        }
+    }
+    
+    /**
+     * Acquires the shard locks of all workers serving the shards affected by
+     * the given inserts. Locks are acquired in the order of the worker IDs, in
+     * order to prevent deadlocks between workers processing inserts that
+     * affect multiple shards.
+     * 
+     * @param rs
+     * @return the workers that have been locked.
+     */
+    private List<LSMDBWorker> lockShards(List<LSMDBRequest<?>> rs) {
+        
+        if (numShards <= 1) {
+            return Collections.emptyList();
+        }
+        
+        SortedMap<Integer, LSMDBWorker> workers = new TreeMap<Integer, LSMDBWorker>();
+        workers.put(workerId, this);
+        for (LSMDBRequest<?> r : rs) {
+            int dbId = r.getDatabase().getDatabaseId();
+            for (InsertRecord ir : r.getInsertData().getInserts()) {
+                // a range deletion may cover keys of all shards
+                if (ir.isDeleteRange()) {
+                    for (int s = 0; s < numShards; s++) {
+                        LSMDBWorker w = dbs.getWorker(dbId + s);
+                        workers.put(w.workerId, w);
+                    }
+                } else {
+                    LSMDBWorker w = dbs.getWorker(dbId + getShard(ir.getKey(), numShards));
+                    workers.put(w.workerId, w);
+                }
+            }
+        }
+        
+        List<LSMDBWorker> locked = new ArrayList<LSMDBWorker>(workers.values());
+        for (LSMDBWorker w : locked) {
+            w.shardLock.lock();
+        }
+        return locked;
+    }
+    
+    private static void unlockShards(List<LSMDBWorker> locked) {
+        for (LSMDBWorker w : locked) {
+            w.shardLock.unlock();
         }
     }
     
@@ -222,6 +470,19 @@ public class LSMDBWorker extends LifeCycleThread {
         }
     }
     
+    private void doMultiLookup(final LSMDBRequest<byte[][]> r) {
+        final LSMDatabase db = r.getDatabase();
+        final int numIndices = db.getIndexCount();
+        
+        if ((r.getIndexId() >= numIndices) || (r.getIndexId() < 0)) {
+            r.getListener().failed(
+                new BabuDBException(ErrorCode.NO_SUCH_INDEX, "index " + r.getIndexId() + 
+                        " does not exist"));
+        } else {
+            r.getListener().finished(db.getIndex(r.getIndexId()).lookup(r.getLookupKeys()));
+        }
+    }
+    
     private void doPrefixLookup(final LSMDBRequest<Iterator<Map.Entry<byte[], byte[]>>> r) {
         final LSMDatabase db = r.getDatabase();
         final int numIndices = db.getIndexCount();
@@ -231,7 +492,8 @@ public class LSMDBWorker extends LifeCycleThread {
                 new BabuDBException(ErrorCode.NO_SUCH_INDEX, "index " + r.getIndexId() + 
                         " does not exist"));
         } else {
-            r.getListener().finished(db.getIndex(r.getIndexId()).prefixLookup(r.getLookupKey()));
+            r.getListener().finished(db.getIndex(r.getIndexId()).prefixLookup(r.getLookupKey(),
+                    r.isAscending(), r.getMaxValueLength()));
         }
     }
     
@@ -245,7 +507,48 @@ public class LSMDBWorker extends LifeCycleThread {
                         " does not exist"));
         } else {
             r.getListener().finished(
-                    db.getIndex(r.getIndexId()).rangeLookup(r.getFrom(), r.getTo()));
+                    db.getIndex(r.getIndexId()).rangeLookup(r.getFrom(), r.getTo(), r.isAscending(),
+                        r.getMaxValueLength()));
+        }
+    }
+    
+    private void doCount(final LSMDBRequest<Long> r) {
+        final LSMDatabase db = r.getDatabase();
+        final int numIndices = db.getIndexCount();
+        
+        if ((r.getIndexId() >= numIndices) || (r.getIndexId() < 0)) {
+            r.getListener().failed(
+                new BabuDBException(ErrorCode.NO_SUCH_INDEX, "index " + r.getIndexId() + 
+                        " does not exist"));
+        } else {
+            r.getListener().finished(db.getIndex(r.getIndexId()).count(r.getFrom(), r.getTo()));
+        }
+    }
+    
+    private void doAggregate(final LSMDBRequest<Aggregate> r) {
+        final LSMDatabase db = r.getDatabase();
+        final int numIndices = db.getIndexCount();
+        
+        if ((r.getIndexId() >= numIndices) || (r.getIndexId() < 0)) {
+            r.getListener().failed(
+                new BabuDBException(ErrorCode.NO_SUCH_INDEX, "index " + r.getIndexId() + 
+                        " does not exist"));
+        } else {
+            r.getListener().finished(db.getIndex(r.getIndexId()).aggregate(r.getFrom(), r.getTo()));
+        }
+    }
+    
+    private void doScan(final LSMDBRequest<ScanPage> r) {
+        final LSMDatabase db = r.getDatabase();
+        final int numIndices = db.getIndexCount();
+        
+        if ((r.getIndexId() >= numIndices) || (r.getIndexId() < 0)) {
+            r.getListener().failed(
+                new BabuDBException(ErrorCode.NO_SUCH_INDEX, "index " + r.getIndexId() + 
+                        " does not exist"));
+        } else {
+            r.getListener().finished(db.getIndex(r.getIndexId()).scan(r.getFrom(), r.getTo(), 
+                    r.getLookupKey(), r.getPageSize()));
         }
     }
     
@@ -263,4 +566,58 @@ public class LSMDBWorker extends LifeCycleThread {
             }
         }
     }
-}
\ No newline at end of file
+    
+    /**
+     * Distributes the result of a coalesced insert transaction among the
+     * listeners of the original requests. The i-th operation of the
+     * transaction belongs to the i-th request.
+     */
+    private static final class CoalescedInsertListener extends BabuDBRequestResultImpl<Object> {
+        
+        private final List<LSMDBRequest<?>> requests;
+        
+        private final TransactionInternal   txn;
+        
+        CoalescedInsertListener(List<LSMDBRequest<?>> requests, TransactionInternal txn, 
+                ResponseManagerInternal respMan) {
+            super(respMan);
+            this.requests = new ArrayList<LSMDBRequest<?>>(requests);
+            this.txn = txn;
+        }
+        
+        /* (non-Javadoc)
+         * @see org.xtreemfs.babudb.BabuDBRequestResultImpl#finished(java.lang.Object, 
+         *          org.xtreemfs.babudb.lsmdb.LSN)
+         */
+        @SuppressWarnings("unchecked")
+        @Override
+        public void finished(Object result, LSN lsn) {
+            
+            Object[] results = (Object[]) result;
+            for (int i = 0; i < requests.size(); i++) {
+                BabuDBRequestResultImpl<Object> listener = 
+                    (BabuDBRequestResultImpl<Object>) requests.get(i).getListener();
+                
+                // operations cut off from the transaction have not been executed
+                if (i < results.length) {
+                    listener.finished(new Object[] { results[i] }, lsn);
+                } else {
+                    BabuDBException irregs = txn.getIrregularities();
+                    listener.failed(irregs != null ? irregs : new BabuDBException(
+                            ErrorCode.INTERNAL_ERROR, "insert was not executed"));
+                }
+            }
+        }
+        
+        /* (non-Javadoc)
+         * @see org.xtreemfs.babudb.BabuDBRequestResultImpl#failed(
+         *          org.xtreemfs.babudb.api.exception.BabuDBException)
+         */
+        @Override
+        public void failed(BabuDBException error) {
+            for (LSMDBRequest<?> r : requests) {
+                r.getListener().failed(error);
+            }
+        }
+    }
+}
@@ -21,6 +21,7 @@ import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
 import org.xtreemfs.babudb.api.index.ByteRangeComparator;
 import org.xtreemfs.babudb.index.LSMTree;
+import org.xtreemfs.babudb.index.writer.IOThrottle;
 import org.xtreemfs.babudb.snapshots.SnapshotConfig;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.logging.Logging.Category;
@@ -70,6 +71,12 @@ public class LSMDatabase {
      */
     private LSN                         ondiskLSN;
     
+    /**
+     * the LSNs of the on-disk trees of all indices, which may differ from each
+     * other if a checkpoint was interrupted
+     */
+    private final LSN[]                 indexLSNs;
+    
     private final int                   numIndices;
     
     private final ByteRangeComparator[] comparators;
@@ -100,6 +107,27 @@ public class LSMDatabase {
      */
     private final int                   mmapLimit;
     
+    /**
+     * the number of background operations, like checkpoints, that currently
+     * access the database's on-disk data
+     */
+    private int                         references;
+    
+    /**
+     * indicates that the database has been deleted
+     */
+    private boolean                     deleted;
+    
+    /**
+     * indicates that the deletion of the database's directory has started
+     */
+    private boolean                     deleting;
+    
+    /**
+     * indicates that the database's directory has been deleted
+     */
+    private boolean                     directoryDeleted;
+    
     /**
      * Creates a new database and loads data from disk if requested.
      * 
@@ -143,6 +171,7 @@ public class LSMDatabase {
         
         this.databaseName = databaseName;
         this.trees = new ArrayList<LSMTree>(numIndices);
+        this.indexLSNs = new LSN[numIndices];
         this.comparators = comparators;
         this.compression = compression;
         this.maxEntriesPerBlock = maxEntriesPerBlock;
@@ -158,6 +187,7 @@ public class LSMDatabase {
                     assert (comparators[i] != null);
                     trees.add(new LSMTree(null, comparators[i], this.compression, maxEntriesPerBlock,
                         maxBlockFileSize, !disableMMap, mmapLimit));
+                    indexLSNs[i] = NO_DB_LSN;
                 }
                 ondiskLSN = NO_DB_LSN;
             } catch (IOException ex) {
@@ -233,9 +263,9 @@ public class LSMDatabase {
                     trees.set(index, new LSMTree(databaseDir + File.separator
                         + getSnapshotFilename(index, maxView, maxSeq), comparators[index], this.compression,
                         this.maxEntriesPerBlock, this.maxBlockFileSize, !this.disableMMap, this.mmapLimit));
-                    ondiskLSN = new LSN(maxView, maxSeq);
+                    updateOndiskLSN(index, new LSN(maxView, maxSeq));
                 } else {
-                    ondiskLSN = NO_DB_LSN;
+                    updateOndiskLSN(index, NO_DB_LSN);
                     Logging.logMessage(Logging.LEVEL_DEBUG, Category.babudb, this, "no snapshot for database "
                         + this.databaseName);
                     assert (comparators[index] != null);
@@ -249,6 +279,20 @@ public class LSMDatabase {
         }
     }
     
+    /**
+     * Indices may be checkpointed independently of each other, so that some of
+     * them may already have been written at a newer LSN if a checkpoint was
+     * interrupted. The database has received all updates up to the oldest
+     * on-disk index. Later updates are replayed from there, but skipped for
+     * indices that already contain them (see {@link #getOndiskLSN(int)}), as
+     * replaying them is not idempotent for merges.
+     */
+    private void updateOndiskLSN(int index, LSN indexLSN) {
+        indexLSNs[index] = indexLSN;
+        if (ondiskLSN == null || indexLSN.compareTo(ondiskLSN) < 0)
+            ondiskLSN = indexLSN;
+    }
+    
     /**
      * Returns the LSMTree for indexId
      * 
@@ -270,6 +314,108 @@ public class LSMDatabase {
         return trees.size();
     }
     
+    /**
+     * Returns an estimate of the memory held by the in-memory overlays of all
+     * indices.
+     * 
+     * @return the estimated overlay size in bytes
+     */
+    public long getOverlaySize() {
+        long size = 0;
+        for (LSMTree tree : trees)
+            size += tree.getOverlaySize();
+        return size;
+    }
+    
+    /**
+     * Registers a background operation that accesses the database's on-disk
+     * data. The database's directory will not be deleted before the operation
+     * has called {@link #release()}.
+     * 
+     * @return <code>true</code>, if the operation may proceed,
+     *         <code>false</code>, if the database has been deleted
+     */
+    public synchronized boolean acquire() {
+        if (deleted)
+            return false;
+        references++;
+        return true;
+    }
+    
+    /**
+     * Unregisters a background operation registered with {@link #acquire()}.
+     * If the database has been deleted meanwhile and this was the last
+     * operation, the database's directory will be deleted.
+     */
+    public void release() {
+        synchronized (this) {
+            assert (references > 0);
+            if (--references > 0)
+                return;
+        }
+        deleteDirectory();
+    }
+    
+    /**
+     * Marks the database as deleted. Background operations that have not yet
+     * been registered will no longer be admitted by {@link #acquire()}.
+     */
+    public synchronized void markDeleted() {
+        deleted = true;
+    }
+    
+    /**
+     * Deletes the database's directory, if the database has been marked as
+     * deleted and no background operation accesses its on-disk data anymore.
+     * Otherwise, the directory will be deleted as soon as the last operation
+     * has called {@link #release()}.
+     */
+    public void deleteDirectory() {
+        synchronized (this) {
+            if (!deleted || references > 0 || deleting)
+                return;
+            deleting = true;
+        }
+        
+        File dbDir = new File(databaseDir);
+        if (dbDir.exists())
+            FSUtils.delTree(dbDir);
+        
+        synchronized (this) {
+            directoryDeleted = true;
+            notifyAll();
+        }
+    }
+    
+    /**
+     * Checks whether the directory of a deleted database has been deleted.
+     * 
+     * @return <code>true</code>, if the directory has been deleted
+     */
+    public synchronized boolean isDirectoryDeleted() {
+        return directoryDeleted;
+    }
+    
+    /**
+     * Waits until the directory of a deleted database has been deleted.
+     * 
+     * @param timeout
+     *            the maximum time to wait in milliseconds
+     * @return <code>true</code>, if the directory has been deleted,
+     *         <code>false</code> if the timeout has elapsed before
+     * @throws InterruptedException
+     */
+    public synchronized boolean awaitDeletion(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (!directoryDeleted) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0)
+                return false;
+            wait(remaining);
+        }
+        return true;
+    }
+    
     /**
      * Get the LSN of the current on-disk snapshot (i.e. all writes with LSN <=
      * the on-disk LSN are in the snapshot on disk).
@@ -280,6 +426,18 @@ public class LSMDatabase {
         return ondiskLSN;
     }
     
+    /**
+     * Get the LSN of the current on-disk snapshot of a single index. Updates
+     * with an LSN <= the returned LSN must not be replayed to the index.
+     * 
+     * @param indexId
+     *            the id of the index
+     * @return the LSN of the index' on-disk snapshot
+     */
+    public LSN getOndiskLSN(int indexId) {
+        return indexLSNs[indexId];
+    }
+    
     /**
      * Creates a snapshot of all indices.
      * 
@@ -321,42 +479,118 @@ public class LSMDatabase {
      *             if a snapshot cannot be written to disk
      */
     public void writeSnapshot(int viewId, long sequenceNo, int[] snapIds) throws IOException {
+        writeSnapshot(viewId, sequenceNo, snapIds, null);
+    }
+    
+    /**
+     * Writes the snapshots to disk, at the rate permitted by the given
+     * throttle.
+     * 
+     * @param viewId
+     *            current viewId (i.e. of the last write)
+     * @param sequenceNo
+     *            current sequenceNo (i.e. of the last write)
+     * @param snapIds
+     *            the snapshot Ids (obtained via createSnapshot).
+     * @param throttle
+     *            the throttle, or <code>null</code> if the snapshots are
+     *            written at full speed
+     * @throws java.io.IOException
+     *             if a snapshot cannot be written to disk
+     */
+    public void writeSnapshot(int viewId, long sequenceNo, int[] snapIds, IOThrottle throttle)
+        throws IOException {
         
         Logging.logMessage(Logging.LEVEL_INFO, Category.babudb, this,
                 "writing snapshot, database = " + databaseName + "...");
         for (int index = 0; index < trees.size(); index++) {
-            
-            final LSMTree tree = trees.get(index);
-            
-            if (Logging.isInfo())
-                Logging.logMessage(Logging.LEVEL_INFO, Category.babudb, this,
-                        "snapshotting index " + index + "(dbName = " + databaseName + ")...");
-            
-            File tmpDir = new File(databaseDir, ".currentSnapshot");
-            File targetDir = new File(databaseDir, getSnapshotFilename(index, viewId, sequenceNo));
-            
-            if (targetDir.exists()) {
-                Logging.logMessage(Logging.LEVEL_DEBUG, Category.babudb, this,
-                        "skipping index'" + index + ", as a valid checkpoint (" + targetDir + ") exists already");
-                continue;
-            }
-            
-            // clean up incomplete old checkpoints if necessary
-            if (tmpDir.exists())
-                FSUtils.delTree(tmpDir);
-            
-            tree.materializeSnapshot(tmpDir.getAbsolutePath(), snapIds[index]);
-            
-            if (!tmpDir.renameTo(targetDir))
-                throw new IOException("could not rename '" + tmpDir + "' to " + targetDir);
+            writeSnapshot(index, viewId, sequenceNo, snapIds[index], throttle);
+        }
+        if (Logging.isInfo())
+            Logging.logMessage(Logging.LEVEL_INFO, Category.babudb, this,
+                    "snapshot written, database = " + databaseName);
+    }
+    
+    /**
+     * Writes the snapshot of a single index to disk. Snapshots of different
+     * indices may be written concurrently.
+     * 
+     * @param index
+     *            the index
+     * @param viewId
+     *            current viewId (i.e. of the last write)
+     * @param sequenceNo
+     *            current sequenceNo (i.e. of the last write)
+     * @param snapId
+     *            the snapshot Id of the index (obtained via createSnapshot).
+     * @throws java.io.IOException
+     *             if the snapshot cannot be written to disk
+     */
+    public void writeSnapshot(int index, int viewId, long sequenceNo, int snapId) throws IOException {
+        writeSnapshot(index, viewId, sequenceNo, snapId, null);
+    }
+    
+    /**
+     * Writes the snapshot of a single index to disk, at the rate permitted by
+     * the given throttle.
+     * 
+     * @param index
+     *            the index
+     * @param viewId
+     *            current viewId (i.e. of the last write)
+     * @param sequenceNo
+     *            current sequenceNo (i.e. of the last write)
+     * @param snapId
+     *            the snapshot Id of the index (obtained via createSnapshot).
+     * @param throttle
+     *            the throttle, or <code>null</code> if the snapshot is written
+     *            at full speed
+     * @throws java.io.IOException
+     *             if the snapshot cannot be written to disk
+     */
+    public void writeSnapshot(int index, int viewId, long sequenceNo, int snapId, IOThrottle throttle)
+        throws IOException {
+        
+        final LSMTree tree = trees.get(index);
+        
+        if (Logging.isInfo())
+            Logging.logMessage(Logging.LEVEL_INFO, Category.babudb, this,
+                    "snapshotting index " + index + "(dbName = " + databaseName + ")...");
+        
+        File tmpDir = new File(databaseDir, ".currentSnapshot" + index);
+        File targetDir = new File(databaseDir, getSnapshotFilename(index, viewId, sequenceNo));
+        
+        if (targetDir.exists()) {
+            Logging.logMessage(Logging.LEVEL_DEBUG, Category.babudb, this,
+                    "skipping index'" + index + ", as a valid checkpoint (" + targetDir + ") exists already");
+            return;
+        }
+        
+        // an index that has not been modified since its last checkpoint is
+        // carried forward by renaming its current on-disk index; the tree
+        // keeps on reading the open files until it is linked to the new name
+        String indexFile = tree.getIndexFile();
+        if (!tree.isModified(snapId) && indexFile != null && new File(indexFile).renameTo(targetDir)) {
             
             if (Logging.isInfo())
                 Logging.logMessage(Logging.LEVEL_INFO, Category.babudb, this,
-                        "... done (index = " + index + ", dbName = " + databaseName + ")");
+                        "... carried forward unmodified index (index = " + index + ", dbName = " + databaseName
+                                + ")");
+            return;
         }
+        
+        // clean up incomplete old checkpoints if necessary
+        if (tmpDir.exists())
+            FSUtils.delTree(tmpDir);
+        
+        tree.materializeSnapshot(tmpDir.getAbsolutePath(), snapId, throttle);
+        
+        if (!tmpDir.renameTo(targetDir))
+            throw new IOException("could not rename '" + tmpDir + "' to " + targetDir);
+        
         if (Logging.isInfo())
             Logging.logMessage(Logging.LEVEL_INFO, Category.babudb, this,
-                    "snapshot written, database = " + databaseName);
+                    "... done (index = " + index + ", dbName = " + databaseName + ")");
     }
     
     public void writeSnapshot(String directory, int[] snapIds, int viewId, long sequenceNumber)
@@ -369,7 +603,78 @@ public class LSMDatabase {
         }
     }
     
+    /**
+     * Writes the snapshots of all indices to a directory, like
+     * {@link #writeSnapshot(String, int[], int, long)}. Indices that have not
+     * been modified since their latest checkpoint are not rewritten; instead,
+     * their immutable on-disk index files are hard-linked into the directory.
+     * 
+     * @param directory
+     *            the target directory
+     * @param snapIds
+     *            the snapshot IDs of all indices
+     * @param viewId
+     *            the viewId of the snapshot
+     * @param sequenceNumber
+     *            the sequenceNo of the snapshot
+     * @return the number of indices that have been linked
+     * @throws IOException
+     *             if a snapshot cannot be written to disk
+     */
+    public int linkSnapshot(String directory, int[] snapIds, int viewId, long sequenceNumber) throws IOException {
+        
+        int linked = 0;
+        for (int index = 0; index < trees.size(); index++) {
+            final LSMTree tree = trees.get(index);
+            final File targetDir = new File(directory, getSnapshotFilename(index, viewId, sequenceNumber));
+            
+            // the on-disk index may be replaced by a concurrent checkpoint;
+            // the index is written in this case
+            String indexFile = tree.getUnmodifiedIndexFile(snapIds[index]);
+            if (indexFile != null) {
+                try {
+                    if (!FileLinker.linkDirectory(new File(indexFile), targetDir))
+                        Logging.logMessage(Logging.LEVEL_INFO, Category.babudb, this,
+                                "could not link index %d of database %s, copied it instead", index, databaseName);
+                    linked++;
+                    continue;
+                } catch (IOException exc) {
+                    Logging.logMessage(Logging.LEVEL_DEBUG, Category.babudb, this,
+                            "could not link index %d of database %s: %s", index, databaseName, exc);
+                    if (targetDir.exists())
+                        FSUtils.delTree(targetDir);
+                }
+            }
+            
+            tree.materializeSnapshot(targetDir.getAbsolutePath(), snapIds[index]);
+        }
+        
+        return linked;
+    }
+    
     public void writeSnapshot(String directory, int[] snapIds, SnapshotConfig cfg) throws IOException {
+        writeSnapshot(directory, snapIds, cfg, null);
+    }
+    
+    /**
+     * Writes the snapshots of the indices selected by the given snapshot
+     * configuration to a directory, at the rate permitted by the given
+     * throttle.
+     * 
+     * @param directory
+     *            the target directory
+     * @param snapIds
+     *            the snapshot IDs of the selected indices
+     * @param cfg
+     *            the snapshot configuration
+     * @param throttle
+     *            the throttle, or <code>null</code> if the snapshots are
+     *            written at full speed
+     * @throws IOException
+     *             if the snapshots cannot be written to disk
+     */
+    public void writeSnapshot(String directory, int[] snapIds, SnapshotConfig cfg, IOThrottle throttle)
+        throws IOException {
         
         for (int i = 0; i < cfg.getIndices().length; i++) {
             
@@ -382,7 +687,7 @@ public class LSMDatabase {
             if (!dir.exists() && !dir.mkdirs())
                 throw new IOException("Directory doesnt exist and cannot be created:'" + directory + "'");
             
-            tree.materializeSnapshot(newFileName, snapIds[i], index, cfg);
+            tree.materializeSnapshot(newFileName, snapIds[i], index, cfg, throttle);
         }
     }
     
@@ -425,6 +730,7 @@ public class LSMDatabase {
             Logging.logMessage(Logging.LEVEL_INFO, Category.babudb, this, "...done");
             
             ondiskLSN = new LSN(viewId, sequenceNo);
+            indexLSNs[index] = ondiskLSN;
             
             File f = new File(databaseDir);
             String[] files = f.list();
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2008 - 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.babudb.sandbox;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xtreemfs.babudb.BabuDBFactory;
+import org.xtreemfs.babudb.api.BabuDB;
+import org.xtreemfs.babudb.api.database.Database;
+import org.xtreemfs.babudb.config.ConfigBuilder;
+import org.xtreemfs.babudb.log.DiskLogger.SyncMode;
+import org.xtreemfs.babudb.sandbox.CLIParser.CliOption;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.util.FSUtils;
+
+/**
+ * Measures the throughput of a large number of concurrent callers that block
+ * on the results of their inserts and lookups. Callers are started as virtual
+ * threads if supported by the JVM, and as platform threads with small stacks
+ * otherwise.
+ *
+ * @author stender
+ */
+public class ConcurrentCallersBenchmark {
+
+    private static final Method START_VIRTUAL_THREAD;
+
+    static {
+
+        Method startVirtualThread = null;
+        try {
+            startVirtualThread = Thread.class.getMethod("startVirtualThread", Runnable.class);
+        } catch (Throwable exc) {
+            // not available before Java 21
+        }
+        START_VIRTUAL_THREAD = startVirtualThread;
+    }
+
+    private final BabuDB   database;
+
+    private final Database db;
+
+    private final int      numCallers;
+
+    private final int      numOps;
+
+    private final byte[]   payload;
+
+    private final boolean  virtualCallers;
+
+    public ConcurrentCallersBenchmark(String dbDir, SyncMode syncMode, int numWorkers, int readThreads,
+        boolean virtualThreads, int numCallers, int numOps, int valueLength) throws Exception {
+
+        this.numCallers = numCallers;
+        this.numOps = numOps;
+        this.virtualCallers = virtualThreads && START_VIRTUAL_THREAD != null;
+
+        payload = new byte[valueLength];
+        for (int i = 0; i < valueLength; i++)
+            payload[i] = 'v';
+
+        FSUtils.delTree(new File(dbDir));
+
+        database = BabuDBFactory.createBabuDB(new ConfigBuilder().setDataPath(dbDir).setLogAppendSyncMode(
+            syncMode).setMultiThreaded(numWorkers).setConcurrentReads(readThreads).setVirtualThreads(
+            virtualThreads).build());
+        db = database.getDatabaseManager().createDatabase("test", 1);
+
+        System.out.println("ConcurrentCallersBenchmark ===============================\n");
+        System.out.println("Configuration ----------------------------------");
+        System.out.println("database directory:       " + dbDir);
+        System.out.println("sync mode:                " + syncMode.name());
+        System.out.println("# BabuDB workers:         " + numWorkers);
+        System.out.println("# read threads:           " + readThreads);
+        System.out.println("# callers:                " + numCallers);
+        System.out.println("caller threads:           " + (virtualCallers ? "virtual" : "platform"));
+        System.out.println("ops/caller:               " + numOps);
+        System.out.println("value size:               " + valueLength);
+        System.out.println("");
+        System.out.println("Executing benchmark...\n");
+    }
+
+    /**
+     * Lets all callers insert and look up their own keys, waiting for the
+     * result of each request before issuing the next one.
+     *
+     * @param lookup
+     *            if <code>true</code>, the callers look up their keys,
+     *            otherwise they insert them
+     * @return the total throughput in requests/s
+     */
+    public double run(final boolean lookup) throws Exception {
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(numCallers);
+        final AtomicLong failed = new AtomicLong();
+
+        for (int i = 0; i < numCallers; i++) {
+
+            final int caller = i;
+            Runnable r = new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < numOps; j++) {
+                            byte[] key = (caller + "." + j).getBytes();
+                            if (lookup) {
+                                if (db.lookup(0, key, null).get() == null)
+                                    failed.incrementAndGet();
+                            } else
+                                db.singleInsert(0, key, payload, null).get();
+                        }
+                    } catch (Exception exc) {
+                        failed.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            };
+
+            if (virtualCallers)
+                START_VIRTUAL_THREAD.invoke(null, r);
+            else {
+                Thread t = new Thread(null, r, "Caller#" + i, 64 * 1024);
+                t.setDaemon(true);
+                t.start();
+            }
+        }
+
+        long tStart = System.currentTimeMillis();
+        start.countDown();
+        done.await();
+        long tEnd = System.currentTimeMillis();
+
+        if (failed.get() > 0)
+            System.out.println(failed.get() + " requests failed");
+
+        return (double) numCallers * numOps / ((tEnd - tStart) / 1000.0);
+    }
+
+    public void shutdown() throws Exception {
+        database.shutdown();
+    }
+
+    public static void usage() {
+        System.out.println("ConcurrentCallersBenchmark <options> <numOpsPerCaller>");
+        System.out.println("  " + "<numOpsPerCaller> number of keys inserted/looked-up by");
+        System.out.println("  " + "each caller");
+        System.out.println("  "
+            + "-path directory in which to store the database, default is /tmp/babudb_benchmark");
+        System.out.println("  " + "-sync synchronization mode, default is ASYNC");
+        System.out.println("  " + "-workers number of database worker threads, default is 1");
+        System.out.println("  " + "-readers number of lookup threads, default is 0 (caller thread)");
+        System.out.println("  " + "-virtual use virtual threads for callers and lookups, if supported");
+        System.out.println("  " + "-callers number of concurrent callers, default is 10000");
+        System.out.println("  " + "-payload size of values, default is 50 bytes");
+    }
+
+    public static void main(String[] args) {
+        try {
+            Logging.start(Logging.LEVEL_WARN);
+
+            Map<String, CLIParser.CliOption> options = new HashMap<String, CliOption>();
+            options.put("path", new CLIParser.CliOption(CLIParser.CliOption.OPTIONTYPE.FILE, new File(
+                "/tmp/babudb_benchmark")));
+            options.put("sync", new CLIParser.CliOption(CLIParser.CliOption.OPTIONTYPE.STRING, SyncMode.ASYNC
+                    .name()));
+            options.put("workers", new CLIParser.CliOption(CLIParser.CliOption.OPTIONTYPE.NUMBER, 1));
+            options.put("readers", new CLIParser.CliOption(CLIParser.CliOption.OPTIONTYPE.NUMBER, 0));
+            options.put("virtual", new CLIParser.CliOption(CLIParser.CliOption.OPTIONTYPE.SWITCH, false));
+            options.put("callers", new CLIParser.CliOption(CLIParser.CliOption.OPTIONTYPE.NUMBER, 10000));
+            options.put("payload", new CLIParser.CliOption(CLIParser.CliOption.OPTIONTYPE.NUMBER, 50));
+            options.put("h", new CLIParser.CliOption(CLIParser.CliOption.OPTIONTYPE.SWITCH, false));
+
+            List<String> arguments = new ArrayList<String>(1);
+            CLIParser.parseCLI(args, options, arguments);
+
+            if ((arguments.size() != 1) || (options.get("h").switchValue)) {
+                usage();
+                System.exit(1);
+            }
+
+            int numOps = Integer.valueOf(arguments.get(0));
+
+            ConcurrentCallersBenchmark benchmark = new ConcurrentCallersBenchmark(options.get("path").fileValue
+                    .getAbsolutePath(), SyncMode.valueOf(options.get("sync").stringValue), options.get("workers").numValue
+                    .intValue(), options.get("readers").numValue.intValue(), options.get("virtual").switchValue,
+                options.get("callers").numValue.intValue(), numOps, options.get("payload").numValue.intValue());
+
+            double tpIns = benchmark.run(false);
+            double tpLookup = benchmark.run(true);
+
+            System.out.println("RESULTS -----------------------------------------\n");
+
+            System.out.format("total throughput for INSERT     : %12.4f requests/s\n", tpIns);
+            System.out.format("total throughput for LOOKUP     : %12.4f requests/s\n\n", tpLookup);
+
+            benchmark.shutdown();
+        } catch (Exception ex) {
+            System.out.println("FAILED!!!");
+            ex.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+}
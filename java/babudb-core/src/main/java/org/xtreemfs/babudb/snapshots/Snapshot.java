@@ -8,12 +8,15 @@
 package org.xtreemfs.babudb.snapshots;
 
 import org.xtreemfs.babudb.BabuDBRequestResultImpl;
+import org.xtreemfs.babudb.api.database.Aggregate;
 import org.xtreemfs.babudb.api.database.DatabaseRequestResult;
 import org.xtreemfs.babudb.api.database.DatabaseRO;
 import org.xtreemfs.babudb.api.database.ResultSet;
+import org.xtreemfs.babudb.api.database.ScanPage;
 import org.xtreemfs.babudb.api.database.UserDefinedLookup;
 import org.xtreemfs.babudb.api.dev.BabuDBInternal;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
+import org.xtreemfs.babudb.index.ValueProjectionIterator;
 
 public class Snapshot implements DatabaseRO {
         
@@ -61,6 +64,25 @@ public class Snapshot implements DatabaseRO {
         
         return result;
     }
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseRO#multiLookup(int, byte[][], java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<byte[][]> multiLookup(int indexId, byte[][] keys, Object context) {
+        BabuDBRequestResultImpl<byte[][]> result = 
+            new BabuDBRequestResultImpl<byte[][]>(context, dbs.getResponseManager());
+        byte[][] r = new byte[keys.length][];
+        try {
+            for (int i = 0; i < keys.length; i++)
+                r[i] = view.directLookup(indexId, keys[i]);
+            result.finished(r);
+        } catch (BabuDBException e) {
+            result.failed(e);
+        }
+        
+        return result;
+    }
 
     /* (non-Javadoc)
      * @see org.xtreemfs.babudb.lsmdb.DatabaseRO#prefixLookup(int, byte[], java.lang.Object)
@@ -120,6 +142,50 @@ public class Snapshot implements DatabaseRO {
         return result;
     }
 
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseRO#prefixLookup(int, byte[], boolean, int, 
+     *          java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<ResultSet<byte[], byte[]>> prefixLookup(int indexId, byte[] key,
+            boolean ascending, int maxValueLength, Object context) {
+        
+        BabuDBRequestResultImpl<ResultSet<byte[], byte[]>> result = 
+            new BabuDBRequestResultImpl<ResultSet<byte[], byte[]>>(context, 
+                    dbs.getResponseManager());
+        
+        try {
+            result.finished(ValueProjectionIterator.project(view.directPrefixLookup(indexId, key,
+                ascending), maxValueLength));
+        } catch (BabuDBException e) {
+            result.failed(e);
+        }
+        
+        return result;
+    }
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseRO#rangeLookup(int, byte[], byte[], boolean, 
+     *          int, java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<ResultSet<byte[], byte[]>> rangeLookup(int indexId, byte[] from,
+        byte[] to, boolean ascending, int maxValueLength, Object context) {
+        
+        BabuDBRequestResultImpl<ResultSet<byte[], byte[]>> result = 
+            new BabuDBRequestResultImpl<ResultSet<byte[], byte[]>>(context, 
+                    dbs.getResponseManager());
+        
+        try {
+            result.finished(ValueProjectionIterator.project(view.directRangeLookup(indexId, from, to,
+                ascending), maxValueLength));
+        } catch (BabuDBException e) {
+            result.failed(e);
+        }
+        
+        return result;
+    }
+    
     @Override
     public DatabaseRequestResult<ResultSet<byte[], byte[]>> reverseRangeLookup(int indexId, byte[] from,
         byte[] to, Object context) {
@@ -139,6 +205,145 @@ public class Snapshot implements DatabaseRO {
         return result;
     }
     
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseRO#count(int, byte[], byte[], 
+     *          java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<Long> count(int indexId, byte[] from, byte[] to, Object context) {
+        
+        BabuDBRequestResultImpl<Long> result = new BabuDBRequestResultImpl<Long>(context, 
+                dbs.getResponseManager());
+        
+        // snapshots may be restricted to parts of an index, which is why the
+        // entries have to be counted one by one
+        try {
+            ResultSet<byte[], byte[]> it = view.directRangeLookup(indexId, from, to, true);
+            long count = 0;
+            for (; it.hasNext(); it.next())
+                count++;
+            it.free();
+            result.finished(count);
+        } catch (BabuDBException e) {
+            result.failed(e);
+        }
+        
+        return result;
+    }
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseRO#prefixCount(int, byte[], 
+     *          java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<Long> prefixCount(int indexId, byte[] prefix, Object context) {
+        
+        BabuDBRequestResultImpl<Long> result = new BabuDBRequestResultImpl<Long>(context, 
+                dbs.getResponseManager());
+        
+        try {
+            ResultSet<byte[], byte[]> it = view.directPrefixLookup(indexId, prefix, true);
+            long count = 0;
+            for (; it.hasNext(); it.next())
+                count++;
+            it.free();
+            result.finished(count);
+        } catch (BabuDBException e) {
+            result.failed(e);
+        }
+        
+        return result;
+    }
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseRO#aggregate(int, byte[], byte[], 
+     *          java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<Aggregate> aggregate(int indexId, byte[] from, byte[] to, 
+            Object context) {
+        
+        BabuDBRequestResultImpl<Aggregate> result = new BabuDBRequestResultImpl<Aggregate>(
+                context, dbs.getResponseManager());
+        
+        try {
+            ResultSet<byte[], byte[]> it = view.directRangeLookup(indexId, from, to, true);
+            Aggregate aggregate = Aggregate.compute(it);
+            it.free();
+            result.finished(aggregate);
+        } catch (BabuDBException e) {
+            result.failed(e);
+        }
+        
+        return result;
+    }
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseRO#prefixAggregate(int, byte[], 
+     *          java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<Aggregate> prefixAggregate(int indexId, byte[] prefix, 
+            Object context) {
+        
+        BabuDBRequestResultImpl<Aggregate> result = new BabuDBRequestResultImpl<Aggregate>(
+                context, dbs.getResponseManager());
+        
+        try {
+            ResultSet<byte[], byte[]> it = view.directPrefixLookup(indexId, prefix, true);
+            Aggregate aggregate = Aggregate.compute(it);
+            it.free();
+            result.finished(aggregate);
+        } catch (BabuDBException e) {
+            result.failed(e);
+        }
+        
+        return result;
+    }
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseRO#scan(int, byte[], byte[], int, 
+     *          java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<ScanPage> scan(int indexId, byte[] from, byte[] to, 
+            int pageSize, Object context) {
+        return scan(indexId, from, to, null, pageSize, context);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseRO#resumeScan(int, byte[], int, 
+     *          java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<ScanPage> resumeScan(int indexId, byte[] continuationToken, 
+            int pageSize, Object context) {
+        byte[][] token = ScanPage.parseToken(continuationToken);
+        return scan(indexId, token[0], token[1], token[0], pageSize, context);
+    }
+    
+    private DatabaseRequestResult<ScanPage> scan(int indexId, byte[] from, byte[] to, 
+            byte[] lastKey, int pageSize, Object context) {
+        
+        if (pageSize <= 0)
+            throw new IllegalArgumentException("page size must be positive: " + pageSize);
+        
+        BabuDBRequestResultImpl<ScanPage> result = new BabuDBRequestResultImpl<ScanPage>(
+                context, dbs.getResponseManager());
+        
+        try {
+            ResultSet<byte[], byte[]> it = view.directRangeLookup(indexId, 
+                    from == null ? new byte[0] : from, to == null ? new byte[0] : to, true);
+            ScanPage page = ScanPage.read(it, lastKey, to, pageSize);
+            it.free();
+            result.finished(page);
+        } catch (BabuDBException e) {
+            result.failed(e);
+        }
+        
+        return result;
+    }
+    
     /*
      * (non-Javadoc)
      * @see org.xtreemfs.babudb.lsmdb.DatabaseRO#userDefinedLookup(org.xtreemfs.babudb.UserDefinedLookup, java.lang.Object)
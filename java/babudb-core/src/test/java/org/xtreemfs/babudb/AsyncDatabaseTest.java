@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2008 - 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.babudb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xtreemfs.babudb.api.BabuDB;
+import org.xtreemfs.babudb.api.database.AsyncDatabase;
+import org.xtreemfs.babudb.api.database.DatabaseRequestListener;
+import org.xtreemfs.babudb.api.database.DatabaseRequestResult;
+import org.xtreemfs.babudb.api.database.RequestFuture;
+import org.xtreemfs.babudb.api.database.ResultFlow;
+import org.xtreemfs.babudb.api.database.ResultFlow.Publisher;
+import org.xtreemfs.babudb.api.database.ResultFlow.Subscriber;
+import org.xtreemfs.babudb.api.database.ResultFlow.Subscription;
+import org.xtreemfs.babudb.api.database.ResultSet;
+import org.xtreemfs.babudb.api.dev.BabuDBInternal;
+import org.xtreemfs.babudb.api.exception.BabuDBException;
+import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
+import org.xtreemfs.babudb.config.ConfigBuilder;
+import org.xtreemfs.babudb.log.DiskLogger.SyncMode;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.util.FSUtils;
+
+public class AsyncDatabaseTest extends TestCase {
+
+    public static final String baseDir = "/tmp/lsmdb-test/";
+
+    private BabuDB             database;
+
+    private ExecutorService    executor;
+
+    public AsyncDatabaseTest() {
+        Logging.start(Logging.LEVEL_ERROR);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        FSUtils.delTree(new File(baseDir));
+
+        System.out.println("=== " + getName() + " ===");
+
+        database = BabuDBFactory.createBabuDB(new ConfigBuilder().setDataPath(baseDir).setLogAppendSyncMode(
+            SyncMode.ASYNC).setMultiThreaded(1).build());
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdown();
+        database.shutdown();
+    }
+
+    @Test
+    public void testRequestFutures() throws Exception {
+
+        for (int i = 0; i < 2; i++) {
+
+            final AsyncDatabase db = new AsyncDatabase(database.getDatabaseManager().createDatabase("test" + i,
+                2), i == 0 ? RequestFuture.INLINE : executor);
+
+            // chain an insert, a lookup and a transformation of the result
+            RequestFuture<String> future = db.singleInsert(0, "key".getBytes(), "value".getBytes(), null)
+                    .compose(new RequestFuture.Composition<Object, byte[]>() {
+                        public DatabaseRequestResult<byte[]> apply(Object result) throws BabuDBException {
+                            return db.lookup(0, "key".getBytes(), null);
+                        }
+                    }).transform(new RequestFuture.Transformation<byte[], String>() {
+                        public String apply(byte[] result) throws BabuDBException {
+                            return new String(result).toUpperCase();
+                        }
+                    });
+            assertEquals("VALUE", future.get(10, TimeUnit.SECONDS));
+            assertTrue(future.isDone());
+
+            // multiple listeners
+            final List<Object> results = Collections.synchronizedList(new ArrayList<Object>());
+            final CountDownLatch latch = new CountDownLatch(2);
+            RequestFuture<byte[]> lookup = db.lookup(0, "key".getBytes(), "ctx");
+            for (int j = 0; j < 2; j++) {
+                lookup.registerListener(new DatabaseRequestListener<byte[]>() {
+                    public void finished(byte[] result, Object context) {
+                        results.add(new String(result) + context);
+                        latch.countDown();
+                    }
+
+                    public void failed(BabuDBException error, Object context) {
+                        latch.countDown();
+                    }
+                });
+            }
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            assertEquals(2, results.size());
+            assertEquals("valuectx", results.get(0));
+
+            // errors are passed on along the chain
+            RequestFuture<String> failed = db.lookup(5, "key".getBytes(), null).transform(
+                new RequestFuture.Transformation<byte[], String>() {
+                    public String apply(byte[] result) throws BabuDBException {
+                        return new String(result);
+                    }
+                });
+            try {
+                failed.get();
+                fail();
+            } catch (BabuDBException exc) {
+                assertEquals(ErrorCode.NO_SUCH_INDEX, exc.getErrorCode());
+            }
+        }
+
+        // a future that is never completed
+        try {
+            new RequestFuture<Object>(executor).get(10, TimeUnit.MILLISECONDS);
+            fail();
+        } catch (TimeoutException exc) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testPublisher() throws Exception {
+
+        final AsyncDatabase db = new AsyncDatabase(database.getDatabaseManager().createDatabase("test", 1),
+            executor);
+        for (int i = 0; i < 100; i++)
+            db.singleInsert(0, String.format("%03d", i).getBytes(), "v".getBytes(), null);
+        db.singleInsert(0, "xyz".getBytes(), "v".getBytes(), null).get();
+
+        // consume all entries, requesting a few at a time
+        CollectingSubscriber all = new CollectingSubscriber(7, -1);
+        db.prefixLookup(0, new byte[0], null).subscribe(all);
+        assertTrue(all.done.await(10, TimeUnit.SECONDS));
+        assertNull(all.error);
+        assertTrue(all.completed);
+        assertEquals(101, all.keys.size());
+        assertEquals("000", all.keys.get(0));
+        assertEquals("xyz", all.keys.get(100));
+
+        // cancel after some entries
+        CollectingSubscriber some = new CollectingSubscriber(3, 10);
+        db.rangeLookup(0, "010".getBytes(), "050".getBytes(), null).subscribe(some);
+        assertTrue(some.done.await(10, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        assertEquals(10, some.keys.size());
+        assertEquals("010", some.keys.get(0));
+        assertFalse(some.completed);
+
+        // a publisher only accepts a single subscriber
+        Publisher<Entry<byte[], byte[]>> publisher = db.reversePrefixLookup(0, "0".getBytes(), null);
+        CollectingSubscriber first = new CollectingSubscriber(Long.MAX_VALUE, -1);
+        publisher.subscribe(first);
+        CollectingSubscriber second = new CollectingSubscriber(1, -1);
+        publisher.subscribe(second);
+        assertTrue(first.done.await(10, TimeUnit.SECONDS));
+        assertTrue(second.done.await(10, TimeUnit.SECONDS));
+        assertEquals(100, first.keys.size());
+        assertEquals("099", first.keys.get(0));
+        assertTrue(second.error instanceof IllegalStateException);
+
+        // failed lookups are reported as errors
+        CollectingSubscriber failed = new CollectingSubscriber(1, -1);
+        db.prefixLookup(3, new byte[0], null).subscribe(failed);
+        assertTrue(failed.done.await(10, TimeUnit.SECONDS));
+        assertTrue(failed.error instanceof BabuDBException);
+
+        // a non-positive request fails the subscription
+        CollectingSubscriber invalid = new CollectingSubscriber(0, -1);
+        db.prefixLookup(0, "0".getBytes(), null).subscribe(invalid);
+        assertTrue(invalid.done.await(10, TimeUnit.SECONDS));
+        assertTrue(invalid.error instanceof IllegalArgumentException);
+        assertTrue(invalid.keys.isEmpty());
+
+    }
+
+    @Test
+    public void testInvalidRequestBeforeFailedLookup() throws Exception {
+
+        // an executor that only runs the drain task when told to
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        Executor manual = new Executor() {
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        };
+
+        BabuDBRequestResultImpl<ResultSet<byte[], byte[]>> lookup =
+            new BabuDBRequestResultImpl<ResultSet<byte[], byte[]>>(((BabuDBInternal) database).getResponseManager());
+        CollectingSubscriber subscriber = new CollectingSubscriber(-1, -1) {
+            public void onSubscribe(Subscription subscription) {
+                this.subscription = subscription;
+            }
+        };
+        ResultFlow.publish(lookup, manual).subscribe(subscriber);
+        tasks.remove(0).run();
+        assertNotNull(subscriber.subscription);
+
+        // the error of the invalid request is retained, even though the
+        // lookup fails before the error has been signalled
+        subscriber.subscription.request(-1);
+        lookup.failed(new BabuDBException(ErrorCode.NO_SUCH_INDEX, "index does not exist"));
+        assertEquals(1, tasks.size());
+        tasks.remove(0).run();
+
+        assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+        assertEquals(1, subscriber.errors);
+        assertTrue(tasks.isEmpty());
+    }
+
+    private static class CollectingSubscriber implements Subscriber<Entry<byte[], byte[]>> {
+
+        final List<String>   keys = new ArrayList<String>();
+
+        final CountDownLatch done = new CountDownLatch(1);
+
+        final long           batchSize;
+
+        final int            cancelAfter;
+
+        Subscription         subscription;
+
+        long                 pending;
+
+        volatile boolean     completed;
+
+        volatile Throwable   error;
+
+        volatile int         errors;
+
+        CollectingSubscriber(long batchSize, int cancelAfter) {
+            this.batchSize = batchSize;
+            this.cancelAfter = cancelAfter;
+        }
+
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+            pending = batchSize;
+            subscription.request(batchSize);
+        }
+
+        public void onNext(Entry<byte[], byte[]> item) {
+            keys.add(new String(item.getKey()));
+            if (keys.size() == cancelAfter) {
+                subscription.cancel();
+                done.countDown();
+                return;
+            }
+            if (--pending == 0) {
+                pending = batchSize;
+                subscription.request(batchSize);
+            }
+        }
+
+        public void onError(Throwable throwable) {
+            error = throwable;
+            errors++;
+            done.countDown();
+        }
+
+        public void onComplete() {
+            completed = true;
+            done.countDown();
+        }
+    }
+
+    public static void main(String[] args) {
+        TestRunner.run(AsyncDatabaseTest.class);
+    }
+
+}
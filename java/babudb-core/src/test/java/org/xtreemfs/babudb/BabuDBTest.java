@@ -9,7 +9,13 @@
 package org.xtreemfs.babudb;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
+import java.util.Properties;
 import java.util.Map.Entry;
 
 import junit.framework.TestCase;
@@ -22,12 +28,24 @@ import org.xtreemfs.babudb.api.BabuDB;
 import org.xtreemfs.babudb.api.DatabaseManager;
 import org.xtreemfs.babudb.api.SnapshotManager;
 import org.xtreemfs.babudb.api.StaticInitialization;
+import org.xtreemfs.babudb.api.database.Aggregate;
 import org.xtreemfs.babudb.api.database.Database;
 import org.xtreemfs.babudb.api.database.DatabaseInsertGroup;
+import org.xtreemfs.babudb.api.database.ResultSet;
+import org.xtreemfs.babudb.api.database.ScanPage;
 import org.xtreemfs.babudb.api.database.UserDefinedLookup;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
+import org.xtreemfs.babudb.api.index.ByteRangeComparator;
 import org.xtreemfs.babudb.config.BabuDBConfig;
+import org.xtreemfs.babudb.config.ConfigBuilder;
+import org.xtreemfs.babudb.index.DefaultByteRangeComparator;
+import org.xtreemfs.babudb.index.ExpiringByteRangeComparator;
+import org.xtreemfs.babudb.index.LSMTreeTest.CounterComparator;
+import org.xtreemfs.babudb.index.reader.DiskIndex;
 import org.xtreemfs.babudb.log.DiskLogger.SyncMode;
+import org.xtreemfs.babudb.lsmdb.CheckpointPolicy;
+import org.xtreemfs.babudb.lsmdb.CheckpointState;
+import org.xtreemfs.babudb.lsmdb.DefaultCheckpointPolicy;
 import org.xtreemfs.babudb.lsmdb.LSMLookupInterface;
 import org.xtreemfs.foundation.buffer.BufferPool;
 import org.xtreemfs.foundation.logging.Logging;
@@ -293,6 +311,263 @@ public class BabuDBTest extends TestCase {
         database.shutdown();
     }
     
+    @Test
+    public void testParallelCheckpoint() throws Exception {
+        
+        BabuDBConfig cfg = new ConfigBuilder().setDataPath(baseDir).setLogAppendSyncMode(SyncMode.SYNC_WRITE)
+                .setCheckpointThreads(4).build();
+        database = BabuDBFactory.createBabuDB(cfg);
+        
+        final int numDBs = 3;
+        final int numIndices = 4;
+        for (int i = 0; i < numDBs; i++) {
+            Database db = database.getDatabaseManager().createDatabase("test" + i, numIndices);
+            DatabaseInsertGroup ir = db.createInsertGroup();
+            for (int j = 0; j < numIndices; j++) {
+                for (int k = 0; k < 100; k++) {
+                    ir.addInsert(j, ("Key" + k).getBytes(), ("Value" + i + "." + j + "." + k).getBytes());
+                }
+            }
+            db.insert(ir, null).get();
+        }
+        
+        database.getCheckpointer().checkpoint();
+        database.shutdown();
+        
+        // all index snapshots are complete, and the log has been truncated
+        for (int i = 0; i < numDBs; i++) {
+            File dbDir = new File(baseDir, "test" + i);
+            for (String name : dbDir.list()) {
+                assertFalse(name.startsWith(".currentSnapshot"));
+            }
+        }
+        
+        database = BabuDBFactory.createBabuDB(cfg);
+        for (int i = 0; i < numDBs; i++) {
+            Database db = database.getDatabaseManager().getDatabase("test" + i);
+            for (int j = 0; j < numIndices; j++) {
+                for (int k = 0; k < 100; k++) {
+                    byte[] result = db.lookup(j, ("Key" + k).getBytes(), null).get();
+                    assertEquals("Value" + i + "." + j + "." + k, new String(result));
+                }
+            }
+        }
+        
+        database.shutdown();
+    }
+    
+    @Test
+    public void testCheckpointPolicy() throws Exception {
+        
+        // soft limits are relaxed while the foreground load is high
+        CheckpointPolicy policy = new DefaultCheckpointPolicy(1000, 2000, 0, 0, 100);
+        assertNotNull(policy.checkpointReason(new CheckpointState(1001, 0, 0, 0, 0)));
+        assertNull(policy.checkpointReason(new CheckpointState(1000, 0, 0, 0, 0)));
+        assertNotNull(policy.checkpointReason(new CheckpointState(600, 200, 0, 0, 50)));
+        assertNull(policy.checkpointReason(new CheckpointState(600, 200, 0, 0, 500)));
+        
+        Properties props = new Properties();
+        props.setProperty("babudb.baseDir", baseDir);
+        props.setProperty("babudb.logDir", baseDir);
+        props.setProperty("babudb.sync", SyncMode.SYNC_WRITE.name());
+        props.setProperty("babudb.checkInterval", "1");
+        props.setProperty("babudb.maxLogfileSize", "16777216");
+        props.setProperty("babudb.maxCheckpointInterval", "1");
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(props));
+        
+        Database db = database.getDatabaseManager().createDatabase("test", 1);
+        DatabaseInsertGroup ir = db.createInsertGroup();
+        ir.addInsert(0, "Key1".getBytes(), "Value1".getBytes());
+        db.insert(ir, null).get();
+        
+        // the log is small, but the latest checkpoint is too old
+        for (int i = 0; i < 50 && (Integer) database.getRuntimeState("checkpointer.cpCount") == 0; i++)
+            Thread.sleep(100);
+        assertTrue((Integer) database.getRuntimeState("checkpointer.cpCount") > 0);
+        assertTrue(((String) database.getRuntimeState("checkpointer.lastCpReason")).startsWith("latest checkpoint"));
+        
+        database.getCheckpointer().checkpoint();
+        assertEquals("manual checkpoint", database.getRuntimeState("checkpointer.lastCpReason"));
+        
+        database.shutdown();
+    }
+    
+    @Test
+    public void testCheckpointUnmodifiedIndices() throws Exception {
+        
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0,
+            SyncMode.SYNC_WRITE, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        Database db = database.getDatabaseManager().createDatabase("test", 3);
+        
+        DatabaseInsertGroup ir = db.createInsertGroup();
+        ir.addInsert(0, "Key1".getBytes(), "Value1".getBytes());
+        ir.addInsert(1, "Key2".getBytes(), "Value2".getBytes());
+        ir.addInsert(2, "Key3".getBytes(), "Value3".getBytes());
+        db.insert(ir, null).get();
+        
+        database.getCheckpointer().checkpoint();
+        
+        // mark the on-disk indices, so that it can be checked whether they have
+        // been rewritten
+        final long marker = 1000000000000L;
+        File dbDir = new File(baseDir, "test");
+        for (String name : dbDir.list()) {
+            if (name.startsWith("IX"))
+                assertTrue(new File(new File(dbDir, name), "blockindex.idx").setLastModified(marker));
+        }
+        
+        ir = db.createInsertGroup();
+        ir.addInsert(0, "Key1".getBytes(), "Value1.1".getBytes());
+        db.insert(ir, null).get();
+        database.getCheckpointer().checkpoint();
+        
+        // only the modified index has been rewritten, the others have been
+        // carried forward to the new checkpoint
+        int numIndices = 0;
+        for (String name : dbDir.list()) {
+            if (name.startsWith("IX")) {
+                numIndices++;
+                long lastModified = new File(new File(dbDir, name), "blockindex.idx").lastModified();
+                assertEquals(name, !name.startsWith("IX0"), lastModified == marker);
+            }
+        }
+        assertEquals(3, numIndices);
+        
+        assertEquals("Value1.1", new String(db.lookup(0, "Key1".getBytes(), null).get()));
+        assertEquals("Value2", new String(db.lookup(1, "Key2".getBytes(), null).get()));
+        
+        database.shutdown();
+        
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0,
+            SyncMode.SYNC_WRITE, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        db = database.getDatabaseManager().getDatabase("test");
+        assertEquals("Value1.1", new String(db.lookup(0, "Key1".getBytes(), null).get()));
+        assertEquals("Value2", new String(db.lookup(1, "Key2".getBytes(), null).get()));
+        assertEquals("Value3", new String(db.lookup(2, "Key3".getBytes(), null).get()));
+        
+        database.shutdown();
+    }
+    
+    @Test
+    public void testCheckpointWithConcurrentDeletion() throws Exception {
+        
+        final BabuDBConfig cfg = new ConfigBuilder().setDataPath(baseDir).setLogAppendSyncMode(SyncMode.ASYNC)
+                .setCheckpointThreads(2).build();
+        database = BabuDBFactory.createBabuDB(cfg);
+        
+        final int numDBs = 10;
+        for (int i = 0; i < numDBs; i++) {
+            Database db = database.getDatabaseManager().createDatabase("test" + i, 2);
+            DatabaseInsertGroup ir = db.createInsertGroup();
+            for (int k = 0; k < 1000; k++) {
+                ir.addInsert(k % 2, ("Key" + k).getBytes(), ("Value" + i + "." + k).getBytes());
+            }
+            db.insert(ir, null).get();
+        }
+        
+        final Exception[] error = new Exception[1];
+        Thread checkpoint = new Thread() {
+            public void run() {
+                try {
+                    database.getCheckpointer().checkpoint();
+                } catch (Exception exc) {
+                    error[0] = exc;
+                }
+            }
+        };
+        checkpoint.start();
+        
+        // modify the set of databases while the checkpoint is running
+        for (int i = 0; i < numDBs; i += 2) {
+            database.getDatabaseManager().deleteDatabase("test" + i);
+            Database db = database.getDatabaseManager().createDatabase("test" + i, 1);
+            DatabaseInsertGroup ir = db.createInsertGroup();
+            ir.addInsert(0, "Key".getBytes(), ("New" + i).getBytes());
+            db.insert(ir, null).get();
+        }
+        
+        checkpoint.join();
+        assertNull(error[0]);
+        
+        database.getCheckpointer().checkpoint();
+        database.shutdown();
+        
+        database = BabuDBFactory.createBabuDB(cfg);
+        for (int i = 0; i < numDBs; i++) {
+            Database db = database.getDatabaseManager().getDatabase("test" + i);
+            if (i % 2 == 0) {
+                assertEquals(1, db.getComparators().length);
+                assertEquals("New" + i, new String(db.lookup(0, "Key".getBytes(), null).get()));
+                assertNull(db.lookup(0, "Key0".getBytes(), null).get());
+            } else {
+                for (int k = 0; k < 1000; k++) {
+                    byte[] result = db.lookup(k % 2, ("Key" + k).getBytes(), null).get();
+                    assertEquals("Value" + i + "." + k, new String(result));
+                }
+            }
+        }
+        
+        database.shutdown();
+    }
+    
+    @Test
+    public void testDeletionDuringSlowCheckpoint() throws Exception {
+        
+        // throttle the checkpoint, so that it is still writing the database
+        // when the database is deleted
+        final BabuDBConfig cfg = new ConfigBuilder().setDataPath(baseDir).setLogAppendSyncMode(SyncMode.ASYNC)
+                .setCheckpointIORate(64 * 1024).build();
+        database = BabuDBFactory.createBabuDB(cfg);
+        
+        Database db = database.getDatabaseManager().createDatabase("test", 1);
+        DatabaseInsertGroup ir = db.createInsertGroup();
+        for (int k = 0; k < 10000; k++) {
+            ir.addInsert(0, ("Key" + k).getBytes(), new byte[32]);
+        }
+        db.insert(ir, null).get();
+        
+        final Exception[] error = new Exception[1];
+        Thread checkpoint = new Thread() {
+            public void run() {
+                try {
+                    database.getCheckpointer().checkpoint();
+                } catch (Exception exc) {
+                    error[0] = exc;
+                }
+            }
+        };
+        checkpoint.start();
+        Thread.sleep(500);
+        
+        // deleting the database and modifying the set of databases must not
+        // wait for the checkpoint
+        database.getDatabaseManager().deleteDatabase("test");
+        database.getDatabaseManager().createDatabase("other", 1);
+        database.getDatabaseManager().deleteDatabase("other");
+        assertTrue(checkpoint.isAlive());
+        
+        // a database with the same name has to start from scratch
+        db = database.getDatabaseManager().createDatabase("test", 1);
+        assertNull(db.lookup(0, "Key0".getBytes(), null).get());
+        ir = db.createInsertGroup();
+        ir.addInsert(0, "Key".getBytes(), "New".getBytes());
+        db.insert(ir, null).get();
+        
+        checkpoint.join();
+        assertNull(error[0]);
+        
+        database.getCheckpointer().checkpoint();
+        database.shutdown();
+        
+        database = BabuDBFactory.createBabuDB(cfg);
+        db = database.getDatabaseManager().getDatabase("test");
+        assertEquals("New", new String(db.lookup(0, "Key".getBytes(), null).get()));
+        assertNull(db.lookup(0, "Key0".getBytes(), null).get());
+        assertFalse(database.getDatabaseManager().getDatabases().containsKey("other"));
+        
+        database.shutdown();
+    }
+    
     @Test
     public void testUserDefinedLookup() throws Exception {
         
@@ -327,6 +602,485 @@ public class BabuDBTest extends TestCase {
         
     }
     
+    @Test
+    public void testMultiLookup() throws Exception {
+        
+        // with a worker, and without workers
+        for (int numThreads = 1; numThreads >= 0; numThreads--) {
+            
+            FSUtils.delTree(new File(baseDir));
+            database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, numThreads, 0, 0,
+                SyncMode.ASYNC, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+            Database db = database.getDatabaseManager().createDatabase("test", 1);
+            
+            for (int i = 0; i < 1000; i += 2)
+                db.singleInsert(0, (i + "").getBytes(), ("v" + i).getBytes(), null);
+            database.getCheckpointer().checkpoint();
+            db.singleInsert(0, "1".getBytes(), "v1".getBytes(), null).get();
+            
+            byte[][] keys = new byte[][] { "998".getBytes(), "1".getBytes(), "3".getBytes(), "0".getBytes(),
+                "998".getBytes(), "500".getBytes() };
+            byte[][] values = db.multiLookup(0, keys, null).get();
+            
+            assertEquals(keys.length, values.length);
+            assertEquals("v998", new String(values[0]));
+            assertEquals("v1", new String(values[1]));
+            assertNull(values[2]);
+            assertEquals("v0", new String(values[3]));
+            assertEquals("v998", new String(values[4]));
+            assertEquals("v500", new String(values[5]));
+            
+            try {
+                db.multiLookup(1, keys, null).get();
+                fail();
+            } catch (BabuDBException exc) {
+                assertEquals(BabuDBException.ErrorCode.NO_SUCH_INDEX, exc.getErrorCode());
+            }
+            
+            database.shutdown();
+        }
+    }
+    
+    @Test
+    public void testProjectedLookups() throws Exception {
+        
+        // with a worker, and without workers
+        for (int numThreads = 1; numThreads >= 0; numThreads--) {
+            
+            FSUtils.delTree(new File(baseDir));
+            database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, numThreads, 0, 0,
+                SyncMode.ASYNC, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+            Database db = database.getDatabaseManager().createDatabase("test", 1);
+            
+            for (int i = 0; i < 100; i++)
+                db.singleInsert(0, String.format("k%02d", i).getBytes(), ("value" + i).getBytes(), null);
+            database.getCheckpointer().checkpoint();
+            db.singleInsert(0, "k05".getBytes(), "new".getBytes(), null).get();
+            
+            // keys only
+            ResultSet<byte[], byte[]> rs = db.prefixLookup(0, "k1".getBytes(), true, 0, null).get();
+            for (int i = 10; i < 20; i++) {
+                Entry<byte[], byte[]> next = rs.next();
+                assertEquals(String.format("k%02d", i), new String(next.getKey()));
+                assertNull(next.getValue());
+            }
+            assertFalse(rs.hasNext());
+            rs.free();
+            
+            // value prefixes
+            rs = db.rangeLookup(0, "k04".getBytes(), "k07".getBytes(), true, 3, null).get();
+            assertEquals("val", new String(rs.next().getValue()));
+            assertEquals("new", new String(rs.next().getValue()));
+            assertEquals("val", new String(rs.next().getValue()));
+            assertFalse(rs.hasNext());
+            rs.free();
+            
+            // descending, with complete values
+            rs = db.prefixLookup(0, "k9".getBytes(), false, -1, null).get();
+            assertEquals("value99", new String(rs.next().getValue()));
+            rs.free();
+            
+            database.shutdown();
+        }
+    }
+    
+    @Test
+    public void testCountAndAggregate() throws Exception {
+        
+        // with a worker, and without workers
+        for (int numThreads = 1; numThreads >= 0; numThreads--) {
+            
+            FSUtils.delTree(new File(baseDir));
+            database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, numThreads, 0, 0,
+                SyncMode.ASYNC, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+            Database db = database.getDatabaseManager().createDatabase("test", 1);
+            
+            for (int i = 0; i < 100; i++)
+                db.singleInsert(0, String.format("k%02d", i).getBytes(), "value".getBytes(), null);
+            database.getCheckpointer().checkpoint();
+            db.singleInsert(0, "k05".getBytes(), "new".getBytes(), null).get();
+            db.singleInsert(0, "k055".getBytes(), "new".getBytes(), null).get();
+            DatabaseInsertGroup ig = db.createInsertGroup();
+            ig.addDelete(0, "k06".getBytes());
+            db.insert(ig, null).get();
+            
+            assertEquals(100, db.count(0, new byte[0], new byte[0], null).get().longValue());
+            assertEquals(10, db.prefixCount(0, "k0".getBytes(), null).get().longValue());
+            assertEquals(3, db.count(0, "k04".getBytes(), "k07".getBytes(), null).get().longValue());
+            
+            Aggregate aggregate = db.prefixAggregate(0, "k0".getBytes(), null).get();
+            assertEquals(10, aggregate.getCount());
+            assertEquals(8 * 5 + 2 * 3, aggregate.getTotalValueLength());
+            assertEquals("k00", new String(aggregate.getMinKey()));
+            assertEquals("k09", new String(aggregate.getMaxKey()));
+            
+            aggregate = db.aggregate(0, "k95".getBytes(), "k99".getBytes(), null).get();
+            assertEquals(4, aggregate.getCount());
+            assertEquals("k95", new String(aggregate.getMinKey()));
+            assertEquals("k98", new String(aggregate.getMaxKey()));
+            
+            aggregate = db.aggregate(0, "x".getBytes(), "y".getBytes(), null).get();
+            assertEquals(0, aggregate.getCount());
+            assertNull(aggregate.getMinKey());
+            
+            try {
+                db.count(1, null, null, null).get();
+                fail();
+            } catch (BabuDBException exc) {
+                // expected
+            }
+            
+            database.shutdown();
+        }
+    }
+    
+    @Test
+    public void testReverseLookups() throws Exception {
+        
+        // with a worker, and without workers
+        for (int numThreads = 1; numThreads >= 0; numThreads--) {
+            
+            FSUtils.delTree(new File(baseDir));
+            database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, numThreads, 0, 0,
+                SyncMode.ASYNC, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+            Database db = database.getDatabaseManager().createDatabase("test", 1);
+            
+            DatabaseInsertGroup ig = db.createInsertGroup();
+            for (int i = 0; i < 10; i++)
+                ig.addInsert(0, ("k" + i).getBytes(), "value".getBytes());
+            db.insert(ig, null).get();
+            
+            ResultSet<byte[], byte[]> it = db.reversePrefixLookup(0, "k".getBytes(), null).get();
+            for (int i = 9; i >= 0; i--)
+                assertEquals("k" + i, new String(it.next().getKey()));
+            assertFalse(it.hasNext());
+            it.free();
+            
+            it = db.reverseRangeLookup(0, "k7".getBytes(), "k2".getBytes(), null).get();
+            for (int i = 7; i > 2; i--)
+                assertEquals("k" + i, new String(it.next().getKey()));
+            assertFalse(it.hasNext());
+            it.free();
+            
+            database.shutdown();
+        }
+    }
+    
+    @Test
+    public void testScan() throws Exception {
+        
+        // with a worker, and without workers
+        for (int numThreads = 1; numThreads >= 0; numThreads--) {
+            
+            FSUtils.delTree(new File(baseDir));
+            database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, numThreads, 0, 0,
+                SyncMode.ASYNC, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+            Database db = database.getDatabaseManager().createDatabase("test", 1);
+            
+            for (int i = 0; i < 100; i++)
+                db.singleInsert(0, String.format("k%02d", i).getBytes(), "value".getBytes(), null);
+            database.getCheckpointer().checkpoint();
+            
+            ScanPage page = db.scan(0, "k10".getBytes(), "k60".getBytes(), 20, null).get();
+            assertEquals(20, page.getEntries().size());
+            assertEquals("k10", new String(page.getEntries().get(0).getKey()));
+            assertTrue(page.hasMore());
+            
+            // entries inserted behind the current position show up on the
+            // next page
+            db.singleInsert(0, "k300".getBytes(), "value".getBytes(), null).get();
+            
+            page = db.resumeScan(0, page.getContinuationToken(), 20, null).get();
+            assertEquals(20, page.getEntries().size());
+            assertEquals("k30", new String(page.getEntries().get(0).getKey()));
+            assertEquals("k300", new String(page.getEntries().get(1).getKey()));
+            
+            page = db.resumeScan(0, page.getContinuationToken(), 20, null).get();
+            assertEquals(11, page.getEntries().size());
+            assertEquals("k59", new String(page.getEntries().get(10).getKey()));
+            assertFalse(page.hasMore());
+            
+            try {
+                db.resumeScan(0, "invalid".getBytes(), 20, null);
+                fail();
+            } catch (IllegalArgumentException exc) {
+                // expected
+            }
+            
+            // forged lengths are rejected before any memory is allocated
+            final byte version = 1;
+            byte[][] forged = {
+                ByteBuffer.allocate(9).put(version).putInt(Integer.MAX_VALUE).putInt(-1).array(),
+                ByteBuffer.allocate(9).put(version).putInt(0).putInt(Integer.MAX_VALUE).array() };
+            for (byte[] token : forged) {
+                try {
+                    db.resumeScan(0, token, 20, null);
+                    fail();
+                } catch (IllegalArgumentException exc) {
+                    // expected
+                }
+            }
+            
+            database.shutdown();
+        }
+    }
+    
+    @Test
+    public void testMerge() throws Exception {
+        
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0,
+            SyncMode.ASYNC, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        Database db = database.getDatabaseManager().createDatabase("test", 2,
+            new ByteRangeComparator[] { new CounterComparator(), DefaultByteRangeComparator.getInstance() });
+        
+        DatabaseInsertGroup ig = db.createInsertGroup();
+        ig.addMerge(0, "c1".getBytes(), CounterComparator.toBytes(1));
+        ig.addMerge(0, "c2".getBytes(), CounterComparator.toBytes(5));
+        ig.addInsert(1, "c1".getBytes(), "value".getBytes());
+        db.insert(ig, null).get();
+        
+        for (int i = 0; i < 10; i++) {
+            ig = db.createInsertGroup();
+            ig.addMerge(0, "c1".getBytes(), CounterComparator.toBytes(1));
+            db.insert(ig, null).get();
+        }
+        assertEquals(11, CounterComparator.toLong(db.lookup(0, "c1".getBytes(), null).get()));
+        assertEquals(5, CounterComparator.toLong(db.lookup(0, "c2".getBytes(), null).get()));
+        
+        database.getCheckpointer().checkpoint();
+        
+        ig = db.createInsertGroup();
+        ig.addMerge(0, "c1".getBytes(), CounterComparator.toBytes(1));
+        ig.addMerge(0, "c3".getBytes(), CounterComparator.toBytes(3));
+        db.insert(ig, null).get();
+        
+        ResultSet<byte[], byte[]> it = db.prefixLookup(0, "c".getBytes(), null).get();
+        assertEquals(12, CounterComparator.toLong(it.next().getValue()));
+        assertEquals(5, CounterComparator.toLong(it.next().getValue()));
+        assertEquals(3, CounterComparator.toLong(it.next().getValue()));
+        assertFalse(it.hasNext());
+        it.free();
+        
+        // a group with a merge into an index without a merge operator is
+        // rejected as a whole
+        ig = db.createInsertGroup();
+        ig.addMerge(0, "c2".getBytes(), CounterComparator.toBytes(1));
+        ig.addMerge(1, "c1".getBytes(), "value".getBytes());
+        try {
+            db.insert(ig, null).get();
+            fail();
+        } catch (BabuDBException exc) {
+            // expected
+        }
+        assertEquals(5, CounterComparator.toLong(db.lookup(0, "c2".getBytes(), null).get()));
+        
+        // the operands are replayed from the log
+        database.shutdown();
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0,
+            SyncMode.ASYNC, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        db = database.getDatabaseManager().getDatabase("test");
+        
+        assertEquals(12, CounterComparator.toLong(db.lookup(0, "c1".getBytes(), null).get()));
+        assertEquals(5, CounterComparator.toLong(db.lookup(0, "c2".getBytes(), null).get()));
+        assertEquals(3, CounterComparator.toLong(db.lookup(0, "c3".getBytes(), null).get()));
+        assertEquals("value", new String(db.lookup(1, "c1".getBytes(), null).get()));
+        
+        database.shutdown();
+    }
+    
+    @Test
+    public void testMergeReplayAfterInterruptedCheckpoint() throws Exception {
+        
+        final String backupDir = "/tmp/lsmdb-test-backup/";
+        final BabuDBConfig cfg = new BabuDBConfig(baseDir, baseDir, 1, 0, 0, SyncMode.SYNC_WRITE, 0, 0,
+            COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL);
+        
+        database = BabuDBFactory.createBabuDB(cfg);
+        Database db = database.getDatabaseManager().createDatabase("test", 2,
+            new ByteRangeComparator[] { new CounterComparator(), new CounterComparator() });
+        DatabaseInsertGroup ig = db.createInsertGroup();
+        ig.addMerge(0, "c".getBytes(), CounterComparator.toBytes(1));
+        ig.addMerge(1, "c".getBytes(), CounterComparator.toBytes(1));
+        db.insert(ig, null).get();
+        database.getCheckpointer().checkpoint();
+        
+        for (int i = 0; i < 10; i++) {
+            ig = db.createInsertGroup();
+            ig.addMerge(0, "c".getBytes(), CounterComparator.toBytes(1));
+            ig.addMerge(1, "c".getBytes(), CounterComparator.toBytes(1));
+            db.insert(ig, null).get();
+        }
+        database.shutdown();
+        
+        // keep the state before the next checkpoint, including the log
+        FSUtils.delTree(new File(backupDir));
+        copyTree(new File(baseDir), new File(backupDir));
+        
+        database = BabuDBFactory.createBabuDB(cfg);
+        database.getCheckpointer().checkpoint();
+        database.shutdown();
+        
+        // simulate a crash after the first index of the checkpoint has been
+        // written, but before the second one and before the log has been
+        // truncated
+        String[] newIndex = new File(baseDir, "test").list(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith("IX0V");
+            }
+        });
+        assertEquals(1, newIndex.length);
+        copyTree(new File(new File(baseDir, "test"), newIndex[0]), new File(new File(backupDir, "test"),
+            newIndex[0]));
+        FSUtils.delTree(new File(baseDir));
+        copyTree(new File(backupDir), new File(baseDir));
+        FSUtils.delTree(new File(backupDir));
+        
+        // the merges are replayed to the second index only
+        database = BabuDBFactory.createBabuDB(cfg);
+        db = database.getDatabaseManager().getDatabase("test");
+        assertEquals(11, CounterComparator.toLong(db.lookup(0, "c".getBytes(), null).get()));
+        assertEquals(11, CounterComparator.toLong(db.lookup(1, "c".getBytes(), null).get()));
+        
+        database.getCheckpointer().checkpoint();
+        database.shutdown();
+        
+        database = BabuDBFactory.createBabuDB(cfg);
+        db = database.getDatabaseManager().getDatabase("test");
+        assertEquals(11, CounterComparator.toLong(db.lookup(0, "c".getBytes(), null).get()));
+        assertEquals(11, CounterComparator.toLong(db.lookup(1, "c".getBytes(), null).get()));
+        database.shutdown();
+    }
+    
+    @Test
+    public void testDeleteRange() throws Exception {
+        
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0,
+            SyncMode.ASYNC, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        Database db = database.getDatabaseManager().createDatabase("test", 2);
+        
+        DatabaseInsertGroup ig = db.createInsertGroup();
+        for (int i = 0; i < 100; i++) {
+            ig.addInsert(0, String.format("t1.%03d", i).getBytes(), "v".getBytes());
+            ig.addInsert(0, String.format("t2.%03d", i).getBytes(), "v".getBytes());
+            ig.addInsert(1, String.format("t1.%03d", i).getBytes(), "v".getBytes());
+        }
+        db.insert(ig, null).get();
+        
+        database.getCheckpointer().checkpoint();
+        
+        ig = db.createInsertGroup();
+        ig.addInsert(0, "t1.500".getBytes(), "v".getBytes());
+        db.insert(ig, null).get();
+        
+        // drop all keys with prefix 't1.' from index 0
+        ig = db.createInsertGroup();
+        ig.addDeleteRange(0, "t1.".getBytes(), "t2.".getBytes());
+        db.insert(ig, null).get();
+        
+        assertNull(db.lookup(0, "t1.050".getBytes(), null).get());
+        assertNull(db.lookup(0, "t1.500".getBytes(), null).get());
+        assertNotNull(db.lookup(0, "t2.050".getBytes(), null).get());
+        assertNotNull(db.lookup(1, "t1.050".getBytes(), null).get());
+        
+        ResultSet<byte[], byte[]> it = db.prefixLookup(0, "t1.".getBytes(), null).get();
+        assertFalse(it.hasNext());
+        it.free();
+        assertEquals(100L, db.count(0, null, null, null).get().longValue());
+        
+        // the range deletion is replayed from the log
+        database.shutdown();
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0,
+            SyncMode.ASYNC, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        db = database.getDatabaseManager().getDatabase("test");
+        
+        assertNull(db.lookup(0, "t1.050".getBytes(), null).get());
+        assertNull(db.lookup(0, "t1.500".getBytes(), null).get());
+        assertEquals(100L, db.count(0, null, null, null).get().longValue());
+        
+        // ... and applied to the on-disk index by the next checkpoint
+        database.getCheckpointer().checkpoint();
+        assertNull(db.lookup(0, "t1.050".getBytes(), null).get());
+        assertEquals(100L, db.count(0, null, null, null).get().longValue());
+        assertEquals(100L, db.count(1, null, null, null).get().longValue());
+        
+        database.shutdown();
+    }
+    
+    @Test
+    public void testExpiration() throws Exception {
+        
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0,
+            SyncMode.ASYNC, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        Database db = database.getDatabaseManager().createDatabase("test", 1,
+            new ByteRangeComparator[] { new ExpiringByteRangeComparator() });
+        
+        long past = System.currentTimeMillis() - 1000;
+        long future = System.currentTimeMillis() + 3600 * 1000;
+        
+        DatabaseInsertGroup ig = db.createInsertGroup();
+        ig.addInsert(0, "session1".getBytes(), ExpiringByteRangeComparator.toValue(past, "a".getBytes()));
+        ig.addInsert(0, "session2".getBytes(), ExpiringByteRangeComparator.toValue(future, "b".getBytes()));
+        ig.addInsert(0, "session3".getBytes(), ExpiringByteRangeComparator.toValue(0, "c".getBytes()));
+        db.insert(ig, null).get();
+        
+        assertNull(db.lookup(0, "session1".getBytes(), null).get());
+        assertEquals("b", new String(ExpiringByteRangeComparator.getData(db.lookup(0, "session2".getBytes(),
+            null).get())));
+        assertEquals(2L, db.count(0, null, null, null).get().longValue());
+        
+        // expired entries are dropped by the checkpoint
+        database.getCheckpointer().checkpoint();
+        assertNull(db.lookup(0, "session1".getBytes(), null).get());
+        assertEquals(2L, db.count(0, null, null, null).get().longValue());
+        
+        database.shutdown();
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0,
+            SyncMode.ASYNC, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        db = database.getDatabaseManager().getDatabase("test");
+        
+        ResultSet<byte[], byte[]> it = db.prefixLookup(0, "session".getBytes(), null).get();
+        assertEquals("session2", new String(it.next().getKey()));
+        assertEquals("session3", new String(it.next().getKey()));
+        assertFalse(it.hasNext());
+        it.free();
+        
+        database.shutdown();
+    }
+    
+    @Test
+    public void testExpirationWithoutModifications() throws Exception {
+        
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0,
+            SyncMode.ASYNC, 0, 0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        Database db = database.getDatabaseManager().createDatabase("test", 1,
+            new ByteRangeComparator[] { new ExpiringByteRangeComparator() });
+        Database other = database.getDatabaseManager().createDatabase("other", 1);
+        
+        long expiration = System.currentTimeMillis() + 1000;
+        DatabaseInsertGroup ig = db.createInsertGroup();
+        for (int i = 0; i < 10; i++)
+            ig.addInsert(0, ("session" + i).getBytes(), ExpiringByteRangeComparator.toValue(i < 8 ? expiration
+                : 0, "a".getBytes()));
+        db.insert(ig, null).get();
+        
+        database.getCheckpointer().checkpoint();
+        assertEquals(10, getOnDiskKeyCount("test", 0));
+        
+        // an index without any further modifications is rewritten rather
+        // than carried forward once its entries have expired
+        Thread.sleep(1500);
+        other.singleInsert(0, "key".getBytes(), "value".getBytes(), null).get();
+        database.getCheckpointer().checkpoint();
+        assertEquals(2, getOnDiskKeyCount("test", 0));
+        assertEquals(2L, db.count(0, null, null, null).get().longValue());
+        
+        other.singleInsert(0, "key".getBytes(), "value2".getBytes(), null).get();
+        database.getCheckpointer().checkpoint();
+        assertEquals(2, getOnDiskKeyCount("test", 0));
+        
+        database.shutdown();
+    }
+    
     @Test
     public void testDirectAccess() throws Exception {
         
@@ -562,6 +1316,40 @@ public class BabuDBTest extends TestCase {
         database.shutdown();
     }
     
+    private static long getOnDiskKeyCount(String dbName, final int index) throws IOException {
+        
+        String[] files = new File(baseDir, dbName).list(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith("IX" + index + "V");
+            }
+        });
+        assertEquals(1, files.length);
+        
+        DiskIndex diskIndex = new DiskIndex(new File(new File(baseDir, dbName), files[0]).getAbsolutePath(),
+            DefaultByteRangeComparator.getInstance(), COMPRESSION, MMAP);
+        try {
+            return diskIndex.numKeys();
+        } finally {
+            diskIndex.destroy();
+        }
+    }
+    
+    private static void copyTree(File src, File dst) throws IOException {
+        if (src.isDirectory()) {
+            dst.mkdirs();
+            for (File f : src.listFiles())
+                copyTree(f, new File(dst, f.getName()));
+        } else {
+            FileInputStream in = new FileInputStream(src);
+            FileOutputStream out = new FileOutputStream(dst);
+            byte[] buf = new byte[8192];
+            for (int len; (len = in.read(buf)) != -1;)
+                out.write(buf, 0, len);
+            in.close();
+            out.close();
+        }
+    }
+    
     public static void main(String[] args) {
         TestRunner.run(BabuDBTest.class);
     }
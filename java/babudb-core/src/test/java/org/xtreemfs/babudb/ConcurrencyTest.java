@@ -10,8 +10,17 @@ package org.xtreemfs.babudb;
 
 import java.io.File;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import junit.framework.TestCase;
 import junit.textui.TestRunner;
@@ -20,10 +29,21 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.xtreemfs.babudb.api.BabuDB;
+import org.xtreemfs.babudb.api.DatabaseManager;
 import org.xtreemfs.babudb.api.database.Database;
+import org.xtreemfs.babudb.api.database.DatabaseInsertGroup;
+import org.xtreemfs.babudb.api.database.DatabaseRequestListener;
+import org.xtreemfs.babudb.api.database.DatabaseRequestResult;
+import org.xtreemfs.babudb.api.database.UserDefinedLookup;
+import org.xtreemfs.babudb.api.dev.BabuDBInternal;
+import org.xtreemfs.babudb.api.dev.ResponseManagerInternal;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
+import org.xtreemfs.babudb.api.transaction.Transaction;
 import org.xtreemfs.babudb.config.BabuDBConfig;
+import org.xtreemfs.babudb.config.ConfigBuilder;
 import org.xtreemfs.babudb.log.DiskLogger.SyncMode;
+import org.xtreemfs.babudb.lsmdb.LSMDBWorker;
+import org.xtreemfs.babudb.lsmdb.LSMLookupInterface;
 import org.xtreemfs.foundation.buffer.BufferPool;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.util.FSUtils;
@@ -182,6 +202,473 @@ public class ConcurrencyTest extends TestCase {
         database.shutdown();
     }
 
+    @Test
+    public void testBatchedWorkerQueue() throws Exception {
+        
+        // a single worker with a short queue, so that producers are throttled
+        final BabuDBConfig cfg = new BabuDBConfig(baseDir, baseDir, 1, 0, 0, SyncMode.SYNC_WRITE, 0, 8,
+            COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL);
+        database = BabuDBFactory.createBabuDB(cfg);
+        final Database db = database.getDatabaseManager().createDatabase("test", 2);
+        
+        final int numThreads = 4;
+        final int numInserts = 500;
+        final List<DatabaseRequestResult<Object>> results = Collections
+                .synchronizedList(new ArrayList<DatabaseRequestResult<Object>>());
+        
+        Thread[] producers = new Thread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            final int id = i;
+            producers[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < numInserts; j++) {
+                        byte[] key = (id + "." + j).getBytes();
+                        results.add(db.singleInsert(j % 2, key, key, null));
+                    }
+                }
+            };
+            producers[i].start();
+        }
+        
+        // an invalid insert must not affect the inserts it is queued with
+        DatabaseRequestResult<Object> invalid = db.singleInsert(2, "x".getBytes(), "x".getBytes(), null);
+        
+        for (Thread t : producers)
+            t.join();
+        
+        assertEquals(numThreads * numInserts, results.size());
+        for (DatabaseRequestResult<Object> result : results)
+            result.get();
+        
+        try {
+            invalid.get();
+            fail();
+        } catch (BabuDBException exc) {
+            assertEquals(BabuDBException.ErrorCode.NO_SUCH_INDEX, exc.getErrorCode());
+        }
+        
+        // block the worker, so that a burst of inserts is queued and
+        // coalesced into a single transaction
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        DatabaseRequestResult<Object> udl = db.userDefinedLookup(new UserDefinedLookup() {
+            public Object execute(LSMLookupInterface database) throws BabuDBException {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException exc) {
+                    throw new BabuDBException(BabuDBException.ErrorCode.INTERRUPTED, "interrupted", exc);
+                }
+                return null;
+            }
+        }, null);
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+        
+        long coalesced = (Long) database.getRuntimeState("worker.coalescedInserts");
+        final int burst = 7;
+        List<DatabaseRequestResult<Object>> burstResults = new ArrayList<DatabaseRequestResult<Object>>();
+        for (int j = 0; j < burst; j++) {
+            byte[] key = ("burst." + j).getBytes();
+            burstResults.add(db.singleInsert(0, key, key, null));
+        }
+        
+        // a lookup queued after the burst is processed as soon as the worker
+        // has completed the coalesced insert
+        DatabaseRequestResult<byte[]> lookup = db.lookup(0, "burst.0".getBytes(), null);
+        release.countDown();
+        udl.get();
+        assertEquals("burst.0", new String(lookup.get()));
+        
+        // each insert has received its own result
+        Set<Object> burstValues = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        for (DatabaseRequestResult<Object> result : burstResults) {
+            Object value = result.get();
+            assertTrue(value instanceof Object[]);
+            assertEquals(1, ((Object[]) value).length);
+            burstValues.add(value);
+        }
+        assertEquals(burst, burstValues.size());
+        assertEquals(coalesced + burst - 1, database.getRuntimeState("worker.coalescedInserts"));
+        
+        database.shutdown();
+        
+        // all inserts have been logged
+        database = BabuDBFactory.createBabuDB(cfg);
+        Database db2 = database.getDatabaseManager().getDatabase("test");
+        for (int i = 0; i < numThreads; i++) {
+            for (int j = 0; j < numInserts; j++) {
+                byte[] key = (i + "." + j).getBytes();
+                assertEquals(key, db2.lookup(j % 2, key, null).get());
+            }
+        }
+        database.shutdown();
+    }
+    
+    @Test
+    public void testConcurrentReads() throws Exception {
+        
+        // lookups in the context of the caller, and in a separate thread pool
+        for (int readThreads = 0; readThreads <= 3; readThreads += 3) {
+            
+            FSUtils.delTree(new File(baseDir));
+            BabuDBConfig cfg = new ConfigBuilder().setDataPath(baseDir).setLogAppendSyncMode(SyncMode.ASYNC)
+                    .setMultiThreaded(1).setConcurrentReads(readThreads).build();
+            database = BabuDBFactory.createBabuDB(cfg);
+            final Database db = database.getDatabaseManager().createDatabase("test", 2);
+            
+            final int numRecords = 1000;
+            for (int i = 0; i < numRecords; i++) {
+                byte[] key = String.format("%09d", i).getBytes();
+                db.singleInsert(0, key, key, null);
+            }
+            db.singleInsert(0, new byte[0], new byte[0], null).get();
+            
+            // insert into another index while reading
+            Thread writer = new Thread() {
+                public void run() {
+                    for (int i = 0; i < numRecords; i++) {
+                        byte[] key = String.format("%09d", i).getBytes();
+                        db.singleInsert(1, key, key, null);
+                    }
+                }
+            };
+            writer.start();
+            
+            final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+            Thread[] readers = new Thread[4];
+            for (int t = 0; t < readers.length; t++) {
+                readers[t] = new Thread() {
+                    public void run() {
+                        try {
+                            for (int i = 0; i < numRecords; i++) {
+                                byte[] key = String.format("%09d", i).getBytes();
+                                byte[] value = db.lookup(0, key, null).get();
+                                if (value == null || !new String(value).equals(new String(key)))
+                                    throw new AssertionError("wrong value for key " + new String(key));
+                            }
+                        } catch (Throwable exc) {
+                            errors.add(exc);
+                        }
+                    }
+                };
+                readers[t].start();
+            }
+            
+            for (Thread t : readers)
+                t.join();
+            writer.join();
+            assertTrue(errors.toString(), errors.isEmpty());
+            
+            Iterator<Entry<byte[], byte[]>> it = db.prefixLookup(0, "00000".getBytes(), null).get();
+            int count = 0;
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+            assertEquals(numRecords, count);
+            
+            try {
+                db.lookup(2, new byte[0], null).get();
+                fail();
+            } catch (BabuDBException exc) {
+                assertEquals(BabuDBException.ErrorCode.NO_SUCH_INDEX, exc.getErrorCode());
+            }
+            
+            database.shutdown();
+        }
+    }
+    
+    @Test
+    public void testManyBlockingCallers() throws Exception {
+        
+        // virtual threads fall back to a thread pool if not supported
+        BabuDBConfig cfg = new ConfigBuilder().setDataPath(baseDir).setLogAppendSyncMode(SyncMode.ASYNC)
+                .setMultiThreaded(2).setConcurrentReads(2).setVirtualThreads(true).build();
+        database = BabuDBFactory.createBabuDB(cfg);
+        final Database db = database.getDatabaseManager().createDatabase("test", 1);
+        
+        final int numCallers = 500;
+        final int numOps = 20;
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] callers = new Thread[numCallers];
+        for (int t = 0; t < numCallers; t++) {
+            final int caller = t;
+            callers[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < numOps; i++) {
+                            byte[] key = (caller + "." + i).getBytes();
+                            db.singleInsert(0, key, key, null).get();
+                            byte[] value = db.lookup(0, key, null).get();
+                            if (value == null || !new String(value).equals(new String(key)))
+                                throw new AssertionError("wrong value for key " + new String(key));
+                        }
+                    } catch (Throwable exc) {
+                        errors.add(exc);
+                    }
+                }
+            };
+            callers[t].start();
+        }
+        
+        for (Thread t : callers)
+            t.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+        
+        database.shutdown();
+        database = BabuDBFactory.createBabuDB(cfg);
+        Database db2 = database.getDatabaseManager().getDatabase("test");
+        for (int t = 0; t < numCallers; t += 50) {
+            byte[] key = (t + "." + (numOps - 1)).getBytes();
+            assertEquals(new String(key), new String(db2.lookup(0, key, null).get()));
+        }
+        
+        database.shutdown();
+    }
+    
+    @Test
+    public void testShardedInserts() throws Exception {
+        
+        BabuDBConfig cfg = new ConfigBuilder().setDataPath(baseDir).setLogAppendSyncMode(SyncMode.ASYNC)
+                .setMultiThreaded(4).setShards(4).build();
+        database = BabuDBFactory.createBabuDB(cfg);
+        final Database db = database.getDatabaseManager().createDatabase("test", 1);
+        
+        // concurrently overwrite a small set of keys with single inserts and
+        // with insert groups spanning multiple shards
+        final int numKeys = 8;
+        final int numInserts = 5000;
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] producers = new Thread[8];
+        for (int i = 0; i < producers.length; i++) {
+            final int id = i;
+            producers[i] = new Thread() {
+                public void run() {
+                    List<DatabaseRequestResult<Object>> results = new ArrayList<DatabaseRequestResult<Object>>();
+                    for (int j = 0; j < numInserts; j++) {
+                        DatabaseInsertGroup ig = db.createInsertGroup();
+                        byte[] value = (id + "." + j).getBytes();
+                        ig.addInsert(0, ("key" + (j % numKeys)).getBytes(), value);
+                        if (j % 2 == 0)
+                            ig.addInsert(0, ("key" + ((j + id) * 7 % numKeys)).getBytes(), value);
+                        results.add(db.insert(ig, null));
+                    }
+                    try {
+                        for (DatabaseRequestResult<Object> result : results)
+                            result.get();
+                    } catch (Throwable exc) {
+                        errors.add(exc);
+                    }
+                }
+            };
+            producers[i].start();
+        }
+        for (Thread t : producers)
+            t.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+        
+        // the inserts have been processed by the workers of all shards that
+        // hold the first key of an insert
+        long[] processed = (long[]) database.getRuntimeState("worker.processedInserts");
+        assertEquals(4, processed.length);
+        long total = 0;
+        int busyWorkers = 0;
+        for (long count : processed) {
+            total += count;
+            if (count > 0)
+                busyWorkers++;
+        }
+        assertEquals(producers.length * numInserts, total);
+        Set<Integer> shards = new HashSet<Integer>();
+        for (int i = 0; i < numKeys; i++)
+            shards.add(LSMDBWorker.getShard(("key" + i).getBytes(), 4));
+        assertEquals(shards.size(), busyWorkers);
+        assertTrue(busyWorkers > 1);
+        
+        byte[][] values = new byte[numKeys][];
+        for (int i = 0; i < numKeys; i++) {
+            values[i] = db.lookup(0, ("key" + i).getBytes(), null).get();
+            assertNotNull(values[i]);
+        }
+        database.shutdown();
+        
+        // the replayed log yields the same values as the in-memory state
+        database = BabuDBFactory.createBabuDB(cfg);
+        Database db2 = database.getDatabaseManager().getDatabase("test");
+        for (int i = 0; i < numKeys; i++)
+            assertEquals(values[i], db2.lookup(0, ("key" + i).getBytes(), null).get());
+        database.shutdown();
+    }
+    
+    @Test
+    public void testShardedLookups() throws Exception {
+        
+        BabuDBConfig cfg = new ConfigBuilder().setDataPath(baseDir).setLogAppendSyncMode(SyncMode.ASYNC)
+                .setMultiThreaded(4).setShards(4).build();
+        database = BabuDBFactory.createBabuDB(cfg);
+        Database db = database.getDatabaseManager().createDatabase("test", 1);
+        
+        // a lookup is processed by the worker serving the shard of the key,
+        // after all inserts into that shard that have been issued before
+        for (int i = 0; i < 2000; i++) {
+            byte[] key = ("key" + (i % 64)).getBytes();
+            byte[] value = ("value" + i).getBytes();
+            db.singleInsert(0, key, value, null);
+            assertEquals("value" + i, new String(db.lookup(0, key, null).get()));
+            
+            // multi-lookups of keys in the same shard are ordered as well
+            assertEquals("value" + i, new String(db.multiLookup(0, new byte[][] { key }, null).get()[0]));
+        }
+        
+        database.shutdown();
+    }
+    
+    @Test
+    public void testParallelResponseDispatch() throws Exception {
+        
+        for (int numThreads : new int[] { 0, 4 }) {
+            
+            FSUtils.delTree(new File(baseDir));
+            database = BabuDBFactory.createBabuDB(new ConfigBuilder().setDataPath(baseDir).setLogAppendSyncMode(
+                SyncMode.ASYNC).setMultiThreaded(1).setResponseThreads(numThreads).build());
+            ResponseManagerInternal respMan = ((BabuDBInternal) database).getResponseManager();
+            
+            // responses with the same context are delivered in the order in
+            // which they have been enqueued
+            final int numContexts = 8;
+            final int numResponses = 4000;
+            final List<List<Integer>> received = new ArrayList<List<Integer>>();
+            for (int i = 0; i < numContexts; i++)
+                received.add(Collections.synchronizedList(new ArrayList<Integer>()));
+            final CountDownLatch latch = new CountDownLatch(numResponses);
+            DatabaseRequestListener<Integer> listener = new DatabaseRequestListener<Integer>() {
+                public void finished(Integer result, Object context) {
+                    received.get((Integer) context).add(result);
+                    latch.countDown();
+                }
+                
+                public void failed(BabuDBException error, Object context) {
+                    latch.countDown();
+                }
+            };
+            for (int i = 0; i < numResponses; i++)
+                respMan.enqueueResponse(listener, null, i, i % numContexts);
+            assertTrue(latch.await(30, TimeUnit.SECONDS));
+            
+            for (int i = 0; i < numContexts; i++) {
+                List<Integer> seqs = received.get(i);
+                assertEquals(numResponses / numContexts, seqs.size());
+                for (int j = 1; j < seqs.size(); j++)
+                    assertTrue(seqs.get(j - 1) < seqs.get(j));
+            }
+            
+            assertEquals(numThreads, database.getRuntimeState("responseManager.numThreads"));
+            assertTrue((Long) database.getRuntimeState("responseManager.dispatchedResponses") >= numResponses);
+            assertTrue(database.getRuntimeState().containsKey("responseManager.avgLatencyMicros"));
+            database.shutdown();
+        }
+    }
+    
+    @Test
+    public void testCheckpointWithConcurrentModifications() throws Exception {
+        
+        BabuDBConfig cfg = new ConfigBuilder().setDataPath(baseDir).setLogAppendSyncMode(SyncMode.ASYNC)
+                .setMultiThreaded(2).build();
+        database = BabuDBFactory.createBabuDB(cfg);
+        final DatabaseManager dbMan = database.getDatabaseManager();
+        final Database db = dbMan.createDatabase("test", 1);
+        dbMan.createDatabase("test2", 1);
+        
+        final AtomicBoolean stop = new AtomicBoolean(false);
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        List<Thread> threads = new ArrayList<Thread>();
+        
+        // create and delete databases
+        for (int i = 0; i < 8; i++) {
+            final String dbName = "db" + i;
+            threads.add(new Thread() {
+                public void run() {
+                    try {
+                        while (!stop.get()) {
+                            dbMan.createDatabase(dbName, 1);
+                            dbMan.deleteDatabase(dbName);
+                        }
+                    } catch (Throwable exc) {
+                        errors.add(exc);
+                    }
+                }
+            });
+        }
+        
+        // execute explicit transactions, which lock the workers of both
+        // databases, while the workers are busy with single inserts
+        for (int i = 0; i < 2; i++) {
+            final int id = i;
+            threads.add(new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; !stop.get(); j++) {
+                            byte[] key = ("txn" + id + "." + j).getBytes();
+                            Transaction txn = dbMan.createTransaction();
+                            txn.insertRecord("test", 0, key, key);
+                            txn.insertRecord("test2", 0, key, key);
+                            dbMan.executeTransaction(txn);
+                        }
+                    } catch (Throwable exc) {
+                        errors.add(exc);
+                    }
+                }
+            });
+            threads.add(new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; !stop.get(); j++) {
+                            byte[] key = ("single" + id + "." + j).getBytes();
+                            db.singleInsert(0, key, key, null).get();
+                        }
+                    } catch (Throwable exc) {
+                        errors.add(exc);
+                    }
+                }
+            });
+        }
+        
+        // take checkpoints
+        threads.add(new Thread() {
+            public void run() {
+                try {
+                    while (!stop.get())
+                        database.getCheckpointer().checkpoint();
+                } catch (Throwable exc) {
+                    errors.add(exc);
+                }
+            }
+        });
+        
+        for (Thread t : threads)
+            t.start();
+        Thread.sleep(5000);
+        stop.set(true);
+        
+        // all threads make progress and terminate
+        for (Thread t : threads) {
+            t.join(30000);
+            assertFalse("deadlock in " + t.getName(), t.isAlive());
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        
+        // the databases that have been committed are consistent after a
+        // checkpoint and a restart
+        byte[] key = "txn0.0".getBytes();
+        database.getCheckpointer().checkpoint();
+        database.shutdown();
+        database = BabuDBFactory.createBabuDB(cfg);
+        assertEquals(key, database.getDatabaseManager().getDatabase("test").lookup(0, key, null).get());
+        assertEquals(key, database.getDatabaseManager().getDatabase("test2").lookup(0, key, null).get());
+        assertEquals(2, database.getDatabaseManager().getDatabases().size());
+        database.shutdown();
+    }
+    
     private void assertEquals(byte[] b1, byte[] b2) {
         assertEquals(b1.length, b2.length);
         for (int i = 0; i < b1.length; i++)
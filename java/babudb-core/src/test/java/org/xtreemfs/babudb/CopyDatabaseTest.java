@@ -94,6 +94,68 @@ public class CopyDatabaseTest extends TestCase {
         }
     }
     
+    @Test
+    public void testLinkedCopy() throws Exception {
+        
+        final int NUMIDX = 3;
+        
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0, SyncMode.ASYNC, 0,
+            0, compression, maxNumRecs, maxBlockFileSize));
+        
+        Database db = database.getDatabaseManager().createDatabase("testDB", NUMIDX);
+        for (int i = 0; i < NUMIDX; i++)
+            db.singleInsert(i, ("key" + i).getBytes(), ("value" + i).getBytes(), null).get();
+        database.getCheckpointer().checkpoint();
+        
+        // mark the on-disk indices, so that it can be checked whether they have
+        // been linked
+        final long marker = 1000000000000L;
+        for (String name : new File(baseDir, "testDB").list()) {
+            if (name.startsWith("IX"))
+                assertTrue(new File(new File(baseDir + "testDB", name), "blockindex.idx").setLastModified(marker));
+        }
+        
+        // modify index 0 after the checkpoint
+        db.singleInsert(0, "key0".getBytes(), "newValue0".getBytes(), null).get();
+        db.singleInsert(0, "key3".getBytes(), "value3".getBytes(), null).get();
+        
+        database.getDatabaseManager().copyDatabase("testDB", "copyDB");
+        
+        // the unmodified indices have been linked, the modified one has been
+        // written
+        int numIndices = 0;
+        for (String name : new File(baseDir, "copyDB").list()) {
+            if (name.startsWith("IX")) {
+                numIndices++;
+                long lastModified = new File(new File(baseDir + "copyDB", name), "blockindex.idx").lastModified();
+                assertEquals(name, !name.startsWith("IX0"), lastModified == marker);
+            }
+        }
+        assertEquals(NUMIDX, numIndices);
+        
+        Database copy = database.getDatabaseManager().getDatabase("copyDB");
+        assertEquals("newValue0", new String(copy.lookup(0, "key0".getBytes(), null).get()));
+        assertEquals("value3", new String(copy.lookup(0, "key3".getBytes(), null).get()));
+        assertEquals("value1", new String(copy.lookup(1, "key1".getBytes(), null).get()));
+        assertEquals("value2", new String(copy.lookup(2, "key2".getBytes(), null).get()));
+        
+        // modifications and checkpoints of the copy do not affect the source
+        copy.singleInsert(1, "key1".getBytes(), "copyValue1".getBytes(), null).get();
+        database.getCheckpointer().checkpoint();
+        assertEquals("copyValue1", new String(copy.lookup(1, "key1".getBytes(), null).get()));
+        assertEquals("value1", new String(db.lookup(1, "key1".getBytes(), null).get()));
+        
+        database.shutdown();
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0, SyncMode.ASYNC, 0,
+            0, compression, maxNumRecs, maxBlockFileSize));
+        db = database.getDatabaseManager().getDatabase("testDB");
+        copy = database.getDatabaseManager().getDatabase("copyDB");
+        assertEquals("value1", new String(db.lookup(1, "key1".getBytes(), null).get()));
+        assertEquals("value2", new String(copy.lookup(2, "key2".getBytes(), null).get()));
+        assertEquals("copyValue1", new String(copy.lookup(1, "key1".getBytes(), null).get()));
+        assertEquals("newValue0", new String(copy.lookup(0, "key0".getBytes(), null).get()));
+    }
+    
     public static void main(String[] args) {
         TestRunner.run(CopyDatabaseTest.class);
     }
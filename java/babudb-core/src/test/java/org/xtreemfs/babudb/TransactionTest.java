@@ -24,6 +24,8 @@ import org.xtreemfs.babudb.api.database.Database;
 import org.xtreemfs.babudb.api.database.DatabaseInsertGroup;
 import org.xtreemfs.babudb.api.database.ResultSet;
 import org.xtreemfs.babudb.api.dev.transaction.TransactionInternal;
+import org.xtreemfs.babudb.api.exception.BabuDBException;
+import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
 import org.xtreemfs.babudb.api.index.ByteRangeComparator;
 import org.xtreemfs.babudb.api.transaction.Operation;
 import org.xtreemfs.babudb.api.transaction.Transaction;
@@ -32,6 +34,7 @@ import org.xtreemfs.babudb.config.BabuDBConfig;
 import org.xtreemfs.babudb.index.DefaultByteRangeComparator;
 import org.xtreemfs.babudb.log.DiskLogger.SyncMode;
 import org.xtreemfs.babudb.lsmdb.BabuDBTransaction;
+import org.xtreemfs.babudb.lsmdb.InsertRecordGroup;
 import org.xtreemfs.babudb.lsmdb.LSMDatabase;
 import org.xtreemfs.foundation.buffer.BufferPool;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
@@ -89,9 +92,11 @@ public class TransactionTest extends TestCase {
         txn.deleteRecord("db2", 1, "blub".getBytes());
         txn.deleteDatabase("db1");
         txn.insertRecord("new-database", 3, "x".getBytes(), "".getBytes());
+        txn.insertRecordIfAbsent("db2", 0, "a".getBytes(), "b".getBytes());
+        txn.deleteRecordIfEquals("db2", 0, "a".getBytes(), "b".getBytes());
         
         // check transaction
-        assertEquals(6, txn.getOperations().size());
+        assertEquals(8, txn.getOperations().size());
         
         assertEquals(Operation.TYPE_CREATE_DB, txn.getOperations().get(0).getType());
         assertEquals("db1", txn.getOperations().get(0).getDatabaseName());
@@ -171,6 +176,9 @@ public class TransactionTest extends TestCase {
                     if (p1 instanceof Number || p1 instanceof String)
                         assertEquals(p1, p2);
                     
+                    else if (p1 instanceof InsertRecordGroup && ((InsertRecordGroup) p1).hasConditions())
+                        assertEquals(p1.toString(), p2.toString());
+                    
                     else if (p1 instanceof byte[]) {
                         
                         byte[] b1 = (byte[]) p1;
@@ -247,6 +255,177 @@ public class TransactionTest extends TestCase {
         
     }
     
+    @Test
+    public void testConditionalOperations() throws Exception {
+        
+        DatabaseManager dbMan = database.getDatabaseManager();
+        final Database db = dbMan.createDatabase("test", 2);
+        
+        // put-if-absent
+        DatabaseInsertGroup ig = db.createInsertGroup();
+        ig.addInsertIfAbsent(0, "key".getBytes(), "v1".getBytes());
+        db.insert(ig, null).get();
+        assertEquals("v1", new String(db.lookup(0, "key".getBytes(), null).get()));
+        
+        ig = db.createInsertGroup();
+        ig.addInsertIfAbsent(0, "key".getBytes(), "v2".getBytes());
+        assertConditionFailed(db, ig);
+        
+        // put-if-value-equals; a group with an unsatisfied condition is not
+        // applied at all
+        ig = db.createInsertGroup();
+        ig.addInsert(1, "other".getBytes(), "x".getBytes());
+        ig.addInsertIfEquals(0, "key".getBytes(), "v3".getBytes(), "v2".getBytes());
+        assertConditionFailed(db, ig);
+        assertNull(db.lookup(1, "other".getBytes(), null).get());
+        
+        ig = db.createInsertGroup();
+        ig.addInsert(1, "other".getBytes(), "x".getBytes());
+        ig.addInsertIfEquals(0, "key".getBytes(), "v3".getBytes(), "v1".getBytes());
+        db.insert(ig, null).get();
+        assertEquals("v3", new String(db.lookup(0, "key".getBytes(), null).get()));
+        assertEquals("x", new String(db.lookup(1, "other".getBytes(), null).get()));
+        
+        // delete-if-equals
+        ig = db.createInsertGroup();
+        ig.addDeleteIfEquals(1, "other".getBytes(), "y".getBytes());
+        assertConditionFailed(db, ig);
+        
+        ig = db.createInsertGroup();
+        ig.addDeleteIfEquals(1, "other".getBytes(), "x".getBytes());
+        db.insert(ig, null).get();
+        assertNull(db.lookup(1, "other".getBytes(), null).get());
+        
+        // conditional operations in transactions
+        Transaction txn = dbMan.createTransaction();
+        txn.insertRecordIfAbsent("test", 1, "other".getBytes(), "z".getBytes());
+        txn.deleteRecordIfEquals("test", 0, "key".getBytes(), "v3".getBytes());
+        dbMan.executeTransaction(txn);
+        assertEquals("z", new String(db.lookup(1, "other".getBytes(), null).get()));
+        assertNull(db.lookup(0, "key".getBytes(), null).get());
+        
+        txn = dbMan.createTransaction();
+        txn.insertRecordIfEquals("test", 1, "other".getBytes(), "w".getBytes(), "x".getBytes());
+        try {
+            dbMan.executeTransaction(txn);
+            fail();
+        } catch (BabuDBException exc) {
+            assertEquals(ErrorCode.CONDITION_FAILED, exc.getErrorCode());
+        }
+        assertEquals("z", new String(db.lookup(1, "other".getBytes(), null).get()));
+        
+        // concurrent compare-and-set increments of a counter
+        ig = db.createInsertGroup();
+        ig.addInsert(0, "counter".getBytes(), "0".getBytes());
+        db.insert(ig, null).get();
+        
+        final int numThreads = 4;
+        final int numIncrements = 50;
+        final AtomicInteger failures = new AtomicInteger();
+        Thread[] threads = new Thread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < numIncrements;) {
+                            byte[] value = db.lookup(0, "counter".getBytes(), null).get();
+                            DatabaseInsertGroup ig = db.createInsertGroup();
+                            ig.addInsertIfEquals(0, "counter".getBytes(), String.valueOf(
+                                Integer.parseInt(new String(value)) + 1).getBytes(), value);
+                            try {
+                                db.insert(ig, null).get();
+                                j++;
+                            } catch (BabuDBException exc) {
+                                if (exc.getErrorCode() != ErrorCode.CONDITION_FAILED)
+                                    throw exc;
+                            }
+                        }
+                    } catch (Exception exc) {
+                        failures.incrementAndGet();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        
+        assertEquals(0, failures.get());
+        assertEquals(numThreads * numIncrements, Integer.parseInt(new String(db.lookup(0,
+            "counter".getBytes(), null).get())));
+        
+        // the applied operations are replayed without checking the
+        // conditions again
+        database.shutdown();
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 1, 0, 0, SyncMode.ASYNC, 0,
+            0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        Database restarted = database.getDatabaseManager().getDatabase("test");
+        assertNull(restarted.lookup(0, "key".getBytes(), null).get());
+        assertEquals("z", new String(restarted.lookup(1, "other".getBytes(), null).get()));
+        assertEquals(numThreads * numIncrements, Integer.parseInt(new String(restarted.lookup(0,
+            "counter".getBytes(), null).get())));
+    }
+    
+    @Test
+    public void testConditionalOperationsWithoutWorkers() throws Exception {
+        
+        database.shutdown();
+        database = BabuDBFactory.createBabuDB(new BabuDBConfig(baseDir, baseDir, 0, 0, 0, SyncMode.ASYNC, 0,
+            0, COMPRESSION, maxNumRecs, maxBlockFileSize, !MMAP, -1, LOG_LEVEL));
+        final Database db = database.getDatabaseManager().createDatabase("test", 1);
+        
+        // concurrently put and put-if-absent the same keys; either the put
+        // overwrites the conditional insert, or the condition fails, so that
+        // the put always wins
+        final int numKeys = 20000;
+        final AtomicInteger failures = new AtomicInteger();
+        Thread put = new Thread() {
+            public void run() {
+                try {
+                    for (int i = 0; i < numKeys; i++)
+                        db.singleInsert(0, String.valueOf(i).getBytes(), "put".getBytes(), null).get();
+                } catch (Exception exc) {
+                    failures.incrementAndGet();
+                }
+            }
+        };
+        Thread putIfAbsent = new Thread() {
+            public void run() {
+                try {
+                    for (int i = 0; i < numKeys; i++) {
+                        DatabaseInsertGroup ig = db.createInsertGroup();
+                        ig.addInsertIfAbsent(0, String.valueOf(i).getBytes(), "putIfAbsent".getBytes());
+                        try {
+                            db.insert(ig, null).get();
+                        } catch (BabuDBException exc) {
+                            if (exc.getErrorCode() != ErrorCode.CONDITION_FAILED)
+                                throw exc;
+                        }
+                    }
+                } catch (Exception exc) {
+                    failures.incrementAndGet();
+                }
+            }
+        };
+        put.start();
+        putIfAbsent.start();
+        put.join();
+        putIfAbsent.join();
+        
+        assertEquals(0, failures.get());
+        for (int i = 0; i < numKeys; i++)
+            assertEquals("put", new String(db.lookup(0, String.valueOf(i).getBytes(), null).get()));
+    }
+    
+    private static void assertConditionFailed(Database db, DatabaseInsertGroup ig) throws Exception {
+        try {
+            db.insert(ig, null).get();
+            fail();
+        } catch (BabuDBException exc) {
+            assertEquals(ErrorCode.CONDITION_FAILED, exc.getErrorCode());
+        }
+    }
+    
     @Test
     public void testTransactionPersistence() throws Exception {
         
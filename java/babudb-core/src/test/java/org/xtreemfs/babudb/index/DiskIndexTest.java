@@ -27,6 +27,7 @@ import org.xtreemfs.babudb.api.database.ResultSet;
 import org.xtreemfs.babudb.api.index.ByteRangeComparator;
 import org.xtreemfs.babudb.index.reader.DiskIndex;
 import org.xtreemfs.babudb.index.writer.DiskIndexWriter;
+import org.xtreemfs.babudb.index.writer.IOThrottle;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.util.FSUtils;
 
@@ -621,6 +622,72 @@ public class DiskIndexTest extends TestCase {
         assertFalse(it.hasNext());
     }
     
+    public void testThrottledWrite() throws Exception {
+        
+        final int rate = 256 * 1024;
+        
+        byte[][] entries = createRandomByteArrays(5000);
+        SortedMap<byte[], byte[]> testMap = new TreeMap<byte[], byte[]>(COMP);
+        for (byte[] entry : entries)
+            testMap.put(entry, entry);
+        
+        // write the index at a limited rate
+        IOThrottle throttle = new IOThrottle(rate, 1000);
+        long start = System.currentTimeMillis();
+        DiskIndexWriter writer = new DiskIndexWriter(PATH2, MAX_BLOCK_ENTRIES, COMPRESSED, MAX_BLOCK_FILE_SIZE,
+            throttle);
+        writer.writeIndex(getBufferIterator(testMap.entrySet().iterator()));
+        long duration = System.currentTimeMillis() - start;
+        
+        // all bytes beyond the initial burst have been rate-limited
+        long bytes = throttle.getBytesWritten();
+        assertTrue(bytes > 64 * 1024);
+        assertTrue(duration >= (bytes - 64 * 1024) * 1000 / rate - 50);
+        assertTrue(throttle.getThrottledMillis() > 0);
+        
+        DiskIndex diskIndex = new DiskIndex(PATH2, new DefaultByteRangeComparator(), COMPRESSED, MMAPED);
+        for (byte[] entry : entries)
+            assertEquals(0, COMP.compare(entry, diskIndex.lookup(entry)));
+        diskIndex.destroy();
+        
+        // the rate is halved if the sync latency of the log is too high ...
+        Thread.sleep(110);
+        throttle.syncCompleted(5000);
+        assertEquals(rate / 2, throttle.getCurrentRate());
+        assertEquals(1, throttle.getBackoffs());
+        
+        // ... and raised again as soon as it has recovered
+        for (int i = 0; i < 50; i++)
+            throttle.syncCompleted(0);
+        Thread.sleep(110);
+        throttle.syncCompleted(0);
+        assertEquals(rate / 2 + rate / 16, throttle.getCurrentRate());
+        assertEquals(rate, throttle.getMaxRate());
+    }
+    
+    public void testThrottleAfterIdlePeriod() throws Exception {
+        
+        // at 50 GB/s, the product of the rate and an idle period of 250 ms
+        // in nanoseconds exceeds the range of a long
+        IOThrottle throttle = new IOThrottle(50L * 1000 * 1000 * 1000, 0);
+        Thread.sleep(250);
+        
+        // writing after the idle period must not block
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++)
+            throttle.acquire(4096);
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertEquals(0, throttle.getThrottledMillis());
+        assertEquals(10 * 4096, throttle.getBytesWritten());
+        
+        // the bucket is only refilled up to the burst size
+        throttle = new IOThrottle(64 * 1024, 0);
+        Thread.sleep(200);
+        throttle.acquire(64 * 1024);
+        throttle.acquire(64 * 1024);
+        assertTrue(throttle.getThrottledMillis() >= 900);
+    }
+    
     private static void assertNoBlockfiles() {
         int blockfiles = 0;
         int pid = Integer.parseInt(ManagementFactory.getRuntimeMXBean().getName().split("@")[0]);
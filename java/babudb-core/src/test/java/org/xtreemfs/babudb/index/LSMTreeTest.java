@@ -9,15 +9,25 @@
 package org.xtreemfs.babudb.index;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
+import java.util.Random;
 import java.util.TreeMap;
 import java.util.Map.Entry;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import junit.framework.TestCase;
 import junit.textui.TestRunner;
 
+import org.xtreemfs.babudb.api.database.Aggregate;
+import org.xtreemfs.babudb.api.database.ScanPage;
+import org.xtreemfs.babudb.api.index.MergeOperator;
 import org.xtreemfs.babudb.index.DefaultByteRangeComparator;
+import org.xtreemfs.babudb.index.ExpiringByteRangeComparator;
 import org.xtreemfs.babudb.index.LSMTree;
+import org.xtreemfs.babudb.index.reader.DiskIndex;
 import org.xtreemfs.babudb.snapshots.DefaultSnapshotConfig;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.util.FSUtils;
@@ -482,6 +492,582 @@ public class LSMTreeTest extends TestCase {
         assertEquals(4, i);
     }
     
+    public void testReversePrefixLookupOnDisk() throws Exception {
+        
+        final byte[] value = "value".getBytes();
+        
+        LSMTree tree = new LSMTree(null, DefaultByteRangeComparator.getInstance(), COMPRESSION, 16,
+            1024 * 1024 * 512, MMAP, -1);
+        for (String k : new String[] { "a1", "b1", "b2", "b3", "c1" })
+            tree.insert(k.getBytes(), value);
+        
+        int snapId = tree.createSnapshot();
+        tree.materializeSnapshot(SNAP_FILE, snapId);
+        tree.linkToSnapshot(SNAP_FILE);
+        tree.insert("b4".getBytes(), value);
+        
+        // on-disk entries have to be returned in descending order as well
+        String[] expected = { "b4", "b3", "b2", "b1" };
+        Iterator<Entry<byte[], byte[]>> it = tree.prefixLookup("b".getBytes(), false);
+        for (String key : expected)
+            assertEquals(key, new String(it.next().getKey()));
+        assertFalse(it.hasNext());
+        
+        snapId = tree.createSnapshot();
+        it = tree.prefixLookup("b".getBytes(), snapId, false);
+        for (String key : expected)
+            assertEquals(key, new String(it.next().getKey()));
+        assertFalse(it.hasNext());
+    }
+    
+    public void testMultiLookup() throws Exception {
+        
+        LSMTree tree = new LSMTree(null, DefaultByteRangeComparator.getInstance(), COMPRESSION, 16,
+            1024 * 1024 * 512, MMAP, -1);
+        
+        // empty tree
+        byte[][] result = tree.lookup(new byte[][] { "a".getBytes(), "b".getBytes() });
+        assertEquals(2, result.length);
+        assertNull(result[0]);
+        assertNull(result[1]);
+        
+        // spread the keys across multiple on-disk blocks
+        for (int i = 0; i < 500; i += 2)
+            tree.insert(String.format("%05d", i).getBytes(), ("v" + i).getBytes());
+        int snapId = tree.createSnapshot();
+        tree.materializeSnapshot(SNAP_FILE, snapId);
+        tree.linkToSnapshot(SNAP_FILE);
+        
+        // overwrite, delete and add some keys in the overlay
+        tree.insert("00010".getBytes(), "new".getBytes());
+        tree.delete("00020".getBytes());
+        tree.insert("00021".getBytes(), "v21".getBytes());
+        
+        // look up the keys in random order, including duplicates and keys
+        // that do not exist
+        Random rnd = new Random(1);
+        byte[][] keys = new byte[300][];
+        for (int i = 0; i < keys.length - 3; i++)
+            keys[i] = String.format("%05d", rnd.nextInt(600)).getBytes();
+        keys[keys.length - 3] = "00010".getBytes();
+        keys[keys.length - 2] = "00020".getBytes();
+        keys[keys.length - 1] = "00021".getBytes();
+        
+        result = tree.lookup(keys);
+        assertEquals(keys.length, result.length);
+        for (int i = 0; i < keys.length; i++)
+            assertEquals(tree.lookup(keys[i]), result[i]);
+        
+        assertEquals("new".getBytes(), result[keys.length - 3]);
+        assertNull(result[keys.length - 2]);
+        assertEquals("v21".getBytes(), result[keys.length - 1]);
+    }
+    
+    public void testProjectedLookups() throws Exception {
+        
+        // cover streamed and mmap'ed as well as compressed and uncompressed
+        // on-disk indices
+        for (int mode = 0; mode < 4; mode++) {
+            
+            FSUtils.delTree(new File(SNAP_FILE));
+            LSMTree tree = new LSMTree(null, DefaultByteRangeComparator.getInstance(), mode % 2 == 1, 16,
+                1024 * 1024 * 512, mode >= 2, -1);
+            
+            byte[] largeValue = new byte[1000];
+            for (int i = 0; i < largeValue.length; i++)
+                largeValue[i] = (byte) i;
+            
+            for (int i = 0; i < 100; i++)
+                tree.insert(String.format("%03d", i).getBytes(), largeValue);
+            int snapId = tree.createSnapshot();
+            tree.materializeSnapshot(SNAP_FILE, snapId);
+            tree.linkToSnapshot(SNAP_FILE);
+            
+            // overwrite, delete and add some keys in the overlay
+            tree.insert("010".getBytes(), "short".getBytes());
+            tree.delete("020".getBytes());
+            tree.insert("0201".getBytes(), largeValue);
+            
+            // keys only
+            Iterator<Entry<byte[], byte[]>> it = tree.prefixLookup("0".getBytes(), true, 0);
+            int count = 0;
+            String last = null;
+            while (it.hasNext()) {
+                Entry<byte[], byte[]> next = it.next();
+                assertNull(next.getValue());
+                String key = new String(next.getKey());
+                assertFalse("020".equals(key));
+                if (last != null)
+                    assertTrue(last.compareTo(key) < 0);
+                last = key;
+                count++;
+            }
+            assertEquals(100, count);
+            
+            // value prefixes, in descending order
+            it = tree.prefixLookup("0".getBytes(), false, 8);
+            count = 0;
+            while (it.hasNext()) {
+                Entry<byte[], byte[]> next = it.next();
+                String key = new String(next.getKey());
+                if ("010".equals(key))
+                    assertEquals("short".getBytes(), next.getValue());
+                else {
+                    assertEquals(8, next.getValue().length);
+                    for (int i = 0; i < 8; i++)
+                        assertEquals((byte) i, next.getValue()[i]);
+                }
+                count++;
+            }
+            assertEquals(100, count);
+            
+            // complete values
+            it = tree.rangeLookup("030".getBytes(), "031".getBytes(), true, -1);
+            assertEquals(largeValue, it.next().getValue());
+            assertFalse(it.hasNext());
+            
+            tree.destroy();
+        }
+    }
+    
+    public void testCountAndAggregate() throws Exception {
+        
+        final String[][] ranges = { { "", "" }, { "005", "150" }, { "016", "032" }, { "0201", "021" },
+            { "", "090" }, { "111", "" }, { "050", "050" }, { "300", "400" } };
+        
+        for (int mode = 0; mode < 4; mode++) {
+            
+            FSUtils.delTree(new File(SNAP_FILE));
+            LSMTree tree = new LSMTree(null, DefaultByteRangeComparator.getInstance(), mode % 2 == 1, 16,
+                1024 * 1024 * 512, mode >= 2, -1);
+            
+            for (int i = 0; i < 200; i++)
+                tree.insert(String.format("%03d", i).getBytes(), new byte[i % 7 + 1]);
+            
+            // overlay only
+            for (String[] range : ranges)
+                assertCountAndAggregate(tree, range[0].getBytes(), range[1].getBytes());
+            
+            int snapId = tree.createSnapshot();
+            tree.materializeSnapshot(SNAP_FILE, snapId);
+            tree.linkToSnapshot(SNAP_FILE);
+            
+            // on-disk index only
+            for (String[] range : ranges)
+                assertCountAndAggregate(tree, range[0].getBytes(), range[1].getBytes());
+            assertEquals(200, tree.count(null, null));
+            assertEquals(16, tree.count("016".getBytes(), "032".getBytes()));
+            
+            // overwrite, delete and add some keys in the overlay
+            tree.insert("010".getBytes(), "short".getBytes());
+            tree.delete("020".getBytes());
+            tree.delete("031".getBytes());
+            tree.delete("500".getBytes());
+            tree.insert("0201".getBytes(), new byte[100]);
+            tree.insert("199".getBytes(), new byte[10]);
+            
+            for (String[] range : ranges)
+                assertCountAndAggregate(tree, range[0].getBytes(), range[1].getBytes());
+            assertEquals(199, tree.count(null, null));
+            assertEquals(15, tree.count("016".getBytes(), "032".getBytes()));
+            
+            Aggregate aggregate = tree.aggregate("0201".getBytes(), "021".getBytes());
+            assertEquals(1, aggregate.getCount());
+            assertEquals(100, aggregate.getTotalValueLength());
+            assertEquals("0201".getBytes(), aggregate.getMinKey());
+            assertEquals("0201".getBytes(), aggregate.getMaxKey());
+            
+            tree.destroy();
+        }
+    }
+    
+    public void testScan() throws Exception {
+        
+        FSUtils.delTree(new File(SNAP_FILE));
+        LSMTree tree = new LSMTree(null, DefaultByteRangeComparator.getInstance(), false, 16,
+            1024 * 1024 * 512, true, -1);
+        
+        for (int i = 0; i < 100; i += 2)
+            tree.insert(String.format("%03d", i).getBytes(), String.valueOf(i).getBytes());
+        int snapId = tree.createSnapshot();
+        tree.materializeSnapshot(SNAP_FILE, snapId);
+        tree.linkToSnapshot(SNAP_FILE);
+        for (int i = 1; i < 100; i += 2)
+            tree.insert(String.format("%03d", i).getBytes(), String.valueOf(i).getBytes());
+        
+        // scan [010, 090) in pages of 7 entries
+        ScanPage page = tree.scan("010".getBytes(), "090".getBytes(), null, 7);
+        int expected = 10;
+        int numPages = 1;
+        for (;;) {
+            for (Entry<byte[], byte[]> entry : page.getEntries())
+                assertEquals(String.format("%03d", expected++), new String(entry.getKey()));
+            if (!page.hasMore())
+                break;
+            
+            // modify the tree between two pages
+            byte[] lastKey = page.getEntries().get(page.getEntries().size() - 1).getKey();
+            tree.delete(lastKey);
+            
+            byte[][] token = ScanPage.parseToken(page.getContinuationToken());
+            assertEquals(lastKey, token[0]);
+            assertEquals("090".getBytes(), token[1]);
+            page = tree.scan(null, token[1], token[0], 7);
+            numPages++;
+        }
+        assertEquals(90, expected);
+        assertEquals(12, numPages);
+        
+        // a page that ends exactly at the end of the range
+        page = tree.scan("095".getBytes(), null, null, 5);
+        assertEquals(5, page.getEntries().size());
+        assertFalse(page.hasMore());
+        
+        tree.destroy();
+    }
+    
+    public void testMerge() throws Exception {
+        
+        for (int mode = 0; mode < 2; mode++) {
+            
+            FSUtils.delTree(new File(SNAP_FILE));
+            FSUtils.delTree(new File(SNAP_FILE2));
+            FSUtils.delTree(new File(SNAP_FILE3));
+            LSMTree tree = new LSMTree(null, new CounterComparator(), mode == 1, 16, 1024 * 1024 * 512, false,
+                -1);
+            
+            TreeMap<String, Long> expected = new TreeMap<String, Long>();
+            for (int i = 0; i < 50; i += 2) {
+                tree.insert(String.format("%03d", i).getBytes(), CounterComparator.toBytes(i));
+                expected.put(String.format("%03d", i), (long) i);
+            }
+            int snapId = tree.createSnapshot();
+            tree.materializeSnapshot(SNAP_FILE, snapId);
+            tree.linkToSnapshot(SNAP_FILE);
+            
+            // merge into on-disk values and missing values
+            for (int i = 0; i < 50; i++)
+                merge(tree, expected, String.format("%03d", i), 1);
+            merge(tree, expected, "030", 2);
+            
+            // merge into values held by the overlay
+            tree.insert("010".getBytes(), CounterComparator.toBytes(100));
+            expected.put("010", 100L);
+            merge(tree, expected, "010", 5);
+            tree.delete("020".getBytes());
+            expected.remove("020");
+            merge(tree, expected, "020", 7);
+            
+            assertEquals(105L, CounterComparator.toLong(tree.lookup("010".getBytes())));
+            assertEquals(7L, CounterComparator.toLong(tree.lookup("020".getBytes())));
+            assertEquals(33L, CounterComparator.toLong(tree.lookup("030".getBytes())));
+            assertEquals(1L, CounterComparator.toLong(tree.lookup("031".getBytes())));
+            assertContent(tree, expected);
+            
+            // merge in a new overlay, while the previous one is written to disk
+            TreeMap<String, Long> snapshot = new TreeMap<String, Long>(expected);
+            snapId = tree.createSnapshot();
+            for (int i = 0; i < 60; i += 3)
+                merge(tree, expected, String.format("%03d", i), 1000);
+            
+            for (Entry<String, Long> entry : snapshot.entrySet())
+                assertEquals(entry.getValue().longValue(), CounterComparator.toLong(tree.lookup(entry.getKey()
+                        .getBytes(), snapId)));
+            assertNull(tree.lookup("051".getBytes(), snapId));
+            Iterator<Entry<byte[], byte[]>> it = tree.prefixLookup(new byte[0], snapId);
+            for (Entry<String, Long> entry : snapshot.entrySet()) {
+                Entry<byte[], byte[]> next = it.next();
+                assertEquals(entry.getKey(), new String(next.getKey()));
+                assertEquals(entry.getValue().longValue(), CounterComparator.toLong(next.getValue()));
+            }
+            assertFalse(it.hasNext());
+            assertContent(tree, expected);
+            
+            // operands of the snapshot must not be merged twice
+            tree.materializeSnapshot(SNAP_FILE2, snapId);
+            tree.linkToSnapshot(SNAP_FILE2);
+            assertContent(tree, expected);
+            
+            snapId = tree.createSnapshot();
+            tree.materializeSnapshot(SNAP_FILE3, snapId);
+            tree.linkToSnapshot(SNAP_FILE3);
+            assertFalse(tree.isModified(tree.createSnapshot()));
+            assertContent(tree, expected);
+            
+            tree.destroy();
+        }
+        
+        // indices without a merge operator do not support merges
+        LSMTree tree = new LSMTree(null, DefaultByteRangeComparator.getInstance(), false, 16,
+            1024 * 1024 * 512, false, -1);
+        try {
+            tree.merge("key".getBytes(), "value".getBytes());
+            fail();
+        } catch (UnsupportedOperationException exc) {
+            // ok
+        }
+        tree.destroy();
+    }
+    
+    public void testDeleteRange() throws Exception {
+        
+        for (int mode = 0; mode < 2; mode++) {
+            
+            FSUtils.delTree(new File(SNAP_FILE));
+            FSUtils.delTree(new File(SNAP_FILE2));
+            FSUtils.delTree(new File(SNAP_FILE3));
+            LSMTree tree = new LSMTree(null, new CounterComparator(), mode == 1, 16, 1024 * 1024 * 512, false,
+                -1);
+            
+            TreeMap<String, Long> expected = new TreeMap<String, Long>();
+            for (int i = 0; i < 50; i += 2) {
+                tree.insert(String.format("%03d", i).getBytes(), CounterComparator.toBytes(i));
+                expected.put(String.format("%03d", i), (long) i);
+            }
+            int snapId = tree.createSnapshot();
+            tree.materializeSnapshot(SNAP_FILE, snapId);
+            tree.linkToSnapshot(SNAP_FILE);
+            
+            // delete a range that covers on-disk keys and keys in the overlay
+            tree.insert("011".getBytes(), CounterComparator.toBytes(11));
+            merge(tree, expected, "013", 13);
+            tree.deleteRange("010".getBytes(), "020".getBytes());
+            expected.subMap("010", "020").clear();
+            assertNull(tree.lookup("011".getBytes()));
+            assertNull(tree.lookup("012".getBytes()));
+            assertNull(tree.lookup("013".getBytes()));
+            assertEquals(20L, CounterComparator.toLong(tree.lookup("020".getBytes())));
+            assertContent(tree, expected);
+            
+            // keys inserted or merged after the deletion are visible again
+            tree.insert("012".getBytes(), CounterComparator.toBytes(120));
+            expected.put("012", 120L);
+            merge(tree, expected, "014", 5);
+            assertEquals(5L, CounterComparator.toLong(tree.lookup("014".getBytes())));
+            assertContent(tree, expected);
+            
+            // an unbounded range deletion in a new overlay, while the
+            // previous one is written to disk
+            TreeMap<String, Long> snapshot = new TreeMap<String, Long>(expected);
+            snapId = tree.createSnapshot();
+            tree.deleteRange("040".getBytes(), null);
+            expected.tailMap("040").clear();
+            assertContent(tree, expected);
+            
+            Iterator<Entry<byte[], byte[]>> it = tree.prefixLookup(new byte[0], snapId);
+            for (Entry<String, Long> entry : snapshot.entrySet()) {
+                Entry<byte[], byte[]> next = it.next();
+                assertEquals(entry.getKey(), new String(next.getKey()));
+                assertEquals(entry.getValue().longValue(), CounterComparator.toLong(next.getValue()));
+            }
+            assertFalse(it.hasNext());
+            assertNull(tree.lookup("016".getBytes(), snapId));
+            assertEquals(40L, CounterComparator.toLong(tree.lookup("040".getBytes(), snapId)));
+            
+            tree.materializeSnapshot(SNAP_FILE2, snapId);
+            tree.linkToSnapshot(SNAP_FILE2);
+            assertContent(tree, expected);
+            
+            // the deletions are physically applied to the on-disk index
+            snapId = tree.createSnapshot();
+            tree.materializeSnapshot(SNAP_FILE3, snapId);
+            tree.linkToSnapshot(SNAP_FILE3);
+            assertFalse(tree.isModified(tree.createSnapshot()));
+            assertContent(tree, expected);
+            
+            // empty ranges do not delete anything
+            tree.deleteRange("030".getBytes(), "030".getBytes());
+            assertContent(tree, expected);
+            
+            tree.destroy();
+        }
+    }
+    
+    public void testExpiration() throws Exception {
+        
+        FSUtils.delTree(new File(SNAP_FILE));
+        FSUtils.delTree(new File(SNAP_FILE2));
+        LSMTree tree = new LSMTree(null, new ExpiringByteRangeComparator(), COMPRESSION, 16, 1024 * 1024 * 512,
+            MMAP, -1);
+        
+        long past = System.currentTimeMillis() - 1000;
+        long future = System.currentTimeMillis() + 3600 * 1000;
+        
+        // expired, valid and non-expiring entries, on disk and in the overlay
+        for (int i = 0; i < 30; i++)
+            tree.insert(String.format("%03d", i).getBytes(), ExpiringByteRangeComparator.toValue(
+                i % 3 == 0 ? past : i % 3 == 1 ? future : 0, String.valueOf(i).getBytes()));
+        int snapId = tree.createSnapshot();
+        tree.materializeSnapshot(SNAP_FILE, snapId);
+        tree.linkToSnapshot(SNAP_FILE);
+        
+        tree.insert("001".getBytes(), ExpiringByteRangeComparator.toValue(past, "1".getBytes()));
+        tree.insert("003".getBytes(), ExpiringByteRangeComparator.toValue(future, "3".getBytes()));
+        tree.insert("100".getBytes(), ExpiringByteRangeComparator.toValue(past, "100".getBytes()));
+        
+        TreeMap<String, String> expected = new TreeMap<String, String>();
+        for (int i = 0; i < 30; i++)
+            if (i != 1 && (i % 3 != 0 || i == 3))
+                expected.put(String.format("%03d", i), String.valueOf(i));
+        
+        assertNull(tree.lookup("000".getBytes()));
+        assertNull(tree.lookup("001".getBytes()));
+        assertNull(tree.lookup("100".getBytes()));
+        assertEquals("3", new String(ExpiringByteRangeComparator.getData(tree.lookup("003".getBytes()))));
+        
+        byte[][] keys = new byte[30][];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = String.format("%03d", i).getBytes();
+        byte[][] values = tree.lookup(keys);
+        for (int i = 0; i < keys.length; i++)
+            assertEquals(expected.containsKey(new String(keys[i])), values[i] != null);
+        
+        Iterator<Entry<byte[], byte[]>> it = tree.prefixLookup(new byte[0], false);
+        for (Entry<String, String> entry : expected.descendingMap().entrySet()) {
+            Entry<byte[], byte[]> next = it.next();
+            assertEquals(entry.getKey(), new String(next.getKey()));
+            assertEquals(entry.getValue(), new String(ExpiringByteRangeComparator.getData(next.getValue())));
+        }
+        assertFalse(it.hasNext());
+        
+        it = tree.rangeLookup(new byte[0], new byte[0], true, 0);
+        for (Entry<String, String> entry : expected.entrySet())
+            assertEquals(entry.getKey(), new String(it.next().getKey()));
+        assertFalse(it.hasNext());
+        
+        assertEquals(expected.size(), tree.count(null, null));
+        assertCountAndAggregate(tree, "005".getBytes(), "020".getBytes());
+        
+        // expired entries are dropped from the on-disk index
+        snapId = tree.createSnapshot();
+        tree.materializeSnapshot(SNAP_FILE2, snapId);
+        tree.linkToSnapshot(SNAP_FILE2);
+        
+        DiskIndex index = new DiskIndex(SNAP_FILE2, DefaultByteRangeComparator.getInstance(), COMPRESSION, MMAP);
+        assertEquals(expected.size(), index.count(null, null));
+        index.destroy();
+        
+        assertEquals(expected.size(), tree.count(null, null));
+        assertNull(tree.lookup("000".getBytes()));
+        
+        tree.destroy();
+    }
+    
+    private void merge(LSMTree tree, TreeMap<String, Long> expected, String key, long operand) {
+        tree.merge(key.getBytes(), CounterComparator.toBytes(operand));
+        Long value = expected.get(key);
+        expected.put(key, value == null ? operand : value + operand);
+    }
+    
+    private void assertContent(LSMTree tree, TreeMap<String, Long> expected) {
+        
+        // lookups
+        byte[][] keys = new byte[expected.size() + 1][];
+        int i = 0;
+        for (Entry<String, Long> entry : expected.entrySet()) {
+            assertEquals(entry.getValue().longValue(), CounterComparator.toLong(tree.lookup(entry.getKey()
+                    .getBytes())));
+            keys[i++] = entry.getKey().getBytes();
+        }
+        keys[i] = "999".getBytes();
+        assertNull(tree.lookup(keys[i]));
+        
+        byte[][] values = tree.lookup(keys);
+        i = 0;
+        for (Entry<String, Long> entry : expected.entrySet())
+            assertEquals(entry.getValue().longValue(), CounterComparator.toLong(values[i++]));
+        assertNull(values[i]);
+        
+        // ascending and descending lookups
+        Iterator<Entry<byte[], byte[]>> it = tree.rangeLookup(new byte[0], new byte[0], true);
+        for (Entry<String, Long> entry : expected.entrySet()) {
+            Entry<byte[], byte[]> next = it.next();
+            assertEquals(entry.getKey(), new String(next.getKey()));
+            assertEquals(entry.getValue().longValue(), CounterComparator.toLong(next.getValue()));
+        }
+        assertFalse(it.hasNext());
+        
+        it = tree.prefixLookup("0".getBytes(), false);
+        for (Entry<String, Long> entry : expected.descendingMap().entrySet()) {
+            Entry<byte[], byte[]> next = it.next();
+            assertEquals(entry.getKey(), new String(next.getKey()));
+            assertEquals(entry.getValue().longValue(), CounterComparator.toLong(next.getValue()));
+        }
+        assertFalse(it.hasNext());
+        
+        // counts and aggregates
+        assertEquals(expected.size(), tree.count(null, null));
+        assertEquals(expected.subMap("015", "035").size(), tree.count("015".getBytes(), "035".getBytes()));
+        assertCountAndAggregate(tree, "015".getBytes(), "035".getBytes());
+        assertEquals(8L * expected.size(), tree.aggregate(null, null).getTotalValueLength());
+    }
+    
+    public void testParallelInserts() throws Exception {
+        
+        // the comparator blocks the first insert of each thread until inserts
+        // of two threads have entered the overlay at the same time
+        final CountDownLatch entered = new CountDownLatch(2);
+        final AtomicBoolean serialized = new AtomicBoolean();
+        DefaultByteRangeComparator comp = new DefaultByteRangeComparator() {
+            
+            public int compare(byte[] buf1, byte[] buf2) {
+                if (entered.getCount() > 0 && (buf1[0] == 'p' || buf2[0] == 'p')) {
+                    entered.countDown();
+                    try {
+                        if (!entered.await(10, TimeUnit.SECONDS))
+                            serialized.set(true);
+                    } catch (InterruptedException exc) {
+                        serialized.set(true);
+                    }
+                }
+                return super.compare(buf1, buf2);
+            }
+        };
+        
+        final LSMTree tree = new LSMTree(null, comp, false, 16, 1024 * 1024 * 512, false, -1);
+        tree.insert("a".getBytes(), "value".getBytes());
+        
+        final int numThreads = 4;
+        final int numKeys = 1000;
+        Thread[] threads = new Thread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            final int thread = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int k = 0; k < numKeys; k++)
+                        tree.insert(("p" + thread + "." + k).getBytes(), "value".getBytes());
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        
+        assertFalse(serialized.get());
+        assertEquals(numThreads * numKeys + 1, tree.count(null, null));
+        
+        // the overlay size is the same as after serial inserts
+        LSMTree serial = new LSMTree(null, DefaultByteRangeComparator.getInstance(), false, 16,
+            1024 * 1024 * 512, false, -1);
+        serial.insert("a".getBytes(), "value".getBytes());
+        for (int i = 0; i < numThreads; i++)
+            for (int k = 0; k < numKeys; k++)
+                serial.insert(("p" + i + "." + k).getBytes(), "value".getBytes());
+        assertEquals(serial.getOverlaySize(), tree.getOverlaySize());
+    }
+    
+    private void assertCountAndAggregate(LSMTree tree, byte[] from, byte[] to) {
+        
+        Aggregate expected = Aggregate.compute(tree.rangeLookup(from, to, true));
+        assertEquals(expected.getCount(), tree.count(from, to));
+        
+        Aggregate aggregate = tree.aggregate(from, to);
+        assertEquals(expected.getCount(), aggregate.getCount());
+        assertEquals(expected.getTotalValueLength(), aggregate.getTotalValueLength());
+        assertEquals(expected.getMinKey(), aggregate.getMinKey());
+        assertEquals(expected.getMaxKey(), aggregate.getMaxKey());
+    }
+    
     private void assertEquals(byte[] expected, byte[] result) {
         
         if (expected == null && result == null)
@@ -497,4 +1083,25 @@ public class LSMTreeTest extends TestCase {
         TestRunner.run(LSMTreeTest.class);
     }
     
+    /**
+     * A comparator for indices containing counters, which are incremented by
+     * means of merges.
+     */
+    public static class CounterComparator extends DefaultByteRangeComparator implements MergeOperator {
+        
+        private static final long serialVersionUID = 1L;
+        
+        public byte[] merge(byte[] value, byte[] operand) {
+            return toBytes(value == null ? toLong(operand) : toLong(value) + toLong(operand));
+        }
+        
+        public static byte[] toBytes(long value) {
+            return ByteBuffer.allocate(8).putLong(value).array();
+        }
+        
+        public static long toLong(byte[] value) {
+            return ByteBuffer.wrap(value).getLong();
+        }
+    }
+    
 }
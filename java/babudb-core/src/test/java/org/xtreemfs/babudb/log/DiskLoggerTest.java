@@ -11,8 +11,15 @@ package org.xtreemfs.babudb.log;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
 
 import junit.framework.TestCase;
 import junit.textui.TestRunner;
@@ -25,6 +32,7 @@ import org.junit.Test;
 import org.xtreemfs.babudb.log.DiskLogger.SyncMode;
 import org.xtreemfs.babudb.lsmdb.LSMDatabase;
 import org.xtreemfs.babudb.lsmdb.LSN;
+import org.xtreemfs.foundation.buffer.BufferPool;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.util.FSUtils;
@@ -479,6 +487,562 @@ public class DiskLoggerTest extends TestCase {
         }
     }
     
+    @Test
+    public void testChunkedReading() throws Exception {
+        
+        final int numEntries = 200;
+        final AtomicInteger count = new AtomicInteger(0);
+        
+        SyncListener sl = new SyncListener() {
+            
+            public void synced(LSN lsn) {
+                synchronized (count) {
+                    count.incrementAndGet();
+                    count.notifyAll();
+                }
+            }
+            
+            public void failed(Exception ex) {
+                fail("this should not happen");
+            }
+        };
+        
+        // write entries of different sizes, some of which exceed the chunk
+        // size used for reading
+        int[] offsets = new int[numEntries];
+        for (int i = 0; i < numEntries; i++) {
+            StringBuilder pl = new StringBuilder("Entry " + (i + 1));
+            for (int j = 0; j < i % 17; j++)
+                pl.append("........");
+            ReusableBuffer plb = ReusableBuffer.wrap(pl.toString().getBytes());
+            LogEntry e = new LogEntry(plb, sl, LogEntry.PAYLOAD_TYPE_INSERT);
+            if (i < numEntries - 1)
+                offsets[i + 1] = offsets[i] + LogEntry.headerLength + e.getPayload().remaining();
+            l.append(e);
+        }
+        synchronized (count) {
+            while (count.get() < numEntries)
+                count.wait(1000);
+        }
+        
+        try {
+            l.lock();
+            l.switchLogFile(false);
+        } finally {
+            l.unlock();
+        }
+        
+        File logFile = new File(testdir + "1.1.dbl");
+        for (int chunkSize : new int[] { LogEntry.headerLength, 64, 100, 1000, DiskLogFile.DEFAULT_CHUNK_SIZE }) {
+            
+            DiskLogFile f = new DiskLogFile(logFile.getAbsolutePath(), chunkSize);
+            for (int i = 0; i < numEntries; i++) {
+                assertTrue(f.hasNext());
+                LogEntry next = f.next();
+                assertEquals(i + 1, next.getLogSequenceNo());
+                assertTrue(new String(next.getPayload().array()).startsWith("Entry " + (i + 1)));
+                next.free();
+            }
+            assertFalse(f.hasNext());
+            f.close();
+        }
+        
+        // corrupt an entry in the middle of the file and read it with small
+        // chunks; all entries before the corrupted one have to be returned
+        File tmpFile = new File(testdir + "log.dbl");
+        copyFile(logFile, tmpFile);
+        RandomAccessFile raf = new RandomAccessFile(tmpFile.getAbsolutePath(), "rw");
+        raf.seek(offsets[150] + LogEntry.headerLength);
+        raf.writeInt(4711);
+        raf.close();
+        
+        DiskLogFile f = new DiskLogFile(tmpFile.getAbsolutePath(), 100);
+        for (int i = 0; i < 150; i++) {
+            LogEntry next = f.next();
+            assertNotNull(next);
+            next.free();
+        }
+        assertFalse(f.hasNext());
+        f.close();
+        
+        // the file has to be truncated behind the last valid entry
+        assertEquals(offsets[150], tmpFile.length());
+        assertTrue(tmpFile.delete());
+    }
+    
+    @Test
+    public void testFormatVersions() throws Exception {
+        
+        // both CRC32C implementations have to compute the standard check value
+        byte[] check = "123456789".getBytes();
+        Checksum[] algos = new Checksum[] { new CRC32C(), CRC32C.newInstance() };
+        for (Checksum algo : algos) {
+            algo.update(check, 0, check.length);
+            assertEquals(0xE3069283L, algo.getValue());
+            algo.reset();
+            for (byte b : check)
+                algo.update(b);
+            assertEquals(0xE3069283L, algo.getValue());
+        }
+        
+        // write a log file that starts with entries in the old format, which
+        // are protected by CRC32 checksums, and continues with entries in the
+        // current format
+        File logFile = new File(testdir + "mixed.dbl");
+        FileOutputStream out = new FileOutputStream(logFile);
+        for (int i = 1; i <= 10; i++)
+            out.write(serializeCRC32(1, i, "Entry " + i));
+        for (int i = 11; i <= 20; i++) {
+            LogEntry e = new LogEntry(ReusableBuffer.wrap(("Entry " + i).getBytes()), null,
+                LogEntry.PAYLOAD_TYPE_INSERT);
+            e.assignId(1, i);
+            ReusableBuffer buf = e.serialize();
+            out.getChannel().write(buf.getBuffer());
+            buf.position(0);
+            LogEntry copy = LogEntry.deserialize(buf);
+            assertEquals(LogEntry.CURRENT_FORMAT_VERSION, copy.getFormatVersion());
+            assertEquals(LogEntry.PAYLOAD_TYPE_INSERT, copy.getPayloadType());
+            copy.free();
+            BufferPool.free(buf);
+        }
+        out.close();
+        
+        DiskLogFile f = new DiskLogFile(logFile.getAbsolutePath());
+        for (int i = 1; i <= 20; i++) {
+            LogEntry next = f.next();
+            assertNotNull(next);
+            assertEquals(i, next.getLogSequenceNo());
+            assertEquals(LogEntry.PAYLOAD_TYPE_INSERT, next.getPayloadType());
+            assertEquals(i <= 10 ? LogEntry.FORMAT_VERSION_CRC32 : LogEntry.CURRENT_FORMAT_VERSION, next
+                    .getFormatVersion());
+            assertEquals("Entry " + i, new String(next.getPayload().array()));
+            next.free();
+        }
+        assertFalse(f.hasNext());
+        f.close();
+        assertTrue(logFile.delete());
+    }
+    
+    @Test
+    public void testStripedLog() throws Exception {
+        
+        final String[] dirs = { testdir + "stripe0/", testdir + "stripe1/", testdir + "stripe2/" };
+        final int numEntries = 100;
+        
+        DiskLogger striped = new DiskLogger(dirs, new LSN(1, 1L), SyncMode.FSYNC, 0, 0, 0);
+        assertEquals(dirs.length, striped.getStripeCount());
+        striped.start();
+        striped.waitForStartup();
+        
+        final AtomicInteger count = new AtomicInteger(0);
+        final AtomicInteger outOfOrder = new AtomicInteger(0);
+        
+        SyncListener sl = new SyncListener() {
+            
+            public void synced(LSN lsn) {
+                synchronized (count) {
+                    // entries have to be acknowledged in the order of their
+                    // LSNs
+                    if (lsn.getSequenceNo() != count.get() + 1)
+                        outOfOrder.incrementAndGet();
+                    count.incrementAndGet();
+                    count.notifyAll();
+                }
+            }
+            
+            public void failed(Exception ex) {
+                synchronized (count) {
+                    outOfOrder.incrementAndGet();
+                    count.incrementAndGet();
+                    count.notifyAll();
+                }
+            }
+        };
+        
+        // write two log files, each of them striped across all directories
+        for (int k = 0; k < 2; k++) {
+            
+            for (int i = 0; i < numEntries; i++) {
+                String pl = "Entry " + (k * numEntries + i + 1);
+                ReusableBuffer plb = ReusableBuffer.wrap(pl.getBytes());
+                striped.append(new LogEntry(plb, sl, LogEntry.PAYLOAD_TYPE_INSERT));
+            }
+            
+            synchronized (count) {
+                while (count.get() < (k + 1) * numEntries)
+                    count.wait();
+            }
+            
+            try {
+                striped.lock();
+                striped.switchLogFile(false);
+            } finally {
+                striped.unlock();
+            }
+        }
+        
+        striped.shutdown();
+        striped.waitForShutdown();
+        
+        assertEquals(0, outOfOrder.get());
+        
+        // each stripe holds a part of each log file, plus the current (empty)
+        // one
+        File[] logFiles = listLogFiles(dirs);
+        assertEquals(3 * dirs.length, logFiles.length);
+        File secondLog = new File(dirs[0] + DiskLogger.createLogFileName(1, numEntries + 1));
+        assertTrue(secondLog.length() > 0);
+        
+        // the entries are merged in the order of their LSNs
+        for (int from : new int[] { 0, 1, 2, 100, 101, 102, 150 }) {
+            DiskLogIterator it = new DiskLogIterator(logFiles, new LSN(from == 0 ? 0 : 1, from));
+            for (int i = Math.max(from, 1); i <= 2 * numEntries; i++) {
+                assertTrue(it.hasNext());
+                LogEntry next = it.next();
+                assertEquals("Entry " + i, new String(next.getPayload().array()));
+                next.free();
+            }
+            assertFalse(it.hasNext());
+            it.destroy();
+        }
+        
+        // simulate a crash after which the first entry of the second log file
+        // is missing from its stripe
+        int stripe = (numEntries + 1) % dirs.length;
+        RandomAccessFile raf = new RandomAccessFile(dirs[stripe] + DiskLogger.createLogFileName(1, numEntries + 1),
+            "rw");
+        raf.setLength(0);
+        raf.close();
+        
+        // the iteration stops at the gap, and the entries behind it are
+        // discarded
+        DiskLogIterator it = new DiskLogIterator(logFiles, LSMDatabase.NO_DB_LSN);
+        for (int i = 1; i <= numEntries; i++) {
+            assertTrue(it.hasNext());
+            LogEntry next = it.next();
+            assertEquals("Entry " + i, new String(next.getPayload().array()));
+            next.free();
+        }
+        assertFalse(it.hasNext());
+        it.discardUnreachableEntries();
+        it.destroy();
+        
+        assertEquals(0, secondLog.length());
+        
+        it = new DiskLogIterator(listLogFiles(dirs), LSMDatabase.NO_DB_LSN);
+        int n = 0;
+        while (it.hasNext()) {
+            it.next().free();
+            n++;
+        }
+        it.destroy();
+        assertEquals(numEntries, n);
+    }
+    
+    @Test
+    public void testStripedLogWriteFailure() throws Exception {
+        
+        final String[] dirs = { testdir + "stripe0/", testdir + "stripe1/", testdir + "stripe2/" };
+        final int numEntries = 30;
+        final long failingSeqNo = 11;
+        
+        DiskLogger striped = new DiskLogger(dirs, new LSN(1, 1L), SyncMode.FSYNC, 0, 0, 0);
+        
+        // inject a fault into the stripe the failing entry is assigned to
+        int failingStripe = (int) (failingSeqNo % dirs.length);
+        striped.replaceStripe(new LogStripe(striped, failingStripe, dirs[failingStripe], SyncMode.FSYNC) {
+            
+            ReusableBuffer write(LogEntry le) throws IOException {
+                if (le.getLogSequenceNo() == failingSeqNo)
+                    throw new IOException("injected fault");
+                return super.write(le);
+            }
+        });
+        striped.start();
+        striped.waitForStartup();
+        
+        final List<Long> synced = new ArrayList<Long>();
+        final AtomicInteger failed = new AtomicInteger(0);
+        
+        SyncListener sl = new SyncListener() {
+            
+            public void synced(LSN lsn) {
+                synchronized (synced) {
+                    synced.add(lsn.getSequenceNo());
+                    synced.notifyAll();
+                }
+            }
+            
+            public void failed(Exception ex) {
+                synchronized (synced) {
+                    failed.incrementAndGet();
+                    synced.notifyAll();
+                }
+            }
+        };
+        
+        for (int k = 0; k < 2; k++) {
+            
+            for (int i = 0; i < numEntries; i++) {
+                String pl = "Entry " + (k * numEntries + i + 1);
+                ReusableBuffer plb = ReusableBuffer.wrap(pl.getBytes());
+                striped.append(new LogEntry(plb, sl, LogEntry.PAYLOAD_TYPE_INSERT));
+            }
+            
+            synchronized (synced) {
+                while (synced.size() + failed.get() < (k + 1) * numEntries)
+                    synced.wait();
+            }
+            
+            if (k == 0) {
+                // no entry behind the failed one must be acknowledged; entries
+                // in the same batch as the failed one fail as well
+                assertTrue(synced.size() < failingSeqNo);
+                assertEquals(numEntries, synced.size() + failed.get());
+            }
+            
+            // the logger recovers with the next log file
+            try {
+                striped.lock();
+                striped.switchLogFile(false);
+            } finally {
+                striped.unlock();
+            }
+        }
+        
+        striped.shutdown();
+        striped.waitForShutdown();
+        
+        // all entries of the second log file have been synced, and all
+        // entries have been acknowledged in the order of their LSNs
+        int syncedFirst = numEntries - failed.get();
+        assertEquals(numEntries + syncedFirst, synced.size());
+        for (int i = 0; i < synced.size(); i++) {
+            long expected = i < syncedFirst ? i + 1 : numEntries + i - syncedFirst + 1;
+            assertEquals(expected, synced.get(i).longValue());
+        }
+        
+        // a replay of the first log file stops at the failed entry
+        List<File> firstLog = new ArrayList<File>();
+        for (String dir : dirs) {
+            File f = new File(dir + DiskLogger.createLogFileName(1, 1));
+            if (f.exists())
+                firstLog.add(f);
+        }
+        DiskLogIterator it = new DiskLogIterator(firstLog.toArray(new File[firstLog.size()]), LSMDatabase.NO_DB_LSN);
+        int n = 0;
+        while (it.hasNext()) {
+            it.next().free();
+            n++;
+        }
+        it.destroy();
+        assertTrue(n >= syncedFirst);
+        assertTrue(n < failingSeqNo);
+    }
+    
+    @Test
+    public void testLogIndex() throws Exception {
+        
+        final int numEntries = 1000;
+        final AtomicInteger count = new AtomicInteger(0);
+        
+        SyncListener sl = new SyncListener() {
+            
+            public void synced(LSN lsn) {
+                synchronized (count) {
+                    count.incrementAndGet();
+                    count.notifyAll();
+                }
+            }
+            
+            public void failed(Exception ex) {
+                fail("this should not happen");
+            }
+        };
+        
+        // write entries of 1 kB each, so that the log index contains samples
+        byte[] padding = new byte[1000];
+        for (int i = 0; i < numEntries; i++) {
+            byte[] pl = ("Entry " + (i + 1) + ":").getBytes();
+            ReusableBuffer plb = ReusableBuffer.wrap(new byte[pl.length + padding.length]);
+            plb.put(pl);
+            plb.put(padding);
+            plb.flip();
+            l.append(new LogEntry(plb, sl, LogEntry.PAYLOAD_TYPE_INSERT));
+        }
+        
+        synchronized (count) {
+            while (count.get() < numEntries)
+                count.wait();
+        }
+        
+        File logFile = new File(testdir + DiskLogger.createLogFileName(1, 1));
+        File indexFile = new File(logFile.getPath() + LogIndex.FILE_SUFFIX);
+        assertTrue(indexFile.exists());
+        
+        LogIndex index = LogIndex.load(logFile);
+        assertTrue(index.size() > 0);
+        assertTrue(index.size() <= logFile.length() / LogIndex.SAMPLE_INTERVAL);
+        
+        // files are positioned directly at the indexed entries
+        for (int k : new int[] { 1, 2, 64, 500, 999, 1000 }) {
+            
+            DiskLogFile file = new DiskLogFile(testdir, new LSN(1, 1));
+            file.skipTo(new LSN(1, k));
+            
+            int sample = index.floor(new LSN(1, k));
+            if (sample >= 0)
+                assertEquals(index.getOffset(sample), file.startOffset);
+            
+            for (int i = k; i <= numEntries; i++) {
+                assertTrue(file.hasNext());
+                LogEntry next = file.next();
+                assertEquals(i, next.getLogSequenceNo());
+                next.free();
+            }
+            assertFalse(file.hasNext());
+            file.close();
+        }
+        
+        // a corrupted index must neither affect the iteration nor the log
+        long logLength = logFile.length();
+        RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
+        raf.seek(raf.length() - 8);
+        raf.writeLong(logFile.length() / 3);
+        raf.close();
+        
+        File[] logFiles = { logFile };
+        for (int k : new int[] { 1, 500, 999 }) {
+            DiskLogIterator it = new DiskLogIterator(logFiles, new LSN(1, k));
+            for (int i = k; i <= numEntries; i++) {
+                assertTrue(it.hasNext());
+                LogEntry next = it.next();
+                assertTrue(new String(next.getPayload().array()).startsWith("Entry " + i + ":"));
+                next.free();
+            }
+            assertFalse(it.hasNext());
+            it.destroy();
+        }
+        assertEquals(logLength, logFile.length());
+    }
+    
+    @Test
+    public void testTailCache() throws Exception {
+        
+        l.shutdown();
+        l.waitForShutdown();
+        FSUtils.delTree(new File(testdir));
+        
+        // room for roughly 50 entries of 100 bytes
+        l = new DiskLogger(new String[] { testdir }, new LSN(1, 1L), SyncMode.FSYNC, 0, 0, 5000);
+        l.start();
+        l.waitForStartup();
+        
+        LogTailCache cache = l.getTailCache();
+        assertNotNull(cache);
+        assertNull(cache.get(new LSN(1, 1), new LSN(1, 10), 10));
+        assertEquals(1, cache.getMisses());
+        
+        final AtomicInteger count = new AtomicInteger(0);
+        SyncListener sl = new SyncListener() {
+            
+            public void synced(LSN lsn) {
+                synchronized (count) {
+                    count.incrementAndGet();
+                    count.notifyAll();
+                }
+            }
+            
+            public void failed(Exception ex) {
+                fail("this should not happen");
+            }
+        };
+        
+        final int numEntries = 100;
+        byte[] padding = new byte[100 - LogEntry.headerLength];
+        for (int i = 0; i < numEntries; i++) {
+            l.append(new LogEntry(ReusableBuffer.wrap(padding.clone()), sl, LogEntry.PAYLOAD_TYPE_INSERT));
+        }
+        
+        synchronized (count) {
+            while (count.get() < numEntries)
+                count.wait();
+        }
+        
+        // the oldest entries have been evicted
+        assertTrue(cache.getSize() <= 5000);
+        assertEquals(cache.getSize(), cache.getEntryCount() * 100L);
+        assertNull(cache.get(new LSN(1, 1), new LSN(1, numEntries), numEntries));
+        
+        // the cached entries are identical to the ones in the log file
+        long first = numEntries - cache.getEntryCount() + 1;
+        List<byte[]> entries = cache.get(new LSN(1, first), new LSN(1, numEntries), numEntries);
+        assertEquals(cache.getEntryCount(), entries.size());
+        assertEquals(1, cache.getHits());
+        
+        DiskLogFile file = new DiskLogFile(testdir, new LSN(1, 1));
+        file.skipTo(new LSN(1, first));
+        for (byte[] entry : entries) {
+            LogEntry next = file.next();
+            ReusableBuffer buf = next.serialize();
+            byte[] bytes = new byte[buf.remaining()];
+            buf.get(bytes);
+            assertTrue(Arrays.equals(bytes, entry));
+            BufferPool.free(buf);
+            next.free();
+        }
+        file.close();
+        
+        // ranges are bounded by the end LSN and the maximum number of entries
+        assertEquals(5, cache.get(new LSN(1, first), new LSN(1, first + 4), numEntries).size());
+        assertEquals(3, cache.get(new LSN(1, first), new LSN(1, numEntries), 3).size());
+        assertEquals(1, cache.get(new LSN(1, numEntries), new LSN(1, numEntries + 10), numEntries).size());
+        
+        // a reload of the log invalidates the cache
+        try {
+            l.lock();
+            l.dropLogFile();
+            l.loadLogFile(new LSN(2, 1L));
+        } finally {
+            l.unlock();
+        }
+        assertEquals(0, cache.getEntryCount());
+    }
+    
+    private static File[] listLogFiles(String[] dirs) {
+        List<File> files = new ArrayList<File>();
+        for (String dir : dirs) {
+            for (File f : new File(dir).listFiles()) {
+                if (f.getName().endsWith(".dbl"))
+                    files.add(f);
+            }
+        }
+        return files.toArray(new File[files.size()]);
+    }
+    
+    /**
+     * Serializes a log entry in the old format, which is protected by a CRC32
+     * checksum.
+     */
+    private static byte[] serializeCRC32(int viewId, long seqNo, String payload) {
+        
+        byte[] pl = payload.getBytes();
+        ByteBuffer buf = ByteBuffer.allocate(LogEntry.headerLength + pl.length);
+        buf.putInt(buf.capacity());
+        buf.putInt(0);
+        buf.putInt(viewId);
+        buf.putLong(seqNo);
+        buf.put(LogEntry.PAYLOAD_TYPE_INSERT);
+        buf.put(pl);
+        buf.putInt(buf.capacity());
+        
+        CRC32 csum = new CRC32();
+        csum.update(buf.array());
+        buf.putInt(Integer.SIZE / 8, (int) csum.getValue());
+        
+        return buf.array();
+    }
+    
     private static void copyFile(File src, File dst) throws Exception {
         FileInputStream in = new FileInputStream(src);
         FileOutputStream out = new FileOutputStream(dst);
@@ -21,6 +21,7 @@ import org.xtreemfs.babudb.api.Checkpointer;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.babudb.log.DiskLogger;
 import org.xtreemfs.babudb.log.LogEntry;
+import org.xtreemfs.babudb.log.LogTailCache;
 import org.xtreemfs.babudb.api.database.DatabaseRequestListener;
 import org.xtreemfs.babudb.api.dev.BabuDBInternal;
 import org.xtreemfs.babudb.api.dev.CheckpointerInternal;
@@ -90,6 +91,21 @@ public class BabuDBInterface {
         return localTxnMan.getLatestOnDiskLSN();
     }
     
+    /**
+     * Retrieves recently written {@link LogEntry}s from memory.
+     * 
+     * @param from - the {@link LSN} of the first entry to retrieve.
+     * @param to - the {@link LSN} of the last entry to retrieve, inclusive.
+     * @param maxEntries - the maximum number of entries to retrieve.
+     * 
+     * @return the serialized {@link LogEntry}s with consecutive {@link LSN}s starting at from, or null, if the
+     *         entry with {@link LSN} from is not kept in memory.
+     */
+    public List<byte[]> getCachedLogEntries(LSN from, LSN to, int maxEntries) {
+        LogTailCache cache = localTxnMan.getLogTailCache();
+        return (cache == null) ? null : cache.get(from, to, maxEntries);
+    }
+    
     /**
      * @return the {@link Checkpointer} lock object.
      */
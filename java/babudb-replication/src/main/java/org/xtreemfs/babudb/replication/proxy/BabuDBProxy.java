@@ -12,6 +12,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.Executor;
 
 import org.xtreemfs.babudb.api.BabuDB;
 import org.xtreemfs.babudb.api.StaticInitialization;
@@ -218,6 +219,14 @@ public class BabuDBProxy implements BabuDBInternal {
         return localBabuDB.getWorkerCount();
     }
 
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.dev.BabuDBInternal#getReadExecutor()
+     */
+    @Override
+    public Executor getReadExecutor() {
+        return localBabuDB.getReadExecutor();
+    }
+    
     /* (non-Javadoc)
      * @see org.xtreemfs.babudb.BabuDBInternal#stop()
      */
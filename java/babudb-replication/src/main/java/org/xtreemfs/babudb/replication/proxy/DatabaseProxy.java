@@ -8,20 +8,27 @@
 package org.xtreemfs.babudb.replication.proxy;
 
 import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.xtreemfs.babudb.BabuDBRequestResultImpl;
+import org.xtreemfs.babudb.api.database.Aggregate;
 import org.xtreemfs.babudb.api.database.DatabaseInsertGroup;
 import org.xtreemfs.babudb.api.database.DatabaseRequestListener;
 import org.xtreemfs.babudb.api.database.DatabaseRequestResult;
 import org.xtreemfs.babudb.api.database.ResultSet;
+import org.xtreemfs.babudb.api.database.ScanPage;
 import org.xtreemfs.babudb.api.database.UserDefinedLookup;
 import org.xtreemfs.babudb.api.dev.DatabaseInternal;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
 import org.xtreemfs.babudb.api.index.ByteRangeComparator;
+import org.xtreemfs.babudb.index.ValueProjectionIterator;
 import org.xtreemfs.babudb.lsmdb.BabuDBInsertGroup;
 import org.xtreemfs.babudb.lsmdb.LSMDatabase;
 import org.xtreemfs.babudb.replication.policy.Policy;
+import org.xtreemfs.babudb.replication.service.clients.ClientResponseFuture.ClientResponseAvailableListener;
 import org.xtreemfs.babudb.replication.transmission.client.ReplicationClientAdapter.ErrorCodeException;
 import org.xtreemfs.babudb.snapshots.SnapshotConfig;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
@@ -122,6 +129,74 @@ public class DatabaseProxy implements DatabaseInternal {
         return result;
     }
 
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseRO#multiLookup(int, byte[][], 
+     *          java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<byte[][]> multiLookup(final int indexId, final byte[][] keys, 
+            final Object context) {
+        
+        assert (keys != null);
+        
+        BabuDBRequestResultImpl<byte[][]> result = 
+            new BabuDBRequestResultImpl<byte[][]>(context, dbMan.getResponseManager());
+        
+        new ListenerWrapper<byte[][]>(result, new RequestOperation<byte[][]>() {
+            
+            @Override
+            public void execute(final ListenerWrapper<byte[][]> listener) {
+                InetSocketAddress master = null;
+                try {
+                    master = getServerToPerformAt(0);
+                    
+                    if (master == null) {
+                        localDB.multiLookup(indexId, keys, context).registerListener(listener);
+                        return;
+                    }
+                } catch (BabuDBException e) {
+                    listener.failed(e);
+                    return;
+                }
+                
+                // there is no RPC for multi-lookups yet; the keys are looked 
+                // up at the master one by one, and the results are collected
+                final byte[][] values = new byte[keys.length][];
+                final AtomicInteger pending = new AtomicInteger(keys.length);
+                final AtomicBoolean failed = new AtomicBoolean(false);
+                
+                if (keys.length == 0) {
+                    listener.responseAvailable(values);
+                    return;
+                }
+                
+                for (int i = 0; i < keys.length; i++) {
+                    final int pos = i;
+                    dbMan.getClient().lookup(name, indexId, ReusableBuffer.wrap(keys[i]), master)
+                            .registerListener(new ClientResponseAvailableListener<byte[]>() {
+                        
+                        @Override
+                        public void responseAvailable(byte[] r) {
+                            values[pos] = r;
+                            if (pending.decrementAndGet() == 0 && !failed.get()) {
+                                listener.responseAvailable(values);
+                            }
+                        }
+                        
+                        @Override
+                        public void requestFailed(Exception e) {
+                            if (failed.compareAndSet(false, true)) {
+                                listener.requestFailed(e);
+                            }
+                        }
+                    });
+                }
+            }
+        }, dbMan.getRequestRerunner());
+        
+        return result;
+    }
+    
     /* (non-Javadoc)
      * @see org.xtreemfs.babudb.api.database.DatabaseRO#prefixLookup(int, 
      *          byte[], java.lang.Object)
@@ -184,6 +259,44 @@ public class DatabaseProxy implements DatabaseInternal {
         return result;
     }
     
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseRO#prefixLookup(int, 
+     *          byte[], boolean, int, java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<ResultSet<byte[], byte[]>> prefixLookup(final int indexId, 
+            final byte[] key, final boolean ascending, final int maxValueLength, final Object context) {
+        
+        BabuDBRequestResultImpl<ResultSet<byte[], byte[]>> result = 
+            new BabuDBRequestResultImpl<ResultSet<byte[], byte[]>>(context, dbMan.getResponseManager());
+        
+        new ListenerWrapper<ResultSet<byte[], byte[]>>(result, new RequestOperation<ResultSet<byte[], byte[]>>() {
+            
+            @Override
+            public void execute(ListenerWrapper<ResultSet<byte[], byte[]>> listener) {
+                InetSocketAddress master = null;
+                try {
+                    master = getServerToPerformAt(0);
+                    if (master == null) {
+                        localDB.prefixLookup(indexId, key, ascending, maxValueLength, context)
+                                .registerListener(listener);
+                    } else {
+                        // the projection is not supported by the RPC; it is 
+                        // applied to the complete entries sent by the master
+                        (ascending ? dbMan.getClient().prefixLookup(name, indexId, ReusableBuffer.wrap(key), 
+                                master) : dbMan.getClient().prefixLookupR(name, indexId, 
+                                ReusableBuffer.wrap(key), master)).registerListener(
+                                        new ProjectionListener(listener, maxValueLength));
+                    }
+                } catch (BabuDBException e) {
+                    listener.failed(e);
+                }
+            }
+        }, dbMan.getRequestRerunner());
+        
+        return result;
+    }
+    
     /* (non-Javadoc)
      * @see org.xtreemfs.babudb.api.database.DatabaseRO#reversePrefixLookup(int, 
      *          byte[], java.lang.Object)
@@ -297,6 +410,278 @@ public class DatabaseProxy implements DatabaseInternal {
         return result;
     }
 
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseRO#rangeLookup(int, byte[], 
+     *          byte[], boolean, int, java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<ResultSet<byte[], byte[]>> rangeLookup(final int indexId, 
+            final byte[] from, final byte[] to, final boolean ascending, final int maxValueLength, 
+            final Object context) {
+        
+        BabuDBRequestResultImpl<ResultSet<byte[], byte[]>> result = 
+            new BabuDBRequestResultImpl<ResultSet<byte[], byte[]>>(context, dbMan.getResponseManager());
+        
+        new ListenerWrapper<ResultSet<byte[], byte[]>>(result, new RequestOperation<ResultSet<byte[], byte[]>>() {
+            
+            @Override
+            public void execute(ListenerWrapper<ResultSet<byte[], byte[]>> listener) {
+                InetSocketAddress master = null;
+                try {
+                    master = getServerToPerformAt(0);
+                    if (master == null) {
+                        localDB.rangeLookup(indexId, from, to, ascending, maxValueLength, context)
+                                .registerListener(listener);
+                    } else {
+                        // the projection is not supported by the RPC; it is 
+                        // applied to the complete entries sent by the master
+                        (ascending ? dbMan.getClient().rangeLookup(name, indexId, ReusableBuffer.wrap(from), 
+                                ReusableBuffer.wrap(to), master) : dbMan.getClient().rangeLookupR(name, 
+                                indexId, ReusableBuffer.wrap(from), ReusableBuffer.wrap(to), master))
+                                .registerListener(new ProjectionListener(listener, maxValueLength));
+                    }
+                } catch (BabuDBException e) {
+                    listener.failed(e);
+                }
+            }
+        }, dbMan.getRequestRerunner());
+        
+        return result;
+    }
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseRO#count(int, byte[], byte[], 
+     *          java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<Long> count(final int indexId, final byte[] from, 
+            final byte[] to, final Object context) {
+        
+        BabuDBRequestResultImpl<Long> result = 
+            new BabuDBRequestResultImpl<Long>(context, dbMan.getResponseManager());
+        
+        new ListenerWrapper<Long>(result, new RequestOperation<Long>() {
+            
+            @Override
+            public void execute(ListenerWrapper<Long> listener) {
+                InetSocketAddress master = null;
+                try {
+                    master = getServerToPerformAt(0);
+                    if (master == null) {
+                        localDB.count(indexId, from, to, context).registerListener(listener);
+                    } else {
+                        // there is no RPC for counting; the entries are
+                        // counted when they have been received from the master
+                        dbMan.getClient().rangeLookup(name, indexId, ReusableBuffer.wrap(from), 
+                                ReusableBuffer.wrap(to), master).registerListener(
+                                        new CountListener(listener));
+                    }
+                } catch (BabuDBException e) {
+                    listener.failed(e);
+                }
+            }
+        }, dbMan.getRequestRerunner());
+        
+        return result;
+    }
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseRO#prefixCount(int, byte[], 
+     *          java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<Long> prefixCount(final int indexId, final byte[] prefix, 
+            final Object context) {
+        
+        BabuDBRequestResultImpl<Long> result = 
+            new BabuDBRequestResultImpl<Long>(context, dbMan.getResponseManager());
+        
+        new ListenerWrapper<Long>(result, new RequestOperation<Long>() {
+            
+            @Override
+            public void execute(ListenerWrapper<Long> listener) {
+                InetSocketAddress master = null;
+                try {
+                    master = getServerToPerformAt(0);
+                    if (master == null) {
+                        localDB.prefixCount(indexId, prefix, context).registerListener(listener);
+                    } else {
+                        dbMan.getClient().prefixLookup(name, indexId, ReusableBuffer.wrap(prefix), 
+                                master).registerListener(new CountListener(listener));
+                    }
+                } catch (BabuDBException e) {
+                    listener.failed(e);
+                }
+            }
+        }, dbMan.getRequestRerunner());
+        
+        return result;
+    }
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseRO#aggregate(int, byte[], byte[], 
+     *          java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<Aggregate> aggregate(final int indexId, final byte[] from, 
+            final byte[] to, final Object context) {
+        
+        BabuDBRequestResultImpl<Aggregate> result = 
+            new BabuDBRequestResultImpl<Aggregate>(context, dbMan.getResponseManager());
+        
+        new ListenerWrapper<Aggregate>(result, new RequestOperation<Aggregate>() {
+            
+            @Override
+            public void execute(ListenerWrapper<Aggregate> listener) {
+                InetSocketAddress master = null;
+                try {
+                    master = getServerToPerformAt(0);
+                    if (master == null) {
+                        localDB.aggregate(indexId, from, to, context).registerListener(listener);
+                    } else {
+                        // there is no RPC for aggregating; the aggregate is
+                        // computed from the entries received from the master
+                        dbMan.getClient().rangeLookup(name, indexId, ReusableBuffer.wrap(from), 
+                                ReusableBuffer.wrap(to), master).registerListener(
+                                        new AggregateListener(listener));
+                    }
+                } catch (BabuDBException e) {
+                    listener.failed(e);
+                }
+            }
+        }, dbMan.getRequestRerunner());
+        
+        return result;
+    }
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseRO#prefixAggregate(int, byte[], 
+     *          java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<Aggregate> prefixAggregate(final int indexId, 
+            final byte[] prefix, final Object context) {
+        
+        BabuDBRequestResultImpl<Aggregate> result = 
+            new BabuDBRequestResultImpl<Aggregate>(context, dbMan.getResponseManager());
+        
+        new ListenerWrapper<Aggregate>(result, new RequestOperation<Aggregate>() {
+            
+            @Override
+            public void execute(ListenerWrapper<Aggregate> listener) {
+                InetSocketAddress master = null;
+                try {
+                    master = getServerToPerformAt(0);
+                    if (master == null) {
+                        localDB.prefixAggregate(indexId, prefix, context).registerListener(listener);
+                    } else {
+                        dbMan.getClient().prefixLookup(name, indexId, ReusableBuffer.wrap(prefix), 
+                                master).registerListener(new AggregateListener(listener));
+                    }
+                } catch (BabuDBException e) {
+                    listener.failed(e);
+                }
+            }
+        }, dbMan.getRequestRerunner());
+        
+        return result;
+    }
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseRO#scan(int, byte[], byte[], 
+     *          int, java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<ScanPage> scan(final int indexId, final byte[] from, 
+            final byte[] to, final int pageSize, final Object context) {
+        
+        if (pageSize <= 0)
+            throw new IllegalArgumentException("page size must be positive");
+        
+        return scan(indexId, from, to, null, pageSize, context);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.database.DatabaseRO#resumeScan(int, byte[], 
+     *          int, java.lang.Object)
+     */
+    @Override
+    public DatabaseRequestResult<ScanPage> resumeScan(final int indexId, 
+            final byte[] continuationToken, final int pageSize, final Object context) {
+        
+        if (pageSize <= 0)
+            throw new IllegalArgumentException("page size must be positive");
+        
+        // reject invalid tokens before the request is sent to the master
+        ScanPage.parseToken(continuationToken);
+        
+        return scan(indexId, null, null, continuationToken, pageSize, context);
+    }
+    
+    private DatabaseRequestResult<ScanPage> scan(final int indexId, final byte[] from, 
+            final byte[] to, final byte[] continuationToken, final int pageSize, 
+            final Object context) {
+        
+        BabuDBRequestResultImpl<ScanPage> result = 
+            new BabuDBRequestResultImpl<ScanPage>(context, dbMan.getResponseManager());
+        
+        new ListenerWrapper<ScanPage>(result, new RequestOperation<ScanPage>() {
+            
+            @Override
+            public void execute(ListenerWrapper<ScanPage> listener) {
+                InetSocketAddress master = null;
+                try {
+                    master = getServerToPerformAt(0);
+                    if (master == null) {
+                        (continuationToken == null ? localDB.scan(indexId, from, to, pageSize, 
+                                context) : localDB.resumeScan(indexId, continuationToken, pageSize, 
+                                context)).registerListener(listener);
+                    } else {
+                        dbMan.getClient().scan(name, indexId, wrap(from), wrap(to), 
+                                wrap(continuationToken), pageSize, master).registerListener(listener);
+                    }
+                } catch (BabuDBException e) {
+                    listener.failed(e);
+                }
+            }
+        }, dbMan.getRequestRerunner());
+        
+        return result;
+    }
+    
+    // TODO ugly code! redesign!!
+    public DatabaseRequestResult<ScanPage> scanNonblocking(int indexId, byte[] from, byte[] to, 
+            byte[] continuationToken, int pageSize, Object context) {
+        
+        InetSocketAddress master = null;
+        BabuDBRequestResultImpl<ScanPage> result = 
+            new BabuDBRequestResultImpl<ScanPage>(context, dbMan.getResponseManager());
+        try {
+            master = getServerToPerformAt(-1);
+            if (master == null) {
+                return continuationToken == null ? localDB.scan(indexId, from, to, pageSize, 
+                        context) : localDB.resumeScan(indexId, continuationToken, pageSize, context);
+            }
+        } catch (BabuDBException e) {
+            result.failed(e);
+            return result;
+        }
+        
+        dbMan.getClient().scan(name, indexId, wrap(from), wrap(to), wrap(continuationToken), 
+                pageSize, master).registerListener(new ListenerWrapper<ScanPage>(result));
+        
+        return result;
+    }
+    
+    /**
+     * @param bytes
+     * @return a buffer wrapping the given bytes, which is empty for 
+     *         <code>null</code>.
+     */
+    private static ReusableBuffer wrap(byte[] bytes) {
+        return ReusableBuffer.wrap(bytes == null ? new byte[0] : bytes);
+    }
+    
     /* (non-Javadoc)
      * @see org.xtreemfs.babudb.api.database.DatabaseRO#reverseRangeLookup(int, 
      *          byte[], byte[], java.lang.Object)
@@ -378,6 +763,16 @@ public class DatabaseProxy implements DatabaseInternal {
                     listener.failed(e, context);
                 }
                 
+                @Override
+                public void registerListener(
+                        final DatabaseRequestListener<Object> listener, Executor executor) {
+                    executor.execute(new Runnable() {
+                        public void run() {
+                            listener.failed(e, context);
+                        }
+                    });
+                }
+                
                 @Override
                 public Object get() 
                         throws BabuDBException {
@@ -757,4 +1152,83 @@ public class DatabaseProxy implements DatabaseInternal {
                     + "'not master' server is not supported by the replication plugin.");
         }
     }
+    
+    /**
+     * Applies a value projection to a result set received from the master.
+     */
+    private final static class ProjectionListener 
+            implements ClientResponseAvailableListener<ResultSet<byte[], byte[]>> {
+        
+        private final ListenerWrapper<ResultSet<byte[], byte[]>> listener;
+        
+        private final int                                        maxValueLength;
+        
+        private ProjectionListener(ListenerWrapper<ResultSet<byte[], byte[]>> listener, 
+                int maxValueLength) {
+            this.listener = listener;
+            this.maxValueLength = maxValueLength;
+        }
+        
+        @Override
+        public void responseAvailable(ResultSet<byte[], byte[]> r) {
+            listener.responseAvailable(ValueProjectionIterator.project(r, maxValueLength));
+        }
+        
+        @Override
+        public void requestFailed(Exception e) {
+            listener.requestFailed(e);
+        }
+    }
+    
+    /**
+     * Counts the entries of a lookup result received from the master.
+     */
+    private final static class CountListener 
+            implements ClientResponseAvailableListener<ResultSet<byte[], byte[]>> {
+        
+        private final ListenerWrapper<Long> listener;
+        
+        private CountListener(ListenerWrapper<Long> listener) {
+            this.listener = listener;
+        }
+        
+        @Override
+        public void responseAvailable(ResultSet<byte[], byte[]> r) {
+            long count = 0;
+            for (; r.hasNext(); r.next())
+                count++;
+            r.free();
+            listener.responseAvailable(count);
+        }
+        
+        @Override
+        public void requestFailed(Exception e) {
+            listener.requestFailed(e);
+        }
+    }
+    
+    /**
+     * Aggregates the entries of a lookup result received from the master.
+     */
+    private final static class AggregateListener 
+            implements ClientResponseAvailableListener<ResultSet<byte[], byte[]>> {
+        
+        private final ListenerWrapper<Aggregate> listener;
+        
+        private AggregateListener(ListenerWrapper<Aggregate> listener) {
+            this.listener = listener;
+        }
+        
+        @Override
+        public void responseAvailable(ResultSet<byte[], byte[]> r) {
+            Aggregate aggregate = Aggregate.compute(r);
+            r.free();
+            listener.responseAvailable(aggregate);
+        }
+        
+        @Override
+        public void requestFailed(Exception e) {
+            listener.requestFailed(e);
+        }
+    }
 }
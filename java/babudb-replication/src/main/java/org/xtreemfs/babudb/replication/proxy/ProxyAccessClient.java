@@ -15,9 +15,11 @@ import java.util.Map;
 
 import org.xtreemfs.babudb.api.database.Database;
 import org.xtreemfs.babudb.api.database.ResultSet;
+import org.xtreemfs.babudb.api.database.ScanPage;
 import org.xtreemfs.babudb.pbrpc.GlobalTypes.Databases;
 import org.xtreemfs.babudb.pbrpc.GlobalTypes.EntryMap;
 import org.xtreemfs.babudb.pbrpc.GlobalTypes.ErrorCodeResponse;
+import org.xtreemfs.babudb.pbrpc.GlobalTypes.ScanResult;
 import org.xtreemfs.babudb.replication.service.clients.ClientResponseFuture;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 
@@ -136,4 +138,20 @@ public interface ProxyAccessClient {
     public ClientResponseFuture<ResultSet<byte[], byte[]>, EntryMap> rangeLookupR(
             String dbName, int indexId, ReusableBuffer from, ReusableBuffer to, 
             InetSocketAddress master);
+    
+    /**
+     * RPC for retrieving a page of a range scan at the master.
+     * 
+     * @param dbName
+     * @param indexId
+     * @param from
+     * @param to
+     * @param continuationToken - empty for the first page of a scan.
+     * @param pageSize
+     * @param master
+     * @return the request's response future.
+     */
+    public ClientResponseFuture<ScanPage, ScanResult> scan(String dbName, int indexId, 
+            ReusableBuffer from, ReusableBuffer to, ReusableBuffer continuationToken, 
+            int pageSize, InetSocketAddress master);
 }
@@ -19,6 +19,7 @@ import org.xtreemfs.babudb.replication.proxy.operations.PrefixLookupOperation;
 import org.xtreemfs.babudb.replication.proxy.operations.PrefixLookupReverseOperation;
 import org.xtreemfs.babudb.replication.proxy.operations.RangeLookupOperation;
 import org.xtreemfs.babudb.replication.proxy.operations.RangeLookupReverseOperation;
+import org.xtreemfs.babudb.replication.proxy.operations.ScanOperation;
 import org.xtreemfs.babudb.replication.transmission.dispatcher.Operation;
 import org.xtreemfs.babudb.replication.transmission.dispatcher.RequestHandler;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.ErrorType;
@@ -71,6 +72,9 @@ public class ProxyRequestHandler extends RequestHandler {
         
         op = new RangeLookupReverseOperation(dbs);
         operations.put(op.getProcedureId(), op);
+        
+        op = new ScanOperation(dbs);
+        operations.put(op.getProcedureId(), op);
     }
     
     @Override
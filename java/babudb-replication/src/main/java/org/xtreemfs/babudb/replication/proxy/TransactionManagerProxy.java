@@ -21,6 +21,7 @@ import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
 import org.xtreemfs.babudb.api.transaction.TransactionListener;
 import org.xtreemfs.babudb.log.DiskLogger;
 import org.xtreemfs.babudb.log.LogEntry;
+import org.xtreemfs.babudb.log.LogTailCache;
 import org.xtreemfs.babudb.lsmdb.LSN;
 import org.xtreemfs.babudb.replication.ReplicationManager;
 import org.xtreemfs.babudb.replication.policy.Policy;
@@ -256,6 +257,14 @@ public class TransactionManagerProxy extends TransactionManagerInternal {
     public LSN getLatestOnDiskLSN() {
         return localTxnMan.getLatestOnDiskLSN();
     }
+    
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.api.dev.transaction.TransactionManagerInternal#getLogTailCache()
+     */
+    @Override
+    public LogTailCache getLogTailCache() {
+        return localTxnMan.getLogTailCache();
+    }
 
     /* (non-Javadoc)
      * @see org.xtreemfs.babudb.api.PersistenceManager#init(org.xtreemfs.babudb.lsmdb.LSN)
@@ -266,11 +275,11 @@ public class TransactionManagerProxy extends TransactionManagerInternal {
     }
 
     /* (non-Javadoc)
-     * @see org.xtreemfs.babudb.api.dev.transaction.TransactionManagerInternal#replayTransaction(org.xtreemfs.babudb.api.dev.transaction.TransactionInternal)
+     * @see org.xtreemfs.babudb.api.dev.transaction.TransactionManagerInternal#replayTransaction(org.xtreemfs.babudb.api.dev.transaction.TransactionInternal, org.xtreemfs.babudb.lsmdb.LSN)
      */
     @Override
-    public void replayTransaction(TransactionInternal txn) throws BabuDBException {
-        this.localTxnMan.replayTransaction(txn);
+    public void replayTransaction(TransactionInternal txn, LSN lsn) throws BabuDBException {
+        this.localTxnMan.replayTransaction(txn, lsn);
     }
 
     /* (non-Javadoc)
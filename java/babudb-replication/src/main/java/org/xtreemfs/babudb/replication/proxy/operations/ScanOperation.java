@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2011, Jan Stender, Bjoern Kolbeck, Mikael Hoegqvist,
+ *                     Felix Hupfeld, Felix Langner, Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.babudb.replication.proxy.operations;
+
+import java.util.Map.Entry;
+
+import org.xtreemfs.babudb.api.database.DatabaseRequestListener;
+import org.xtreemfs.babudb.api.database.ScanPage;
+import org.xtreemfs.babudb.api.exception.BabuDBException;
+import org.xtreemfs.babudb.pbrpc.GlobalTypes.ErrorCodeResponse;
+import org.xtreemfs.babudb.pbrpc.GlobalTypes.Scan;
+import org.xtreemfs.babudb.pbrpc.GlobalTypes.ScanResult;
+import org.xtreemfs.babudb.pbrpc.RemoteAccessServiceConstants;
+import org.xtreemfs.babudb.replication.BabuDBInterface;
+import org.xtreemfs.babudb.replication.transmission.ErrorCode;
+import org.xtreemfs.babudb.replication.transmission.dispatcher.Operation;
+import org.xtreemfs.babudb.replication.transmission.dispatcher.Request;
+import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.ReusableBuffer;
+import org.xtreemfs.foundation.logging.Logging;
+
+import com.google.protobuf.Message;
+
+/**
+ * Operation to retrieve a page of a range scan at the server with master
+ * privilege. Only the entries of the requested page are sent, followed by
+ * the continuation token for the next page.
+ */
+public class ScanOperation extends Operation {
+
+    private final BabuDBInterface dbs;
+
+    public ScanOperation(BabuDBInterface dbs) {
+        this.dbs = dbs;
+    }
+
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.replication.transmission.dispatcher.Operation#
+     *          getProcedureId()
+     */
+    @Override
+    public int getProcedureId() {
+        return RemoteAccessServiceConstants.PROC_ID_SCAN;
+    }
+
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.replication.transmission.dispatcher.Operation#
+     *          getDefaultRequest()
+     */
+    @Override
+    public Message getDefaultRequest() {
+        return Scan.getDefaultInstance();
+    }
+
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.replication.transmission.dispatcher.Operation#
+     *          processRequest(org.xtreemfs.babudb.replication.transmission.dispatcher.Request)
+     */
+    @Override
+    public void processRequest(final Request rq) {
+        Scan req = (Scan) rq.getRequestMessage();
+
+        // the payload consists of the range bounds and the continuation token
+        ReusableBuffer data = rq.getData();
+        byte[] from = new byte[req.getFromLength()];
+        byte[] to = new byte[req.getToLength()];
+        byte[] token = null;
+        if (data != null) {
+            data.position(0);
+            data.get(from);
+            data.get(to);
+            if (data.hasRemaining()) {
+                token = new byte[data.remaining()];
+                data.get(token);
+            }
+        }
+
+        Logging.logMessage(Logging.LEVEL_DEBUG, this, "ScanOperation:" +
+                "db %s, index %d, page size %d, resumed %s.", req.getDatabaseName(),
+                req.getIndexId(), req.getPageSize(), String.valueOf(token != null));
+
+        try {
+            dbs.getDatabase(req.getDatabaseName()).scanNonblocking(req.getIndexId(), from, to,
+                    token, req.getPageSize(), null).registerListener(
+                            new DatabaseRequestListener<ScanPage>() {
+
+                @Override
+                public void finished(ScanPage result, Object context) {
+                    ScanResult.Builder r = ScanResult.newBuilder();
+
+                    byte[] token = result.getContinuationToken();
+                    int size = token == null ? 0 : token.length;
+                    for (Entry<byte[], byte[]> entry : result.getEntries()) {
+                        size += entry.getKey().length + entry.getValue().length;
+                    }
+
+                    // prepare the response
+                    ReusableBuffer data = BufferPool.allocate(size);
+                    for (Entry<byte[], byte[]> entry : result.getEntries()) {
+                        r.addLength(entry.getKey().length);
+                        r.addLength(entry.getValue().length);
+
+                        data.put(entry.getKey());
+                        data.put(entry.getValue());
+                    }
+                    if (token != null) {
+                        r.setTokenLength(token.length);
+                        data.put(token);
+                    }
+                    data.flip();
+
+                    rq.sendSuccess(r.build(), data);
+                }
+
+                @Override
+                public void failed(BabuDBException error, Object context) {
+                    rq.sendSuccess(ErrorCodeResponse.newBuilder().setErrorCode(
+                            ErrorCode.mapUserError(error)).build());
+                }
+            });
+        } catch (BabuDBException e) {
+            rq.sendSuccess(ErrorCodeResponse.newBuilder().setErrorCode(
+                    ErrorCode.mapUserError(e)).build());
+        } catch (IllegalArgumentException e) {
+            rq.sendSuccess(ErrorCodeResponse.newBuilder().setErrorCode(
+                    ErrorCode.UNKNOWN).build());
+        }
+    }
+}
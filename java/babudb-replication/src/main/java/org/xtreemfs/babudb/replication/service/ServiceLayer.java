@@ -17,7 +17,6 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.zip.CRC32;
 
 import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
@@ -75,9 +74,6 @@ public class ServiceLayer extends Layer implements  ServiceToControlInterface, S
     /** interface to the underlying layer */
     private final TransmissionToServiceInterface transmissionInterface;
         
-    /** thread safe checksum object for serialization of LogEntries to replicate */
-    private final AtomicReference<CRC32>         checksum = new AtomicReference<CRC32>(new CRC32());
-        
     private final ReplicationConfig              config;
     
     /**
@@ -177,15 +173,7 @@ public class ServiceLayer extends Layer implements  ServiceToControlInterface, S
         } else {
             
             // serialize the LogEntry
-            ReusableBuffer payload = null;
-            synchronized(checksum) {
-                CRC32 csumAlgo = checksum.get();
-                try {
-                    payload = le.serialize(csumAlgo);
-                } finally {
-                    csumAlgo.reset();
-                }
-            }
+            ReusableBuffer payload = le.serialize();
             
             // send the LogEntry to the other servers
             for (final SlaveClient slave : slaves) {
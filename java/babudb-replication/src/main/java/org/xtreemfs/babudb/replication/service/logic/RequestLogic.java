@@ -9,8 +9,6 @@ package org.xtreemfs.babudb.replication.service.logic;
 
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.zip.CRC32;
-import java.util.zip.Checksum;
 
 import org.xtreemfs.babudb.api.database.DatabaseRequestListener;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
@@ -38,9 +36,6 @@ import org.xtreemfs.foundation.logging.Logging;
 
 public class RequestLogic extends Logic {
     
-    /** checksum algorithm used to deserialize logEntries */
-    private final Checksum checksum = new CRC32();
-
     /**
      * @param babuDB
      * @param slaveView
@@ -99,47 +94,43 @@ public class RequestLogic extends Logic {
             // insert all logEntries
             LSN check = null;
             for (ReusableBuffer le : logEntries) {
-                try {
-                    final LogEntry logentry = LogEntry.deserialize(le, checksum);
-                    final LSN lsn = logentry.getLSN();
-                    
-                    // assertion whether the received entry does match the order 
-                    // or not
-                    assert (check == null || 
-                           (check.getViewId() == lsn.getViewId() && 
-                            check.getSequenceNo()+1L == lsn.getSequenceNo()) ||
-                            check.getViewId()+1 == lsn.getViewId() &&
-                            lsn.getSequenceNo() == 1L) : "ERROR: last LSN (" +
-                            check.toString() + ") received LSN (" + 
-                            lsn.toString() + ")!";
-                    check = lsn;
+                final LogEntry logentry = LogEntry.deserialize(le);
+                final LSN lsn = logentry.getLSN();
+                
+                // assertion whether the received entry does match the order 
+                // or not
+                assert (check == null || 
+                       (check.getViewId() == lsn.getViewId() && 
+                        check.getSequenceNo()+1L == lsn.getSequenceNo()) ||
+                        check.getViewId()+1 == lsn.getViewId() &&
+                        lsn.getSequenceNo() == 1L) : "ERROR: last LSN (" +
+                        check.toString() + ") received LSN (" + 
+                        lsn.toString() + ")!";
+                check = lsn;
+                
+                // we have to switch the log-file
+                if (lsn.getSequenceNo() == 1L && babuDB.getState().getViewId() < lsn.getViewId()) {
+                    lastOnView.set(babuDB.checkpoint());
+                }
+                
+                babuDB.appendToLocalPersistenceManager(logentry, new DatabaseRequestListener<Object>() {
                     
-                    // we have to switch the log-file
-                    if (lsn.getSequenceNo() == 1L && babuDB.getState().getViewId() < lsn.getViewId()) {
-                        lastOnView.set(babuDB.checkpoint());
+                    @Override
+                    public void finished(Object result, Object context) {
+                        synchronized (count) {
+                            if (count.decrementAndGet() == 0) count.notify();
+                        }
                     }
                     
-                    babuDB.appendToLocalPersistenceManager(logentry, new DatabaseRequestListener<Object>() {
-                        
-                        @Override
-                        public void finished(Object result, Object context) {
-                            synchronized (count) {
-                                if (count.decrementAndGet() == 0) count.notify();
-                            }
-                        }
-                        
-                        @Override
-                        public void failed(BabuDBException error, Object context) {
-                            Logging.logError(Logging.LEVEL_ERROR, this, error);
-                            synchronized (count) {
-                                count.set(-1);
-                                count.notify();
-                            }
+                    @Override
+                    public void failed(BabuDBException error, Object context) {
+                        Logging.logError(Logging.LEVEL_ERROR, this, error);
+                        synchronized (count) {
+                            count.set(-1);
+                            count.notify();
                         }
-                    });
-                } finally {
-                    checksum.reset();
-                }  
+                    }
+                });
             }
             
             // block until all inserts are finished
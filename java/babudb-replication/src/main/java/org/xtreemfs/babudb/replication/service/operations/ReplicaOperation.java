@@ -8,9 +8,8 @@
 package org.xtreemfs.babudb.replication.service.operations;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.zip.CRC32;
-import java.util.zip.Checksum;
 
 import org.xtreemfs.babudb.log.DiskLogIterator;
 import org.xtreemfs.babudb.log.LogEntry;
@@ -43,8 +42,6 @@ public class ReplicaOperation extends Operation {
 
     private final static int            MAX_LOGENTRIES_PER_REQUEST = 100;
             
-    private final Checksum              checksum = new CRC32();
-    
     private final AtomicReference<LSN>  lastOnView;
     
     private final BabuDBInterface       babuInterface;
@@ -106,6 +103,32 @@ public class ReplicaOperation extends Operation {
         
         assert (firstEntryNeeded.compareTo(end) <= 0) : "At least one LogEntry has to be requested!";
         
+        // recently written entries are served from memory, without interfering with checkpoints
+        List<byte[]> cached = babuInterface.getCachedLogEntries(firstEntryNeeded, end, 
+                MAX_LOGENTRIES_PER_REQUEST);
+        if (cached != null && cached.size() > 0) {
+            
+            int size = 0;
+            for (byte[] entry : cached) {
+                size += entry.length;
+            }
+            BufferPool.free(resultPayLoad);
+            resultPayLoad = BufferPool.allocate(size);
+            
+            for (byte[] entry : cached) {
+                result.addLogEntries(org.xtreemfs.babudb.pbrpc.GlobalTypes.LogEntry
+                        .newBuilder().setLength(entry.length));
+                resultPayLoad.put(entry);
+            }
+            
+            Logging.logMessage(Logging.LEVEL_DEBUG, this, "REQUEST: returning %d cached log-entries to %s.", 
+                    result.getLogEntriesCount(), rq.getSenderAddress().toString()); 
+            
+            resultPayLoad.flip();
+            rq.sendSuccess(result.build(), resultPayLoad);
+            return;
+        }
+        
         DiskLogIterator it = null;
         LogEntry le = null;
         synchronized (babuInterface.getCheckpointerLock()) {
@@ -146,7 +169,7 @@ public class ReplicaOperation extends Operation {
                           
                         // add the logEntry to result list
                         assert (le.getPayload().array().length > 0) : "Empty log-entries are not allowed!";
-                        ReusableBuffer buf = le.serialize(checksum);
+                        ReusableBuffer buf = le.serialize();
                         
                         result.addLogEntries(org.xtreemfs.babudb.pbrpc.GlobalTypes.LogEntry
                                 .newBuilder().setLength(buf.remaining()));
@@ -174,7 +197,6 @@ public class ReplicaOperation extends Operation {
                         BufferPool.free(buf);
                         
                     } finally {
-                        checksum.reset();
                         if (le != null) {
                             le.free();
                             le = null;
@@ -7,8 +7,6 @@
  */
 package org.xtreemfs.babudb.replication.service.operations;
 
-import java.util.zip.CRC32;
-import java.util.zip.Checksum;
 
 import org.xtreemfs.babudb.log.LogEntry;
 import org.xtreemfs.babudb.log.LogEntryException;
@@ -36,9 +34,6 @@ import com.google.protobuf.Message;
 
 public class ReplicateOperation extends Operation {
 
-    /** Object for generating check sums */
-    private final Checksum                      checksum = new CRC32();     
-        
     private final RequestManagement             rqMan;
                 
     public ReplicateOperation(RequestManagement rqMan) {
@@ -82,14 +77,13 @@ public class ReplicateOperation extends Operation {
             
             ReusableBuffer data = rq.getData().createViewBuffer();
             try {
-                rq.setAttachment(LogEntry.deserialize(data, checksum));
+                rq.setAttachment(LogEntry.deserialize(data));
             } catch (LogEntryException e){
                 Logging.logError(Logging.LEVEL_WARN, this, e);
                 resp = ErrorResponse.newBuilder()
                         .setErrorMessage(e.getMessage())
                         .setErrorType(ErrorType.IO_ERROR).build();
             } finally {
-                checksum.reset();
                 if (data != null) BufferPool.free(data);
             } 
         }
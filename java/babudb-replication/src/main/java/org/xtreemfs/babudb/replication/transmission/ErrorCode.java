@@ -41,6 +41,8 @@ public final class ErrorCode {
     
     public final static int T_NO_SUCH_SNAPSHOT = 14;
     
+    public final static int T_CONDITION_FAILED = 15;
+    
     public final static int UNKNOWN = 99;
     
     /**
@@ -58,6 +60,7 @@ public final class ErrorCode {
         case NO_SUCH_INDEX :    return ErrorCode.T_NO_SUCH_INDEX;
         case SNAP_EXISTS :      return ErrorCode.T_SNAP_EXISTS;
         case NO_SUCH_SNAPSHOT : return ErrorCode.T_NO_SUCH_SNAPSHOT;
+        case CONDITION_FAILED : return ErrorCode.T_CONDITION_FAILED;
         default :               Logging.logError(Logging.LEVEL_DEBUG, e, e);            
                                 return ErrorCode.UNKNOWN;
         }
@@ -83,6 +86,8 @@ public final class ErrorCode {
             return org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode.SNAP_EXISTS;
         case ErrorCode.T_NO_SUCH_SNAPSHOT: 
             return org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode.NO_SUCH_SNAPSHOT;
+        case ErrorCode.T_CONDITION_FAILED: 
+            return org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode.CONDITION_FAILED;
         default :               
             return org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode.REPLICATION_FAILURE;
         }
@@ -10,6 +10,9 @@ package org.xtreemfs.babudb.replication.transmission;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.xtreemfs.babudb.config.ReplicationConfig;
 import org.xtreemfs.babudb.log.DiskLogIterator;
@@ -141,20 +144,22 @@ public class FileIO implements FileIOInterface {
                     BACKUP_LOCK_FILE);
             if (backupLock.exists()) {
                 File baseDir = new File(configuration.getBabuDBConfig().getBaseDir());
-                File logDir = new File(configuration.getBabuDBConfig().getDbLogDir());
+                String[] logDirs = configuration.getBabuDBConfig().getDbLogDirs();
                 
-                cleanUpFiles(logDir);
+                for (String logDir : logDirs) {
+                    cleanUpFiles(new File(logDir));
+                    assert (!new File(logDir).exists() || new File(logDir).listFiles().length == 0);
+                }
                 cleanUpFiles(baseDir);
                 assert (baseDir.listFiles().length == 0);
-                assert (logDir.listFiles().length == 0);
                 
                 File backupBaseDir = new File(backupDir.getPath() + separator + BACKUP_BASE_DIR + 
                         separator);
-                File backupLogDir = new File(backupDir.getPath() + separator + BACKUP_LOG_DIR +
-                        separator);
                 
                 FSUtils.copyTree(backupBaseDir, baseDir);
-                FSUtils.copyTree(backupLogDir, logDir);
+                for (int i = 0; i < logDirs.length; i++) {
+                    FSUtils.copyTree(getBackupLogDir(backupDir, i), new File(logDirs[i]));
+                }
             }
             
             cleanUpFiles(backupDir);
@@ -170,7 +175,7 @@ public class FileIO implements FileIOInterface {
     public void backupFiles() throws IOException {
         File backupDir = new File(configuration.getTempDir());
         File baseDir = new File(configuration.getBabuDBConfig().getBaseDir());
-        File logDir = new File(configuration.getBabuDBConfig().getDbLogDir());
+        String[] logDirs = configuration.getBabuDBConfig().getDbLogDirs();
         
         if (!backupDir.exists()) {
             backupDir.mkdirs();
@@ -185,20 +190,24 @@ public class FileIO implements FileIOInterface {
                     separator);
             backupBaseDir.mkdir();
             
-            File backupLogDir = new File(backupDir.getPath() + separator + BACKUP_LOG_DIR +
-                    separator);
-            backupLogDir.mkdir();
-            
             FSUtils.copyTree(baseDir, backupBaseDir);
-            FSUtils.copyTree(logDir, backupLogDir);
+            
+            // the log directory of each stripe is backed up separately
+            for (int i = 0; i < logDirs.length; i++) {
+                File backupLogDir = getBackupLogDir(backupDir, i);
+                backupLogDir.mkdir();
+                FSUtils.copyTree(new File(logDirs[i]), backupLogDir);
+            }
             
             backupLock.createNewFile();
         }
         cleanUpFiles(baseDir);
-        cleanUpFiles(logDir);
-        
         assert (baseDir.listFiles().length == 0);
-        assert (logDir.listFiles().length == 0);
+        
+        for (String logDir : logDirs) {
+            cleanUpFiles(new File(logDir));
+            assert (!new File(logDir).exists() || new File(logDir).listFiles().length == 0);
+        }
     }
     
 /*
@@ -228,16 +237,30 @@ public class FileIO implements FileIOInterface {
     }
     
     /**
-     * @return an array of log-files found in the database log-directory.
+     * @param backupDir
+     * @param stripe
+     * @return the backup directory for the log files of the given stripe.
+     */
+    private File getBackupLogDir(File backupDir, int stripe) {
+        return new File(backupDir.getPath() + separator + BACKUP_LOG_DIR + (stripe == 0 ? "" : "." + stripe) +
+                separator);
+    }
+    
+    /**
+     * @return an array of log-files found in the database log-directories of
+     *         all stripes.
      */
     private File[] getLogFiles() {
-        File f = new File(configuration.getBabuDBConfig().getDbLogDir());
-        File[] result = f.listFiles(new FilenameFilter() {
-            public boolean accept(File dir, String name) {
-                return name.endsWith(".dbl");
-            }
-        });
+        List<File> result = new ArrayList<File>();
+        for (String logDir : configuration.getBabuDBConfig().getDbLogDirs()) {
+            File[] files = new File(logDir).listFiles(new FilenameFilter() {
+                public boolean accept(File dir, String name) {
+                    return name.endsWith(".dbl");
+                }
+            });
+            if (files != null) result.addAll(Arrays.asList(files));
+        }
         
-        return result;
+        return result.toArray(new File[result.size()]);
     }
 }
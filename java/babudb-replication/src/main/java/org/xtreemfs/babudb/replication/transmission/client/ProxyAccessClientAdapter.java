@@ -17,11 +17,13 @@ import java.util.Map;
 import java.util.Map.Entry;
 
 import org.xtreemfs.babudb.api.database.ResultSet;
+import org.xtreemfs.babudb.api.database.ScanPage;
 import org.xtreemfs.babudb.pbrpc.GlobalTypes.Database;
 import org.xtreemfs.babudb.pbrpc.GlobalTypes.Databases;
 import org.xtreemfs.babudb.pbrpc.GlobalTypes.EntryMap;
 import org.xtreemfs.babudb.pbrpc.RemoteAccessServiceClient;
 import org.xtreemfs.babudb.pbrpc.GlobalTypes.ErrorCodeResponse;
+import org.xtreemfs.babudb.pbrpc.GlobalTypes.ScanResult;
 import org.xtreemfs.babudb.replication.proxy.DatabaseManagerProxy;
 import org.xtreemfs.babudb.replication.proxy.DatabaseProxy;
 import org.xtreemfs.babudb.replication.proxy.ProxyAccessClient;
@@ -560,6 +562,89 @@ public class ProxyAccessClientAdapter extends RemoteAccessServiceClient
         }
     }
 
+    /* (non-Javadoc)
+     * @see org.xtreemfs.babudb.replication.proxy.ProxyAccessClient#scan(java.lang.String, 
+     *          int, org.xtreemfs.foundation.buffer.ReusableBuffer, 
+     *          org.xtreemfs.foundation.buffer.ReusableBuffer, 
+     *          org.xtreemfs.foundation.buffer.ReusableBuffer, int, java.net.InetSocketAddress)
+     */
+    @Override
+    public ClientResponseFuture<ScanPage, ScanResult> scan(String dbName, int indexId, 
+            ReusableBuffer from, ReusableBuffer to, ReusableBuffer continuationToken, 
+            int pageSize, InetSocketAddress master) {
+        
+        assert (master != null);
+        
+        ReusableBuffer payload = BufferPool.allocate(from.remaining() + to.remaining() + 
+                continuationToken.remaining());
+        int fromLength = from.remaining();
+        int toLength = to.remaining();
+        payload.put(from);
+        payload.put(to);
+        payload.put(continuationToken);
+        
+        try {
+            RPCResponse<ScanResult> result = scan(master, AUTHENTICATION, USER_CREDENTIALS, dbName, 
+                    indexId, fromLength, toLength, pageSize, payload);
+            
+            return new ClientResponseFuture<ScanPage, ScanResult>(result) {
+                
+                @Override
+                public ScanPage resolve(ScanResult response, ReusableBuffer data)
+                        throws ErrorCodeException, IOException {
+                    
+                    if (response.getErrorCode() != 0) {
+                        throw new ErrorCodeException(response.getErrorCode());
+                    }
+                    try {
+                        int count = response.getLengthCount();
+                        assert (count % 2 == 0);
+                        
+                        List<Entry<byte[], byte[]>> m = new ArrayList<Entry<byte[],byte[]>>();
+                        byte[] k = null, v = null;
+                        for (int i = 0; i < count; i++) {
+                            int length = response.getLength(i);
+                            v = new byte[length];
+                            data.get(v, 0, length);
+                            
+                            if (i % 2 == 0) {
+                                k = v;
+                            } else {
+                                m.add(new SimpleEntry<byte[], byte[]>(k, v));
+                            }
+                        }
+                        
+                        // the continuation token follows the entries
+                        byte[] token = null;
+                        if (response.getTokenLength() > 0) {
+                            token = new byte[response.getTokenLength()];
+                            data.get(token, 0, token.length);
+                        }
+                        
+                        return new ScanPage(m, token);
+                    
+                    } finally {
+                        BufferPool.free(data);
+                    }
+                }
+            };
+        } catch (final IOException e) {
+            return new ClientResponseFuture<ScanPage, ScanResult>(null) {
+                
+                @Override
+                public ScanPage resolve(ScanResult response, ReusableBuffer data)
+                        throws ErrorCodeException, IOException {
+                    throw e;
+                }
+            };
+        } finally {
+            BufferPool.free(from);
+            BufferPool.free(to);
+            BufferPool.free(continuationToken);
+            BufferPool.free(payload);
+        }
+    }
+    
     /* (non-Javadoc)
      * @see org.xtreemfs.babudb.replication.RemoteAccessClient#
      *          getDatabase(int, java.net.InetSocketAddress)
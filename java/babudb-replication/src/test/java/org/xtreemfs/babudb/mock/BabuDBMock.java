@@ -8,6 +8,7 @@
 package org.xtreemfs.babudb.mock;
 
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import org.xtreemfs.babudb.api.StaticInitialization;
 import org.xtreemfs.babudb.api.dev.BabuDBInternal;
@@ -176,6 +177,20 @@ public class BabuDBMock implements BabuDBInternal {
         return 0;
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.xtreemfs.babudb.api.dev.BabuDBInternal#getReadExecutor()
+     */
+    @Override
+    public Executor getReadExecutor() {
+
+        Logging.logMessage(Logging.LEVEL_ERROR, this,
+                "Mock '%s' tried to get the read executor.", name);
+        // TODO Auto-generated method stub
+        return null;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -10,9 +10,11 @@ package org.xtreemfs.babudb.mock;
 import java.io.File;
 import java.util.ArrayList;
 
+import org.xtreemfs.babudb.api.database.Aggregate;
 import org.xtreemfs.babudb.api.database.DatabaseInsertGroup;
 import org.xtreemfs.babudb.api.database.DatabaseRequestResult;
 import org.xtreemfs.babudb.api.database.ResultSet;
+import org.xtreemfs.babudb.api.database.ScanPage;
 import org.xtreemfs.babudb.api.database.UserDefinedLookup;
 import org.xtreemfs.babudb.api.dev.DatabaseInternal;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
@@ -89,6 +91,13 @@ public class DatabaseMock implements DatabaseInternal {
         return null;
     }
 
+    @Override
+    public DatabaseRequestResult<byte[][]> multiLookup(int indexId, byte[][] keys,
+            Object context) {
+        // TODO Auto-generated method stub
+        return null;
+    }
+
     @Override
     public DatabaseRequestResult<ResultSet<byte[], byte[]>> prefixLookup(
             int indexId, byte[] key, Object context) {
@@ -103,6 +112,63 @@ public class DatabaseMock implements DatabaseInternal {
         return null;
     }
 
+    @Override
+    public DatabaseRequestResult<ResultSet<byte[], byte[]>> prefixLookup(
+            int indexId, byte[] key, boolean ascending, int maxValueLength, Object context) {
+        // TODO Auto-generated method stub
+        return null;
+    }
+
+    @Override
+    public DatabaseRequestResult<ResultSet<byte[], byte[]>> rangeLookup(
+            int indexId, byte[] from, byte[] to, boolean ascending, int maxValueLength, 
+            Object context) {
+        // TODO Auto-generated method stub
+        return null;
+    }
+
+    @Override
+    public DatabaseRequestResult<Long> count(int indexId, byte[] from, byte[] to, 
+            Object context) {
+        // TODO Auto-generated method stub
+        return null;
+    }
+
+    @Override
+    public DatabaseRequestResult<Long> prefixCount(int indexId, byte[] prefix, 
+            Object context) {
+        // TODO Auto-generated method stub
+        return null;
+    }
+
+    @Override
+    public DatabaseRequestResult<Aggregate> aggregate(int indexId, byte[] from, byte[] to, 
+            Object context) {
+        // TODO Auto-generated method stub
+        return null;
+    }
+
+    @Override
+    public DatabaseRequestResult<Aggregate> prefixAggregate(int indexId, byte[] prefix, 
+            Object context) {
+        // TODO Auto-generated method stub
+        return null;
+    }
+
+    @Override
+    public DatabaseRequestResult<ScanPage> scan(int indexId, byte[] from, byte[] to, 
+            int pageSize, Object context) {
+        // TODO Auto-generated method stub
+        return null;
+    }
+
+    @Override
+    public DatabaseRequestResult<ScanPage> resumeScan(int indexId, byte[] continuationToken, 
+            int pageSize, Object context) {
+        // TODO Auto-generated method stub
+        return null;
+    }
+
     @Override
     public DatabaseRequestResult<ResultSet<byte[], byte[]>> reversePrefixLookup(
             int indexId, byte[] key, Object context) {
@@ -17,6 +17,7 @@ import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
 import org.xtreemfs.babudb.api.transaction.TransactionListener;
 import org.xtreemfs.babudb.log.DiskLogger;
+import org.xtreemfs.babudb.log.LogTailCache;
 import org.xtreemfs.babudb.lsmdb.LSN;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.foundation.logging.Logging;
@@ -43,6 +44,11 @@ public class TransactionManagerMock extends TransactionManagerInternal {
         return onDisk.get();
     }
 
+    @Override
+    public LogTailCache getLogTailCache() {
+        return null;
+    }
+
     @Override
     public void init(LSN initial) {
         onDisk.set(initial);
@@ -89,10 +95,10 @@ public class TransactionManagerMock extends TransactionManagerInternal {
     }
 
     /* (non-Javadoc)
-     * @see org.xtreemfs.babudb.api.dev.transaction.TransactionManagerInternal#replayTransaction(org.xtreemfs.babudb.api.dev.transaction.TransactionInternal)
+     * @see org.xtreemfs.babudb.api.dev.transaction.TransactionManagerInternal#replayTransaction(org.xtreemfs.babudb.api.dev.transaction.TransactionInternal, org.xtreemfs.babudb.lsmdb.LSN)
      */
     @Override
-    public void replayTransaction(TransactionInternal txn) throws BabuDBException {
+    public void replayTransaction(TransactionInternal txn, LSN lsn) throws BabuDBException {
         Logging.logMessage(Logging.LEVEL_ERROR, this,
                 "TxnMan of mock '%s' has replayed txn %s.", name, txn.toString());
     }
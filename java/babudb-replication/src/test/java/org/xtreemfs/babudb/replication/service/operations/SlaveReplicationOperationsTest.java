@@ -12,8 +12,6 @@ import static org.xtreemfs.babudb.replication.TestParameters.*;
 
 import java.net.InetSocketAddress;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.zip.CRC32;
-import java.util.zip.Checksum;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -230,9 +228,7 @@ public class SlaveReplicationOperationsTest implements LifeCycleListener {
     public void testReplicateRequest() throws Exception {
         
         // serialize the request
-        Checksum csumAlgo = new CRC32();
-        ReusableBuffer data = testEntry.serialize(csumAlgo);
-        csumAlgo.reset();
+        ReusableBuffer data = testEntry.serialize();
         
         client.replicate(testLSN, data).get();
     }